@@ -0,0 +1,47 @@
+/**
+ * Copyright (C) 2009 Loïc Rouchon <horn@phpboost.com>, Benoit Sautel <ben.popeye@phpboost.com>
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.phpboost.poptimizer.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of the benchmarks. It accepts the usual JMH options (for
+ * instance a regular expression selecting the benchmarks) and always enables
+ * the GC profiler, which reports the allocation rate of each benchmark.
+ * @author Benoit Sautel &lt;ben.popeye@phpboost.com&gt; Loic Rouchon
+ * &lt;horn@phpboost.com&gt;
+ */
+public class BenchmarkRunner {
+    /**
+     * Runs the benchmarks
+     * @param args
+     * JMH command line options
+     * @throws RunnerException
+     * @throws CommandLineOptionException
+     */
+    public static void main(final String[] args) throws RunnerException,
+            CommandLineOptionException {
+        new Runner(new OptionsBuilder().parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class).build()).run();
+    }
+}
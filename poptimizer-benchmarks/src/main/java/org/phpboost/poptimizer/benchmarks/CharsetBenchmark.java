@@ -0,0 +1,137 @@
+/**
+ * Copyright (C) 2009 Loïc Rouchon <horn@phpboost.com>, Benoit Sautel <ben.popeye@phpboost.com>
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.phpboost.poptimizer.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.phpboost.poptimizer.FileCharset;
+
+/**
+ * This benchmark measures the decoding and the encoding of PHP files in the
+ * supported charsets, the way TextFileIO does it (reused coders and buffers).
+ * @author Benoit Sautel &lt;ben.popeye@phpboost.com&gt; Loic Rouchon
+ * &lt;horn@phpboost.com&gt;
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CharsetBenchmark {
+    /**
+     * Charset of the file
+     */
+    @Param( { "UTF8", "UTF16", "US_ASCII", "ISO_8859_1" })
+    public FileCharset charset;
+    /**
+     * Kind of PHP file
+     */
+    @Param( { "STRING_HEAVY", "HTML_HEAVY" })
+    public PhpCorpus corpus;
+    /**
+     * Number of characters of the file
+     */
+    @Param( { "1048576" })
+    public int size;
+
+    /**
+     * The encoded file
+     */
+    private ByteBuffer bytes;
+    /**
+     * The decoded file
+     */
+    private CharBuffer chars;
+    /**
+     * Decoder of the charset
+     */
+    private CharsetDecoder decoder;
+    /**
+     * Encoder of the charset
+     */
+    private CharsetEncoder encoder;
+
+    /**
+     * Generates the file and the buffers
+     */
+    @Setup
+    public void setUp() {
+        final String content = corpus.generate(size);
+        bytes = ByteBuffer.wrap(content.getBytes(charset.associatedCharset()));
+        chars = CharBuffer.allocate(content.length() + 16);
+        chars.put(content);
+        chars.flip();
+        decoder = charset.associatedCharset().newDecoder().onMalformedInput(
+                CodingErrorAction.REPLACE).onUnmappableCharacter(
+                CodingErrorAction.REPLACE);
+        encoder = charset.associatedCharset().newEncoder().onMalformedInput(
+                CodingErrorAction.REPLACE).onUnmappableCharacter(
+                CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * Decodes the file
+     * @param processed
+     * Counter of processed data
+     * @return The number of decoded characters
+     */
+    @Benchmark
+    public int decode(final ProcessedBytes processed) {
+        final CharBuffer output = CharBuffer.wrap(chars.array());
+        bytes.rewind();
+        decoder.reset();
+        decoder.decode(bytes, output, true);
+        decoder.flush(output);
+        processed.add(bytes.limit());
+        return output.position();
+    }
+
+    /**
+     * Encodes the file
+     * @param processed
+     * Counter of processed data
+     * @return The number of encoded bytes
+     */
+    @Benchmark
+    public int encode(final ProcessedBytes processed) {
+        final ByteBuffer output = ByteBuffer.wrap(bytes.array());
+        chars.rewind();
+        encoder.reset();
+        encoder.encode(chars, output, true);
+        encoder.flush(output);
+        processed.add(output.position());
+        return output.position();
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright (C) 2009 Loïc Rouchon <horn@phpboost.com>, Benoit Sautel <ben.popeye@phpboost.com>
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.phpboost.poptimizer.benchmarks;
+
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.phpboost.poptimizer.optimizers.Optimizer;
+import org.phpboost.poptimizer.optimizers.OptimizerChain;
+
+/**
+ * This benchmark measures the optimization of a PHP file in memory by each
+ * module alone and by the full chain.
+ * @author Benoit Sautel &lt;ben.popeye@phpboost.com&gt; Loic Rouchon
+ * &lt;horn@phpboost.com&gt;
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OptimizerBenchmark {
+    /**
+     * Kind of PHP file
+     */
+    @Param( { "COMMENT_HEAVY", "STRING_HEAVY", "HTML_HEAVY", "MINIFIED" })
+    public PhpCorpus corpus;
+    /**
+     * Module name, or all for the default chain (without the modules which
+     * must be chosen explicitly, so that the results stay comparable)
+     */
+    @Param( { "comments", "spaces", "html", "spaces-aggressive", "strip-debug",
+            "fold", "mangle", "all" })
+    public String modules;
+    /**
+     * Number of characters of the file
+     */
+    @Param( { "1048576" })
+    public int size;
+
+    /**
+     * The content to optimize
+     */
+    private char[] content;
+    /**
+     * The optimization chain
+     */
+    private OptimizerChain chain;
+    /**
+     * Builder receiving the optimized content, reused as POptimizer does
+     */
+    private final StringBuilder result = new StringBuilder();
+
+    /**
+     * Generates the file and builds the chain
+     */
+    @Setup
+    public void setUp() {
+        content = corpus.generate(size).toCharArray();
+        if (modules.equals("all")) {
+            chain = new OptimizerChain(Optimizer.defaults());
+        } else {
+            chain = new OptimizerChain(EnumSet.of(Optimizer.fromString(modules)));
+        }
+    }
+
+    /**
+     * Optimizes the file
+     * @param processed
+     * Counter of processed data
+     * @return The optimized content length
+     */
+    @Benchmark
+    public int optimize(final ProcessedBytes processed) {
+        result.setLength(0);
+        chain.optimize(content, content.length, result);
+        processed.add(content.length);
+        return result.length();
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2009 Loïc Rouchon <horn@phpboost.com>, Benoit Sautel <ben.popeye@phpboost.com>
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.phpboost.poptimizer.benchmarks;
+
+import java.util.Random;
+
+/**
+ * This enumeration contains the kinds of PHP files the benchmarks are run on.
+ * Each corpus is generated from a few patterns repeated in a pseudo random
+ * order, so that the content is the same from a run to another.
+ * @author Benoit Sautel &lt;ben.popeye@phpboost.com&gt; Loic Rouchon
+ * &lt;horn@phpboost.com&gt;
+ */
+public enum PhpCorpus {
+    /**
+     * Classes documented with a lot of comments
+     */
+    COMMENT_HEAVY(new String[] {
+            "    /**\n     * Returns the value of the property\n     * @param string $name The name of the property\n     * @return mixed The value\n     */\n",
+            "    // Checks the parameters before doing anything else\n",
+            "    # Legacy comment style, still found in old modules\n",
+            "    public function get($name)\n    {\n        return $this->properties[$name]; // Value\n    }\n",
+            "    /* Block comment\n       on several lines */\n" }),
+    /**
+     * Code manipulating a lot of strings (language files for instance)
+     */
+    STRING_HEAVY(new String[] {
+            "$LANG['welcome_message'] = 'Welcome on the website, you\\'re logged in as ' . $user . '.';\n",
+            "$LANG['error'] = \"The file {$file['name']} couldn't be read: \\\"$error\\\"\\n\";\n",
+            "$html = <<<EOT\n<div class=\"message\">\n    {$message}\n</div>\nEOT;\n",
+            "echo 'Total: ' . $total . ' items, ' . 12 . ' pages' . \"\\n\";\n",
+            "$query = \"SELECT id, name, login FROM \" . PREFIX . \"member WHERE id = '\" . $id . \"'\";\n" }),
+    /**
+     * Templates made of HTML with a few PHP blocks
+     */
+    HTML_HEAVY(new String[] {
+            "<div class=\"block\">\n    <div class=\"block-title\">\n        <h2><?php echo $title; ?></h2>\n    </div>\n",
+            "    <ul class=\"menu\">\n        <li><a href=\"index.php\">Home</a></li>\n        <li><a href=\"news.php\">News</a></li>\n    </ul>\n",
+            "<!-- Content of the page -->\n<p class=\"content\">\n    Lorem ipsum dolor sit amet, consectetur adipiscing elit.\n</p>\n",
+            "<?php foreach ($items as $item) { ?>\n    <span><?= $item ?></span>\n<?php } ?>\n",
+            "</div>\n" }),
+    /**
+     * Code which has already been optimized
+     */
+    MINIFIED(new String[] {
+            "function get($name){return $this->properties[$name];}",
+            "if($a==1&&$b!=2){$c=$a.'-'.$b;}else{$c=null;}",
+            "foreach($items as $key=>$value){$result[$key]=trim($value);}",
+            "$query=\"SELECT * FROM \".PREFIX.\"member WHERE id='\".$id.\"'\";",
+            "\nreturn array('a'=>1,'b'=>2.5,'c'=>.5);" });
+
+    /**
+     * Parts of the corpus
+     */
+    private final String[] patterns;
+
+    /**
+     * Builds a corpus
+     * @param corpusPatterns
+     * Parts of the corpus
+     */
+    private PhpCorpus(final String[] corpusPatterns) {
+        patterns = corpusPatterns;
+    }
+
+    /**
+     * Generates a PHP file of this kind
+     * @param size
+     * Approximate number of characters of the file
+     * @return The content of the file
+     */
+    public String generate(final int size) {
+        final Random random = new Random(size);
+        final StringBuilder content = new StringBuilder(size + 256);
+        if (this != HTML_HEAVY) {
+            content.append("<?php\n");
+        }
+        while (content.length() < size) {
+            content.append(patterns[random.nextInt(patterns.length)]);
+        }
+        return content.toString();
+    }
+}
@@ -15,52 +15,43 @@
  * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
  */
 
-package org.phpboost.poptimizer.optimizers;
+package org.phpboost.poptimizer.benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
 
 /**
- * This class represents a kind optimizer. This class is build according to the
- * decorator design pattern
+ * This counter measures the amount of data processed by a benchmark. JMH
+ * divides it by the time, so it's reported in MB/s next to the number of
+ * operations per second.
  * @author Benoit Sautel &lt;ben.popeye@phpboost.com&gt; Loic Rouchon
  * &lt;horn@phpboost.com&gt;
  */
-
-public abstract class AbstractOptimizer {
-    /**
-     * The optimizer content
-     */
-    protected String input = null;
-
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class ProcessedBytes {
     /**
-     * The previous optimizer (decorator design pattern)
+     * Number of megabytes processed during the iteration
      */
-    private AbstractOptimizer decorate = null;
-
-    /**
-     * Builds an optimizer
-     * @param in
-     * Content to optimize
-     */
-    public AbstractOptimizer(final String in) {
-        input = in;
-    }
+    public double megabytes;
 
     /**
-     * Builds an optimizer from another optimizer (decorator design pattern)
-     * @param optimizer
-     * input optimize
+     * Resets the counter before each iteration
      */
-    public AbstractOptimizer(final AbstractOptimizer optimizer) {
-        decorate = optimizer;
+    @Setup(Level.Iteration)
+    public void reset() {
+        megabytes = 0;
     }
 
     /**
-     * Optimizes the optimizer content
-     * @return The optimized content
+     * Counts processed data
+     * @param bytes
+     * Number of bytes (or characters) processed
      */
-    public String optimize() {
-        if (decorate != null) {
-            input = decorate.optimize();
-        }
-        return input;
+    public void add(final long bytes) {
+        megabytes += bytes / (1024.0 * 1024.0);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright (C) 2009 Loïc Rouchon <horn@phpboost.com>, Benoit Sautel <ben.popeye@phpboost.com>
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.phpboost.poptimizer.maven;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Configuration of a bundle, a file of the output folder gathering some
+ * optimized class files:
+ * <pre>
+ * &lt;bundle&gt;
+ *   &lt;name&gt;kernel/bundle.php&lt;/name&gt;
+ *   &lt;includes&gt;
+ *     &lt;include&gt;kernel/framework/**&lt;/include&gt;
+ *   &lt;/includes&gt;
+ * &lt;/bundle&gt;
+ * </pre>
+ * @author Benoit Sautel &lt;ben.popeye@phpboost.com&gt; Loic Rouchon
+ * &lt;horn@phpboost.com&gt;
+ */
+public class Bundle {
+    /**
+     * Path of the bundle relative to the output folder
+     */
+    private String name;
+    /**
+     * Glob patterns relative to the output folder of the files to bundle
+     */
+    private List<String> includes = new ArrayList<String>();
+
+    /**
+     * Returns the path of the bundle
+     * @return The path relative to the output folder
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the patterns of the bundled files
+     * @return The glob patterns
+     */
+    public List<String> getIncludes() {
+        return includes;
+    }
+
+    @Override
+    public String toString() {
+        return name + "=" + includes;
+    }
+}
@@ -0,0 +1,400 @@
+/**
+ * Copyright (C) 2009 Loïc Rouchon <horn@phpboost.com>, Benoit Sautel <ben.popeye@phpboost.com>
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.phpboost.poptimizer.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Component;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.codehaus.plexus.util.Scanner;
+import org.phpboost.poptimizer.CopyMode;
+import org.phpboost.poptimizer.FileCharset;
+import org.phpboost.poptimizer.POptimizer;
+import org.phpboost.poptimizer.POptimizerConfigurationException;
+import org.phpboost.poptimizer.optimizers.Optimizer;
+import org.sonatype.plexus.build.incremental.BuildContext;
+
+/**
+ * Optimizes the PHP files of the project in the Maven process.
+ * <p>
+ * During a command line build, the whole source folder is checked and the
+ * manifest of the incremental optimization skips the files which didn't
+ * change. When the build context is incremental (in an IDE), only the files it
+ * reports as changed or deleted are processed again. The plugin keeps the
+ * last optimizer of each output folder, so that the next IDE builds of a
+ * module update its output with it. The reactor modules have their own
+ * folders, so they don't share an optimizer: they only share the classes the
+ * plugin loaded. An optimizer is replaced when the configuration of its
+ * folder changes.
+ * </p>
+ * @author Benoit Sautel &lt;ben.popeye@phpboost.com&gt; Loic Rouchon
+ * &lt;horn@phpboost.com&gt;
+ */
+@Mojo(name = "optimize", defaultPhase = LifecyclePhase.PREPARE_PACKAGE, threadSafe = true)
+public class OptimizeMojo extends AbstractMojo {
+    /**
+     * Last optimizer which optimized each output folder, by absolute path
+     */
+    private static final Map<String, CachedOptimizer> OPTIMIZERS = new ConcurrentHashMap<String, CachedOptimizer>();
+
+    /**
+     * Folder (or file) containing the PHP files to optimize
+     */
+    @Parameter(defaultValue = "${project.basedir}/src/main/php", required = true)
+    private File inputDirectory;
+    /**
+     * Folder in which the optimized files are written
+     */
+    @Parameter(defaultValue = "${project.build.directory}/php", required = true)
+    private File outputDirectory;
+    /**
+     * Glob patterns relative to the input folder of the files to optimize,
+     * all the PHP files if empty
+     */
+    @Parameter
+    private List<String> includes = new ArrayList<String>();
+    /**
+     * Glob patterns relative to the input folder of the files which are
+     * copied but not optimized
+     */
+    @Parameter
+    private List<String> excludes = new ArrayList<String>();
+    /**
+     * Extensions of the PHP files, php if empty
+     */
+    @Parameter
+    private List<String> extensions = new ArrayList<String>();
+    /**
+     * Optimizes the extensionless files beginning with &lt;?php or with a php
+     * shebang line
+     */
+    @Parameter(defaultValue = "false")
+    private boolean sniffing;
+    /**
+     * Writes a .linemap file next to the optimized files whose line breaks
+     * were removed (spaces-aggressive module)
+     */
+    @Parameter(defaultValue = "false")
+    private boolean lineMaps;
+    /**
+     * Modules to apply (comments, spaces, html...), the default ones if empty.
+     * "all" selects the default ones and can be completed by the explicit
+     * ones
+     */
+    @Parameter
+    private List<String> modules = new ArrayList<String>();
+    /**
+     * Calls removed by the strip-debug module (assert, Debug::dump,
+     * $logger->debug...), assert if empty
+     */
+    @Parameter
+    private List<String> debugCalls = new ArrayList<String>();
+    /**
+     * Constants declared false, the strip-debug module removes the if blocks
+     * testing them
+     */
+    @Parameter
+    private List<String> falseConstants = new ArrayList<String>();
+    /**
+     * Bundles gathering some optimized class files, a file goes in the first
+     * bundle matching it
+     */
+    @Parameter
+    private List<Bundle> bundles = new ArrayList<Bundle>();
+    /**
+     * Writes a preload.php file in the output folder for opcache.preload
+     */
+    @Parameter(defaultValue = "false")
+    private boolean preload;
+    /**
+     * Folders relative to the output folder whose class files are preloaded,
+     * all if empty
+     */
+    @Parameter
+    private List<String> preloadFolders = new ArrayList<String>();
+    /**
+     * Writes a classmap.php file in the output folder for an autoloader
+     */
+    @Parameter(defaultValue = "false")
+    private boolean classMap;
+    /**
+     * Charset of the PHP files: UTF-8, UTF-16, US-ASCII or ISO-8859-1
+     */
+    @Parameter(defaultValue = "${project.build.sourceEncoding}")
+    private String inputCharset;
+    /**
+     * Charset in which the PHP files are written
+     */
+    @Parameter
+    private String outputCharset;
+    /**
+     * Number of threads, 0 to use all the processors
+     */
+    @Parameter(defaultValue = "1")
+    private int parallelism;
+    /**
+     * Size in kilobytes from which the files are streamed, negative to load
+     * all the files in memory
+     */
+    @Parameter(defaultValue = "-1")
+    private long streamingThreshold;
+    /**
+     * Megabytes the files loaded by a parallel optimization can hold, 0 for
+     * the default budget
+     */
+    @Parameter(defaultValue = "0")
+    private long memoryBudget;
+    /**
+     * Way the files which are not optimized are reproduced: copy, hard or sym
+     */
+    @Parameter(defaultValue = "copy")
+    private String copyMode;
+    /**
+     * Skips the files which didn't change since the previous build
+     */
+    @Parameter(defaultValue = "true")
+    private boolean incremental;
+    /**
+     * Skips the optimization
+     */
+    @Parameter(property = "poptimizer.skip", defaultValue = "false")
+    private boolean skip;
+
+    /**
+     * Build context, which knows the changed files in an IDE
+     */
+    @Component
+    private BuildContext buildContext;
+
+    @Override
+    public void execute() throws MojoExecutionException {
+        if (skip) {
+            getLog().info("POptimizer is skipped");
+            return;
+        }
+        if (!inputDirectory.exists()) {
+            getLog().info("No PHP file to optimize in " + inputDirectory);
+            return;
+        }
+
+        final String folder = outputDirectory.getAbsolutePath();
+        final String key = getConfigurationKey();
+        try {
+            final CachedOptimizer cached = OPTIMIZERS.get(folder);
+            if (cached != null && cached.configuration.equals(key)
+                    && buildContext.isIncremental()) {
+                final List<File> changedFiles = getChangedFiles();
+                if (changedFiles.isEmpty()) {
+                    getLog().debug("The PHP files are up to date");
+                    return;
+                }
+                cached.optimizer.update(changedFiles);
+            } else {
+                // A failed optimization leaves the output in an unknown state
+                OPTIMIZERS.remove(folder);
+                final POptimizer optimizer = createOptimizer();
+                optimizer.optimize();
+                // It replaces the previous optimizer of the folder
+                OPTIMIZERS.put(folder, new CachedOptimizer(key, optimizer));
+            }
+        } catch (final POptimizerConfigurationException e) {
+            throw new MojoExecutionException(e.getMessage(), e);
+        } catch (final IOException e) {
+            throw new MojoExecutionException("Unable to optimize "
+                    + inputDirectory + ": " + e.getMessage(), e);
+        }
+        buildContext.refresh(outputDirectory);
+    }
+
+    /**
+     * Lists the source files which the build context reports as changed or
+     * deleted
+     * @return The changed files
+     */
+    private List<File> getChangedFiles() {
+        final List<File> changedFiles = new ArrayList<File>();
+        final File folder = inputDirectory.isDirectory() ? inputDirectory
+                : inputDirectory.getParentFile();
+        for (final Scanner scanner : new Scanner[] {
+                buildContext.newScanner(folder), buildContext.newDeleteScanner(folder) }) {
+            if (inputDirectory.isFile()) {
+                scanner.setIncludes(new String[] { inputDirectory.getName() });
+            }
+            scanner.scan();
+            for (final String path : scanner.getIncludedFiles()) {
+                changedFiles.add(new File(folder, path));
+            }
+        }
+        return changedFiles;
+    }
+
+    /**
+     * Builds an optimizer according to the configuration
+     * @return The optimizer
+     * @throws POptimizerConfigurationException
+     * @throws IOException
+     */
+    private POptimizer createOptimizer() throws POptimizerConfigurationException,
+            IOException {
+        final POptimizer optimizer = new POptimizer(inputDirectory,
+                outputDirectory, new ArrayList<File>());
+        for (final String pattern : includes) {
+            optimizer.addIncludePattern(pattern);
+        }
+        for (final String pattern : excludes) {
+            optimizer.addExcludePattern(pattern);
+        }
+        if (!extensions.isEmpty()) {
+            optimizer.setExtensions(extensions);
+        }
+        optimizer.setContentSniffing(sniffing);
+        optimizer.setLineMaps(lineMaps);
+        if (!debugCalls.isEmpty()) {
+            optimizer.setDebugCalls(debugCalls);
+        }
+        optimizer.setFalseConstants(falseConstants);
+        for (final Bundle bundle : bundles) {
+            if (bundle.getName() == null || bundle.getIncludes().isEmpty()) {
+                throw new POptimizerConfigurationException(
+                        "A bundle needs a name and some includes: " + bundle);
+            }
+            optimizer.addBundle(new org.phpboost.poptimizer.loading.Bundle(
+                    bundle.getName(), bundle.getIncludes()));
+        }
+        if (preload) {
+            optimizer.setPreload(preloadFolders);
+        }
+        optimizer.setClassMap(classMap);
+
+        if (modules.isEmpty()) {
+            optimizer.selectAllModules();
+        }
+        for (final String module : modules) {
+            if (module.equals("all")) {
+                optimizer.selectAllModules();
+                continue;
+            }
+            final Optimizer optimizerModule = Optimizer.fromString(module);
+            if (optimizerModule == null) {
+                throw new POptimizerConfigurationException("Unknown module: "
+                        + module);
+            }
+            optimizer.selectModule(optimizerModule);
+        }
+
+        if (inputCharset != null) {
+            optimizer.setInputCharset(toCharset(inputCharset));
+        }
+        if (outputCharset != null) {
+            optimizer.setOutputCharset(toCharset(outputCharset));
+        } else if (inputCharset != null) {
+            optimizer.setOutputCharset(toCharset(inputCharset));
+        }
+
+        final CopyMode mode = CopyMode.fromString(copyMode);
+        if (mode == null) {
+            throw new POptimizerConfigurationException(
+                    "The copy mode must be either copy, hard or sym: " + copyMode);
+        }
+        optimizer.setCopyMode(mode);
+        optimizer.setParallelism(parallelism);
+        optimizer.setStreamingThreshold(streamingThreshold < 0 ? -1
+                : streamingThreshold * 1024);
+        if (memoryBudget > 0) {
+            optimizer.setMemoryBudget(memoryBudget * 1024 * 1024);
+        }
+        optimizer.setIncremental(incremental);
+        return optimizer;
+    }
+
+    /**
+     * Finds the charset of a parameter
+     * @param name
+     * Name of the charset
+     * @return The charset
+     * @throws POptimizerConfigurationException
+     * If it isn't supported, rather than reading the files as UTF-8
+     */
+    private static FileCharset toCharset(final String name)
+            throws POptimizerConfigurationException {
+        if (!FileCharset.isKnown(name)) {
+            throw new POptimizerConfigurationException(
+                    "The charset must be either UTF-8, UTF-16, US-ASCII or ISO-8859-1: "
+                            + name);
+        }
+        return FileCharset.fromString(name);
+    }
+
+    /**
+     * Describes the configuration, an optimizer can only be reused by an
+     * execution having the same one
+     * @return The description
+     */
+    private String getConfigurationKey() {
+        final StringBuilder key = new StringBuilder();
+        key.append(inputDirectory.getAbsolutePath());
+        key.append(';').append(outputDirectory.getAbsolutePath());
+        key.append(';').append(includes).append(';').append(excludes);
+        key.append(';').append(extensions).append(';').append(sniffing);
+        key.append(';').append(lineMaps).append(';').append(modules);
+        key.append(';').append(debugCalls).append(';').append(falseConstants);
+        key.append(';').append(bundles).append(';').append(preload);
+        key.append(';').append(preloadFolders).append(';').append(classMap);
+        key.append(';').append(inputCharset).append(';').append(outputCharset);
+        key.append(';').append(parallelism).append(';').append(streamingThreshold);
+        key.append(';').append(memoryBudget).append(';').append(copyMode);
+        key.append(';').append(incremental);
+        return key.toString();
+    }
+
+    /**
+     * Optimizer kept for the next executions writing the same output folder
+     */
+    private static class CachedOptimizer {
+        /**
+         * Configuration of the execution which created it
+         */
+        private final String configuration;
+        /**
+         * The optimizer, which optimized its whole source
+         */
+        private final POptimizer optimizer;
+
+        /**
+         * Builds a cached optimizer
+         * @param configurationKey
+         * Configuration of the execution which created it
+         * @param poptimizer
+         * The optimizer
+         */
+        public CachedOptimizer(final String configurationKey,
+                final POptimizer poptimizer) {
+            configuration = configurationKey;
+            optimizer = poptimizer;
+        }
+    }
+}
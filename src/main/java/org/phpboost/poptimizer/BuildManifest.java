@@ -0,0 +1,352 @@
+/**
+ * Copyright (C) 2009 Loïc Rouchon <horn@phpboost.com>, Benoit Sautel <ben.popeye@phpboost.com>
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.phpboost.poptimizer;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class records the state of the source files at the end of an
+ * optimization, so that the next optimization can skip the files which didn't
+ * change. Each line of the manifest file contains the hash, the size, the last
+ * modification date and the relative path of a source file. The state of a
+ * file is the one it had when it was read, given by the optimizer. The files
+ * which were not loaded (copies, links, streams) have no hash: they are
+ * compared with their size and their modification date only. The first lines
+ * contain the configuration of the optimization: if it changes, all the files
+ * are processed again.
+ * @author Benoit Sautel &lt;ben.popeye@phpboost.com&gt; Loic Rouchon
+ * &lt;horn@phpboost.com&gt;
+ */
+public class BuildManifest {
+    /**
+     * Charset of the manifest file
+     */
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+    /**
+     * Prefix of the line containing the configuration
+     */
+    private static final String CONFIGURATION_PREFIX = "# configuration=";
+    /**
+     * Algorithm used to hash the files
+     */
+    private static final String HASH_ALGORITHM = "SHA-1";
+    /**
+     * Hash field of the files which were not hashed
+     */
+    private static final String NO_HASH = "-";
+
+    /**
+     * The manifest file
+     */
+    private final File file;
+    /**
+     * Configuration of the optimization
+     */
+    private final String configuration;
+    /**
+     * Files recorded by the previous optimization, by relative path
+     */
+    private final Map<String, Entry> previousEntries = new ConcurrentHashMap<String, Entry>();
+    /**
+     * Files recorded by the current optimization, by relative path
+     */
+    private final Map<String, Entry> currentEntries = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * Loads the manifest of the previous optimization. If it doesn't exist or
+     * if the configuration changed, the manifest is empty.
+     * @param manifestFile
+     * The manifest file
+     * @param currentConfiguration
+     * Description of the optimization configuration
+     * @throws IOException
+     */
+    public BuildManifest(final File manifestFile, final String currentConfiguration)
+            throws IOException {
+        file = manifestFile;
+        configuration = currentConfiguration;
+        if (!file.exists()) {
+            return;
+        }
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), CHARSET))) {
+            if (!(CONFIGURATION_PREFIX + configuration).equals(reader.readLine())) {
+                return;
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final String[] fields = line.split("\t", 4);
+                if (fields.length == 4) {
+                    previousEntries.put(fields[3], new Entry(NO_HASH
+                            .equals(fields[0]) ? null : fields[0], Long
+                            .parseLong(fields[1]), Long.parseLong(fields[2])));
+                }
+            }
+        } catch (final NumberFormatException e) {
+            // The manifest is corrupted, everything will be processed again
+            previousEntries.clear();
+        }
+    }
+
+    /**
+     * Tells whether a source file is the same as during the previous
+     * optimization and whether its destination file still exists. In this case
+     * the file is recorded in the new manifest. The file is only hashed when
+     * its size is the same and its modification date changed, a file recorded
+     * without hash is then out of date.
+     * @param relativePath
+     * Path of the file relative to the input folder
+     * @param source
+     * The source file
+     * @param destination
+     * The file generated by the previous optimization
+     * @return true if the file doesn't need to be processed, false otherwise
+     * @throws IOException
+     */
+    public boolean isUpToDate(final String relativePath, final File source,
+            final File destination) throws IOException {
+        final Entry previous = previousEntries.get(relativePath);
+        if (previous == null || !destination.exists()) {
+            return false;
+        }
+        final long size = source.length();
+        if (size != previous.size) {
+            return false;
+        }
+        final long lastModified = source.lastModified();
+        if (lastModified != previous.lastModified) {
+            if (previous.hash == null) {
+                return false;
+            }
+            final String hash = hash(source);
+            if (!hash.equals(previous.hash)) {
+                return false;
+            }
+            currentEntries.put(relativePath, new Entry(hash, size, lastModified));
+        } else {
+            currentEntries.put(relativePath, previous);
+        }
+        return true;
+    }
+
+    /**
+     * Records a file which has been processed. Its state must have been taken
+     * before it was read: if it changes in the meantime, the next check finds
+     * it out of date.
+     * @param relativePath
+     * Path of the file relative to the input folder
+     * @param hash
+     * Hash of the processed content (see hash), null if it wasn't loaded
+     * @param size
+     * Size of the processed content
+     * @param lastModified
+     * Last modification date of the file before it was read
+     */
+    public void record(final String relativePath, final String hash,
+            final long size, final long lastModified) {
+        currentEntries.put(relativePath, new Entry(hash, size, lastModified));
+    }
+
+    /**
+     * Lists the files which were recorded by the previous optimization but
+     * which don't exist anymore
+     * @return Paths relative to the input folder
+     */
+    public List<String> getRemovedFiles() {
+        final List<String> removed = new ArrayList<String>();
+        for (final String path : previousEntries.keySet()) {
+            if (!currentEntries.containsKey(path)) {
+                removed.add(path);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Makes the files recorded so far the reference of the next checks. It's
+     * used when the tree is updated several times without being browsed again
+     * (watch mode): a file is then compared with its last processed version.
+     */
+    public void checkpoint() {
+        previousEntries.clear();
+        previousEntries.putAll(currentEntries);
+    }
+
+    /**
+     * Forgets a file or a folder which has been deleted
+     * @param relativePath
+     * Path of the file or folder relative to the input folder
+     */
+    public void forget(final String relativePath) {
+        forget(previousEntries, relativePath);
+        forget(currentEntries, relativePath);
+    }
+
+    /**
+     * Writes the manifest of the current optimization
+     * @throws IOException
+     */
+    public void save() throws IOException {
+        final File temporaryFile = new File(file.getPath() + ".tmp");
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(temporaryFile), CHARSET))) {
+            writer.write(CONFIGURATION_PREFIX + configuration + "\n");
+            for (final Map.Entry<String, Entry> entry : currentEntries.entrySet()) {
+                final Entry value = entry.getValue();
+                writer.write((value.hash != null ? value.hash : NO_HASH) + "\t"
+                        + value.size + "\t"
+                        + value.lastModified + "\t" + entry.getKey() + "\n");
+            }
+        }
+        if (file.exists() && !file.delete() || !temporaryFile.renameTo(file)) {
+            throw new IOException("Unable to write the manifest "
+                    + file.getCanonicalPath());
+        }
+    }
+
+    /**
+     * Removes a file or the files of a folder from a list of entries
+     * @param entries
+     * Entries by relative path
+     * @param relativePath
+     * Path of the file or folder relative to the input folder
+     */
+    private static void forget(final Map<String, Entry> entries,
+            final String relativePath) {
+        final String folderPrefix = relativePath + File.separatorChar;
+        final Iterator<String> paths = entries.keySet().iterator();
+        while (paths.hasNext()) {
+            final String path = paths.next();
+            if (path.equals(relativePath) || path.startsWith(folderPrefix)) {
+                paths.remove();
+            }
+        }
+    }
+
+    /**
+     * Hashes the content of a loaded file
+     * @param content
+     * Buffer containing the content
+     * @param length
+     * Size of the content
+     * @return The hexadecimal hash
+     */
+    public static String hash(final byte[] content, final int length) {
+        final MessageDigest digest = newDigest();
+        digest.update(content, 0, length);
+        return toHexadecimal(digest);
+    }
+
+    /**
+     * Hashes the content of a file
+     * @param source
+     * The file
+     * @return The hexadecimal hash
+     * @throws IOException
+     */
+    private static String hash(final File source) throws IOException {
+        final MessageDigest digest = newDigest();
+        try (InputStream stream = new FileInputStream(source)) {
+            final byte[] buffer = new byte[65536];
+            int read;
+            while ((read = stream.read(buffer)) >= 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return toHexadecimal(digest);
+    }
+
+    /**
+     * Creates the digest hashing the files
+     * @return The digest
+     */
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Ends a hash
+     * @param digest
+     * The digest which received the content
+     * @return The hexadecimal hash
+     */
+    private static String toHexadecimal(final MessageDigest digest) {
+        final StringBuilder result = new StringBuilder();
+        for (final byte aByte : digest.digest()) {
+            result.append(Character.forDigit(aByte >> 4 & 0xF, 16));
+            result.append(Character.forDigit(aByte & 0xF, 16));
+        }
+        return result.toString();
+    }
+
+    /**
+     * State of a source file
+     */
+    private static class Entry {
+        /**
+         * Hash of the content, null if it wasn't hashed
+         */
+        private final String hash;
+        /**
+         * Size in bytes
+         */
+        private final long size;
+        /**
+         * Last modification date
+         */
+        private final long lastModified;
+
+        /**
+         * Builds an entry
+         * @param contentHash
+         * Hash of the content, null if it wasn't hashed
+         * @param fileSize
+         * Size in bytes
+         * @param modificationDate
+         * Last modification date
+         */
+        public Entry(final String contentHash, final long fileSize,
+                final long modificationDate) {
+            hash = contentHash;
+            size = fileSize;
+            lastModified = modificationDate;
+        }
+    }
+}
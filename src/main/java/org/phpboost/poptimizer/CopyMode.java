@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2009 Benoit Sautel <ben.popeye@phpboost.com>
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.phpboost.poptimizer;
+
+/**
+ * This enumeration contains the ways the files which are not optimized can be
+ * reproduced in the output folder.
+ * @author Benoit Sautel &lt;ben.popeye@phpboost.com&gt;
+ */
+public enum CopyMode {
+    /**
+     * The file is copied
+     */
+    COPY("copy"),
+    /**
+     * A hard link to the source file is created (the file is copied if the
+     * output folder is on another file system)
+     */
+    HARD_LINK("hard"),
+    /**
+     * A symbolic link to the source file is created
+     */
+    SYMBOLIC_LINK("sym");
+
+    /**
+     * Name of the mode
+     */
+    private String name;
+
+    /**
+     * Finds a mode from its name
+     * @param modeName
+     * The name of the mode
+     * @return The mode, or null if there is no mode with this name
+     */
+    public static CopyMode fromString(final String modeName) {
+        for (final CopyMode mode : values()) {
+            if (mode.name.equals(modeName)) {
+                return mode;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Builds a mode
+     * @param modeName
+     * Name of the mode
+     */
+    private CopyMode(final String modeName) {
+        name = modeName;
+    }
+
+    /**
+     * Overrides the toString method and returns the mode name.
+     */
+    @Override
+    public String toString() {
+        return name;
+    }
+}
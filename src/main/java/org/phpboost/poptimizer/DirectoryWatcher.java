@@ -0,0 +1,307 @@
+/**
+ * Copyright (C) 2009 Loïc Rouchon <horn@phpboost.com>, Benoit Sautel <ben.popeye@phpboost.com>
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.phpboost.poptimizer;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class keeps an output folder up to date while the source tree is being
+ * edited. The source folders are registered in a watch service; the changes
+ * are gathered until the tree has been quiet during a short delay (an editor
+ * often writes a file in several steps), then only the touched files and
+ * folders are processed again by the optimizer.
+ * @author Benoit Sautel &lt;ben.popeye@phpboost.com&gt; Loic Rouchon
+ * &lt;horn@phpboost.com&gt;
+ */
+public class DirectoryWatcher {
+    /**
+     * Default delay (in milliseconds) without change after which the changes
+     * are processed
+     */
+    public static final long DEFAULT_DEBOUNCE_DELAY = 50;
+
+    /**
+     * The optimizer, which must already have optimized the whole source
+     */
+    private final POptimizer optimizer;
+    /**
+     * The watched file or folder
+     */
+    private final Path source;
+    /**
+     * The output folder, ignored if it's inside the source folder
+     */
+    private final Path destination;
+    /**
+     * Delay without change after which the changes are processed
+     */
+    private final long debounceDelay;
+    /**
+     * Watched folders by registration key
+     */
+    private final Map<WatchKey, Path> watchedFolders = new HashMap<WatchKey, Path>();
+    /**
+     * The watch service, open during the watch
+     */
+    private WatchService watchService = null;
+
+    /**
+     * Builds a watcher
+     * @param poptimizer
+     * The optimizer, with the settings of the optimization
+     * @param input
+     * Input file or folder of the optimizer
+     * @param output
+     * Output folder of the optimizer
+     * @param delay
+     * Delay (in milliseconds) without change after which the changes are
+     * processed
+     * @throws IOException
+     */
+    public DirectoryWatcher(final POptimizer poptimizer, final File input,
+            final File output, final long delay) throws IOException {
+        optimizer = poptimizer;
+        source = input.getCanonicalFile().toPath();
+        destination = output.getCanonicalFile().toPath();
+        debounceDelay = delay;
+    }
+
+    /**
+     * Watches the source until the thread is interrupted. The errors raised
+     * by an update or by the registration of a new folder are reported and
+     * the watch goes on, the next change of the file will process it again.
+     * @throws IOException
+     * If the watch service can't be created
+     */
+    public void watch() throws IOException {
+        try (WatchService service = FileSystems.getDefault().newWatchService()) {
+            watchService = service;
+            if (Files.isDirectory(source)) {
+                registerTree(source);
+            } else {
+                register(source.getParent());
+            }
+            System.out.println("Watching " + source + " (Ctrl+C to stop)");
+
+            while (true) {
+                final Set<Path> changes = new LinkedHashSet<Path>();
+                WatchKey key = service.take();
+                // The changes are gathered until the tree is quiet
+                while (key != null) {
+                    collectChanges(key, changes);
+                    key = service.poll(debounceDelay, TimeUnit.MILLISECONDS);
+                }
+                update(changes);
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            watchService = null;
+            watchedFolders.clear();
+        }
+    }
+
+    /**
+     * Reads the events of a folder
+     * @param key
+     * The key of the folder
+     * @param changes
+     * The changed paths, completed by this method
+     */
+    private void collectChanges(final WatchKey key, final Set<Path> changes) {
+        final Path folder = watchedFolders.get(key);
+        for (final WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                // Some events have been lost, everything is checked again
+                changes.add(source);
+                continue;
+            }
+            if (folder == null) {
+                continue;
+            }
+            final Path changed = folder.resolve((Path) event.context());
+            if (!isWatched(changed)) {
+                continue;
+            }
+            changes.add(changed);
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(changed)) {
+                registerTree(changed);
+            }
+        }
+        if (!key.reset()) {
+            // The folder has been deleted
+            watchedFolders.remove(key);
+        }
+    }
+
+    /**
+     * Tells whether a changed path has to be processed
+     * @param path
+     * The path
+     * @return true if it's the source or inside it, and not in the output
+     * folder, false otherwise
+     */
+    private boolean isWatched(final Path path) {
+        if (path.startsWith(destination)) {
+            return false;
+        }
+        return Files.isDirectory(source) ? path.startsWith(source) : path
+                .equals(source);
+    }
+
+    /**
+     * Processes the gathered changes. The changes inside a changed folder are
+     * skipped since the whole folder is processed.
+     * @param changes
+     * The changed paths
+     */
+    private void update(final Set<Path> changes) {
+        final List<File> files = new ArrayList<File>();
+        for (final Path changed : changes) {
+            if (!hasChangedAncestor(changed, changes)) {
+                files.add(changed.toFile());
+            }
+        }
+
+        final long beginTime = System.nanoTime();
+        try {
+            optimizer.update(files);
+        } catch (final IOException e) {
+            System.err.println("An input/output error had the update failed: "
+                    + e.getMessage());
+            return;
+        } catch (final RuntimeException e) {
+            System.err.println("The update failed: " + e);
+            return;
+        }
+        System.out.println("Updated " + files.size() + " element(s) in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - beginTime)
+                + " ms");
+    }
+
+    /**
+     * Tells whether a folder containing a path has changed too
+     * @param path
+     * The path
+     * @param changes
+     * The changed paths
+     * @return true if one of its ancestors changed, false otherwise
+     */
+    private static boolean hasChangedAncestor(final Path path,
+            final Set<Path> changes) {
+        for (Path parent = path.getParent(); parent != null; parent = parent
+                .getParent()) {
+            if (changes.contains(parent)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Registers a folder and all its sub-folders. A folder which can't be
+     * registered, for instance because it has already been removed, is
+     * reported and skipped: its removal is one of the gathered changes.
+     * @param folder
+     * The root folder
+     */
+    private void registerTree(final Path folder) {
+        try {
+            Files.walkFileTree(folder, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(final Path directory,
+                        final BasicFileAttributes attributes) {
+                    if (directory.startsWith(destination)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    try {
+                        register(directory);
+                    } catch (final IOException e) {
+                        reportRegistrationFailure(directory, e);
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(final Path file,
+                        final IOException e) {
+                    reportRegistrationFailure(file, e);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(final Path directory,
+                        final IOException e) {
+                    if (e != null) {
+                        reportRegistrationFailure(directory, e);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (final IOException e) {
+            // The visitor doesn't throw any exception
+            reportRegistrationFailure(folder, e);
+        }
+    }
+
+    /**
+     * Reports a folder which can't be watched
+     * @param folder
+     * The folder
+     * @param e
+     * The error
+     */
+    private static void reportRegistrationFailure(final Path folder,
+            final IOException e) {
+        System.err.println("Unable to watch " + folder + ": " + e.getMessage());
+    }
+
+    /**
+     * Registers a folder in the watch service
+     * @param folder
+     * The folder
+     * @throws IOException
+     */
+    private void register(final Path folder) throws IOException {
+        watchedFolders.put(folder.register(watchService, ENTRY_CREATE,
+                ENTRY_DELETE, ENTRY_MODIFY), folder);
+    }
+}
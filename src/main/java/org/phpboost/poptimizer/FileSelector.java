@@ -0,0 +1,261 @@
+/**
+ * Copyright (C) 2009 Loïc Rouchon <horn@phpboost.com>, Benoit Sautel <ben.popeye@phpboost.com>
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.phpboost.poptimizer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * This class decides which files are optimized. It's compiled once per
+ * optimization from the include and exclude patterns (see GlobTrie), the
+ * extensions of the PHP files and the sniffing option.
+ * <p>
+ * A file is a PHP file if its extension is one of the PHP extensions or, when
+ * the sniffing is enabled, if it has no extension and begins with &lt;?php or
+ * with a shebang line running php. A PHP file is optimized if it's included
+ * (all the files are when there is no include pattern) and not excluded. The
+ * other files are copied.
+ * </p>
+ * @author Benoit Sautel &lt;ben.popeye@phpboost.com&gt; Loic Rouchon
+ * &lt;horn@phpboost.com&gt;
+ */
+public class FileSelector {
+    /**
+     * Extensions of the PHP files when none is configured
+     */
+    public static final List<String> DEFAULT_EXTENSIONS = Collections
+            .unmodifiableList(Arrays.asList("php"));
+
+    /**
+     * Number of bytes read to recognize an extensionless PHP script
+     */
+    private static final int SNIFFED_BYTES = 128;
+
+    /**
+     * Compiled include patterns, null if all the files are included
+     */
+    private final GlobTrie includes;
+    /**
+     * Compiled exclude patterns
+     */
+    private final GlobTrie excludes;
+    /**
+     * Extensions of the PHP files, without dot
+     */
+    private final Set<String> extensions;
+    /**
+     * Tells whether the extensionless files are read to find PHP scripts
+     */
+    private final boolean sniffing;
+
+    /**
+     * Compiles a selection
+     * @param includePatterns
+     * Patterns of the files to optimize, empty to optimize all the PHP files
+     * @param excludePatterns
+     * Patterns of the files which are copied without being optimized
+     * @param phpExtensions
+     * Extensions of the PHP files, without dot
+     * @param contentSniffing
+     * true to read the extensionless files to find PHP scripts
+     */
+    public FileSelector(final Collection<String> includePatterns,
+            final Collection<String> excludePatterns,
+            final Collection<String> phpExtensions, final boolean contentSniffing) {
+        includes = includePatterns.isEmpty() ? null : new GlobTrie(includePatterns);
+        excludes = new GlobTrie(excludePatterns);
+        extensions = new HashSet<String>(phpExtensions);
+        sniffing = contentSniffing;
+    }
+
+    /**
+     * Returns the position of the input folder
+     * @return The position
+     */
+    public Position root() {
+        return new Position(includes == null ? GlobTrie.MATCHED : includes
+                .start(), excludes.start());
+    }
+
+    /**
+     * Computes the position of a file from its path
+     * @param relativePath
+     * Path relative to the input folder, separated by slashes or by the
+     * system separator
+     * @return The position
+     */
+    public Position locate(final String relativePath) {
+        Position position = root();
+        for (final String segment : relativePath.split("[/\\\\]")) {
+            if (!segment.isEmpty()) {
+                position = position.child(segment);
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Tells whether a file contains PHP code
+     * @param file
+     * The file
+     * @return true if its extension is a PHP one or if it's sniffed as a PHP
+     * script, false otherwise
+     * @throws IOException
+     */
+    public boolean isPhpFile(final File file) throws IOException {
+        final Boolean byName = isPhpName(file.getName());
+        if (byName != null) {
+            return byName.booleanValue();
+        }
+        final byte[] buffer = new byte[SNIFFED_BYTES];
+        int length = 0;
+        try (InputStream stream = new FileInputStream(file)) {
+            int read;
+            while (length < buffer.length
+                    && (read = stream.read(buffer, length, buffer.length - length)) > 0) {
+                length += read;
+            }
+        }
+        return isPhpScript(buffer, length);
+    }
+
+    /**
+     * Tells whether a file whose content is already loaded contains PHP code
+     * @param name
+     * Name of the file
+     * @param content
+     * Its content
+     * @param length
+     * Number of bytes of the content
+     * @return true if its extension is a PHP one or if it's sniffed as a PHP
+     * script, false otherwise
+     */
+    public boolean isPhpFile(final String name, final byte[] content,
+            final int length) {
+        final Boolean byName = isPhpName(name);
+        if (byName != null) {
+            return byName.booleanValue();
+        }
+        return isPhpScript(content, Math.min(length, SNIFFED_BYTES));
+    }
+
+    /**
+     * Recognizes a PHP file by its name
+     * @param name
+     * Name of the file
+     * @return true or false if the name is enough to decide, null if the
+     * content has to be sniffed
+     */
+    private Boolean isPhpName(final String name) {
+        final int dot = name.lastIndexOf('.');
+        if (dot > 0) {
+            return Boolean.valueOf(dot < name.length() - 1
+                    && extensions.contains(name.substring(dot + 1)));
+        }
+        return sniffing ? null : Boolean.FALSE;
+    }
+
+    /**
+     * Reads the beginning of an extensionless file to know whether it's a PHP
+     * script. Only the ASCII compatible charsets are recognized.
+     * @param buffer
+     * The first bytes of the file
+     * @param length
+     * Number of bytes of the buffer to read
+     * @return true if it begins with &lt;?php or with a shebang line running
+     * php
+     */
+    private static boolean isPhpScript(final byte[] buffer, final int length) {
+        String beginning = new String(buffer, 0, length,
+                StandardCharsets.ISO_8859_1);
+        // UTF-8 byte order mark
+        if (beginning.startsWith("\u00EF\u00BB\u00BF")) {
+            beginning = beginning.substring(3);
+        }
+        if (beginning.startsWith("<?php")) {
+            return true;
+        }
+        if (!beginning.startsWith("#!")) {
+            return false;
+        }
+        final int lineEnd = beginning.indexOf('\n');
+        final String shebang = lineEnd < 0 ? beginning : beginning.substring(0,
+                lineEnd);
+        return shebang.matches("#!\\S*[/ ]php[0-9.]*(\\s.*)?\\r?");
+    }
+
+    /**
+     * Position of a file or folder in the include and exclude patterns.
+     * Positions are immutable, a folder gives its position to its children.
+     */
+    public static final class Position {
+        /**
+         * Cursor of the include patterns
+         */
+        private final GlobTrie.Cursor include;
+        /**
+         * Cursor of the exclude patterns
+         */
+        private final GlobTrie.Cursor exclude;
+
+        /**
+         * Builds a position
+         * @param includeCursor
+         * Cursor of the include patterns
+         * @param excludeCursor
+         * Cursor of the exclude patterns
+         */
+        private Position(final GlobTrie.Cursor includeCursor,
+                final GlobTrie.Cursor excludeCursor) {
+            include = includeCursor;
+            exclude = excludeCursor;
+        }
+
+        /**
+         * Computes the position of a child element
+         * @param name
+         * Name of the child file or folder
+         * @return The position of the child
+         */
+        public Position child(final String name) {
+            final GlobTrie.Cursor childInclude = include.enter(name);
+            final GlobTrie.Cursor childExclude = exclude.enter(name);
+            if (childInclude == include && childExclude == exclude) {
+                return this;
+            }
+            return new Position(childInclude, childExclude);
+        }
+
+        /**
+         * Tells whether the element is to optimize if it's a PHP file
+         * @return true if it's included and not excluded, false otherwise
+         */
+        public boolean isSelected() {
+            return include.isMatched() && !exclude.isMatched();
+        }
+    }
+}
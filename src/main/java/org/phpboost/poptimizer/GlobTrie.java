@@ -0,0 +1,371 @@
+/**
+ * Copyright (C) 2009 Loïc Rouchon <horn@phpboost.com>, Benoit Sautel <ben.popeye@phpboost.com>
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.phpboost.poptimizer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * This class compiles a set of glob patterns into a trie of path segments.
+ * The patterns are relative to the input folder and separated by slashes. A
+ * segment can contain the wildcards * (any characters), ? (one character) and
+ * [...] (a character class, [!...] for a negation), and a whole segment ** may
+ * match any number of segments. A backslash escapes the next character. A
+ * pattern matching a folder matches all its content too. The empty segments
+ * and the . ones are ignored.
+ * <p>
+ * A path is matched segment by segment with a cursor, so that the traversal
+ * of a tree only costs a step per file. The literal segments of all the
+ * patterns are looked up in a hash table, so the cost doesn't grow with the
+ * number of patterns.
+ * </p>
+ * @author Benoit Sautel &lt;ben.popeye@phpboost.com&gt; Loic Rouchon
+ * &lt;horn@phpboost.com&gt;
+ */
+public class GlobTrie {
+    /**
+     * Cursor of the paths matched by a pattern, and of all their content
+     */
+    public static final Cursor MATCHED = new Cursor(new Node[0], true);
+    /**
+     * Cursor of the paths which can't be matched by any pattern, nor their
+     * content
+     */
+    public static final Cursor UNMATCHED = new Cursor(new Node[0], false);
+
+    /**
+     * Root of the trie
+     */
+    private final Node root = new Node();
+
+    /**
+     * Compiles patterns
+     * @param patterns
+     * The glob patterns, the empty ones are ignored
+     */
+    public GlobTrie(final Collection<String> patterns) {
+        for (final String pattern : patterns) {
+            add(pattern);
+        }
+    }
+
+    /**
+     * Returns the cursor of the input folder
+     * @return The cursor
+     */
+    public Cursor start() {
+        final List<Node> nodes = new ArrayList<Node>();
+        addWithClosure(nodes, root);
+        return Cursor.of(nodes);
+    }
+
+    /**
+     * Tells whether a path is matched
+     * @param relativePath
+     * Path relative to the input folder, separated by slashes or by the
+     * system separator
+     * @return true if a pattern matches the path or one of its folders
+     */
+    public boolean matches(final String relativePath) {
+        Cursor cursor = start();
+        for (final String segment : relativePath.split("[/\\\\]")) {
+            if (!segment.isEmpty()) {
+                cursor = cursor.enter(segment);
+            }
+        }
+        return cursor.isMatched();
+    }
+
+    /**
+     * Adds a pattern to the trie
+     * @param pattern
+     * The glob pattern
+     */
+    private void add(final String pattern) {
+        Node node = root;
+        boolean empty = true;
+        for (final String segment : pattern.split("/")) {
+            if (segment.isEmpty() || segment.equals(".")) {
+                // ./lib and lib/ designate the lib folder
+                continue;
+            }
+            empty = false;
+            if (segment.equals("**")) {
+                if (node.anySegments == null) {
+                    node.anySegments = new Node();
+                    node.anySegments.isAnySegments = true;
+                }
+                node = node.anySegments;
+            } else if (isLiteral(segment)) {
+                final String name = unescape(segment);
+                Node child = node.literalChildren.get(name);
+                if (child == null) {
+                    child = new Node();
+                    node.literalChildren.put(name, child);
+                }
+                node = child;
+            } else {
+                node = node.getWildcardChild(segment);
+            }
+        }
+        if (!empty) {
+            node.terminal = true;
+        }
+    }
+
+    /**
+     * Adds a node and the nodes it can reach without consuming a segment
+     * @param nodes
+     * The list to complete
+     * @param node
+     * The node
+     */
+    private static void addWithClosure(final List<Node> nodes, final Node node) {
+        if (nodes.contains(node)) {
+            return;
+        }
+        nodes.add(node);
+        if (node.anySegments != null) {
+            addWithClosure(nodes, node.anySegments);
+        }
+    }
+
+    /**
+     * Tells whether a pattern segment contains no wildcard
+     * @param segment
+     * The segment
+     * @return true if it only contains literal characters
+     */
+    private static boolean isLiteral(final String segment) {
+        for (int i = 0; i < segment.length(); i++) {
+            final char c = segment.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '*' || c == '?' || c == '[') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Removes the escaping backslashes of a literal segment
+     * @param segment
+     * The segment
+     * @return The name it matches
+     */
+    private static String unescape(final String segment) {
+        if (segment.indexOf('\\') < 0) {
+            return segment;
+        }
+        final StringBuilder name = new StringBuilder(segment.length());
+        for (int i = 0; i < segment.length(); i++) {
+            char c = segment.charAt(i);
+            if (c == '\\' && i + 1 < segment.length()) {
+                c = segment.charAt(++i);
+            }
+            name.append(c);
+        }
+        return name.toString();
+    }
+
+    /**
+     * Converts a segment containing wildcards into a regular expression
+     * @param segment
+     * The segment
+     * @return The compiled expression
+     */
+    private static Pattern compile(final String segment) {
+        final StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < segment.length(); i++) {
+            final char c = segment.charAt(i);
+            switch (c) {
+                case '*':
+                    regex.append(".*");
+                    break;
+                case '?':
+                    regex.append('.');
+                    break;
+                case '[':
+                    final int end = segment.indexOf(']', i + 2);
+                    if (end < 0) {
+                        regex.append("\\[");
+                        break;
+                    }
+                    String characters = segment.substring(i + 1, end);
+                    regex.append('[');
+                    if (characters.startsWith("!")) {
+                        regex.append('^');
+                        characters = characters.substring(1);
+                    }
+                    regex.append(characters.replace("\\", "\\\\").replace("[",
+                            "\\[").replace("&", "\\&"));
+                    regex.append(']');
+                    i = end;
+                    break;
+                case '\\':
+                    if (i + 1 < segment.length()) {
+                        regex.append(Pattern.quote(String.valueOf(segment
+                                .charAt(++i))));
+                    }
+                    break;
+                default:
+                    regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+
+    /**
+     * Position in the trie after some segments of a path. Cursors are
+     * immutable, so a folder can give its cursor to all its children.
+     */
+    public static final class Cursor {
+        /**
+         * Nodes reached by the segments
+         */
+        private final Node[] nodes;
+        /**
+         * Tells whether a pattern matched the path
+         */
+        private final boolean matched;
+
+        /**
+         * Builds a cursor
+         * @param reachedNodes
+         * Nodes reached by the segments
+         * @param pathMatched
+         * Tells whether a pattern matched the path
+         */
+        private Cursor(final Node[] reachedNodes, final boolean pathMatched) {
+            nodes = reachedNodes;
+            matched = pathMatched;
+        }
+
+        /**
+         * Builds the cursor of a set of nodes
+         * @param reachedNodes
+         * The nodes
+         * @return The cursor, one of the constants if the path is matched or
+         * can't be matched anymore
+         */
+        private static Cursor of(final List<Node> reachedNodes) {
+            if (reachedNodes.isEmpty()) {
+                return UNMATCHED;
+            }
+            for (final Node node : reachedNodes) {
+                if (node.terminal) {
+                    return MATCHED;
+                }
+            }
+            return new Cursor(reachedNodes.toArray(new Node[reachedNodes.size()]),
+                    false);
+        }
+
+        /**
+         * Moves the cursor to a child element
+         * @param segment
+         * Name of the child file or folder
+         * @return The cursor of the child
+         */
+        public Cursor enter(final String segment) {
+            if (nodes.length == 0) {
+                return this;
+            }
+            final List<Node> reached = new ArrayList<Node>(2);
+            for (final Node node : nodes) {
+                final Node literal = node.literalChildren.get(segment);
+                if (literal != null) {
+                    addWithClosure(reached, literal);
+                }
+                for (int i = 0; i < node.wildcardPatterns.size(); i++) {
+                    if (node.wildcardPatterns.get(i).matcher(segment).matches()) {
+                        addWithClosure(reached, node.wildcardChildren.get(i));
+                    }
+                }
+                if (node.isAnySegments) {
+                    addWithClosure(reached, node);
+                }
+            }
+            return of(reached);
+        }
+
+        /**
+         * Tells whether a pattern matched the path or one of its folders
+         * @return true if the path is matched, false otherwise
+         */
+        public boolean isMatched() {
+            return matched;
+        }
+    }
+
+    /**
+     * Node of the trie, reached after some segments of a pattern
+     */
+    private static final class Node {
+        /**
+         * Next nodes by literal segment
+         */
+        private final Map<String, Node> literalChildren = new HashMap<String, Node>();
+        /**
+         * Segments containing wildcards
+         */
+        private final List<Pattern> wildcardPatterns = new ArrayList<Pattern>(0);
+        /**
+         * Next nodes of the segments containing wildcards
+         */
+        private final List<Node> wildcardChildren = new ArrayList<Node>(0);
+        /**
+         * Next node of a ** segment
+         */
+        private Node anySegments = null;
+        /**
+         * Tells whether the node stands for a ** segment, which consumes any
+         * segment
+         */
+        private boolean isAnySegments = false;
+        /**
+         * Tells whether a pattern ends here
+         */
+        private boolean terminal = false;
+
+        /**
+         * Returns the next node of a segment containing wildcards, creating it
+         * if needed
+         * @param segment
+         * The pattern segment
+         * @return The node
+         */
+        private Node getWildcardChild(final String segment) {
+            final Pattern pattern = compile(segment);
+            for (int i = 0; i < wildcardPatterns.size(); i++) {
+                if (wildcardPatterns.get(i).pattern().equals(pattern.pattern())) {
+                    return wildcardChildren.get(i);
+                }
+            }
+            final Node child = new Node();
+            wildcardPatterns.add(pattern);
+            wildcardChildren.add(child);
+            return child;
+        }
+    }
+}
@@ -17,17 +17,47 @@
 
 package org.phpboost.poptimizer;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
-import org.phpboost.poptimizer.optimizers.AbstractOptimizer;
-import org.phpboost.poptimizer.optimizers.NeutralOptimizer;
+import org.phpboost.poptimizer.archive.ArchiveReader;
+import org.phpboost.poptimizer.archive.ArchiveWriter;
+import org.phpboost.poptimizer.lexer.PhpLexer;
+import org.phpboost.poptimizer.loading.Bundle;
+import org.phpboost.poptimizer.loading.Bundler;
+import org.phpboost.poptimizer.loading.ClassMapWriter;
+import org.phpboost.poptimizer.loading.Preloader;
+import org.phpboost.poptimizer.optimizers.ChainProfile;
+import org.phpboost.poptimizer.optimizers.DebugCode;
+import org.phpboost.poptimizer.optimizers.LineMap;
 import org.phpboost.poptimizer.optimizers.Optimizer;
+import org.phpboost.poptimizer.optimizers.OptimizerChain;
+import org.phpboost.poptimizer.profiling.FileOptimizationEvent;
+import org.phpboost.poptimizer.profiling.Profiler;
 
 /**
  * This class enables you to optimize some PHP files.
@@ -52,9 +82,27 @@ public class POptimizer {
      */
     private String outputPath = null;
     /**
-     * List of the ignored directories
+     * Patterns of the files to optimize, all the PHP files if empty
      */
-    private final List<String> excludedDirectories = new ArrayList<String>();
+    private final List<String> includePatterns = new ArrayList<String>();
+    /**
+     * Patterns of the files which are copied without being optimized
+     */
+    private final List<String> excludePatterns = new ArrayList<String>();
+    /**
+     * Extensions of the PHP files
+     */
+    private final List<String> extensions = new ArrayList<String>(
+            FileSelector.DEFAULT_EXTENSIONS);
+    /**
+     * Tells whether the extensionless files are read to find PHP scripts
+     */
+    private boolean contentSniffing = false;
+    /**
+     * Selection of the files to optimize, compiled when the optimization
+     * begins
+     */
+    private FileSelector selector = null;
     /**
      * Modules selection (bits)
      */
@@ -67,6 +115,85 @@ public class POptimizer {
      * Charset in which the files must be written
      */
     private FileCharset outputCharset = FileCharset.UTF8;
+    /**
+     * Number of threads used to optimize the tree (1 means sequential)
+     */
+    private int parallelism = 1;
+    /**
+     * Number of bytes the files loaded by a parallel optimization can hold
+     */
+    private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+    /**
+     * Tells whether a line map is written next to the optimized files whose
+     * line breaks were removed
+     */
+    private boolean lineMaps = false;
+    /**
+     * Debug calls removed by the strip-debug module
+     */
+    private final List<String> debugCalls = new ArrayList<String>(
+            DebugCode.DEFAULT_CALLS);
+    /**
+     * Constants declared false for the strip-debug module
+     */
+    private final List<String> falseConstants = new ArrayList<String>();
+    /**
+     * Bundles gathering some optimized class files
+     */
+    private final List<Bundle> bundles = new ArrayList<Bundle>();
+    /**
+     * Folders whose class files are preloaded, null if no preload script is
+     * written
+     */
+    private List<String> preloadFolders = null;
+    /**
+     * Tells whether a class map is written in the output folder
+     */
+    private boolean classMap = false;
+    /**
+     * Canonical paths of the output directories which already exist. It's
+     * shared between the worker threads.
+     */
+    private final Set<String> createdDirectories = Collections
+            .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    /**
+     * Size (in bytes) from which the files are handled as streams, negative if
+     * the files are always loaded in memory
+     */
+    private long streamingThreshold = -1;
+    /**
+     * Tells whether the files which didn't change since the previous
+     * optimization are skipped
+     */
+    private boolean incremental = false;
+    /**
+     * Way the files which are not optimized are reproduced
+     */
+    private CopyMode copyMode = CopyMode.COPY;
+    /**
+     * Chain of the selected modules, built when the optimization begins
+     */
+    private OptimizerChain chain = null;
+    /**
+     * State of the source files, used by the incremental optimization
+     */
+    private BuildManifest manifest = null;
+    /**
+     * Tells whether the input is an archive whose entries are read as a stream
+     */
+    private final boolean archiveInput;
+    /**
+     * Tells whether the output is an archive instead of a folder
+     */
+    private final boolean archiveOutput;
+    /**
+     * The output archive, open during the optimization
+     */
+    private ArchiveWriter archive = null;
+    /**
+     * Records the time spent by each stage of the optimization
+     */
+    private final Profiler profiler = new Profiler();
 
     /**
      * Builds an optimizer with its properties
@@ -96,7 +223,19 @@ public class POptimizer {
                     "The input file/folder must exist: "
                             + input.getCanonicalPath());
         }
-        if (output.exists() && !output.isDirectory()) {
+        archiveInput = ArchiveReader.isArchive(input);
+        archiveOutput = ArchiveWriter.isArchive(output);
+        if (archiveOutput) {
+            if (output.isDirectory()) {
+                throw new POptimizerConfigurationException(
+                        "The output archive is an existing folder: "
+                                + destination.getAbsolutePath());
+            }
+            final File archiveFolder = output.getAbsoluteFile().getParentFile();
+            if (!archiveFolder.isDirectory()) {
+                createDirectory(archiveFolder);
+            }
+        } else if (output.exists() && !output.isDirectory()) {
             throw new POptimizerConfigurationException(
                     "Please enter an output folder and not and output file: "
                             + destination.getAbsolutePath() + " entered");
@@ -104,26 +243,333 @@ public class POptimizer {
             createDirectory(output);
         }
 
-        for (final File aFile : exclude) {
-            excludedDirectories.add(aFile.getCanonicalPath());
-        }
-
         inputPath = input.isDirectory() ? input.getCanonicalPath() : input
-                .getParentFile().getCanonicalPath();
+                .getCanonicalFile().getParent();
         outputPath = output.getCanonicalPath();
+
+        for (final File aFile : exclude) {
+            final String excludedPath = aFile.getCanonicalPath();
+            if (excludedPath.equals(inputPath)) {
+                excludePatterns.add("**");
+            } else if (excludedPath.startsWith(inputPath + File.separatorChar)) {
+                excludePatterns.add(excludedPath.substring(inputPath.length() + 1)
+                        .replace(File.separatorChar, '/').replaceAll(
+                                "([\\\\*?\\[])", "\\\\$1"));
+            }
+        }
     }
 
     /**
      * Version of the program
      */
     public static final String VERSION = "1.1";
+    /**
+     * Default number of bytes in flight during a parallel optimization: 256
+     * MB, or a quarter of the heap if it's smaller
+     */
+    public static final long DEFAULT_MEMORY_BUDGET = Math.min(256L << 20,
+            Runtime.getRuntime().maxMemory() / 4);
+    /**
+     * Extension added to the name of an optimized file to name its line map
+     */
+    public static final String LINE_MAP_EXTENSION = ".linemap";
 
     /**
      * Optimizes the source file/folder
      * @throws IOException
      */
     public void optimize() throws IOException {
-        process(input);
+        if ((!bundles.isEmpty() || preloadFolders != null || classMap)
+                && (archiveOutput || !input.isDirectory())) {
+            throw new IllegalStateException(
+                    "The bundles, the preload script and the class map need an input folder and an output folder");
+        }
+        chain = new OptimizerChain(modules, getDebugCode());
+        selector = new FileSelector(includePatterns, excludePatterns, extensions,
+                contentSniffing);
+        if (incremental && !archiveInput && !archiveOutput) {
+            manifest = new BuildManifest(getManifestFile(), getConfiguration());
+        }
+        if (archiveOutput) {
+            archive = ArchiveWriter.open(output, System.currentTimeMillis());
+        }
+
+        boolean completed = false;
+        try {
+            final String relativePath = getRelativePath(input);
+            final FileSelector.Position position = selector.locate(relativePath);
+            if (parallelism <= 1) {
+                if (archiveInput) {
+                    processArchive(null);
+                } else {
+                    process(input, relativePath, position);
+                }
+            } else {
+                try (FilePipeline pipeline = new FilePipeline()) {
+                    if (archiveInput) {
+                        processArchive(pipeline);
+                    } else {
+                        feed(input, relativePath, position, pipeline);
+                    }
+                }
+            }
+            completed = true;
+        } finally {
+            if (archive != null) {
+                closeArchive(completed);
+            }
+        }
+
+        if (manifest != null) {
+            pruneRemovedFiles();
+            manifest.save();
+        }
+        writeLoadingFiles();
+    }
+
+    /**
+     * Updates the output folder after some source elements changed, without
+     * browsing the whole tree again. The created and modified elements are
+     * processed with the current settings, the destination of the deleted ones
+     * is removed. The source must have been optimized before.
+     * @param changedFiles
+     * Source files or folders which have been created, modified or deleted
+     * @throws IOException
+     */
+    public void update(final Collection<File> changedFiles) throws IOException {
+        if (chain == null) {
+            throw new IllegalStateException(
+                    "The source must be optimized before being updated");
+        }
+        if (archiveOutput) {
+            throw new IllegalStateException("An output archive can't be updated");
+        }
+        if (archiveInput) {
+            throw new IllegalStateException(
+                    "The source of an input archive can't be updated");
+        }
+        if (manifest != null) {
+            manifest.checkpoint();
+        }
+
+        for (final File file : changedFiles) {
+            if (file.exists()) {
+                final File destinationFolder = getDestinationFile(file)
+                        .getParentFile();
+                if (!destinationFolder.isDirectory()) {
+                    createDirectory(destinationFolder);
+                }
+                final String relativePath = getRelativePath(file);
+                process(file, relativePath, selector.locate(relativePath));
+            } else {
+                remove(file);
+            }
+        }
+
+        if (manifest != null) {
+            manifest.save();
+        }
+        writeLoadingFiles();
+    }
+
+    /**
+     * Writes the bundles, the preload script and the class map once the files
+     * are optimized
+     * @throws IOException
+     */
+    private void writeLoadingFiles() throws IOException {
+        final List<String> bundledFiles = new ArrayList<String>();
+        if (!bundles.isEmpty()) {
+            final Bundler bundler = new Bundler(output, outputCharset,
+                    extensions, bundles);
+            bundler.bundle();
+            bundledFiles.addAll(bundler.getBundledFiles());
+        }
+        if (preloadFolders != null) {
+            final Preloader preloader = new Preloader(output, outputCharset,
+                    extensions, preloadFolders);
+            preloader.setExcludedFiles(bundledFiles);
+            preloader.preload();
+        }
+        if (classMap) {
+            final ClassMapWriter writer = new ClassMapWriter(output,
+                    outputCharset, extensions);
+            writer.setExcludedFiles(bundledFiles);
+            writer.write();
+        }
+    }
+
+    /**
+     * Enables or disables the incremental optimization. A manifest is stored
+     * next to the output folder, the next optimizations only process the
+     * files which changed and remove the files whose source was deleted. All
+     * the files are processed again if the configuration changes. It has no
+     * effect when the input or the output is an archive, which is always read
+     * or written entirely.
+     * @param enabled
+     * true to enable it, false otherwise
+     */
+    public void setIncremental(final boolean enabled) {
+        incremental = enabled;
+    }
+
+    /**
+     * Sets the number of threads used to optimize the tree. With several
+     * threads, the current thread browses the tree and loads the files, the
+     * worker threads optimize them, copy or link the other files and compress
+     * the entries of an output archive, and a writer thread writes them (see
+     * StagedPipeline). The loaded files are limited by the memory budget.
+     * @param threads
+     * Number of threads, 1 to work sequentially, 0 or less to use one thread
+     * per available processor
+     */
+    public void setParallelism(final int threads) {
+        if (threads <= 0) {
+            parallelism = Runtime.getRuntime().availableProcessors();
+        } else {
+            parallelism = threads;
+        }
+    }
+
+    /**
+     * Sets the number of bytes the files in flight can hold during a parallel
+     * optimization. The loading of the files is suspended when it's reached.
+     * A file bigger than the budget is loaded alone, the files above the
+     * streaming threshold are never loaded.
+     * @param bytes
+     * Number of bytes
+     */
+    public void setMemoryBudget(final long bytes) {
+        memoryBudget = bytes;
+    }
+
+    /**
+     * Enables or disables the line maps. When a module removes some line
+     * breaks of a file (spaces-aggressive), a map from the lines of the
+     * optimized file to the lines of the source is written next to it, with
+     * the .linemap extension (see LineMap).
+     * @param enabled
+     * true to write the line maps, false otherwise
+     */
+    public void setLineMaps(final boolean enabled) {
+        lineMaps = enabled;
+    }
+
+    /**
+     * Sets the calls whose statements are removed by the strip-debug module
+     * (assert by default)
+     * @param calls
+     * Functions (assert), static methods (Debug::dump) or methods of a
+     * variable ($logger->debug)
+     */
+    public void setDebugCalls(final Collection<String> calls) {
+        debugCalls.clear();
+        debugCalls.addAll(calls);
+    }
+
+    /**
+     * Declares some constants false: the strip-debug module removes the if
+     * blocks testing them
+     * @param constants
+     * Names of the constants
+     */
+    public void setFalseConstants(final Collection<String> constants) {
+        falseConstants.clear();
+        falseConstants.addAll(constants);
+    }
+
+    /**
+     * Adds a bundle: the matching optimized class files are gathered in one
+     * file of the output folder, and the statements requiring them require
+     * the bundle instead (see Bundler). A file matched by several bundles
+     * goes in the first one.
+     * @param bundle
+     * The bundle
+     */
+    public void addBundle(final Bundle bundle) {
+        bundles.add(bundle);
+    }
+
+    /**
+     * Enables the preload script: a preload.php file of the output folder
+     * requires the class files of some folders, after the files they depend
+     * on, for the opcache.preload setting (see Preloader)
+     * @param folders
+     * Folders relative to the output folder, empty to preload the whole tree,
+     * null to disable the script
+     */
+    public void setPreload(final Collection<String> folders) {
+        preloadFolders = folders != null ? new ArrayList<String>(folders)
+                : null;
+    }
+
+    /**
+     * Enables or disables the class map: a classmap.php file of the output
+     * folder returns an array from the name of each declared class to the
+     * path of its file, for an autoloader (see ClassMapWriter)
+     * @param enabled
+     * true to write the class map, false otherwise
+     */
+    public void setClassMap(final boolean enabled) {
+        classMap = enabled;
+    }
+
+    /**
+     * Returns the debug code removed by the strip-debug module
+     * @return The debug code
+     */
+    private DebugCode getDebugCode() {
+        return new DebugCode(debugCalls, falseConstants);
+    }
+
+    /**
+     * Returns the profiler recording the time spent by each stage of the
+     * optimization. Its statistics have to be enabled before the optimization
+     * to print a report.
+     * @return The profiler
+     */
+    public Profiler getProfiler() {
+        return profiler;
+    }
+
+    /**
+     * Adds a pattern of files to optimize. When there is no include pattern,
+     * all the PHP files are optimized.
+     * @param pattern
+     * Glob pattern relative to the input folder (see GlobTrie)
+     */
+    public void addIncludePattern(final String pattern) {
+        includePatterns.add(pattern);
+    }
+
+    /**
+     * Adds a pattern of files which are copied without being optimized
+     * @param pattern
+     * Glob pattern relative to the input folder (see GlobTrie)
+     */
+    public void addExcludePattern(final String pattern) {
+        excludePatterns.add(pattern);
+    }
+
+    /**
+     * Sets the extensions of the PHP files (php by default)
+     * @param phpExtensions
+     * Extensions without dot
+     */
+    public void setExtensions(final Collection<String> phpExtensions) {
+        extensions.clear();
+        extensions.addAll(phpExtensions);
+    }
+
+    /**
+     * Enables or disables the sniffing of the extensionless files. A file
+     * beginning with &lt;?php or with a shebang line running php is then
+     * optimized as a PHP file.
+     * @param enabled
+     * true to enable it, false otherwise
+     */
+    public void setContentSniffing(final boolean enabled) {
+        contentSniffing = enabled;
     }
 
     /**
@@ -143,6 +589,30 @@ public class POptimizer {
         outputCharset = cs;
     }
 
+    /**
+     * Sets the size from which files are read and written as streams. Such
+     * files are optimized with a constant memory usage instead of being loaded
+     * in memory.
+     * @param bytes
+     * Size in bytes (0 to stream all the files), negative to load all the
+     * files in memory
+     */
+    public void setStreamingThreshold(final long bytes) {
+        streamingThreshold = bytes;
+    }
+
+    /**
+     * Sets the way the files which are not optimized are reproduced in the
+     * output folder. Whatever the mode, these files are never loaded in
+     * memory, except the excluded PHP files when the input and output charsets
+     * are different. The entries of an input archive are always copied.
+     * @param mode
+     * Copy, hard link or symbolic link
+     */
+    public void setCopyMode(final CopyMode mode) {
+        copyMode = mode;
+    }
+
     /**
      * Adds a module to the module selection
      * @param optimizer
@@ -153,10 +623,10 @@ public class POptimizer {
     }
 
     /**
-     * Selects all the modules
+     * Selects all the default modules (see Optimizer.defaults())
      */
     public void selectAllModules() {
-        modules = EnumSet.allOf(Optimizer.class);
+        modules.addAll(Optimizer.defaults());
     }
 
     /**
@@ -180,44 +650,16 @@ public class POptimizer {
         return modules.contains(optimizer);
     }
 
-    /**
-     * Tells whether a file is to optimize or not (ignored).
-     * @param file
-     * The file to analyse
-     * @return true if the file is to optimize, otherwise false
-     * @throws IOException
-     */
-    private Boolean isExcluded(final File file) throws IOException {
-        final String filePath = file.getCanonicalPath();
-        for (final String excludedFile : excludedDirectories) {
-            if (filePath.startsWith(excludedFile)) {
-                return true;
-            }
-        }
-        return false;
-    }
-
     /**
      * Reads a text file and returns its content. Reads the file according to
      * the input charset defined in the class.
      * @param file
      * The file to read.
-     * @return The file content.
+     * @return The file content, only valid until the thread reads another file
      * @throws IOException
      */
-    private String read(final File file) throws IOException {
-        final StringBuilder result = new StringBuilder();
-        final FileInputStream fis = new FileInputStream(file);
-        int byteToRead = fis.available();
-        while (byteToRead > 0) {
-            final byte[] fileBytes = new byte[byteToRead];
-            if (fis.read(fileBytes) > 0) {
-                result.append(new String(fileBytes, inputCharset
-                        .associatedCharset()));
-            }
-            byteToRead = fis.available();
-        }
-        return result.toString();
+    private CharBuffer read(final File file) throws IOException {
+        return TextFileIO.get().read(file, inputCharset);
     }
 
     /**
@@ -229,10 +671,16 @@ public class POptimizer {
      * Its content
      * @throws IOException
      */
-    private void write(final File file, final String content) throws IOException {
-        final FileOutputStream ouput = new FileOutputStream(file);
-        ouput.write(content.getBytes(outputCharset.associatedCharset()));
-        ouput.close();
+    private void write(final File file, final CharSequence content) throws IOException {
+        if (archive != null) {
+            try (OutputStream entry = archive.newEntry(getEntryPath(file))) {
+                TextFileIO.get().write(entry, content, outputCharset);
+            }
+            return;
+        }
+        // The destination can be a link to a source file
+        Files.deleteIfExists(file.toPath());
+        TextFileIO.get().write(file, content, outputCharset);
     }
 
     /**
@@ -241,35 +689,552 @@ public class POptimizer {
      * file.
      * @param fileToOptimize
      * The file to process
+     * @param relativePath
+     * Its path relative to the input folder
+     * @param position
+     * Its position in the file selection
      * @throws IOException
      */
-    private void process(final File fileToOptimize) throws IOException {
-        final File destinationFile = new File(outputPath
-                + fileToOptimize.getCanonicalPath().substring(
-                        inputPath.length()));
+    private void process(final File fileToOptimize, final String relativePath,
+            final FileSelector.Position position) throws IOException {
         // Folder
         if (fileToOptimize.isDirectory()) {
-            if (!destinationFile.exists()) {
-                createDirectory(destinationFile);
-            }
-
             // We also process the children elements
-            final File[] files = fileToOptimize.listFiles();
-            for (final File file : files) {
-                process(file);
+            for (final File file : processDirectory(fileToOptimize, relativePath)) {
+                final String name = file.getName();
+                process(file, relativePath + File.separatorChar + name, position
+                        .child(name));
             }
         }
         // File
         else {
-            if (fileToOptimize.getName().matches(".+\\.php$")
-                    && !isExcluded(fileToOptimize)) {
-                optimize(fileToOptimize, destinationFile);
+            processFile(fileToOptimize, relativePath, position);
+        }
+    }
+
+    /**
+     * Creates the destination folder of a source folder
+     * @param directory
+     * The source folder
+     * @param relativePath
+     * Its path relative to the input folder
+     * @return The children elements which have to be processed
+     * @throws IOException
+     */
+    private File[] processDirectory(final File directory,
+            final String relativePath) throws IOException {
+        final long start = System.nanoTime();
+        createDestinationDirectory(relativePath);
+
+        final File[] files = directory.listFiles();
+        if (files == null) {
+            throw new IOException("Unable to list directory "
+                    + directory.getCanonicalPath());
+        }
+        if (profiler.isEnabled()) {
+            profiler.recordStage(directory.getPath(), Profiler.TRAVERSAL_STAGE,
+                    System.nanoTime() - start, files.length, files.length);
+        }
+        return files;
+    }
+
+    /**
+     * Creates the destination of a source folder, in the output folder or in
+     * the output archive
+     * @param relativePath
+     * Path of the folder relative to the input folder
+     * @throws IOException
+     */
+    private void createDestinationDirectory(final String relativePath)
+            throws IOException {
+        if (archive != null) {
+            if (!relativePath.isEmpty()) {
+                archive.addDirectory(relativePath);
+            }
+            return;
+        }
+        final File destinationFile = new File(outputPath + relativePath);
+        if (!createdDirectories.contains(destinationFile.getPath())
+                && !destinationFile.exists()) {
+            createDirectory(destinationFile);
+        }
+        createdDirectories.add(destinationFile.getPath());
+    }
+
+    /**
+     * Browses a source folder or file and submits its files to the pipeline.
+     * The files to optimize or to convert are loaded in memory, unless they are
+     * streamed.
+     * @param file
+     * The file or folder
+     * @param relativePath
+     * Its path relative to the input folder
+     * @param position
+     * Its position in the file selection
+     * @param pipeline
+     * The pipeline optimizing and writing the files
+     * @throws IOException
+     */
+    private void feed(final File file, final String relativePath,
+            final FileSelector.Position position, final FilePipeline pipeline)
+            throws IOException {
+        if (file.isDirectory()) {
+            for (final File child : processDirectory(file, relativePath)) {
+                final String name = child.getName();
+                feed(child, relativePath + File.separatorChar + name, position
+                        .child(name), pipeline);
+            }
+            return;
+        }
+
+        final File destinationFile = new File(outputPath + relativePath);
+        if (manifest != null
+                && manifest.isUpToDate(relativePath, file, destinationFile)) {
+            return;
+        }
+        final boolean phpFile = selector.isPhpFile(file);
+        final FileJob job = new FileJob(file.getPath(), file, relativePath,
+                destinationFile, phpFile && position.isSelected(), phpFile
+                        && !position.isSelected() && inputCharset != outputCharset);
+        if ((job.optimized || job.converted) && !isStreamed(file)) {
+            pipeline.acquire(job.size);
+            job.reserved = job.size;
+            load(job);
+        }
+        pipeline.submit(job);
+    }
+
+    /**
+     * Loads the content of a source file
+     * @param job
+     * The file
+     * @throws IOException
+     */
+    private void load(final FileJob job) throws IOException {
+        final long start = System.nanoTime();
+        job.content = Files.readAllBytes(job.sourceFile.toPath());
+        if (profiler.isEnabled()) {
+            profiler.recordStage(job.source, Profiler.READ_STAGE,
+                    System.nanoTime() - start, job.content.length,
+                    job.content.length);
+        }
+    }
+
+    /**
+     * Reads the input archive entry by entry and optimizes or copies each
+     * file without extracting it. The entries are read in the order of the
+     * archive by the current thread.
+     * @param pipeline
+     * The pipeline optimizing and writing the files, null to process them in
+     * the current thread
+     * @throws IOException
+     */
+    private void processArchive(final FilePipeline pipeline) throws IOException {
+        try (ArchiveReader reader = ArchiveReader.open(input)) {
+            ArchiveReader.Entry entry;
+            while ((entry = reader.next()) != null) {
+                final String relativePath = File.separatorChar
+                        + entry.getName().replace('/', File.separatorChar);
+                if (entry.isDirectory()) {
+                    createDestinationDirectory(relativePath);
+                    continue;
+                }
+                if (archive == null) {
+                    // The archive may not contain the entries of the folders
+                    createDestinationDirectory(relativePath.substring(0,
+                            relativePath.lastIndexOf(File.separatorChar)));
+                }
+
+                final String source = getEntrySource(relativePath);
+                final long size = entry.getSize();
+                if (pipeline != null && size >= 0) {
+                    pipeline.acquire(size);
+                }
+                final long start = System.nanoTime();
+                final byte[] content = entry.readContent();
+                if (profiler.isEnabled()) {
+                    profiler.recordStage(source, Profiler.READ_STAGE,
+                            System.nanoTime() - start, content.length,
+                            content.length);
+                }
+                if (pipeline != null && size < 0) {
+                    // The size is only known once the entry is read
+                    pipeline.acquire(content.length);
+                }
+
+                final File destinationFile = new File(outputPath + relativePath);
+                final boolean phpFile = selector.isPhpFile(destinationFile
+                        .getName(), content, content.length);
+                final boolean selected = selector.locate(relativePath)
+                        .isSelected();
+                final FileJob job = new FileJob(source, null, relativePath,
+                        destinationFile, phpFile && selected, phpFile && !selected
+                                && inputCharset != outputCharset);
+                job.content = content;
+                job.reserved = size >= 0 ? size : content.length;
+                if (pipeline != null) {
+                    pipeline.submit(job);
+                } else {
+                    transform(job, null);
+                    write(job, null);
+                }
+            }
+        }
+    }
+
+    /**
+     * Optimizes or converts a loaded file. The files which are not loaded are
+     * streamed from their source to their destination, or copied or linked.
+     * The entries of an output archive are compressed, the writer only
+     * appends them. This is the work of the optimizer stage of the pipeline.
+     * @param job
+     * The file
+     * @param pipeline
+     * The pipeline in which the file is in flight, null if the file is
+     * processed in the current thread
+     * @throws IOException
+     */
+    private void transform(final FileJob job, final FilePipeline pipeline)
+            throws IOException {
+        if (manifest != null && job.content != null) {
+            // The manifest describes the bytes which are processed
+            job.hash = BuildManifest.hash(job.content, job.content.length);
+            job.size = job.content.length;
+        }
+        if (job.content == null) {
+            if (job.optimized) {
+                optimize(job.sourceFile, job.destination);
+            } else if (job.converted) {
+                convert(job.sourceFile, job.destination);
+            } else {
+                copy(job);
+            }
+        } else if (job.optimized || job.converted) {
+            final TextFileIO io = TextFileIO.get();
+            if (job.optimized) {
+                System.out.println("Optimizing " + job.source);
+                final FileOptimizationEvent event = new FileOptimizationEvent();
+                event.begin();
+                final ChainProfile profile = profiler.isEnabled() ? new ChainProfile()
+                        : null;
+                final CharBuffer inputText = io.decode(job.content,
+                        job.content.length, inputCharset);
+                final StringBuilder result = io.getOutputBuilder();
+                job.lineMap = lineMaps ? new LineMap() : null;
+                chain.optimize(inputText.array(), inputText.limit(), result,
+                        profile, job.lineMap);
+                job.result = io.encode(result, outputCharset);
+                endOptimization(event, job.source, job.content.length,
+                        job.result.length, profile);
+            } else {
+                System.out.println("Copying " + job.source);
+                job.result = io.encode(io.decode(job.content,
+                        job.content.length, inputCharset), outputCharset);
+            }
+            // The result replaces the content in memory
+            job.content = null;
+        } else if (archive != null) {
+            System.out.println("Copying " + job.source);
+        }
+
+        if (archive != null && (job.content != null || job.result != null)) {
+            final byte[] bytes = job.result != null ? job.result : job.content;
+            compress(job, job.destination, bytes);
+            if (job.lineMap != null && !job.lineMap.isIdentity()) {
+                compress(job, new File(job.destination.getPath()
+                        + LINE_MAP_EXTENSION), job.lineMap.toString().getBytes(
+                        StandardCharsets.US_ASCII));
+            }
+            // The compressed entries replace the content in memory
+            job.content = null;
+            job.result = null;
+        }
+        final long size = job.getSize();
+        if (pipeline != null) {
+            pipeline.resize(job.reserved, size);
+        }
+        job.reserved = size;
+    }
+
+    /**
+     * Copies or links a file which is not loaded. The entry of an output
+     * archive is read and compressed, to be appended by the writer.
+     * @param job
+     * The file
+     * @throws IOException
+     */
+    private void copy(final FileJob job) throws IOException {
+        final long start = System.nanoTime();
+        if (archive != null) {
+            System.out.println("Copying " + job.source);
+            final byte[] content = Files.readAllBytes(job.sourceFile.toPath());
+            if (profiler.isEnabled()) {
+                profiler.recordStage(job.source, Profiler.READ_STAGE,
+                        System.nanoTime() - start, content.length,
+                        content.length);
+            }
+            compress(job, job.destination, content);
+            return;
+        }
+        copy(job.sourceFile, job.destination);
+        if (profiler.isEnabled()) {
+            final long size = job.sourceFile.length();
+            profiler.recordStage(job.source, Profiler.COPY_STAGE,
+                    System.nanoTime() - start, size, size);
+        }
+    }
+
+    /**
+     * Compresses an entry of the output archive in the current thread
+     * @param job
+     * The file to which the entry belongs
+     * @param file
+     * The destination of the entry, in the output path
+     * @param content
+     * Its content
+     * @throws IOException
+     */
+    private void compress(final FileJob job, final File file,
+            final byte[] content) throws IOException {
+        final long start = System.nanoTime();
+        final ArchiveWriter.CompressedEntry entry = archive.compressEntry(
+                getEntryPath(file), content, content.length);
+        job.entries.add(entry);
+        if (profiler.isEnabled()) {
+            profiler.recordStage(job.source, Profiler.COMPRESS_STAGE,
+                    System.nanoTime() - start, content.length, entry
+                            .getLength());
+        }
+    }
+
+    /**
+     * Writes the result of a file, or appends its compressed entries to the
+     * output archive, and records it in the manifest. This is the work of the
+     * writer stage of the pipeline.
+     * @param job
+     * The file
+     * @param pipeline
+     * The pipeline in which the file is in flight, null if the file is
+     * processed in the current thread
+     * @throws IOException
+     */
+    private void write(final FileJob job, final FilePipeline pipeline)
+            throws IOException {
+        try {
+            final long start = System.nanoTime();
+            if (!job.entries.isEmpty()) {
+                for (final ArchiveWriter.CompressedEntry entry : job.entries) {
+                    archive.append(entry);
+                }
+                if (profiler.isEnabled()) {
+                    profiler.recordStage(job.source, Profiler.WRITE_STAGE,
+                            System.nanoTime() - start, job.reserved,
+                            job.reserved);
+                }
+            } else if (job.result != null) {
+                writeBytes(job.destination, job.result);
+                if (job.optimized) {
+                    writeLineMap(job.destination, job.lineMap);
+                }
+                if (profiler.isEnabled()) {
+                    profiler.recordStage(job.source, job.optimized
+                            ? Profiler.WRITE_STAGE : Profiler.COPY_STAGE,
+                            System.nanoTime() - start, job.result.length,
+                            job.result.length);
+                }
+            } else if (job.content != null) {
+                System.out.println("Copying " + job.source);
+                writeBytes(job.destination, job.content);
+                if (profiler.isEnabled()) {
+                    profiler.recordStage(job.source, Profiler.COPY_STAGE,
+                            System.nanoTime() - start, job.content.length,
+                            job.content.length);
+                }
+            }
+            if (manifest != null && job.sourceFile != null) {
+                manifest.record(job.relativePath, job.hash, job.size,
+                        job.lastModified);
+            }
+        } finally {
+            if (pipeline != null) {
+                pipeline.release(job.reserved);
+            }
+        }
+    }
+
+    /**
+     * Optimizes or copies a source file
+     * @param fileToOptimize
+     * The file to process
+     * @param relativePath
+     * Its path relative to the input folder
+     * @param position
+     * Its position in the file selection
+     * @throws IOException
+     */
+    private void processFile(final File fileToOptimize, final String relativePath,
+            final FileSelector.Position position) throws IOException {
+        final File destinationFile = new File(outputPath + relativePath);
+        if (manifest != null
+                && manifest.isUpToDate(relativePath, fileToOptimize, destinationFile)) {
+            return;
+        }
+
+        // The state of the file is taken before it's read
+        final long size = fileToOptimize.length();
+        final long lastModified = fileToOptimize.lastModified();
+        final boolean phpFile = selector.isPhpFile(fileToOptimize);
+        if (manifest != null && phpFile
+                && (position.isSelected() || inputCharset != outputCharset)
+                && !isStreamed(fileToOptimize)) {
+            // The file is loaded as bytes to be hashed without reading it again
+            final FileJob job = new FileJob(fileToOptimize.getPath(),
+                    fileToOptimize, relativePath, destinationFile, position
+                            .isSelected(), !position.isSelected());
+            load(job);
+            transform(job, null);
+            write(job, null);
+            return;
+        }
+        if (phpFile && position.isSelected()) {
+            optimize(fileToOptimize, destinationFile);
+        } else {
+            final long start = System.nanoTime();
+            if (phpFile && inputCharset != outputCharset) {
+                convert(fileToOptimize, destinationFile);
             } else {
                 copy(fileToOptimize, destinationFile);
             }
+            if (profiler.isEnabled()) {
+                profiler.recordStage(fileToOptimize.getPath(),
+                        Profiler.COPY_STAGE, System.nanoTime() - start, size, size);
+            }
+        }
+
+        if (manifest != null) {
+            manifest.record(relativePath, null, size, lastModified);
+        }
+    }
+
+    /**
+     * Computes the path of the file in which a source element will be written
+     * @param source
+     * The source file or folder
+     * @return The destination file or folder
+     * @throws IOException
+     */
+    private File getDestinationFile(final File source) throws IOException {
+        return new File(outputPath + getRelativePath(source));
+    }
+
+    /**
+     * Computes the path of a source element relative to the input folder
+     * @param source
+     * The source file or folder
+     * @return The relative path, beginning with a separator (empty for the
+     * input folder)
+     * @throws IOException
+     */
+    private String getRelativePath(final File source) throws IOException {
+        return source.getCanonicalPath().substring(inputPath.length());
+    }
+
+    /**
+     * Returns the manifest file used by the incremental optimization
+     * @return The file, next to the output folder
+     */
+    private File getManifestFile() {
+        return new File(outputPath + ".manifest");
+    }
+
+    /**
+     * Describes everything which has an effect on the generated files
+     * @return The configuration description
+     */
+    private String getConfiguration() {
+        final StringBuilder configuration = new StringBuilder();
+        configuration.append(VERSION).append(';').append(inputPath);
+        configuration.append(';').append(modules);
+        configuration.append(';').append(inputCharset.officialName());
+        configuration.append(';').append(outputCharset.officialName());
+        configuration.append(';').append(includePatterns);
+        configuration.append(';').append(excludePatterns);
+        configuration.append(';').append(extensions);
+        configuration.append(';').append(contentSniffing);
+        configuration.append(';').append(copyMode);
+        configuration.append(';').append(lineMaps);
+        configuration.append(';').append(getDebugCode());
+        configuration.append(';').append(bundles);
+        configuration.append(';').append(preloadFolders);
+        configuration.append(';').append(classMap);
+        return configuration.toString();
+    }
+
+    /**
+     * Removes the generated files whose source has been deleted since the
+     * previous optimization, and the folders they leave empty
+     */
+    private void pruneRemovedFiles() {
+        final File outputFolder = new File(outputPath);
+        for (final String relativePath : manifest.getRemovedFiles()) {
+            File removedFile = new File(outputPath + relativePath);
+            System.out.println("Removing " + removedFile);
+            removedFile.delete();
+            new File(removedFile.getPath() + LINE_MAP_EXTENSION).delete();
+
+            removedFile = removedFile.getParentFile();
+            while (removedFile != null && !removedFile.equals(outputFolder)) {
+                final String[] children = removedFile.list();
+                if (children == null || children.length > 0 || !removedFile.delete()) {
+                    break;
+                }
+                createdDirectories.remove(removedFile.getPath());
+                removedFile = removedFile.getParentFile();
+            }
         }
     }
 
+    /**
+     * Removes the destination of a deleted source file or folder
+     * @param source
+     * The deleted file or folder
+     * @throws IOException
+     */
+    private void remove(final File source) throws IOException {
+        final String relativePath = getRelativePath(source);
+        if (manifest != null) {
+            manifest.forget(relativePath);
+        }
+        final Path destination = new File(outputPath + relativePath).toPath();
+        Files.deleteIfExists(new File(outputPath + relativePath
+                + LINE_MAP_EXTENSION).toPath());
+        if (!Files.exists(destination, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+
+        System.out.println("Removing " + destination);
+        // Links are deleted, not followed
+        Files.walkFileTree(destination, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(final Path file,
+                    final BasicFileAttributes attributes) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(final Path directory,
+                    final IOException e) throws IOException {
+                if (e != null) {
+                    throw e;
+                }
+                Files.delete(directory);
+                createdDirectories.remove(directory.toString());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
     /**
      * Optimizes a file according to the selected modules
      * @param inputFileName
@@ -281,30 +1246,97 @@ public class POptimizer {
     private void optimize(final File inputFileName, final File outputFileName)
             throws IOException {
         System.out.println("Optimizing " + inputFileName);
-        final String inputText = read(inputFileName);
+        final FileOptimizationEvent event = new FileOptimizationEvent();
+        event.begin();
+        final String path = inputFileName.getPath();
+        final ChainProfile profile = profiler.isEnabled() ? new ChainProfile()
+                : null;
+
+        if (isStreamed(inputFileName)) {
+            final LineMap lineMap = lineMaps ? new LineMap() : null;
+            try (Reader reader = openReader(inputFileName);
+                    Writer writer = openWriter(outputFileName)) {
+                chain.optimize(reader, writer, PhpLexer.DEFAULT_BUFFER_SIZE,
+                        profile, lineMap);
+            }
+            writeLineMap(outputFileName, lineMap);
+        } else {
+            final long start = System.nanoTime();
+            final CharBuffer inputText = read(inputFileName);
+            if (profile != null) {
+                profiler.recordStage(path, Profiler.READ_STAGE, System.nanoTime()
+                        - start, inputFileName.length(), inputText.limit());
+            }
+            optimize(path, inputText, outputFileName, profile);
+        }
 
-        write(outputFileName, optimize(inputText));
+        endOptimization(event, path, inputFileName.length(), outputFileName
+                .length(), profile);
     }
 
     /**
-     * Optimizes a string using the optimizing configuration
-     * @param content
-     * The content to optimize
-     * @return The optimized content
+     * Optimizes a loaded text and writes the result
+     * @param path
+     * Path of the source, for the profiling
+     * @param inputText
+     * The text, from the index 0 to the limit of the buffer
+     * @param outputFileName
+     * Destination file
+     * @param profile
+     * Profile receiving the time of the stages of the chain, null if the
+     * optimization is not profiled
+     * @throws IOException
      */
-    private String optimize(final String content) {
-        AbstractOptimizer globalOptimizer = new NeutralOptimizer(content);
+    private void optimize(final String path, final CharBuffer inputText,
+            final File outputFileName, final ChainProfile profile)
+            throws IOException {
+        final StringBuilder result = TextFileIO.get().getOutputBuilder();
+        final LineMap lineMap = lineMaps ? new LineMap() : null;
+        chain.optimize(inputText.array(), inputText.limit(), result, profile,
+                lineMap);
 
-        // Application of the selected optimizers
-        for (final Optimizer optimizer : modules) {
-            globalOptimizer = optimizer.getOptimizer(globalOptimizer);
+        final long start = System.nanoTime();
+        write(outputFileName, result);
+        writeLineMap(outputFileName, lineMap);
+        if (profile != null) {
+            profiler.recordStage(path, Profiler.WRITE_STAGE, System.nanoTime()
+                    - start, result.length(), outputFileName.length());
         }
+    }
 
-        return globalOptimizer.optimize();
+    /**
+     * Records the profile of an optimized file and commits its event
+     * @param event
+     * The event, begun before the file was read
+     * @param path
+     * Path of the source
+     * @param bytesIn
+     * Size of the source
+     * @param bytesOut
+     * Size of the result
+     * @param profile
+     * Profile of the stages of the chain, null if the optimization is not
+     * profiled
+     */
+    private void endOptimization(final FileOptimizationEvent event,
+            final String path, final long bytesIn, final long bytesOut,
+            final ChainProfile profile) {
+        if (profile != null) {
+            profiler.recordStages(path, profile);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.path = path;
+            event.bytesIn = bytesIn;
+            event.bytesOut = bytesOut;
+            event.commit();
+        }
     }
 
     /**
-     * Copies a file that is ignored by the optimizer
+     * Copies a file that is ignored by the optimizer, without reading it: the
+     * bytes are transferred by the system, or the file is linked according to
+     * the copy mode
      * @param inputFile
      * The file to copy
      * @param outputFile
@@ -312,10 +1344,190 @@ public class POptimizer {
      * @throws IOException
      */
     private void copy(final File inputFile, final File outputFile) throws IOException {
+        final Path source = inputFile.toPath();
+        if (archive != null) {
+            System.out.println("Copying " + inputFile);
+            try (OutputStream entry = archive.newEntry(getEntryPath(outputFile))) {
+                Files.copy(source, entry);
+            }
+            return;
+        }
+        final Path target = outputFile.toPath();
+        switch (copyMode) {
+            case SYMBOLIC_LINK:
+                System.out.println("Linking " + inputFile);
+                Files.deleteIfExists(target);
+                Files.createSymbolicLink(target, source.toAbsolutePath());
+                return;
+            case HARD_LINK:
+                System.out.println("Linking " + inputFile);
+                Files.deleteIfExists(target);
+                try {
+                    Files.createLink(target, source);
+                    return;
+                } catch (final FileSystemException e) {
+                    // Probably another file system, the file is copied
+                } catch (final UnsupportedOperationException e) {
+                    // The file system doesn't support hard links
+                }
+                // No break, the file has to be copied
+            case COPY:
+            default:
+                System.out.println("Copying " + inputFile);
+                // A link from a previous optimization would be seen as the
+                // same file
+                Files.deleteIfExists(target);
+                Files.copy(source, target);
+        }
+    }
+
+    /**
+     * Writes the bytes of a file which is not optimized
+     * @param file
+     * The file to write
+     * @param content
+     * Its content
+     * @throws IOException
+     */
+    private void writeBytes(final File file, final byte[] content)
+            throws IOException {
+        if (archive != null) {
+            try (OutputStream entry = archive.newEntry(getEntryPath(file))) {
+                entry.write(content);
+            }
+            return;
+        }
+        // The destination can be a link to a source file
+        Files.deleteIfExists(file.toPath());
+        Files.write(file.toPath(), content);
+    }
+
+    /**
+     * Writes the line map of an optimized file, or removes the one of a
+     * previous optimization if the line numbers didn't change
+     * @param file
+     * The optimized file
+     * @param lineMap
+     * Its line map, null if the line maps are disabled
+     * @throws IOException
+     */
+    private void writeLineMap(final File file, final LineMap lineMap)
+            throws IOException {
+        if (lineMap == null) {
+            return;
+        }
+        final File mapFile = new File(file.getPath() + LINE_MAP_EXTENSION);
+        if (!lineMap.isIdentity()) {
+            writeBytes(mapFile, lineMap.toString().getBytes(
+                    StandardCharsets.US_ASCII));
+        } else if (archive == null) {
+            Files.deleteIfExists(mapFile.toPath());
+        }
+    }
+
+    /**
+     * Copies a PHP file that is ignored by the optimizer, converting it from
+     * the input charset to the output charset
+     * @param inputFile
+     * The file to copy
+     * @param outputFile
+     * The target file
+     * @throws IOException
+     */
+    private void convert(final File inputFile, final File outputFile) throws IOException {
         System.out.println("Copying " + inputFile);
+        if (isStreamed(inputFile)) {
+            try (Reader reader = openReader(inputFile);
+                    Writer writer = openWriter(outputFile)) {
+                final char[] buffer = new char[PhpLexer.DEFAULT_BUFFER_SIZE];
+                int read;
+                while ((read = reader.read(buffer)) >= 0) {
+                    writer.write(buffer, 0, read);
+                }
+            }
+            return;
+        }
         write(outputFile, read(inputFile));
     }
 
+    /**
+     * Tells whether a file is too big to be loaded in memory
+     * @param file
+     * The file to read
+     * @return true if the file must be handled as a stream, false otherwise
+     */
+    private boolean isStreamed(final File file) {
+        return streamingThreshold >= 0 && file.length() >= streamingThreshold;
+    }
+
+    /**
+     * Opens a file to read it as a stream, according to the input charset
+     * @param file
+     * The file to read
+     * @return The stream
+     * @throws IOException
+     */
+    private Reader openReader(final File file) throws IOException {
+        return new InputStreamReader(new FileInputStream(file), inputCharset
+                .associatedCharset());
+    }
+
+    /**
+     * Opens a file to write it as a stream, according to the output charset
+     * @param file
+     * The file to write
+     * @return The stream
+     * @throws IOException
+     */
+    private Writer openWriter(final File file) throws IOException {
+        if (archive != null) {
+            return new BufferedWriter(new OutputStreamWriter(archive
+                    .newEntry(getEntryPath(file)), outputCharset
+                    .associatedCharset()));
+        }
+        // The destination can be a link to a source file
+        Files.deleteIfExists(file.toPath());
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(
+                file), outputCharset.associatedCharset()));
+    }
+
+    /**
+     * Computes the path of a destination file in the output archive
+     * @param destination
+     * The destination file, in the output path
+     * @return Its path relative to the archive root
+     */
+    private String getEntryPath(final File destination) {
+        return destination.getPath().substring(outputPath.length());
+    }
+
+    /**
+     * Names an entry of the input archive in the messages
+     * @param relativePath
+     * Path of the entry relative to the archive root
+     * @return The archive path followed by the entry path
+     */
+    private String getEntrySource(final String relativePath) {
+        return input.getPath() + '!' + relativePath;
+    }
+
+    /**
+     * Ends the output archive. It's deleted if the optimization failed.
+     * @param completed
+     * true if all the files have been processed, false otherwise
+     * @throws IOException
+     */
+    private void closeArchive(final boolean completed) throws IOException {
+        try {
+            archive.close();
+        } finally {
+            archive = null;
+            if (!completed) {
+                Files.deleteIfExists(output.toPath());
+            }
+        }
+    }
+
     /**
      * Creates a destination directory
      * @param destination
@@ -325,9 +1537,147 @@ public class POptimizer {
     private void createDirectory(final File destination) throws IOException {
         System.out.println("Creating directory "
                 + destination.getCanonicalPath());
-        if (!destination.mkdirs()) {
+        // Another thread may have created it in the meantime
+        if (!destination.mkdirs() && !destination.isDirectory()) {
             throw new IOException("Unable to create directory "
                     + destination.getCanonicalPath());
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Pipeline of a parallel optimization: the files are loaded by the
+     * current thread, optimized by the workers and written by the writer
+     */
+    private class FilePipeline extends StagedPipeline<FileJob> {
+        /**
+         * Builds the pipeline and starts its threads
+         */
+        public FilePipeline() {
+            super(parallelism, 2 * parallelism, memoryBudget);
+        }
+
+        @Override
+        protected void transform(final FileJob job) throws IOException {
+            POptimizer.this.transform(job, this);
+        }
+
+        @Override
+        protected void write(final FileJob job) throws IOException {
+            POptimizer.this.write(job, this);
+        }
+    }
+
+    /**
+     * A source file going through the stages of the optimization
+     */
+    private static class FileJob {
+        /**
+         * Path of the source, for the messages
+         */
+        private final String source;
+        /**
+         * The source file, null for an entry of the input archive
+         */
+        private final File sourceFile;
+        /**
+         * Path relative to the input folder
+         */
+        private final String relativePath;
+        /**
+         * The destination file
+         */
+        private final File destination;
+        /**
+         * Tells whether the file is optimized
+         */
+        private final boolean optimized;
+        /**
+         * Tells whether the file is converted from the input charset to the
+         * output charset without being optimized
+         */
+        private final boolean converted;
+        /**
+         * Content of the source, null if it's not loaded
+         */
+        private byte[] content = null;
+        /**
+         * Encoded result, null until the file is optimized or converted
+         */
+        private byte[] result = null;
+        /**
+         * Line map of the optimized file, null if the line maps are disabled
+         */
+        private LineMap lineMap = null;
+        /**
+         * Entries of the output archive compressed by a worker, empty if the
+         * output is a folder
+         */
+        private final List<ArchiveWriter.CompressedEntry> entries = new ArrayList<ArchiveWriter.CompressedEntry>();
+        /**
+         * Number of bytes of the memory budget reserved for the file
+         */
+        private long reserved = 0;
+        /**
+         * Size of the source when the job was created, then size of the
+         * loaded content
+         */
+        private long size = 0;
+        /**
+         * Last modification date of the source when the job was created
+         */
+        private long lastModified = 0;
+        /**
+         * Hash of the loaded content for the manifest, null if it's not hashed
+         */
+        private String hash = null;
+
+        /**
+         * Builds a job
+         * @param sourcePath
+         * Path of the source, for the messages
+         * @param file
+         * The source file, null for an entry of the input archive
+         * @param path
+         * Path relative to the input folder
+         * @param destinationFile
+         * The destination file
+         * @param optimize
+         * true if the file is optimized
+         * @param convert
+         * true if the file is only converted to the output charset
+         */
+        public FileJob(final String sourcePath, final File file,
+                final String path, final File destinationFile,
+                final boolean optimize, final boolean convert) {
+            source = sourcePath;
+            sourceFile = file;
+            relativePath = path;
+            destination = destinationFile;
+            optimized = optimize;
+            converted = convert;
+            if (file != null) {
+                // The state is taken before the file is read
+                size = file.length();
+                lastModified = file.lastModified();
+            }
+        }
+
+        /**
+         * Computes the number of bytes the file holds in memory
+         * @return The size of its content, its result and its entries
+         */
+        public long getSize() {
+            long size = 0;
+            if (content != null) {
+                size += content.length;
+            }
+            if (result != null) {
+                size += result.length;
+            }
+            for (final ArchiveWriter.CompressedEntry entry : entries) {
+                size += entry.getLength();
+            }
+            return size;
+        }
+    }
+}
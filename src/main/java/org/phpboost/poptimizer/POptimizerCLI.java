@@ -21,8 +21,13 @@ import java.io.File;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
 
+import org.phpboost.poptimizer.archive.ArchiveReader;
+import org.phpboost.poptimizer.archive.ArchiveWriter;
+import org.phpboost.poptimizer.loading.Bundle;
+import org.phpboost.poptimizer.optimizers.DebugCode;
 import org.phpboost.poptimizer.optimizers.Optimizer;
 
 /**
@@ -40,10 +45,26 @@ public class POptimizerCLI {
     public static void main(final String[] args) {
         File source = null;
         File destination = null;
-        final List<File> exclude = new ArrayList<File>();
         final List<String> excludePath = new ArrayList<String>();
+        final List<String> includePath = new ArrayList<String>();
+        final List<String> extensions = new ArrayList<String>();
+        boolean sniffing = false;
+        boolean lineMaps = false;
         final List<String> modules = new ArrayList<String>();
+        List<String> debugCalls = null;
+        final List<String> falseConstants = new ArrayList<String>();
+        final List<List<String>> bundles = new ArrayList<List<String>>();
+        List<String> preloadFolders = null;
+        boolean classMap = false;
         FileCharset inputCS = null, outputCS = null;
+        Integer parallelism = null;
+        Long streamingThreshold = null;
+        Long memoryBudget = null;
+        boolean incremental = false;
+        CopyMode copyMode = null;
+        boolean watch = false;
+        boolean profile = false;
+        boolean filter = false, framed = false;
 
         // We catch the arguments with a state transition system
         ArgsStates state = ArgsStates.NORMAL;
@@ -57,6 +78,39 @@ public class POptimizerCLI {
             } else if (arg.equals("-e")) {
                 state = ArgsStates.EXCLUDE;
                 continue;
+            } else if (arg.equals("--include")) {
+                state = ArgsStates.INCLUDE;
+                continue;
+            } else if (arg.equals("--ext")) {
+                state = ArgsStates.EXTENSIONS;
+                continue;
+            } else if (arg.equals("--sniff")) {
+                sniffing = true;
+                state = ArgsStates.NORMAL;
+                continue;
+            } else if (arg.equals("--linemap")) {
+                lineMaps = true;
+                state = ArgsStates.NORMAL;
+                continue;
+            } else if (arg.equals("--debug-calls")) {
+                debugCalls = new ArrayList<String>();
+                state = ArgsStates.DEBUG_CALLS;
+                continue;
+            } else if (arg.equals("--bundle")) {
+                bundles.add(new ArrayList<String>());
+                state = ArgsStates.BUNDLE;
+                continue;
+            } else if (arg.equals("--classmap")) {
+                classMap = true;
+                state = ArgsStates.NORMAL;
+                continue;
+            } else if (arg.equals("--preload")) {
+                preloadFolders = new ArrayList<String>();
+                state = ArgsStates.PRELOAD;
+                continue;
+            } else if (arg.equals("--false-constants")) {
+                state = ArgsStates.FALSE_CONSTANTS;
+                continue;
             } else if (arg.equals("-m")) {
                 state = ArgsStates.MODULES;
                 continue;
@@ -72,6 +126,39 @@ public class POptimizerCLI {
             } else if (arg.equals("-ocs")) {
                 state = ArgsStates.OUTPUT_CHARSET;
                 continue;
+            } else if (arg.equals("-j")) {
+                state = ArgsStates.PARALLELISM;
+                continue;
+            } else if (arg.equals("-stream")) {
+                state = ArgsStates.STREAMING;
+                continue;
+            } else if (arg.equals("-budget")) {
+                state = ArgsStates.BUDGET;
+                continue;
+            } else if (arg.equals("--link")) {
+                state = ArgsStates.LINK;
+                continue;
+            } else if (arg.equals("-incremental")) {
+                incremental = true;
+                state = ArgsStates.NORMAL;
+                continue;
+            } else if (arg.equals("--filter")) {
+                filter = true;
+                state = ArgsStates.NORMAL;
+                continue;
+            } else if (arg.equals("--framed")) {
+                filter = true;
+                framed = true;
+                state = ArgsStates.NORMAL;
+                continue;
+            } else if (arg.equals("--profile")) {
+                profile = true;
+                state = ArgsStates.NORMAL;
+                continue;
+            } else if (arg.equals("--watch")) {
+                watch = true;
+                state = ArgsStates.NORMAL;
+                continue;
             }
 
             switch (state) {
@@ -82,6 +169,12 @@ public class POptimizerCLI {
                 case EXCLUDE:
                     excludePath.add(arg);
                     break;
+                case INCLUDE:
+                    includePath.add(arg);
+                    break;
+                case EXTENSIONS:
+                    extensions.add(arg.replaceFirst("^\\.", ""));
+                    break;
                 case OUTPUT:
                     destination = new File(arg);
                     state = ArgsStates.NORMAL;
@@ -89,28 +182,119 @@ public class POptimizerCLI {
                 case MODULES:
                     modules.add(arg);
                     break;
+                case DEBUG_CALLS:
+                    debugCalls.add(arg);
+                    break;
+                case FALSE_CONSTANTS:
+                    falseConstants.add(arg);
+                    break;
+                case BUNDLE:
+                    bundles.get(bundles.size() - 1).add(arg);
+                    break;
+                case PRELOAD:
+                    preloadFolders.add(arg);
+                    break;
                 case INPUT_CHARSET:
                     inputCS = FileCharset.fromString(arg);
                     break;
                 case OUTPUT_CHARSET:
                     outputCS = FileCharset.fromString(arg);
                     break;
+                case PARALLELISM:
+                    try {
+                        parallelism = Integer.valueOf(arg);
+                    } catch (final NumberFormatException e) {
+                        System.err.println("The number of threads must be an integer: "
+                                + arg);
+                        return;
+                    }
+                    state = ArgsStates.NORMAL;
+                    break;
+                case STREAMING:
+                    try {
+                        streamingThreshold = Long.valueOf(arg) * 1024;
+                    } catch (final NumberFormatException e) {
+                        System.err.println("The streaming threshold must be an integer: "
+                                + arg);
+                        return;
+                    }
+                    state = ArgsStates.NORMAL;
+                    break;
+                case BUDGET:
+                    try {
+                        memoryBudget = Long.valueOf(arg) * 1024 * 1024;
+                    } catch (final NumberFormatException e) {
+                        System.err.println("The memory budget must be an integer: "
+                                + arg);
+                        return;
+                    }
+                    state = ArgsStates.NORMAL;
+                    break;
+                case LINK:
+                    copyMode = CopyMode.fromString(arg);
+                    if (copyMode == null) {
+                        System.err.println("The link mode must be either hard or sym: "
+                                + arg);
+                        return;
+                    }
+                    state = ArgsStates.NORMAL;
+                    break;
                 case NORMAL:
                 default:
                     break;
             }
         }
 
-        for (final String path : excludePath) {
-            // Compute excluded path from the input one.
-            // Could not be done before because parameters order is not defined
-            exclude.add(new File(source.getAbsolutePath() + File.separatorChar
-                    + path.replaceFirst("^/", "")));
+        // In the filter mode, the standard output only contains the code
+        if (filter) {
+            final StreamFilter streamFilter = new StreamFilter(
+                    selectModules(modules), new DebugCode(
+                            debugCalls != null ? debugCalls
+                                    : DebugCode.DEFAULT_CALLS, falseConstants),
+                    inputCS != null ? inputCS
+                            : FileCharset.UTF8, outputCS != null ? outputCS
+                            : FileCharset.UTF8);
+            try {
+                if (framed) {
+                    streamFilter.filterFrames(System.in, System.out);
+                } else {
+                    streamFilter.filter(System.in, System.out);
+                }
+            } catch (final IOException e) {
+                System.err.println("An input/output error had the optimization failed: "
+                        + e.getMessage());
+                // A partial output mustn't be taken for the optimized code
+                System.exit(1);
+            }
+            return;
+        }
+
+        for (final List<String> bundle : bundles) {
+            if (bundle.size() < 2) {
+                System.err.println("A bundle needs a name and at least one pattern: --bundle name.php pattern1 pattern2");
+                return;
+            }
+        }
+        if (destination != null && ArchiveWriter.isArchive(destination)
+                && (!bundles.isEmpty() || preloadFolders != null || classMap)) {
+            System.err.println("The bundles, the preload script and the class map are written in an output folder: --bundle, --preload and --classmap can't be used with an output archive");
+            return;
+        }
+        if (destination != null && ArchiveWriter.isArchive(destination)
+                && (incremental || copyMode != null || watch)) {
+            System.err.println("An output archive is always written entirely: -incremental, --link and --watch can't be used");
+            return;
+        }
+        if (source != null && ArchiveReader.isArchive(source)
+                && (incremental || copyMode != null || watch)) {
+            System.err.println("An input archive is always read entirely: -incremental, --link and --watch can't be used");
+            return;
         }
 
         POptimizer optimizer;
         try {
-            optimizer = new POptimizer(source, destination, exclude);
+            optimizer = new POptimizer(source, destination,
+                    new ArrayList<File>());
         } catch (final POptimizerConfigurationException e) {
             System.err.println("POptmizer's configuration is not correct: "
                     + e.getMessage());
@@ -126,6 +310,29 @@ public class POptimizerCLI {
         System.out
                 .println("------------------------------------------------------------");
 
+        // The patterns are relative to the input folder
+        for (final String path : excludePath) {
+            optimizer.addExcludePattern(path);
+        }
+        for (final String path : includePath) {
+            optimizer.addIncludePattern(path);
+        }
+        if (!extensions.isEmpty()) {
+            optimizer.setExtensions(extensions);
+        }
+        optimizer.setContentSniffing(sniffing);
+        optimizer.setLineMaps(lineMaps);
+        if (debugCalls != null) {
+            optimizer.setDebugCalls(debugCalls);
+        }
+        optimizer.setFalseConstants(falseConstants);
+        for (final List<String> bundle : bundles) {
+            optimizer.addBundle(new Bundle(bundle.get(0), bundle.subList(1,
+                    bundle.size())));
+        }
+        optimizer.setPreload(preloadFolders);
+        optimizer.setClassMap(classMap);
+
         if (inputCS != null) {
             optimizer.setInputCharset(inputCS);
         }
@@ -134,25 +341,30 @@ public class POptimizerCLI {
             optimizer.setOutputCharset(outputCS);
         }
 
-        // We select all the modules if the user doesn't choose the modules he
-        // wants to apply
-        if (modules.size() == 0) {
-            optimizer.selectAllModules();
-        } else {
-            // Otherwise, we enable the modules he chose
-            for (final String module : modules) {
-                if (module.equals("all")) {
-                    optimizer.selectAllModules();
-                    // We stop the modules browsing here
-                    break;
-                }
-                final Optimizer optimizerModule = Optimizer.fromString(module);
-                if (optimizerModule != null) {
-                    optimizer.selectModule(optimizerModule);
-                }
-            }
+        if (parallelism != null) {
+            optimizer.setParallelism(parallelism);
+        }
+
+        if (streamingThreshold != null) {
+            optimizer.setStreamingThreshold(streamingThreshold);
+        }
+
+        if (memoryBudget != null) {
+            optimizer.setMemoryBudget(memoryBudget);
+        }
+
+        optimizer.setIncremental(incremental);
+
+        if (copyMode != null) {
+            optimizer.setCopyMode(copyMode);
+        }
+
+        for (final Optimizer module : selectModules(modules)) {
+            optimizer.selectModule(module);
         }
 
+        optimizer.getProfiler().setStatisticsEnabled(profile);
+
         // Bench
         final BigDecimal beginTime = BigDecimal.valueOf(System.currentTimeMillis());
 
@@ -174,10 +386,52 @@ public class POptimizerCLI {
                 .println("------------------------------------------------------------");
         System.out.println("Optimization achieved in " + timeLength
                 + " seconds");
+        if (profile) {
+            System.out
+                    .println("------------------------------------------------------------");
+            optimizer.getProfiler().printReport(System.out);
+        }
+
+        if (watch) {
+            try {
+                new DirectoryWatcher(optimizer, source, destination,
+                        DirectoryWatcher.DEFAULT_DEBOUNCE_DELAY).watch();
+            } catch (final IOException e) {
+                System.err.println("An input/output error had the watch failed: "
+                        + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Computes the modules selected by the user
+     * @param modules
+     * Names of the modules given on the command line
+     * @return The selected modules
+     */
+    private static EnumSet<Optimizer> selectModules(final List<String> modules) {
+        // We select the default modules if the user doesn't choose the modules
+        // he wants to apply
+        if (modules.size() == 0) {
+            return Optimizer.defaults();
+        }
+        // Otherwise, we enable the modules he chose
+        final EnumSet<Optimizer> selection = EnumSet.noneOf(Optimizer.class);
+        for (final String module : modules) {
+            if (module.equals("all")) {
+                selection.addAll(Optimizer.defaults());
+                continue;
+            }
+            final Optimizer optimizerModule = Optimizer.fromString(module);
+            if (optimizerModule != null) {
+                selection.add(optimizerModule);
+            }
+        }
+        return selection;
     }
 
     private static enum ArgsStates {
-        INPUT, OUTPUT, EXCLUDE, MODULES, INPUT_CHARSET, OUTPUT_CHARSET, NORMAL
+        INPUT, OUTPUT, EXCLUDE, INCLUDE, EXTENSIONS, MODULES, DEBUG_CALLS, FALSE_CONSTANTS, BUNDLE, PRELOAD, INPUT_CHARSET, OUTPUT_CHARSET, PARALLELISM, STREAMING, BUDGET, LINK, NORMAL
     };
 
     /**
@@ -186,23 +440,69 @@ public class POptimizerCLI {
     private static void printHelp() {
         System.out.println("poptimizer Options");
         System.out
-                .println("\t-i path: Input path (can refer to a file or a folder)");
+                .println("\t-i path: Input path (can refer to a file or a folder). A .zip, .tar.gz or .tgz file is read as an archive whose entries are optimized without being extracted");
+        System.out
+                .println("\t-o path: Output path (must be a folder, if it doesn't exist, it will be created). A path ending with .zip, .tar.gz or .tgz is written as an archive, without creating the tree");
         System.out
-                .println("\t-o path: Output path (must be a folder, if it doesn't exist, it will be created");
+                .println("\t-e path1 path2: Paths to exclude (these files will be copied but not optimized). Paths are glob patterns relative to the input folder: * and ? match the characters of a name, ** any number of folders, and a folder pattern matches all its content");
         System.out
-                .println("\t-e path1 path2: Paths to exclude (these files will be copied but not optimized)");
+                .println("\t--include path1 path2: Patterns of the files to optimize, the other ones are copied (all the PHP files by default)");
+        System.out
+                .println("\t--ext ext1 ext2: Extensions of the PHP files (php by default), for instance php inc phtml");
+        System.out
+                .println("\t--sniff: Extensionless files beginning with <?php or with a php shebang line are optimized too");
         System.out
                 .println("\t-m module1 module2 ... modulen: Optimize modules you want to apply");
         System.out
                 .println("\t\tcomments: this module will clean all your comments. It doesn't modifies the line numbers");
+        System.out
+                .println("\t\tstrip-debug: this module will remove the statements calling a debug function (see --debug-calls) and the if (false) blocks (see --false-constants). It must be chosen explicitly");
+        System.out
+                .println("\t\tfold: this module will replace the concatenations of literal strings ('a' . 'b') and the arithmetic of literal integers (60 * 60) by their result. It must be chosen explicitly");
+        System.out
+                .println("\t\tmangle: this module will give short names to the local variables of the functions. It must be chosen explicitly");
         System.out
                 .println("\t\tspaces: this module will clean all the useless spaces in the code (indentation, spaces between operators...)");
         System.out
-                .println("\t\tall: all the modules will be applied (default)");
+                .println("\t\thtml: this module will collapse the spaces and remove the comments of the HTML outside the PHP tags, except in pre, textarea, script and style. It must be chosen explicitly");
+        System.out
+                .println("\t\tspaces-aggressive: this module will also remove the line breaks wherever PHP allows it, the line numbers change. It must be chosen explicitly");
+        System.out
+                .println("\t\tall: all the modules except the explicit ones will be applied (default), for instance -m all html");
+        System.out
+                .println("\t--debug-calls call1 call2: Calls removed by the strip-debug module (assert by default), for instance assert Debug::dump '$logger->debug'");
+        System.out
+                .println("\t--false-constants name1 name2: Constants declared false, the strip-debug module removes the if blocks testing them, for instance DEBUG");
+        System.out
+                .println("\t--bundle name.php pattern1 pattern2: Gathers the optimized class files matching the patterns in name.php, relative to the output folder, and makes the require statements of these files require it. Can be repeated, a file goes in the first matching bundle");
+        System.out
+                .println("\t--preload folder1 folder2: Writes a preload.php file in the output folder requiring the class files of the folders (all if none) in dependency order, for the opcache.preload setting of PHP 7.4+");
+        System.out
+                .println("\t--classmap: Writes a classmap.php file in the output folder returning an array from each declared class to the path of its file, for an autoloader");
+        System.out
+                .println("\t--linemap: Writes a file.php.linemap next to the optimized files whose line breaks were removed, mapping their lines to the source lines");
+        System.out
+                .println("\t-ics input charset: Charset in which are encoded the PHP files (optimized and excluded). Must be either UTF-8, UTF-16, US-ASCII or ISO-8859-1");
+        System.out
+                .println("\t-ocs output charset: Charset in which the optimized or excluded PHP files are written. Must be either UTF-8, UTF-16, US-ASCII or ISO-8859-1. The other files are copied unchanged");
+        System.out
+                .println("\t-j threads: Number of threads optimizing the files in parallel (1 by default, 0 to use all the processors)");
+        System.out
+                .println("\t-stream size: Files bigger than size kilobytes are read and written as streams, with a constant memory usage (0 streams all the files)");
+        System.out
+                .println("\t-budget size: Megabytes the files loaded by a parallel optimization can hold, the reading waits above it (256 by default)");
+        System.out
+                .println("\t--link hard|sym: The files which are not optimized are hard linked or symbolically linked instead of being copied");
+        System.out
+                .println("\t-incremental: Only processes the files which changed since the previous optimization (a manifest is stored next to the output folder)");
+        System.out
+                .println("\t--filter: Optimizes the PHP code read on the standard input and writes it on the standard output (no -i and -o)");
+        System.out
+                .println("\t--framed: Like --filter, but for several files: each file is sent as its length in bytes (32 bits big-endian integer) followed by its content, and answered the same way");
         System.out
-                .println("\t-ics input charset: Charset in which are encoded the files (optimized and not optimized). Must be either UTF-8, UTF-16, US-ASCII or ISO-8859-1");
+                .println("\t--profile: Prints the latency percentiles of each stage (traversal, read, lexer, each module, printer, compress, write, copy) at the end of the optimization");
         System.out
-                .println("\t-ocs output charset: Charset in which the optimized or copied files are written. Must be either UTF-8, UTF-16, US-ASCII or ISO-8859-1");
+                .println("\t--watch: After the optimization, keeps watching the input and processes again the files as soon as they change");
         System.out.println("\t-v: Prints the version of POptimizer you use");
         System.out.println("\t-h: Prints help");
     }
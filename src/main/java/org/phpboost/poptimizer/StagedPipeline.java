@@ -0,0 +1,336 @@
+/**
+ * Copyright (C) 2009 Loïc Rouchon <horn@phpboost.com>, Benoit Sautel <ben.popeye@phpboost.com>
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.phpboost.poptimizer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * This class processes items in three stages running concurrently: the
+ * calling thread reads the items and submits them, worker threads transform
+ * them, and a writer thread writes them. The stages are connected by bounded
+ * queues, and the items in flight share a byte budget: the reading blocks
+ * when the budget is used up, until some items have been written. The memory
+ * used by a run therefore doesn't depend on the size of the tree.
+ * <p>
+ * When a stage fails, the following items are drained without being
+ * processed, and the failure is thrown to the reading thread.
+ * </p>
+ * @param <T>
+ * Type of the items
+ * @author Benoit Sautel &lt;ben.popeye@phpboost.com&gt; Loic Rouchon
+ * &lt;horn@phpboost.com&gt;
+ */
+public abstract class StagedPipeline<T> implements Closeable {
+    /**
+     * Marker put in the queues after the last item
+     */
+    private static final Object END = new Object();
+
+    /**
+     * Items waiting to be transformed
+     */
+    private final BlockingQueue<Object> transformQueue;
+    /**
+     * Items waiting to be written
+     */
+    private final BlockingQueue<Object> writeQueue;
+    /**
+     * The worker threads
+     */
+    private final List<Thread> workers = new ArrayList<Thread>();
+    /**
+     * The writer thread
+     */
+    private final Thread writer;
+    /**
+     * Maximum number of bytes in flight
+     */
+    private final long budget;
+    /**
+     * Number of bytes in flight
+     */
+    private long inFlight = 0;
+    /**
+     * First failure of a stage, null while everything works
+     */
+    private volatile Throwable failure = null;
+    /**
+     * Tells whether the failure has been thrown to the reading thread
+     */
+    private boolean failureThrown = false;
+    /**
+     * Tells whether the pipeline has been closed
+     */
+    private boolean closed = false;
+
+    /**
+     * Builds a pipeline and starts its threads
+     * @param workerCount
+     * Number of threads transforming the items
+     * @param queueCapacity
+     * Number of items each queue can hold
+     * @param byteBudget
+     * Number of bytes the items in flight can hold
+     */
+    public StagedPipeline(final int workerCount, final int queueCapacity,
+            final long byteBudget) {
+        budget = byteBudget;
+        transformQueue = new ArrayBlockingQueue<Object>(queueCapacity);
+        writeQueue = new ArrayBlockingQueue<Object>(queueCapacity);
+        for (int i = 0; i < workerCount; i++) {
+            workers.add(newThread("poptimizer-worker-" + (i + 1), transformQueue,
+                    writeQueue));
+        }
+        writer = newThread("poptimizer-writer", writeQueue, null);
+        for (final Thread worker : workers) {
+            worker.start();
+        }
+        writer.start();
+    }
+
+    /**
+     * Reserves some bytes of the budget before an item is read. It blocks
+     * while the budget is used up; an item bigger than the budget waits until
+     * nothing else is in flight.
+     * @param bytes
+     * Number of bytes the item will hold
+     * @throws IOException
+     * If a stage failed or if the thread is interrupted
+     */
+    public synchronized void acquire(final long bytes) throws IOException {
+        while (failure == null && inFlight > 0 && inFlight + bytes > budget) {
+            try {
+                wait();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(
+                        "Interrupted while waiting for memory");
+            }
+        }
+        checkFailure();
+        inFlight += bytes;
+    }
+
+    /**
+     * Changes the number of bytes an item holds, without blocking. It's used
+     * when a stage replaces the content of an item.
+     * @param previousBytes
+     * Number of bytes reserved for the item
+     * @param bytes
+     * Number of bytes it holds now
+     */
+    public synchronized void resize(final long previousBytes, final long bytes) {
+        inFlight += bytes - previousBytes;
+        notifyAll();
+    }
+
+    /**
+     * Gives back the bytes of an item which left the pipeline
+     * @param bytes
+     * Number of bytes reserved for the item
+     */
+    public synchronized void release(final long bytes) {
+        inFlight -= bytes;
+        notifyAll();
+    }
+
+    /**
+     * Submits an item to the workers. It blocks while their queue is full.
+     * @param item
+     * The item, read
+     * @throws IOException
+     * If a stage failed or if the thread is interrupted
+     */
+    public void submit(final T item) throws IOException {
+        checkFailure();
+        put(transformQueue, item);
+    }
+
+    /**
+     * Waits until all the submitted items have been written and stops the
+     * threads
+     * @throws IOException
+     * If a stage failed
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (int i = 0; i < workers.size(); i++) {
+            put(transformQueue, END);
+        }
+        join(workers);
+        put(writeQueue, END);
+        final List<Thread> writers = new ArrayList<Thread>();
+        writers.add(writer);
+        join(writers);
+        checkFailure();
+    }
+
+    /**
+     * Transforms an item, in a worker thread
+     * @param item
+     * The item
+     * @throws IOException
+     */
+    protected abstract void transform(T item) throws IOException;
+
+    /**
+     * Writes an item, in the writer thread. It must release the bytes of the
+     * item, even if it fails.
+     * @param item
+     * The item
+     * @throws IOException
+     */
+    protected abstract void write(T item) throws IOException;
+
+    /**
+     * Creates the thread of a stage
+     * @param name
+     * Name of the thread
+     * @param input
+     * Queue of the items to process
+     * @param output
+     * Queue receiving the processed items, null for the last stage
+     * @return The thread, not started
+     */
+    private Thread newThread(final String name, final BlockingQueue<Object> input,
+            final BlockingQueue<Object> output) {
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runStage(input, output);
+            }
+        }, name);
+        // A failure of the main thread must not keep the program running
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * Processes the items of a queue until its end marker
+     * @param input
+     * Queue of the items to process
+     * @param output
+     * Queue receiving the processed items, null for the last stage
+     */
+    @SuppressWarnings("unchecked")
+    private void runStage(final BlockingQueue<Object> input,
+            final BlockingQueue<Object> output) {
+        try {
+            Object item;
+            while ((item = input.take()) != END) {
+                if (failure != null) {
+                    // The items are drained so that no stage blocks
+                    continue;
+                }
+                try {
+                    if (output == null) {
+                        write((T) item);
+                    } else {
+                        transform((T) item);
+                        output.put(item);
+                    }
+                } catch (final Throwable e) {
+                    // The thread keeps draining its queue
+                    fail(e);
+                }
+            }
+        } catch (final InterruptedException e) {
+            fail(new InterruptedIOException("Pipeline interrupted"));
+        }
+    }
+
+    /**
+     * Records the failure of a stage and wakes up the reading thread
+     * @param cause
+     * The failure
+     */
+    private synchronized void fail(final Throwable cause) {
+        if (failure == null) {
+            failure = cause;
+        }
+        notifyAll();
+    }
+
+    /**
+     * Throws the failure of a stage to the reading thread, only once
+     * @throws IOException
+     */
+    private void checkFailure() throws IOException {
+        final Throwable cause = failure;
+        if (cause == null || failureThrown) {
+            return;
+        }
+        failureThrown = true;
+        if (cause instanceof IOException) {
+            throw (IOException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+    }
+
+    /**
+     * Puts an item in a queue, waiting for space
+     * @param queue
+     * The queue
+     * @param item
+     * The item
+     * @throws IOException
+     * If the thread is interrupted
+     */
+    private static void put(final BlockingQueue<Object> queue, final Object item)
+            throws IOException {
+        try {
+            queue.put(item);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while submitting");
+        }
+    }
+
+    /**
+     * Waits for the end of some threads
+     * @param threads
+     * The threads
+     * @throws IOException
+     * If the thread is interrupted
+     */
+    private static void join(final List<Thread> threads) throws IOException {
+        try {
+            for (final Thread thread : threads) {
+                thread.join();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while finishing");
+        }
+    }
+}
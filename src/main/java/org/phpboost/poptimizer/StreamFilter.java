@@ -0,0 +1,220 @@
+/**
+ * Copyright (C) 2009 Loïc Rouchon <horn@phpboost.com>, Benoit Sautel <ben.popeye@phpboost.com>
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.phpboost.poptimizer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Set;
+
+import org.phpboost.poptimizer.lexer.PhpLexer;
+import org.phpboost.poptimizer.optimizers.DebugCode;
+import org.phpboost.poptimizer.optimizers.Optimizer;
+import org.phpboost.poptimizer.optimizers.OptimizerChain;
+
+/**
+ * This class optimizes PHP code read from a stream instead of a file, so that
+ * POptimizer can be used as a filter (a git filter for instance) or by a
+ * program which already has the files in memory.
+ * <p>
+ * In the framed mode, a single process optimizes any number of files: each
+ * file is sent as a frame made of its length in bytes (a big-endian 32 bits
+ * integer) followed by its content in the input charset. Each frame is
+ * answered by a frame containing the optimized content in the output charset,
+ * and the output is flushed after each answer. The end of the input stream
+ * between two frames ends the filter.
+ * </p>
+ * @author Benoit Sautel &lt;ben.popeye@phpboost.com&gt; Loic Rouchon
+ * &lt;horn@phpboost.com&gt;
+ */
+public class StreamFilter {
+    /**
+     * Optimization chain
+     */
+    private final OptimizerChain chain;
+    /**
+     * Charset of the code to read
+     */
+    private final FileCharset inputCharset;
+    /**
+     * Charset in which the code is written
+     */
+    private final FileCharset outputCharset;
+
+    /**
+     * Builds a filter
+     * @param modules
+     * Selected modules
+     * @param inputCS
+     * Charset of the code to read
+     * @param outputCS
+     * Charset in which the code is written
+     */
+    public StreamFilter(final Set<Optimizer> modules, final FileCharset inputCS,
+            final FileCharset outputCS) {
+        this(modules, DebugCode.DEFAULT, inputCS, outputCS);
+    }
+
+    /**
+     * Builds a filter removing some debug code
+     * @param modules
+     * Selected modules
+     * @param debugCode
+     * The debug code removed by the strip-debug module
+     * @param inputCS
+     * Charset of the code to read
+     * @param outputCS
+     * Charset in which the code is written
+     */
+    public StreamFilter(final Set<Optimizer> modules,
+            final DebugCode debugCode, final FileCharset inputCS,
+            final FileCharset outputCS) {
+        chain = new OptimizerChain(modules, debugCode);
+        inputCharset = inputCS;
+        outputCharset = outputCS;
+    }
+
+    /**
+     * Optimizes a whole stream, as a single file. The code is streamed, so its
+     * size is not limited by the memory.
+     * @param input
+     * Stream to read
+     * @param output
+     * Stream in which the optimized code is written
+     * @throws IOException
+     */
+    public void filter(final InputStream input, final OutputStream output)
+            throws IOException {
+        final Reader reader = new InputStreamReader(input, inputCharset
+                .associatedCharset());
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(output,
+                outputCharset.associatedCharset()));
+        chain.optimize(reader, writer, PhpLexer.DEFAULT_BUFFER_SIZE);
+        writer.flush();
+    }
+
+    /**
+     * Optimizes the frames of a stream until its end
+     * @param input
+     * Stream of frames to read
+     * @param output
+     * Stream in which the optimized frames are written
+     * @return The number of optimized frames
+     * @throws IOException
+     */
+    public int filterFrames(final InputStream input, final OutputStream output)
+            throws IOException {
+        final DataInputStream frames = new DataInputStream(
+                new BufferedInputStream(input));
+        final DataOutputStream results = new DataOutputStream(
+                new BufferedOutputStream(output));
+        final CharsetDecoder decoder = newDecoder();
+        final CharsetEncoder encoder = newEncoder();
+        final StringBuilder result = new StringBuilder();
+        byte[] frame = new byte[0];
+        int count = 0;
+
+        int length;
+        while ((length = readLength(frames)) >= 0) {
+            if (frame.length < length) {
+                frame = new byte[Math.max(length, frame.length * 2)];
+            }
+            try {
+                frames.readFully(frame, 0, length);
+            } catch (final EOFException e) {
+                throw new EOFException("Truncated frame: " + length
+                        + " bytes announced");
+            }
+
+            final CharBuffer code = decoder.decode(ByteBuffer.wrap(frame, 0,
+                    length));
+            result.setLength(0);
+            chain.optimize(code.array(), code.limit(), result);
+            final ByteBuffer optimized = encoder.encode(CharBuffer.wrap(result));
+
+            results.writeInt(optimized.remaining());
+            results.write(optimized.array(), optimized.arrayOffset()
+                    + optimized.position(), optimized.remaining());
+            results.flush();
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Reads the length of the next frame
+     * @param frames
+     * Stream of frames
+     * @return The length in bytes, -1 at the end of the stream
+     * @throws IOException
+     */
+    private static int readLength(final DataInputStream frames)
+            throws IOException {
+        final int firstByte = frames.read();
+        if (firstByte < 0) {
+            return -1;
+        }
+        final int length;
+        try {
+            length = firstByte << 24 | frames.readUnsignedByte() << 16
+                    | frames.readUnsignedShort();
+        } catch (final EOFException e) {
+            throw new EOFException("Truncated frame length");
+        }
+        if (length < 0) {
+            throw new IOException("Invalid frame length: " + length);
+        }
+        return length;
+    }
+
+    /**
+     * Creates a decoder of the input charset
+     * @return The decoder, replacing malformed input as the file reader does
+     */
+    private CharsetDecoder newDecoder() {
+        return inputCharset.associatedCharset().newDecoder().onMalformedInput(
+                CodingErrorAction.REPLACE).onUnmappableCharacter(
+                CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * Creates an encoder of the output charset
+     * @return The encoder, replacing unmappable characters as the file writer
+     * does
+     */
+    private CharsetEncoder newEncoder() {
+        return outputCharset.associatedCharset().newEncoder().onMalformedInput(
+                CodingErrorAction.REPLACE).onUnmappableCharacter(
+                CodingErrorAction.REPLACE);
+    }
+}
@@ -0,0 +1,414 @@
+/**
+ * Copyright (C) 2009 Loïc Rouchon <horn@phpboost.com>, Benoit Sautel <ben.popeye@phpboost.com>
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.phpboost.poptimizer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * This class reads and writes text files through file channels. Each thread
+ * has its own instance, which keeps its buffers and its charset decoders and
+ * encoders from a file to the next one, so that reading or writing a file
+ * allocates almost nothing. Big files are mapped in memory instead of being
+ * copied in a buffer.
+ * @author Benoit Sautel &lt;ben.popeye@phpboost.com&gt; Loic Rouchon
+ * &lt;horn@phpboost.com&gt;
+ */
+public final class TextFileIO {
+    /**
+     * Size (in bytes) from which a file is mapped in memory to be read
+     */
+    public static final long MAPPING_THRESHOLD = 1 << 20;
+    /**
+     * Size of the byte buffer used to read and write the channels
+     */
+    private static final int BYTE_BUFFER_SIZE = 65536;
+    /**
+     * Capacity (in characters) above which a buffer isn't kept for the next
+     * files
+     */
+    private static final int MAX_POOLED_CHARS = 4 << 20;
+
+    /**
+     * Instance of each thread
+     */
+    private static final ThreadLocal<TextFileIO> INSTANCES = new ThreadLocal<TextFileIO>() {
+        @Override
+        protected TextFileIO initialValue() {
+            return new TextFileIO();
+        }
+    };
+
+    /**
+     * Decoders, by charset
+     */
+    private final Map<FileCharset, CharsetDecoder> decoders = new EnumMap<FileCharset, CharsetDecoder>(
+            FileCharset.class);
+    /**
+     * Encoders, by charset
+     */
+    private final Map<FileCharset, CharsetEncoder> encoders = new EnumMap<FileCharset, CharsetEncoder>(
+            FileCharset.class);
+    /**
+     * Buffer of the bytes read or written
+     */
+    private final ByteBuffer bytes = ByteBuffer.allocate(BYTE_BUFFER_SIZE);
+    /**
+     * Buffer of the characters to write
+     */
+    private final CharBuffer outputChars = CharBuffer.allocate(BYTE_BUFFER_SIZE);
+    /**
+     * Buffer receiving the characters of the files read
+     */
+    private CharBuffer chars = CharBuffer.allocate(BYTE_BUFFER_SIZE);
+    /**
+     * Builder in which the optimized content is produced
+     */
+    private final StringBuilder output = new StringBuilder(BYTE_BUFFER_SIZE);
+
+    /**
+     * Returns the instance of the current thread
+     * @return The instance
+     */
+    public static TextFileIO get() {
+        return INSTANCES.get();
+    }
+
+    /**
+     * Builds an instance, only one is needed per thread
+     */
+    private TextFileIO() {
+    }
+
+    /**
+     * Reads a text file. The returned buffer belongs to this instance, it's
+     * only valid until the next file is read by the thread.
+     * @param file
+     * The file to read
+     * @param charset
+     * Charset of the file
+     * @return A buffer whose array contains the characters of the file, from
+     * the index 0 to the limit
+     * @throws IOException
+     */
+    public CharBuffer read(final File file, final FileCharset charset)
+            throws IOException {
+        final CharsetDecoder decoder = getDecoder(charset);
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            final long size = channel.size();
+            prepareChars((long) (size * decoder.averageCharsPerByte()) + 16);
+
+            if (size >= MAPPING_THRESHOLD) {
+                final MappedByteBuffer mapped = channel.map(
+                        FileChannel.MapMode.READ_ONLY, 0, size);
+                decode(decoder, mapped, true);
+            } else {
+                bytes.clear();
+                while (channel.read(bytes) >= 0) {
+                    bytes.flip();
+                    // The bytes of an incomplete character are kept
+                    decode(decoder, bytes, false);
+                    bytes.compact();
+                }
+                bytes.flip();
+                decode(decoder, bytes, true);
+            }
+        }
+        return endDecoding(decoder);
+    }
+
+    /**
+     * Decodes a text which is already loaded, for instance an archive entry.
+     * The returned buffer belongs to this instance, it's only valid until the
+     * next file is read by the thread.
+     * @param content
+     * The encoded text
+     * @param length
+     * Number of bytes of the text
+     * @param charset
+     * Charset of the text
+     * @return A buffer whose array contains the characters of the text, from
+     * the index 0 to the limit
+     */
+    public CharBuffer decode(final byte[] content, final int length,
+            final FileCharset charset) {
+        final CharsetDecoder decoder = getDecoder(charset);
+        prepareChars((long) (length * decoder.averageCharsPerByte()) + 16);
+        decode(decoder, ByteBuffer.wrap(content, 0, length), true);
+        return endDecoding(decoder);
+    }
+
+    /**
+     * Flushes a decoder in the character buffer and prepares the buffer to be
+     * read
+     * @param decoder
+     * The decoder
+     * @return The character buffer
+     */
+    private CharBuffer endDecoding(final CharsetDecoder decoder) {
+        while (decoder.flush(chars).isOverflow()) {
+            growChars();
+        }
+        chars.flip();
+        return chars;
+    }
+
+    /**
+     * Returns the builder in which the thread can produce the content of a
+     * file, emptied
+     * @return The builder
+     */
+    public StringBuilder getOutputBuilder() {
+        output.setLength(0);
+        if (output.capacity() > MAX_POOLED_CHARS) {
+            // The builder grew for a big file, its memory is released
+            output.trimToSize();
+        }
+        return output;
+    }
+
+    /**
+     * Writes a text file
+     * @param file
+     * The file to write
+     * @param content
+     * Its content
+     * @param charset
+     * Charset in which the file is written
+     * @throws IOException
+     */
+    public void write(final File file, final CharSequence content,
+            final FileCharset charset) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            encode(content, charset, channel);
+        }
+    }
+
+    /**
+     * Writes a text in a stream, which is not closed
+     * @param stream
+     * The stream
+     * @param content
+     * The text
+     * @param charset
+     * Charset in which the text is written
+     * @throws IOException
+     */
+    public void write(final OutputStream stream, final CharSequence content,
+            final FileCharset charset) throws IOException {
+        encode(content, charset, Channels.newChannel(stream));
+    }
+
+    /**
+     * Encodes a text in a new array
+     * @param content
+     * The text
+     * @param charset
+     * Charset in which the text is encoded
+     * @return The encoded text
+     * @throws IOException
+     */
+    public byte[] encode(final CharSequence content, final FileCharset charset)
+            throws IOException {
+        final ByteArrayOutputStream result = new ByteArrayOutputStream(content
+                .length() + 16);
+        write(result, content, charset);
+        return result.toByteArray();
+    }
+
+    /**
+     * Encodes a text in a channel
+     * @param content
+     * The text
+     * @param charset
+     * Charset in which the text is written
+     * @param channel
+     * The channel
+     * @throws IOException
+     */
+    private void encode(final CharSequence content, final FileCharset charset,
+            final WritableByteChannel channel) throws IOException {
+        final CharsetEncoder encoder = getEncoder(charset);
+        bytes.clear();
+        final int length = content.length();
+        int position = 0;
+        do {
+            // The content is encoded by parts through the character buffer
+            int end = Math.min(length, position + outputChars.capacity());
+            if (end < length && Character.isHighSurrogate(content.charAt(end - 1))) {
+                // A surrogate pair is encoded in one part
+                end--;
+            }
+            copyChars(content, position, end);
+            position = end;
+
+            final boolean endOfInput = position == length;
+            CoderResult result;
+            do {
+                result = encoder.encode(outputChars, bytes, endOfInput);
+                if (result.isOverflow()) {
+                    writeBytes(channel);
+                }
+            } while (result.isOverflow());
+        } while (position < length);
+
+        while (encoder.flush(bytes).isOverflow()) {
+            writeBytes(channel);
+        }
+        writeBytes(channel);
+    }
+
+    /**
+     * Copies a part of a content in the output character buffer
+     * @param content
+     * The content
+     * @param start
+     * Index of the first character to copy
+     * @param end
+     * Index following the last character to copy
+     */
+    private void copyChars(final CharSequence content, final int start,
+            final int end) {
+        final char[] destination = outputChars.array();
+        if (content instanceof StringBuilder) {
+            ((StringBuilder) content).getChars(start, end, destination, 0);
+        } else if (content instanceof String) {
+            ((String) content).getChars(start, end, destination, 0);
+        } else if (content instanceof CharBuffer && ((CharBuffer) content).hasArray()) {
+            final CharBuffer source = (CharBuffer) content;
+            System.arraycopy(source.array(), source.arrayOffset()
+                    + source.position() + start, destination, 0, end - start);
+        } else {
+            for (int i = start; i < end; i++) {
+                destination[i - start] = content.charAt(i);
+            }
+        }
+        outputChars.position(0);
+        outputChars.limit(end - start);
+    }
+
+    /**
+     * Writes the content of the byte buffer in a channel and empties it
+     * @param channel
+     * The channel
+     * @throws IOException
+     */
+    private void writeBytes(final WritableByteChannel channel) throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        bytes.clear();
+    }
+
+    /**
+     * Decodes some bytes in the character buffer, which grows if needed
+     * @param decoder
+     * The decoder
+     * @param input
+     * The bytes
+     * @param endOfInput
+     * Tells whether these are the last bytes of the file
+     */
+    private void decode(final CharsetDecoder decoder, final ByteBuffer input,
+            final boolean endOfInput) {
+        while (decoder.decode(input, chars, endOfInput).isOverflow()) {
+            growChars();
+        }
+    }
+
+    /**
+     * Empties the character buffer and makes sure it can contain a number of
+     * characters. A buffer too big to be kept is only used for one file.
+     * @param capacity
+     * The number of characters
+     */
+    private void prepareChars(final long capacity) {
+        if (chars.capacity() > MAX_POOLED_CHARS || chars.capacity() < capacity) {
+            chars = CharBuffer.allocate((int) Math.min(Integer.MAX_VALUE - 8,
+                    Math.max(capacity, BYTE_BUFFER_SIZE)));
+        }
+        chars.clear();
+    }
+
+    /**
+     * Doubles the capacity of the character buffer, keeping its content
+     */
+    private void growChars() {
+        final CharBuffer bigger = CharBuffer.allocate(chars.capacity() * 2);
+        chars.flip();
+        bigger.put(chars);
+        chars = bigger;
+    }
+
+    /**
+     * Returns the decoder of a charset, ready to decode a file
+     * @param charset
+     * The charset
+     * @return The decoder
+     */
+    private CharsetDecoder getDecoder(final FileCharset charset) {
+        CharsetDecoder decoder = decoders.get(charset);
+        if (decoder == null) {
+            // Same behaviour as the String constructor
+            decoder = charset.associatedCharset().newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            decoders.put(charset, decoder);
+        }
+        decoder.reset();
+        return decoder;
+    }
+
+    /**
+     * Returns the encoder of a charset, ready to encode a file
+     * @param charset
+     * The charset
+     * @return The encoder
+     */
+    private CharsetEncoder getEncoder(final FileCharset charset) {
+        CharsetEncoder encoder = encoders.get(charset);
+        if (encoder == null) {
+            // Same behaviour as String.getBytes
+            encoder = charset.associatedCharset().newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            encoders.put(charset, encoder);
+        }
+        encoder.reset();
+        return encoder;
+    }
+}
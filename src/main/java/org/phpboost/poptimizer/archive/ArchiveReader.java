@@ -0,0 +1,189 @@
+/**
+ * Copyright (C) 2009 Loïc Rouchon <horn@phpboost.com>, Benoit Sautel <ben.popeye@phpboost.com>
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.phpboost.poptimizer.archive;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * This class reads the entries of an archive one after the other, as a
+ * stream, so that the sources can be optimized without being extracted.
+ * @author Benoit Sautel &lt;ben.popeye@phpboost.com&gt; Loic Rouchon
+ * &lt;horn@phpboost.com&gt;
+ */
+public abstract class ArchiveReader implements Closeable {
+    /**
+     * Charset of the entry names
+     */
+    protected static final Charset NAME_CHARSET = Charset.forName("UTF-8");
+
+    /**
+     * Tells whether a file is an archive this class can read
+     * @param file
+     * The file
+     * @return true for an existing .zip, .tar.gz or .tgz file, false otherwise
+     */
+    public static boolean isArchive(final File file) {
+        return file.isFile() && ArchiveWriter.isArchive(file);
+    }
+
+    /**
+     * Opens an archive, in the format given by its extension
+     * @param file
+     * The archive file (.zip, .tar.gz or .tgz)
+     * @return The reader
+     * @throws IOException
+     */
+    public static ArchiveReader open(final File file) throws IOException {
+        final InputStream stream = new BufferedInputStream(new FileInputStream(
+                file), 1 << 16);
+        if (file.getName().toLowerCase().endsWith(".zip")) {
+            return new ZipArchiveReader(stream);
+        }
+        return new TarGzArchiveReader(stream);
+    }
+
+    /**
+     * Moves to the next entry
+     * @return The next entry, null at the end of the archive
+     * @throws IOException
+     */
+    public abstract Entry next() throws IOException;
+
+    /**
+     * Returns the stream of the content of the current entry
+     * @return The stream, which must not be closed
+     */
+    protected abstract InputStream getContentStream();
+
+    /**
+     * Reads the content of the current entry
+     * @param size
+     * Size of the entry if it's known, negative otherwise
+     * @return The content
+     * @throws IOException
+     */
+    protected byte[] readContent(final long size) throws IOException {
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IOException("The entry is too big to be loaded in memory");
+        }
+        final ByteArrayOutputStream content = new ByteArrayOutputStream(
+                size >= 0 ? (int) size : 8192);
+        final byte[] buffer = new byte[8192];
+        final InputStream stream = getContentStream();
+        int read;
+        while ((read = stream.read(buffer)) >= 0) {
+            content.write(buffer, 0, read);
+        }
+        return content.toByteArray();
+    }
+
+    /**
+     * Checks the name of an entry and normalizes it
+     * @param name
+     * The name found in the archive
+     * @return The name, with slashes, without leading nor trailing slash
+     * @throws IOException
+     * If the name would be written outside of the output folder
+     */
+    protected static String normalizeName(final String name) throws IOException {
+        final String normalized = name.replace('\\', '/').replaceAll("^/+|/+$",
+                "");
+        for (final String segment : normalized.split("/")) {
+            if (segment.equals("..")) {
+                throw new IOException("Invalid entry name: " + name);
+            }
+        }
+        return normalized;
+    }
+
+    /**
+     * Entry of an archive. Its content can only be read before moving to the
+     * next entry.
+     */
+    public class Entry {
+        /**
+         * Name of the entry, separated by slashes
+         */
+        private final String name;
+        /**
+         * Tells whether the entry is a folder
+         */
+        private final boolean directory;
+        /**
+         * Size of the content, negative if it's unknown
+         */
+        private final long size;
+
+        /**
+         * Builds an entry
+         * @param entryName
+         * Name of the entry, separated by slashes
+         * @param directoryEntry
+         * true for a folder
+         * @param contentSize
+         * Size of the content, negative if it's unknown
+         */
+        protected Entry(final String entryName, final boolean directoryEntry,
+                final long contentSize) {
+            name = entryName;
+            directory = directoryEntry;
+            size = contentSize;
+        }
+
+        /**
+         * Returns the name of the entry
+         * @return The path in the archive, separated by slashes
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Tells whether the entry is a folder
+         * @return true for a folder, false for a file
+         */
+        public boolean isDirectory() {
+            return directory;
+        }
+
+        /**
+         * Returns the size of the content
+         * @return The size in bytes, negative if the archive doesn't give it
+         * before the content
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * Reads the content of the entry
+         * @return The content
+         * @throws IOException
+         */
+        public byte[] readContent() throws IOException {
+            return ArchiveReader.this.readContent(size);
+        }
+    }
+}
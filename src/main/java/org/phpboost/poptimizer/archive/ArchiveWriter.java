@@ -0,0 +1,291 @@
+/**
+ * Copyright (C) 2009 Loïc Rouchon <horn@phpboost.com>, Benoit Sautel <ben.popeye@phpboost.com>
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.phpboost.poptimizer.archive;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * This class writes the optimized tree in an archive instead of a folder. The
+ * entries can be added by several threads at once: each entry is compressed
+ * by the thread which produced it, then appended to the archive file, which
+ * is written sequentially. An entry can also be compressed by one thread
+ * (compressEntry) and appended later by another one (append).
+ * @author Benoit Sautel &lt;ben.popeye@phpboost.com&gt; Loic Rouchon
+ * &lt;horn@phpboost.com&gt;
+ */
+public abstract class ArchiveWriter implements Closeable {
+    /**
+     * Charset of the entry names
+     */
+    protected static final Charset NAME_CHARSET = Charset.forName("UTF-8");
+
+    /**
+     * The archive file
+     */
+    private final OutputStream output;
+    /**
+     * Modification date given to the entries
+     */
+    private final long time;
+    /**
+     * Number of bytes written in the archive file
+     */
+    private long position = 0;
+
+    /**
+     * Tells whether a file is an archive this class can write, according to
+     * its extension
+     * @param file
+     * The file
+     * @return true for a .zip, .tar.gz or .tgz file, false otherwise
+     */
+    public static boolean isArchive(final File file) {
+        final String name = file.getName().toLowerCase();
+        return name.endsWith(".zip") || name.endsWith(".tar.gz")
+                || name.endsWith(".tgz");
+    }
+
+    /**
+     * Creates an archive, in the format given by its extension
+     * @param file
+     * The archive file (.zip, .tar.gz or .tgz)
+     * @param entriesTime
+     * Modification date given to the entries
+     * @return The writer
+     * @throws IOException
+     */
+    public static ArchiveWriter open(final File file, final long entriesTime)
+            throws IOException {
+        final OutputStream stream = new BufferedOutputStream(
+                new FileOutputStream(file), 1 << 16);
+        if (file.getName().toLowerCase().endsWith(".zip")) {
+            return new ZipArchiveWriter(stream, entriesTime);
+        }
+        return new TarGzArchiveWriter(stream, entriesTime);
+    }
+
+    /**
+     * Builds a writer
+     * @param stream
+     * The archive file
+     * @param entriesTime
+     * Modification date given to the entries
+     */
+    protected ArchiveWriter(final OutputStream stream, final long entriesTime) {
+        output = stream;
+        time = entriesTime;
+    }
+
+    /**
+     * Adds a folder
+     * @param path
+     * Its path relative to the archive root
+     * @throws IOException
+     */
+    public void addDirectory(final String path) throws IOException {
+        append(compress(toEntryName(path) + '/', true, new byte[0], 0));
+    }
+
+    /**
+     * Opens a file entry. Its content is compressed and appended to the
+     * archive when the stream is closed.
+     * @param path
+     * Its path relative to the archive root
+     * @return The stream receiving the content of the file
+     */
+    public OutputStream newEntry(final String path) {
+        final String name = toEntryName(path);
+        return new ByteArrayOutputStream(8192) {
+            private boolean closed = false;
+
+            @Override
+            public void close() throws IOException {
+                if (!closed) {
+                    closed = true;
+                    append(compress(name, false, buf, count));
+                }
+            }
+        };
+    }
+
+    /**
+     * Compresses the content of a file entry in the current thread, without
+     * appending it to the archive
+     * @param path
+     * Its path relative to the archive root
+     * @param content
+     * Buffer containing the content of the file
+     * @param length
+     * Size of the content
+     * @return The compressed entry, to give to append
+     * @throws IOException
+     */
+    public CompressedEntry compressEntry(final String path,
+            final byte[] content, final int length) throws IOException {
+        return compress(toEntryName(path), false, content, length);
+    }
+
+    /**
+     * Appends an entry to the archive file
+     * @param entry
+     * The compressed entry
+     * @throws IOException
+     */
+    public synchronized void append(final CompressedEntry entry)
+            throws IOException {
+        writeEntry(entry);
+    }
+
+    /**
+     * Ends the archive and closes its file
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            synchronized (this) {
+                finish();
+            }
+        } finally {
+            output.close();
+        }
+    }
+
+    /**
+     * Returns the modification date of the entries
+     * @return The date in milliseconds
+     */
+    protected long getTime() {
+        return time;
+    }
+
+    /**
+     * Returns the number of bytes written so far in the archive file
+     * @return The position of the next byte
+     */
+    protected long getPosition() {
+        return position;
+    }
+
+    /**
+     * Writes bytes in the archive file
+     * @param bytes
+     * The bytes
+     * @param offset
+     * Index of the first byte
+     * @param length
+     * Number of bytes
+     * @throws IOException
+     */
+    protected void write(final byte[] bytes, final int offset, final int length)
+            throws IOException {
+        output.write(bytes, offset, length);
+        position += length;
+    }
+
+    /**
+     * Compresses an entry. It's called by the thread producing the entry,
+     * without any lock.
+     * @param name
+     * Name of the entry, folders ending with a slash
+     * @param directory
+     * true for a folder, false for a file
+     * @param content
+     * Buffer containing the content of the file
+     * @param length
+     * Size of the content
+     * @return The compressed entry
+     * @throws IOException
+     */
+    protected abstract CompressedEntry compress(String name, boolean directory,
+            byte[] content, int length) throws IOException;
+
+    /**
+     * Writes a compressed entry at the end of the archive file. Only one entry
+     * is written at once.
+     * @param entry
+     * The entry
+     * @throws IOException
+     */
+    protected abstract void writeEntry(CompressedEntry entry) throws IOException;
+
+    /**
+     * Writes the end of the archive, after the last entry
+     * @throws IOException
+     */
+    protected abstract void finish() throws IOException;
+
+    /**
+     * Converts a relative path into an entry name
+     * @param path
+     * Path relative to the archive root, with the system separator
+     * @return The name, with slashes and without leading slash
+     */
+    private static String toEntryName(final String path) {
+        return path.replace(File.separatorChar, '/').replaceFirst("^/+", "");
+    }
+
+    /**
+     * Entry compressed by a thread, waiting to be written
+     */
+    public static class CompressedEntry {
+        /**
+         * Name of the entry
+         */
+        protected final String name;
+        /**
+         * Buffer containing the compressed bytes
+         */
+        protected final byte[] data;
+        /**
+         * Number of compressed bytes
+         */
+        protected final int length;
+
+        /**
+         * Builds an entry
+         * @param entryName
+         * Name of the entry
+         * @param compressedData
+         * Buffer containing the compressed bytes
+         * @param compressedLength
+         * Number of compressed bytes
+         */
+        protected CompressedEntry(final String entryName,
+                final byte[] compressedData, final int compressedLength) {
+            name = entryName;
+            data = compressedData;
+            length = compressedLength;
+        }
+
+        /**
+         * Returns the number of compressed bytes the entry holds
+         * @return The size in bytes
+         */
+        public int getLength() {
+            return length;
+        }
+    }
+}
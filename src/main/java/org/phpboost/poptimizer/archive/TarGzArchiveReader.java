@@ -0,0 +1,312 @@
+/**
+ * Copyright (C) 2009 Loïc Rouchon <horn@phpboost.com>, Benoit Sautel <ben.popeye@phpboost.com>
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.phpboost.poptimizer.archive;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * This class reads a gzipped tar archive as a stream. It understands the ustar
+ * format, the pax extended headers and the GNU long names. The entries which
+ * are neither files nor folders (links, devices...) are skipped.
+ * @author Benoit Sautel &lt;ben.popeye@phpboost.com&gt; Loic Rouchon
+ * &lt;horn@phpboost.com&gt;
+ */
+class TarGzArchiveReader extends ArchiveReader {
+    /**
+     * Size of a tar block
+     */
+    private static final int BLOCK_SIZE = 512;
+
+    /**
+     * The decompressed archive
+     */
+    private final InputStream tar;
+    /**
+     * Header block being read
+     */
+    private final byte[] header = new byte[BLOCK_SIZE];
+    /**
+     * Number of bytes of the current entry which have not been read
+     */
+    private long remaining = 0;
+    /**
+     * Number of padding bytes following the current entry
+     */
+    private int padding = 0;
+    /**
+     * Stream of the content of the current entry
+     */
+    private final InputStream content;
+
+    /**
+     * Builds a reader
+     * @param stream
+     * The archive file
+     * @throws IOException
+     */
+    TarGzArchiveReader(final InputStream stream) throws IOException {
+        tar = new GZIPInputStream(stream, 1 << 16);
+        content = new FilterInputStream(tar) {
+            @Override
+            public int read() throws IOException {
+                final byte[] oneByte = new byte[1];
+                return read(oneByte, 0, 1) < 0 ? -1 : oneByte[0] & 0xFF;
+            }
+
+            @Override
+            public int read(final byte[] buffer, final int offset,
+                    final int length) throws IOException {
+                if (remaining <= 0) {
+                    return -1;
+                }
+                final int read = in.read(buffer, offset, (int) Math.min(length,
+                        remaining));
+                if (read < 0) {
+                    throw new EOFException("Truncated tar entry");
+                }
+                remaining -= read;
+                return read;
+            }
+
+            @Override
+            public void close() {
+                // The archive stays open
+            }
+        };
+    }
+
+    @Override
+    public Entry next() throws IOException {
+        String longName = null;
+        while (true) {
+            skip(remaining + padding);
+            if (!readBlock(header)) {
+                return null;
+            }
+            if (isEmptyBlock(header)) {
+                // End of the archive
+                return null;
+            }
+
+            final char type = (char) header[156];
+            final long size = parseOctal(header, 124, 12);
+            remaining = size;
+            padding = (int) ((BLOCK_SIZE - size % BLOCK_SIZE) % BLOCK_SIZE);
+
+            if (type == 'x' || type == 'L') {
+                final String value = new String(readContent(size), NAME_CHARSET);
+                longName = type == 'L' ? trimNull(value) : parsePaxPath(value,
+                        longName);
+                continue;
+            }
+            if (type == 'g') {
+                // Global pax header
+                continue;
+            }
+
+            String name = longName;
+            if (name == null) {
+                name = parseString(header, 0, 100);
+                final String prefix = parseString(header, 345, 155);
+                if (!prefix.isEmpty() && isUstar()) {
+                    name = prefix + '/' + name;
+                }
+            }
+            longName = null;
+            final boolean directory = type == '5' || name.endsWith("/");
+            final boolean file = type == '0' || type == '\0' || type == '7';
+            name = normalizeName(name);
+            if ((directory || file) && !name.isEmpty()) {
+                return new Entry(name, directory, directory ? 0 : size);
+            }
+        }
+    }
+
+    @Override
+    protected InputStream getContentStream() {
+        return content;
+    }
+
+    @Override
+    public void close() throws IOException {
+        tar.close();
+    }
+
+    /**
+     * Tells whether the current header is in the ustar format
+     * @return true if it has the ustar magic
+     */
+    private boolean isUstar() {
+        return header[257] == 'u' && header[258] == 's' && header[259] == 't'
+                && header[260] == 'a' && header[261] == 'r';
+    }
+
+    /**
+     * Reads a block
+     * @param block
+     * The buffer receiving the block
+     * @return true if a block was read, false at the end of the stream
+     * @throws IOException
+     */
+    private boolean readBlock(final byte[] block) throws IOException {
+        int length = 0;
+        while (length < block.length) {
+            final int read = tar.read(block, length, block.length - length);
+            if (read < 0) {
+                if (length == 0) {
+                    return false;
+                }
+                throw new EOFException("Truncated tar header");
+            }
+            length += read;
+        }
+        return true;
+    }
+
+    /**
+     * Skips bytes of the archive
+     * @param count
+     * Number of bytes to skip
+     * @throws IOException
+     */
+    private void skip(final long count) throws IOException {
+        long left = count;
+        while (left > 0) {
+            final long skipped = tar.skip(left);
+            if (skipped <= 0) {
+                if (tar.read() < 0) {
+                    throw new EOFException("Truncated tar entry");
+                }
+                left--;
+            } else {
+                left -= skipped;
+            }
+        }
+        remaining = 0;
+        padding = 0;
+    }
+
+    /**
+     * Tells whether a block only contains zeros
+     * @param block
+     * The block
+     * @return true if it's empty
+     */
+    private static boolean isEmptyBlock(final byte[] block) {
+        for (final byte aByte : block) {
+            if (aByte != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads an octal number field
+     * @param block
+     * The header block
+     * @param offset
+     * Offset of the field
+     * @param length
+     * Length of the field
+     * @return The number
+     * @throws IOException
+     */
+    private static long parseOctal(final byte[] block, final int offset,
+            final int length) throws IOException {
+        if ((block[offset] & 0x80) != 0) {
+            // Base-256 encoding of the big sizes
+            long value = block[offset] & 0x7F;
+            for (int i = offset + 1; i < offset + length; i++) {
+                value = value << 8 | block[i] & 0xFF;
+            }
+            return value;
+        }
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            final byte digit = block[i];
+            if (digit == 0 || digit == ' ') {
+                if (value > 0) {
+                    break;
+                }
+                continue;
+            }
+            if (digit < '0' || digit > '7') {
+                throw new IOException("Invalid tar header");
+            }
+            value = value * 8 + digit - '0';
+        }
+        return value;
+    }
+
+    /**
+     * Reads a string field, ending at the first null character
+     * @param block
+     * The header block
+     * @param offset
+     * Offset of the field
+     * @param length
+     * Length of the field
+     * @return The string
+     */
+    private static String parseString(final byte[] block, final int offset,
+            final int length) {
+        int end = offset;
+        while (end < offset + length && block[end] != 0) {
+            end++;
+        }
+        return new String(block, offset, end - offset, NAME_CHARSET);
+    }
+
+    /**
+     * Finds the path in the records of a pax extended header
+     * @param records
+     * The records (length keyword=value)
+     * @param defaultPath
+     * Path to return if there is no path record
+     * @return The path
+     */
+    private static String parsePaxPath(final String records,
+            final String defaultPath) {
+        for (final String record : records.split("\n")) {
+            final int space = record.indexOf(' ');
+            if (space > 0 && record.startsWith("path=", space + 1)) {
+                return record.substring(space + 6);
+            }
+        }
+        return defaultPath;
+    }
+
+    /**
+     * Removes the trailing null characters of a GNU long name
+     * @param value
+     * The name
+     * @return The trimmed name
+     */
+    private static String trimNull(final String value) {
+        int end = value.length();
+        while (end > 0 && value.charAt(end - 1) == 0) {
+            end--;
+        }
+        return value.substring(0, end);
+    }
+}
@@ -0,0 +1,273 @@
+/**
+ * Copyright (C) 2009 Loïc Rouchon <horn@phpboost.com>, Benoit Sautel <ben.popeye@phpboost.com>
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.phpboost.poptimizer.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * This class writes a gzipped tar archive. Each entry (its tar headers, its
+ * content and its padding) is compressed as a separate gzip member, so that
+ * the entries can be compressed in parallel: the concatenation of gzip members
+ * is a valid gzip file, which gunzip and tar decompress as a whole.
+ * @author Benoit Sautel &lt;ben.popeye@phpboost.com&gt; Loic Rouchon
+ * &lt;horn@phpboost.com&gt;
+ */
+class TarGzArchiveWriter extends ArchiveWriter {
+    /**
+     * Size of a tar block
+     */
+    private static final int BLOCK_SIZE = 512;
+    /**
+     * Maximum length of the name field
+     */
+    private static final int NAME_LENGTH = 100;
+    /**
+     * Maximum length of the prefix field
+     */
+    private static final int PREFIX_LENGTH = 155;
+
+    /**
+     * Builds a writer
+     * @param stream
+     * The archive file
+     * @param entriesTime
+     * Modification date given to the entries
+     */
+    TarGzArchiveWriter(final OutputStream stream, final long entriesTime) {
+        super(stream, entriesTime);
+    }
+
+    @Override
+    protected CompressedEntry compress(final String name, final boolean directory,
+            final byte[] content, final int length) throws IOException {
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream(
+                length / 3 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed, 8192)) {
+            writeHeaders(gzip, name, directory, length);
+            gzip.write(content, 0, length);
+            gzip.write(new byte[padding(length)]);
+        }
+        return new CompressedEntry(name, compressed.toByteArray(), compressed
+                .size());
+    }
+
+    @Override
+    protected void writeEntry(final CompressedEntry entry) throws IOException {
+        write(entry.data, 0, entry.length);
+    }
+
+    @Override
+    protected void finish() throws IOException {
+        // Two empty blocks end the archive
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(new byte[2 * BLOCK_SIZE]);
+        }
+        write(compressed.toByteArray(), 0, compressed.size());
+    }
+
+    /**
+     * Writes the headers of an entry. A name which doesn't fit in the ustar
+     * name and prefix fields is given by a pax extended header.
+     * @param output
+     * The stream
+     * @param name
+     * Name of the entry
+     * @param directory
+     * true for a folder
+     * @param size
+     * Size of the content
+     * @throws IOException
+     */
+    private void writeHeaders(final OutputStream output, final String name,
+            final boolean directory, final long size) throws IOException {
+        final byte[] nameBytes = name.getBytes(NAME_CHARSET);
+        int split = -1;
+        if (nameBytes.length > NAME_LENGTH) {
+            // The prefix ends at a slash, the name is the end of the path
+            for (int i = nameBytes.length - 1; i > 0; i--) {
+                if (nameBytes[i] == '/' && i < nameBytes.length - 1) {
+                    if (i <= PREFIX_LENGTH && nameBytes.length - i - 1 <= NAME_LENGTH) {
+                        split = i;
+                        break;
+                    }
+                }
+            }
+            if (split < 0) {
+                final byte[] record = paxRecord("path", name);
+                output.write(header("PaxHeaders/entry", null, 'x', record.length));
+                output.write(record);
+                output.write(new byte[padding(record.length)]);
+                output.write(header(truncate(nameBytes), null, directory ? '5'
+                        : '0', size));
+                return;
+            }
+        }
+        if (split < 0) {
+            output.write(header(nameBytes, null, directory ? '5' : '0', size));
+        } else {
+            final byte[] prefix = new byte[split];
+            System.arraycopy(nameBytes, 0, prefix, 0, split);
+            final byte[] shortName = new byte[nameBytes.length - split - 1];
+            System.arraycopy(nameBytes, split + 1, shortName, 0, shortName.length);
+            output.write(header(shortName, prefix, directory ? '5' : '0', size));
+        }
+    }
+
+    /**
+     * Builds a ustar header
+     * @param name
+     * Content of the name field
+     * @param prefix
+     * Content of the prefix field, null if empty
+     * @param type
+     * Type of the entry
+     * @param size
+     * Size of the content
+     * @return The header block
+     */
+    private byte[] header(final byte[] name, final byte[] prefix,
+            final char type, final long size) {
+        final byte[] header = new byte[BLOCK_SIZE];
+        System.arraycopy(name, 0, header, 0, Math.min(name.length, NAME_LENGTH));
+        putOctal(header, 100, 8, type == '5' ? 0755 : 0644);
+        putOctal(header, 108, 8, 0);
+        putOctal(header, 116, 8, 0);
+        putOctal(header, 124, 12, size);
+        putOctal(header, 136, 12, getTime() / 1000);
+        header[156] = (byte) type;
+        putString(header, 257, "ustar");
+        putString(header, 263, "00");
+        putString(header, 265, "root");
+        putString(header, 297, "root");
+        if (prefix != null) {
+            System.arraycopy(prefix, 0, header, 345, prefix.length);
+        }
+
+        // The checksum is computed with its own field filled with spaces
+        for (int i = 148; i < 156; i++) {
+            header[i] = ' ';
+        }
+        long checksum = 0;
+        for (final byte aByte : header) {
+            checksum += aByte & 0xFF;
+        }
+        putOctal(header, 148, 7, checksum);
+        return header;
+    }
+
+    /**
+     * Builds a ustar header whose name is a string
+     * @param name
+     * The name
+     * @param prefix
+     * Content of the prefix field, null if empty
+     * @param type
+     * Type of the entry
+     * @param size
+     * Size of the content
+     * @return The header block
+     */
+    private byte[] header(final String name, final byte[] prefix,
+            final char type, final long size) {
+        return header(name.getBytes(NAME_CHARSET), prefix, type, size);
+    }
+
+    /**
+     * Builds a pax extended header record
+     * @param keyword
+     * The keyword
+     * @param value
+     * The value
+     * @return The record, beginning with its own length
+     */
+    private static byte[] paxRecord(final String keyword, final String value) {
+        final int contentLength = (" " + keyword + "=" + value + "\n")
+                .getBytes(NAME_CHARSET).length;
+        int length = contentLength + String.valueOf(contentLength).length();
+        // The length may gain a digit by counting itself
+        if (String.valueOf(length).length() > String.valueOf(contentLength)
+                .length()) {
+            length++;
+        }
+        return (length + " " + keyword + "=" + value + "\n")
+                .getBytes(NAME_CHARSET);
+    }
+
+    /**
+     * Keeps the beginning of a name which doesn't fit in the name field
+     * @param name
+     * The name
+     * @return The name field
+     */
+    private static byte[] truncate(final byte[] name) {
+        final byte[] truncated = new byte[Math.min(name.length, NAME_LENGTH)];
+        System.arraycopy(name, 0, truncated, 0, truncated.length);
+        return truncated;
+    }
+
+    /**
+     * Writes a number in octal, followed by a null character
+     * @param header
+     * The header block
+     * @param offset
+     * Offset of the field
+     * @param length
+     * Length of the field
+     * @param value
+     * The number
+     */
+    private static void putOctal(final byte[] header, final int offset,
+            final int length, final long value) {
+        final String digits = Long.toOctalString(value);
+        int position = offset + length - 1;
+        header[position--] = 0;
+        for (int i = digits.length() - 1; position >= offset; i--) {
+            header[position--] = (byte) (i >= 0 ? digits.charAt(i) : '0');
+        }
+    }
+
+    /**
+     * Writes an ASCII string
+     * @param header
+     * The header block
+     * @param offset
+     * Offset of the field
+     * @param value
+     * The string
+     */
+    private static void putString(final byte[] header, final int offset,
+            final String value) {
+        for (int i = 0; i < value.length(); i++) {
+            header[offset + i] = (byte) value.charAt(i);
+        }
+    }
+
+    /**
+     * Computes the number of bytes completing the last block of a content
+     * @param length
+     * Size of the content
+     * @return The number of padding bytes
+     */
+    private static int padding(final long length) {
+        return (int) ((BLOCK_SIZE - length % BLOCK_SIZE) % BLOCK_SIZE);
+    }
+}
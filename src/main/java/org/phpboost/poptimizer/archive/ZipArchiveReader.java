@@ -0,0 +1,66 @@
+/**
+ * Copyright (C) 2009 Loïc Rouchon <horn@phpboost.com>, Benoit Sautel <ben.popeye@phpboost.com>
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.phpboost.poptimizer.archive;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * This class reads a zip archive as a stream, from its local headers.
+ * @author Benoit Sautel &lt;ben.popeye@phpboost.com&gt; Loic Rouchon
+ * &lt;horn@phpboost.com&gt;
+ */
+class ZipArchiveReader extends ArchiveReader {
+    /**
+     * The archive
+     */
+    private final ZipInputStream zip;
+
+    /**
+     * Builds a reader
+     * @param stream
+     * The archive file
+     */
+    ZipArchiveReader(final InputStream stream) {
+        zip = new ZipInputStream(stream, NAME_CHARSET);
+    }
+
+    @Override
+    public Entry next() throws IOException {
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+            final String name = normalizeName(entry.getName());
+            if (!name.isEmpty()) {
+                return new Entry(name, entry.isDirectory(), entry.getSize());
+            }
+        }
+        return null;
+    }
+
+    @Override
+    protected InputStream getContentStream() {
+        return zip;
+    }
+
+    @Override
+    public void close() throws IOException {
+        zip.close();
+    }
+}
@@ -0,0 +1,320 @@
+/**
+ * Copyright (C) 2009 Loïc Rouchon <horn@phpboost.com>, Benoit Sautel <ben.popeye@phpboost.com>
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.phpboost.poptimizer.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * This class writes a zip archive. The entries are deflated in parallel, so
+ * the file format is written by this class rather than by ZipOutputStream,
+ * which compresses the entries while writing them. The Zip64 extensions are
+ * used when the archive has too many entries or is too big for the original
+ * format.
+ * @author Benoit Sautel &lt;ben.popeye@phpboost.com&gt; Loic Rouchon
+ * &lt;horn@phpboost.com&gt;
+ */
+class ZipArchiveWriter extends ArchiveWriter {
+    /**
+     * Biggest value of a 16 bits field
+     */
+    private static final int MAX_SHORT = 0xFFFF;
+    /**
+     * Biggest value of a 32 bits field
+     */
+    private static final long MAX_INT = 0xFFFFFFFFL;
+    /**
+     * Flag telling that the names are encoded in UTF-8
+     */
+    private static final int UTF8_FLAG = 0x0800;
+
+    /**
+     * Entries written so far, for the central directory
+     */
+    private final List<ZipEntry> entries = new ArrayList<ZipEntry>();
+    /**
+     * Date of the entries in the MS-DOS format
+     */
+    private final long dosTime;
+
+    /**
+     * Builds a writer
+     * @param stream
+     * The archive file
+     * @param entriesTime
+     * Modification date given to the entries
+     */
+    ZipArchiveWriter(final OutputStream stream, final long entriesTime) {
+        super(stream, entriesTime);
+        dosTime = toDosTime(entriesTime);
+    }
+
+    @Override
+    protected CompressedEntry compress(final String name, final boolean directory,
+            final byte[] content, final int length) {
+        final CRC32 crc = new CRC32();
+        crc.update(content, 0, length);
+        if (length == 0) {
+            return new ZipEntry(name, directory, content, 0, 0, 0, crc.getValue());
+        }
+
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(content, 0, length);
+            deflater.finish();
+            byte[] compressed = new byte[Math.max(64, length / 2)];
+            int compressedLength = 0;
+            while (!deflater.finished()) {
+                if (compressedLength == compressed.length) {
+                    if (compressedLength >= length) {
+                        // Incompressible content, it's stored
+                        return new ZipEntry(name, directory, content, length, 0,
+                                length, crc.getValue());
+                    }
+                    final byte[] bigger = new byte[compressed.length * 2];
+                    System.arraycopy(compressed, 0, bigger, 0, compressedLength);
+                    compressed = bigger;
+                }
+                compressedLength += deflater.deflate(compressed,
+                        compressedLength, compressed.length - compressedLength);
+            }
+            return new ZipEntry(name, directory, compressed, compressedLength,
+                    Deflater.DEFLATED, length, crc.getValue());
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    protected void writeEntry(final CompressedEntry compressedEntry)
+            throws IOException {
+        final ZipEntry entry = (ZipEntry) compressedEntry;
+        entry.offset = getPosition();
+        final byte[] name = entry.name.getBytes(NAME_CHARSET);
+
+        final Header header = new Header();
+        header.writeInt(0x04034b50);
+        header.writeShort(20);
+        header.writeShort(UTF8_FLAG);
+        header.writeShort(entry.method);
+        header.writeInt(dosTime);
+        header.writeInt(entry.crc);
+        header.writeInt(entry.length);
+        header.writeInt(entry.size);
+        header.writeShort(name.length);
+        header.writeShort(0);
+        header.write(name, 0, name.length);
+        header.writeTo(this);
+
+        write(entry.data, 0, entry.length);
+        entries.add(entry);
+    }
+
+    @Override
+    protected void finish() throws IOException {
+        final long directoryOffset = getPosition();
+        for (final ZipEntry entry : entries) {
+            final byte[] name = entry.name.getBytes(NAME_CHARSET);
+            final boolean zip64 = entry.offset >= MAX_INT;
+
+            final Header header = new Header();
+            header.writeInt(0x02014b50);
+            header.writeShort(zip64 ? 45 : 20);
+            header.writeShort(zip64 ? 45 : 20);
+            header.writeShort(UTF8_FLAG);
+            header.writeShort(entry.method);
+            header.writeInt(dosTime);
+            header.writeInt(entry.crc);
+            header.writeInt(entry.length);
+            header.writeInt(entry.size);
+            header.writeShort(name.length);
+            header.writeShort(zip64 ? 12 : 0);
+            header.writeShort(0);
+            header.writeShort(0);
+            header.writeShort(0);
+            // MS-DOS folder attribute
+            header.writeInt(entry.directory ? 0x10 : 0);
+            header.writeInt(zip64 ? MAX_INT : entry.offset);
+            header.write(name, 0, name.length);
+            if (zip64) {
+                header.writeShort(0x0001);
+                header.writeShort(8);
+                header.writeLong(entry.offset);
+            }
+            header.writeTo(this);
+        }
+        final long directorySize = getPosition() - directoryOffset;
+
+        final Header end = new Header();
+        final boolean zip64 = entries.size() >= MAX_SHORT
+                || directoryOffset >= MAX_INT || directorySize >= MAX_INT;
+        if (zip64) {
+            final long zip64EndOffset = getPosition();
+            end.writeInt(0x06064b50);
+            end.writeLong(44);
+            end.writeShort(45);
+            end.writeShort(45);
+            end.writeInt(0);
+            end.writeInt(0);
+            end.writeLong(entries.size());
+            end.writeLong(entries.size());
+            end.writeLong(directorySize);
+            end.writeLong(directoryOffset);
+
+            end.writeInt(0x07064b50);
+            end.writeInt(0);
+            end.writeLong(zip64EndOffset);
+            end.writeInt(1);
+        }
+        end.writeInt(0x06054b50);
+        end.writeShort(0);
+        end.writeShort(0);
+        end.writeShort(Math.min(entries.size(), MAX_SHORT));
+        end.writeShort(Math.min(entries.size(), MAX_SHORT));
+        end.writeInt(Math.min(directorySize, MAX_INT));
+        end.writeInt(Math.min(directoryOffset, MAX_INT));
+        end.writeShort(0);
+        end.writeTo(this);
+    }
+
+    /**
+     * Converts a date into the MS-DOS format of the zip headers
+     * @param time
+     * The date in milliseconds
+     * @return The date (high 16 bits) and the time (low 16 bits)
+     */
+    private static long toDosTime(final long time) {
+        final Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        final int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            return 0x00210000L;
+        }
+        return (long) (year - 1980) << 25
+                | (long) (calendar.get(Calendar.MONTH) + 1) << 21
+                | (long) calendar.get(Calendar.DAY_OF_MONTH) << 16
+                | calendar.get(Calendar.HOUR_OF_DAY) << 11
+                | calendar.get(Calendar.MINUTE) << 5
+                | calendar.get(Calendar.SECOND) >> 1;
+    }
+
+    /**
+     * Zip entry, with the information needed by the central directory
+     */
+    private static class ZipEntry extends CompressedEntry {
+        /**
+         * Tells whether the entry is a folder
+         */
+        private final boolean directory;
+        /**
+         * Compression method (stored or deflated)
+         */
+        private final int method;
+        /**
+         * Uncompressed size
+         */
+        private final long size;
+        /**
+         * CRC-32 of the uncompressed content
+         */
+        private final long crc;
+        /**
+         * Position of the local header in the archive file
+         */
+        private long offset = 0;
+
+        /**
+         * Builds an entry
+         * @param entryName
+         * Name of the entry
+         * @param directoryEntry
+         * true for a folder
+         * @param compressedData
+         * Buffer containing the compressed bytes
+         * @param compressedLength
+         * Number of compressed bytes
+         * @param compressionMethod
+         * Compression method (0 for stored)
+         * @param uncompressedSize
+         * Uncompressed size
+         * @param checksum
+         * CRC-32 of the uncompressed content
+         */
+        private ZipEntry(final String entryName, final boolean directoryEntry,
+                final byte[] compressedData, final int compressedLength,
+                final int compressionMethod, final long uncompressedSize,
+                final long checksum) {
+            super(entryName, compressedData, compressedLength);
+            directory = directoryEntry;
+            method = compressionMethod;
+            size = uncompressedSize;
+            crc = checksum;
+        }
+    }
+
+    /**
+     * Buffer of little-endian header fields
+     */
+    private static class Header extends ByteArrayOutputStream {
+        /**
+         * Writes a 16 bits field
+         * @param value
+         * The value
+         */
+        private void writeShort(final int value) {
+            write(value & 0xFF);
+            write(value >>> 8 & 0xFF);
+        }
+
+        /**
+         * Writes a 32 bits field
+         * @param value
+         * The value
+         */
+        private void writeInt(final long value) {
+            writeShort((int) (value & 0xFFFF));
+            writeShort((int) (value >>> 16 & 0xFFFF));
+        }
+
+        /**
+         * Writes a 64 bits field
+         * @param value
+         * The value
+         */
+        private void writeLong(final long value) {
+            writeInt(value & MAX_INT);
+            writeInt(value >>> 32);
+        }
+
+        /**
+         * Writes the header in the archive file
+         * @param writer
+         * The archive
+         * @throws IOException
+         */
+        private void writeTo(final ArchiveWriter writer) throws IOException {
+            writer.write(buf, 0, count);
+        }
+    }
+}
@@ -0,0 +1,844 @@
+/**
+ * Copyright (C) 2009 Loïc Rouchon <horn@phpboost.com>, Benoit Sautel <ben.popeye@phpboost.com>
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.phpboost.poptimizer.lexer;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * This class splits a PHP file into tokens in a single pass. The tokens are
+ * given to a sink (generally a chain of filters) as soon as they are found.
+ * The lexer only recognizes what the optimizers need: it knows where the PHP
+ * code, the strings and the comments are, it doesn't check the syntax.
+ * <p>
+ * The lexer can also read its input from a stream through a fixed size buffer.
+ * The tokens which don't fit in the buffer (long strings, comments, heredocs
+ * or HTML blocks) are then given in several parts having the same type, so
+ * that the memory usage doesn't depend on the file size.
+ * </p>
+ * @author Benoit Sautel &lt;ben.popeye@phpboost.com&gt; Loic Rouchon
+ * &lt;horn@phpboost.com&gt;
+ */
+public class PhpLexer {
+    /**
+     * Default size of the buffer used to read a stream
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 65536;
+    /**
+     * Number of characters which must be available to recognize the beginning
+     * of any token
+     */
+    private static final int LOOKAHEAD = 8;
+
+    /**
+     * Receives the tokens
+     */
+    private final TokenSink sink;
+    /**
+     * The token emitted for each part of the buffer
+     */
+    private final Token token = new Token(null, null, 0, 0);
+    /**
+     * Scanned characters
+     */
+    private char[] buffer;
+    /**
+     * Number of characters of the buffer which are part of the file
+     */
+    private int limit;
+    /**
+     * Tells whether the buffer contains the end of the file
+     */
+    private boolean endOfInput;
+    /**
+     * Tells whether the current position is in a PHP block
+     */
+    private boolean insidePhp;
+    /**
+     * Type of the token whose first part has been given and which continues at
+     * the current position (null if the current position begins a token)
+     */
+    private TokenType continuedType;
+    /**
+     * Quote of the continued string
+     */
+    private char continuedQuote;
+    /**
+     * Label of the continued heredoc string
+     */
+    private char[] continuedLabel;
+    /**
+     * Type of the token which couldn't be ended in the buffer
+     */
+    private TokenType incompleteType;
+    /**
+     * Nesting level of the {$...} expressions at the end of the incomplete
+     * double quoted string
+     */
+    private int incompleteDepth;
+    /**
+     * Label of the incomplete heredoc string
+     */
+    private char[] incompleteLabel;
+
+    /**
+     * Builds a lexer
+     * @param tokenSink
+     * Element receiving the tokens
+     */
+    public PhpLexer(final TokenSink tokenSink) {
+        sink = tokenSink;
+    }
+
+    /**
+     * Splits a text into tokens
+     * @param content
+     * The text to analyse
+     */
+    public void tokenize(final String content) {
+        final char[] chars = content.toCharArray();
+        tokenize(chars, chars.length);
+    }
+
+    /**
+     * Splits the beginning of a buffer into tokens
+     * @param chars
+     * The buffer
+     * @param length
+     * Number of characters to analyse
+     */
+    public void tokenize(final char[] chars, final int length) {
+        reset(chars, length, true);
+
+        int position = 0;
+        while (position < limit) {
+            position = scan(position);
+        }
+        sink.end();
+    }
+
+    /**
+     * Splits a stream into tokens, using a buffer of the default size
+     * @param reader
+     * The stream to analyse
+     * @throws IOException
+     */
+    public void tokenize(final Reader reader) throws IOException {
+        tokenize(reader, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Splits a stream into tokens
+     * @param reader
+     * The stream to analyse
+     * @param bufferSize
+     * Number of characters read at once
+     * @throws IOException
+     */
+    public void tokenize(final Reader reader, final int bufferSize)
+            throws IOException {
+        reset(new char[Math.max(bufferSize, 2 * LOOKAHEAD)], 0, false);
+        fill(reader);
+
+        int position = 0;
+        while (position < limit || !endOfInput) {
+            final int next = position < limit ? scan(position) : -1;
+            if (next >= 0) {
+                position = next;
+                continue;
+            }
+
+            // The token beginning at the current position needs more
+            // characters
+            if (position > 0) {
+                System.arraycopy(buffer, position, buffer, 0, limit - position);
+                limit -= position;
+                position = 0;
+            } else if (limit == buffer.length) {
+                position = split();
+                if (position == 0) {
+                    // The token can't be split, the buffer has to grow
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+            }
+            fill(reader);
+        }
+        sink.end();
+    }
+
+    /**
+     * Initializes the lexer state
+     * @param chars
+     * The buffer
+     * @param length
+     * Number of characters available in the buffer
+     * @param wholeInput
+     * Tells whether the buffer contains the whole file
+     */
+    private void reset(final char[] chars, final int length,
+            final boolean wholeInput) {
+        buffer = chars;
+        limit = length;
+        endOfInput = wholeInput;
+        insidePhp = false;
+        continuedType = null;
+    }
+
+    /**
+     * Reads the stream until the buffer is full or the stream ends
+     * @param reader
+     * The stream
+     * @throws IOException
+     */
+    private void fill(final Reader reader) throws IOException {
+        while (!endOfInput && limit < buffer.length) {
+            final int read = reader.read(buffer, limit, buffer.length - limit);
+            if (read < 0) {
+                endOfInput = true;
+            } else {
+                limit += read;
+            }
+        }
+    }
+
+    /**
+     * Gives the first part of the incomplete token which fills the buffer
+     * @return The position following the given part, or 0 if the token can't
+     * be split
+     */
+    private int split() {
+        if (incompleteType == null) {
+            return 0;
+        }
+        int end = limit;
+        switch (incompleteType) {
+            case WHITESPACE:
+                break;
+            case LINE_COMMENT:
+                // ?> could end the comment
+                if (buffer[limit - 1] == '?') {
+                    end--;
+                }
+                break;
+            case BLOCK_COMMENT:
+                if (buffer[limit - 1] == '*') {
+                    end--;
+                }
+                break;
+            case DOUBLE_QUOTED_STRING:
+                if (incompleteDepth > 0) {
+                    return 0;
+                }
+                // The last character hasn't been analysed
+                end--;
+                // No break, an escape sequence mustn't be split
+            case SINGLE_QUOTED_STRING:
+                int backslashes = 0;
+                while (backslashes < end && buffer[end - 1 - backslashes] == '\\') {
+                    backslashes++;
+                }
+                if (backslashes % 2 == 1) {
+                    end--;
+                }
+                break;
+            case HEREDOC:
+                if (incompleteLabel == null) {
+                    return 0;
+                }
+                // Split before a line break so that the next part begins a line
+                for (int i = limit - 1; i > 0; i--) {
+                    if (buffer[i] == '\n') {
+                        end = i;
+                        break;
+                    }
+                }
+                break;
+            default:
+                return 0;
+        }
+        if (end <= 0) {
+            return 0;
+        }
+
+        sink.token(token.set(incompleteType, buffer, 0, end));
+        if (incompleteType != TokenType.WHITESPACE) {
+            if (continuedType == null) {
+                continuedQuote = buffer[0];
+            }
+            continuedType = incompleteType;
+            continuedLabel = incompleteLabel;
+        }
+        return end;
+    }
+
+    /**
+     * Scans the next token
+     * @param start
+     * Position of the first character of the token
+     * @return The position following the scanned tokens, or -1 if more
+     * characters are needed
+     */
+    private int scan(final int start) {
+        return insidePhp ? scanPhp(start) : scanHtml(start);
+    }
+
+    /**
+     * Scans some text outside the PHP tags up to the next opening tag
+     * @param start
+     * Position of the first character
+     * @return The position following the scanned tokens, or -1 if more
+     * characters are needed
+     */
+    private int scanHtml(final int start) {
+        int i = start;
+        while ((i = SpanScanner.indexOf(buffer, i, limit - 1, '<')) < limit - 1) {
+            if (buffer[i + 1] == '?') {
+                if (!endOfInput && i + LOOKAHEAD > limit) {
+                    // The tag may be incomplete
+                    return emitHtml(start, i);
+                }
+                final int tagLength = openTagLength(i);
+                if (tagLength > 0) {
+                    emitHtml(start, i);
+                    emit(TokenType.OPEN_TAG, i, i + tagLength);
+                    insidePhp = true;
+                    return i + tagLength;
+                }
+            }
+            i++;
+        }
+        if (!endOfInput && buffer[limit - 1] == '<') {
+            return emitHtml(start, limit - 1);
+        }
+        return emitHtml(start, limit);
+    }
+
+    /**
+     * Gives a text outside the PHP tags
+     * @param start
+     * Position of its first character
+     * @param end
+     * Position following its last character
+     * @return The end position, or -1 if the text is empty and more characters
+     * are needed
+     */
+    private int emitHtml(final int start, final int end) {
+        if (end == start && !endOfInput) {
+            incompleteType = null;
+            return -1;
+        }
+        return emit(TokenType.INLINE_HTML, start, end);
+    }
+
+    /**
+     * Computes the length of the opening tag beginning at a position
+     * @param start
+     * Position of the &lt; character
+     * @return The length of the tag, with its following blank character, or 0
+     * if there is no opening tag here
+     */
+    private int openTagLength(final int start) {
+        if (start + 2 < limit && buffer[start + 2] == '=') {
+            return 3;
+        }
+        if (!regionMatchesIgnoreCase(start + 2, "php")) {
+            return 0;
+        }
+        final int end = start + 5;
+        if (end == limit) {
+            return 5;
+        }
+        if (buffer[end] == '\r' && end + 1 < limit && buffer[end + 1] == '\n') {
+            return 7;
+        }
+        return isBlank(buffer[end]) ? 6 : 0;
+    }
+
+    /**
+     * Scans the next token of a PHP block
+     * @param start
+     * Position of the first character of the token
+     * @return The position following the token, or -1 if more characters are
+     * needed
+     */
+    private int scanPhp(final int start) {
+        if (continuedType != null) {
+            return scanContinuedToken(start);
+        }
+        if (!endOfInput && start + LOOKAHEAD > limit) {
+            incompleteType = null;
+            return -1;
+        }
+
+        final char currentChar = buffer[start];
+        final char nextChar = start + 1 < limit ? buffer[start + 1] : '\0';
+
+        if (isBlank(currentChar)) {
+            int end = start + 1;
+            while (end < limit && isBlank(buffer[end])) {
+                end++;
+            }
+            return emit(TokenType.WHITESPACE, start, incompleteIfLimit(end));
+        }
+        if (currentChar == '?' && nextChar == '>') {
+            insidePhp = false;
+            return emit(TokenType.CLOSE_TAG, start, start + 2);
+        }
+        if (currentChar == '/' && nextChar == '/' || currentChar == '#'
+                && nextChar != '[') {
+            return emit(TokenType.LINE_COMMENT, start,
+                    findLineCommentEnd(start + 1));
+        }
+        if (currentChar == '/' && nextChar == '*') {
+            return emit(TokenType.BLOCK_COMMENT, start,
+                    findBlockCommentEnd(start + 2));
+        }
+        if (currentChar == '\'') {
+            return emit(TokenType.SINGLE_QUOTED_STRING, start,
+                    findSimpleStringEnd(start + 1, currentChar));
+        }
+        if (currentChar == '"' || currentChar == '`') {
+            return emit(TokenType.DOUBLE_QUOTED_STRING, start,
+                    findDoubleQuotedStringEnd(start + 1, currentChar));
+        }
+        if (currentChar == '<' && regionMatchesIgnoreCase(start, "<<<")) {
+            final int end = findHeredocEnd(start);
+            if (end != 0) {
+                return emit(TokenType.HEREDOC, start, end);
+            }
+        }
+        if (currentChar == '$' && isIdentifierStart(nextChar)) {
+            return emit(TokenType.VARIABLE, start, findIdentifierEnd(start + 1));
+        }
+        if (isIdentifierStart(currentChar)) {
+            return emit(TokenType.IDENTIFIER, start, findIdentifierEnd(start));
+        }
+        if (isDigit(currentChar) || currentChar == '.' && isDigit(nextChar)) {
+            return emit(TokenType.NUMBER, start, findNumberEnd(start));
+        }
+        return emit(TokenType.OPERATOR, start, start + 1);
+    }
+
+    /**
+     * Scans the part of a token following the part given before the buffer
+     * was refilled
+     * @param start
+     * Position of the first character of the part
+     * @return The position following the part, or -1 if more characters are
+     * needed
+     */
+    private int scanContinuedToken(final int start) {
+        final TokenType type = continuedType;
+        int end;
+        switch (type) {
+            case LINE_COMMENT:
+                end = findLineCommentEnd(start);
+                break;
+            case BLOCK_COMMENT:
+                end = findBlockCommentEnd(start);
+                break;
+            case SINGLE_QUOTED_STRING:
+                end = findSimpleStringEnd(start, continuedQuote);
+                break;
+            case DOUBLE_QUOTED_STRING:
+                end = findDoubleQuotedStringEnd(start, continuedQuote);
+                break;
+            case HEREDOC:
+            default:
+                end = findHeredocBodyEnd(start, continuedLabel);
+                break;
+        }
+        if (end >= 0) {
+            continuedType = null;
+        } else {
+            incompleteLabel = continuedLabel;
+        }
+        return emit(type, start, end);
+    }
+
+    /**
+     * Finds the end of a comment ending at the end of the line
+     * @param from
+     * Position of the first character to analyse
+     * @return Position of the line break or of the closing tag which ends the
+     * comment, or -1 if more characters are needed
+     */
+    private int findLineCommentEnd(final int from) {
+        int i = from;
+        while ((i = SpanScanner.indexOfAny(buffer, i, limit, '\n', '\r', '?')) < limit) {
+            if (buffer[i] != '?') {
+                return i;
+            }
+            if (i + 1 == limit) {
+                break;
+            }
+            if (buffer[i + 1] == '>') {
+                return i;
+            }
+            i++;
+        }
+        return incompleteIfLimit(limit);
+    }
+
+    /**
+     * Finds the end of a comment between /* and *&#47;
+     * @param from
+     * Position of the first character following the /* characters
+     * @return Position following the comment, or -1 if more characters are
+     * needed
+     */
+    private int findBlockCommentEnd(final int from) {
+        int i = from + 1;
+        while ((i = SpanScanner.indexOf(buffer, i, limit, '/')) < limit) {
+            if (buffer[i - 1] == '*') {
+                return i + 1;
+            }
+            i++;
+        }
+        return incompleteIfLimit(limit);
+    }
+
+    /**
+     * Finds the end of a string in which only the backslash and the quote are
+     * special characters
+     * @param from
+     * Position of the first character following the opening quote
+     * @param quote
+     * The quote character
+     * @return Position following the closing quote, or -1 if more characters
+     * are needed
+     */
+    private int findSimpleStringEnd(final int from, final char quote) {
+        int i = from;
+        while ((i = SpanScanner.indexOfAny(buffer, i, limit, '\\', quote)) < limit) {
+            if (buffer[i] == quote) {
+                return i + 1;
+            }
+            // The escaped character is skipped
+            i += 2;
+        }
+        return incompleteIfLimit(limit);
+    }
+
+    /**
+     * Finds the end of a string in which variables can be parsed. The complex
+     * syntax ({$array["key"]}) can contain some quotes.
+     * @param from
+     * Position of the first character following the opening quote
+     * @param quote
+     * The quote character
+     * @return Position following the closing quote, or -1 if more characters
+     * are needed
+     */
+    private int findDoubleQuotedStringEnd(final int from, final char quote) {
+        int depth = 0;
+        int i = from;
+        while (i < limit - 1 || endOfInput && i < limit) {
+            if (depth == 0) {
+                // The text between the special characters is skipped
+                final int next = SpanScanner.indexOfAny(buffer, i, limit, '\\',
+                        quote, '{', '$');
+                if (next != i) {
+                    i = next;
+                    continue;
+                }
+            }
+            final char currentChar = buffer[i];
+            final char nextChar = i + 1 < limit ? buffer[i + 1] : '\0';
+            if (currentChar == '\\') {
+                i += 2;
+                continue;
+            }
+            if (depth == 0) {
+                if (currentChar == quote) {
+                    return i + 1;
+                } else if (currentChar == '{' && nextChar == '$'
+                        || currentChar == '$' && nextChar == '{') {
+                    depth = 1;
+                    i++;
+                }
+            } else if (currentChar == '{') {
+                depth++;
+            } else if (currentChar == '}') {
+                depth--;
+            } else if (currentChar == '\'' || currentChar == '"') {
+                i = findSimpleStringEnd(i + 1, currentChar);
+                if (i < 0) {
+                    break;
+                }
+                continue;
+            }
+            i++;
+        }
+        incompleteDepth = depth;
+        return incompleteIfLimit(limit);
+    }
+
+    /**
+     * Finds the end of a heredoc or nowdoc string
+     * @param start
+     * Position of the &lt;&lt;&lt; operator
+     * @return Position following the closing label, 0 if there is no heredoc
+     * string here, or -1 if more characters are needed
+     */
+    private int findHeredocEnd(final int start) {
+        incompleteLabel = null;
+        int i = start + 3;
+        while (i < limit && (buffer[i] == ' ' || buffer[i] == '\t')) {
+            i++;
+        }
+        final boolean quoted = i < limit && (buffer[i] == '\'' || buffer[i] == '"');
+        if (quoted) {
+            i++;
+        }
+        if (i >= limit) {
+            return endOfInput ? 0 : -1;
+        }
+        if (!isIdentifierStart(buffer[i])) {
+            return 0;
+        }
+        final int labelStart = i;
+        final int labelEnd = findIdentifierEnd(labelStart);
+        if (labelEnd < 0) {
+            return -1;
+        }
+        i = labelEnd;
+        if (quoted) {
+            if (i >= limit) {
+                return endOfInput ? 0 : -1;
+            }
+            if (buffer[i] != buffer[labelStart - 1]) {
+                return 0;
+            }
+            i++;
+        }
+        if (i < limit && buffer[i] == '\r') {
+            i++;
+        }
+        if (i >= limit) {
+            return endOfInput ? 0 : -1;
+        }
+        if (buffer[i] != '\n') {
+            return 0;
+        }
+
+        final char[] label = Arrays.copyOfRange(buffer, labelStart, labelEnd);
+        final int end = findHeredocBodyEnd(i, label);
+        if (end < 0) {
+            incompleteLabel = label;
+        }
+        return end;
+    }
+
+    /**
+     * Finds the closing label of a heredoc string: it's the first line which
+     * begins with the label
+     * @param from
+     * Position of a line break or of a character of a line which is not the
+     * closing one
+     * @param label
+     * The label of the string
+     * @return Position following the closing label, or -1 if more characters
+     * are needed
+     */
+    private int findHeredocBodyEnd(final int from, final char[] label) {
+        int i = from;
+        while (true) {
+            i = SpanScanner.indexOf(buffer, i, limit, '\n');
+            int lineStart = i + 1;
+            while (lineStart < limit
+                    && (buffer[lineStart] == ' ' || buffer[lineStart] == '\t')) {
+                lineStart++;
+            }
+            final int end = lineStart + label.length;
+            if (end >= limit) {
+                if (!endOfInput) {
+                    return -1;
+                }
+                if (end > limit) {
+                    return limit;
+                }
+            }
+            if (regionMatches(lineStart, label)
+                    && (end == limit || !isIdentifierPart(buffer[end]))) {
+                return end;
+            }
+            i = lineStart;
+        }
+    }
+
+    /**
+     * Finds the end of a name
+     * @param start
+     * Position of the first character of the name
+     * @return Position following the name, or -1 if more characters are needed
+     */
+    private int findIdentifierEnd(final int start) {
+        int i = start;
+        while (i < limit && isIdentifierPart(buffer[i])) {
+            i++;
+        }
+        return incompleteIfLimit(i);
+    }
+
+    /**
+     * Finds the end of a number (1, 0x1F, 1_000, 1.5, .5, 1e-3...)
+     * @param start
+     * Position of the first character of the number
+     * @return Position following the number, or -1 if more characters are
+     * needed
+     */
+    private int findNumberEnd(final int start) {
+        final boolean hexadecimal = buffer[start] == '0' && start + 1 < limit
+                && (buffer[start + 1] == 'x' || buffer[start + 1] == 'X');
+        int i = start;
+        while (i < limit) {
+            if (!endOfInput && i + 2 >= limit) {
+                return -1;
+            }
+            final char currentChar = buffer[i];
+            final char nextChar = i + 1 < limit ? buffer[i + 1] : '\0';
+            if (isIdentifierPart(currentChar)) {
+                // Signed exponent
+                if ((currentChar == 'e' || currentChar == 'E') && !hexadecimal
+                        && (nextChar == '+' || nextChar == '-') && i + 2 < limit
+                        && isDigit(buffer[i + 2])) {
+                    i++;
+                }
+                i++;
+            } else if (currentChar == '.' && isDigit(nextChar)) {
+                i++;
+            } else {
+                break;
+            }
+        }
+        return i;
+    }
+
+    /**
+     * Checks whether a token ending at a position could continue after the
+     * end of the buffer
+     * @param end
+     * The end position of the token
+     * @return The end position, or -1 if it's the end of the buffer and more
+     * characters can be read
+     */
+    private int incompleteIfLimit(final int end) {
+        return end >= limit && !endOfInput ? -1 : end;
+    }
+
+    /**
+     * Gives a token to the sink
+     * @param type
+     * The kind of token
+     * @param start
+     * Position of its first character
+     * @param end
+     * Position following its last character, or -1 if the token is
+     * incomplete
+     * @return The end position
+     */
+    private int emit(final TokenType type, final int start, final int end) {
+        if (end < 0) {
+            incompleteType = type;
+            return -1;
+        }
+        if (end > start) {
+            sink.token(token.set(type, buffer, start, end - start));
+        }
+        return end;
+    }
+
+    /**
+     * Tells whether the buffer contains a text at a position, ignoring the case
+     * @param start
+     * Position in the buffer
+     * @param text
+     * The text to look for (lower case)
+     * @return true if the text is there, false otherwise
+     */
+    private boolean regionMatchesIgnoreCase(final int start, final String text) {
+        if (start + text.length() > limit) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (Character.toLowerCase(buffer[start + i]) != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Tells whether the buffer contains some characters at a position
+     * @param start
+     * Position in the buffer
+     * @param chars
+     * The characters to look for
+     * @return true if the characters are there, false otherwise
+     */
+    private boolean regionMatches(final int start, final char[] chars) {
+        if (start + chars.length > limit) {
+            return false;
+        }
+        for (int i = 0; i < chars.length; i++) {
+            if (buffer[start + i] != chars[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Tells whether a character is a blank character
+     * @param aChar
+     * @return true if the character is a space, a tabulation or a line break
+     */
+    private static boolean isBlank(final char aChar) {
+        return aChar == ' ' || aChar == '\t' || aChar == '\n' || aChar == '\r';
+    }
+
+    /**
+     * Tells whether a character is a digit
+     * @param aChar
+     * @return true if the character is a digit, false otherwise
+     */
+    private static boolean isDigit(final char aChar) {
+        return aChar >= '0' && aChar <= '9';
+    }
+
+    /**
+     * Tells whether a character can begin a name
+     * @param aChar
+     * @return true if the character is a letter or an underscore
+     */
+    private static boolean isIdentifierStart(final char aChar) {
+        return aChar >= 'a' && aChar <= 'z' || aChar >= 'A' && aChar <= 'Z'
+                || aChar == '_' || aChar >= 0x80;
+    }
+
+    /**
+     * Tells whether a character can be in a name
+     * @param aChar
+     * @return true if the character is a letter, a digit or an underscore
+     */
+    private static boolean isIdentifierPart(final char aChar) {
+        return isIdentifierStart(aChar) || isDigit(aChar);
+    }
+}
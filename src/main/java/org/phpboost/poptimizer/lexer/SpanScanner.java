@@ -0,0 +1,143 @@
+/**
+ * Copyright (C) 2009 Loïc Rouchon <horn@phpboost.com>, Benoit Sautel <ben.popeye@phpboost.com>
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.phpboost.poptimizer.lexer;
+
+/**
+ * This class finds the next interesting character of a span (string, comment,
+ * inline HTML) for the lexer. The loops are kept as simple as possible: the
+ * JIT compiler unrolls them and they were measured faster than a block scan
+ * multiplying the differences between the characters and the searched ones,
+ * even on spans of several kilobytes.
+ * @author Benoit Sautel &lt;ben.popeye@phpboost.com&gt; Loic Rouchon
+ * &lt;horn@phpboost.com&gt;
+ */
+final class SpanScanner {
+    /**
+     * This class only has static methods
+     */
+    private SpanScanner() {
+    }
+
+    /**
+     * Finds a character
+     * @param buffer
+     * The buffer
+     * @param from
+     * Position of the first character to test
+     * @param limit
+     * Position following the last character to test
+     * @param searched
+     * The character to find
+     * @return Its position, or the limit if it's not found
+     */
+    static int indexOf(final char[] buffer, final int from, final int limit,
+            final char searched) {
+        for (int i = from; i < limit; i++) {
+            if (buffer[i] == searched) {
+                return i;
+            }
+        }
+        return limit;
+    }
+
+    /**
+     * Finds the first of two characters
+     * @param buffer
+     * The buffer
+     * @param from
+     * Position of the first character to test
+     * @param limit
+     * Position following the last character to test
+     * @param first
+     * A character to find
+     * @param second
+     * Another character to find
+     * @return The position of the first one found, or the limit if none is
+     * found
+     */
+    static int indexOfAny(final char[] buffer, final int from, final int limit,
+            final char first, final char second) {
+        for (int i = from; i < limit; i++) {
+            final char aChar = buffer[i];
+            if (aChar == first || aChar == second) {
+                return i;
+            }
+        }
+        return limit;
+    }
+
+    /**
+     * Finds the first of three characters
+     * @param buffer
+     * The buffer
+     * @param from
+     * Position of the first character to test
+     * @param limit
+     * Position following the last character to test
+     * @param first
+     * A character to find
+     * @param second
+     * Another character to find
+     * @param third
+     * Another character to find
+     * @return The position of the first one found, or the limit if none is
+     * found
+     */
+    static int indexOfAny(final char[] buffer, final int from, final int limit,
+            final char first, final char second, final char third) {
+        for (int i = from; i < limit; i++) {
+            final char aChar = buffer[i];
+            if (aChar == first || aChar == second || aChar == third) {
+                return i;
+            }
+        }
+        return limit;
+    }
+
+    /**
+     * Finds the first of four characters
+     * @param buffer
+     * The buffer
+     * @param from
+     * Position of the first character to test
+     * @param limit
+     * Position following the last character to test
+     * @param first
+     * A character to find
+     * @param second
+     * Another character to find
+     * @param third
+     * Another character to find
+     * @param fourth
+     * Another character to find
+     * @return The position of the first one found, or the limit if none is
+     * found
+     */
+    static int indexOfAny(final char[] buffer, final int from, final int limit,
+            final char first, final char second, final char third,
+            final char fourth) {
+        for (int i = from; i < limit; i++) {
+            final char aChar = buffer[i];
+            if (aChar == first || aChar == second || aChar == third
+                    || aChar == fourth) {
+                return i;
+            }
+        }
+        return limit;
+    }
+}
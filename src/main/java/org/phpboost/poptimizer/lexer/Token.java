@@ -0,0 +1,224 @@
+/**
+ * Copyright (C) 2009 Loïc Rouchon <horn@phpboost.com>, Benoit Sautel <ben.popeye@phpboost.com>
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.phpboost.poptimizer.lexer;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * This class represents a token of a PHP file. Its text is a window of the
+ * buffer read by the lexer, so that no string is built while scanning. The
+ * lexer and the filters reuse one instance for all the tokens they emit (it's
+ * moved over the buffer, see set()), and the lexer reuses its buffer when it
+ * reads a stream: a token mustn't be kept after it has been handled, its text
+ * has to be copied (toString()).
+ * @author Benoit Sautel &lt;ben.popeye@phpboost.com&gt; Loic Rouchon
+ * &lt;horn@phpboost.com&gt;
+ */
+public final class Token implements CharSequence {
+    /**
+     * Kind of token
+     */
+    private TokenType type;
+    /**
+     * Buffer containing the token text
+     */
+    private char[] buffer;
+    /**
+     * Index of the first character of the token in the buffer
+     */
+    private int offset;
+    /**
+     * Number of characters of the token
+     */
+    private int length;
+
+    /**
+     * Builds a token from a part of a buffer
+     * @param tokenType
+     * Kind of token
+     * @param chars
+     * The buffer
+     * @param start
+     * Index of the first character of the token
+     * @param size
+     * Number of characters
+     */
+    public Token(final TokenType tokenType, final char[] chars, final int start,
+            final int size) {
+        set(tokenType, chars, start, size);
+    }
+
+    /**
+     * Builds a token from its text
+     * @param tokenType
+     * Kind of token
+     * @param text
+     * The token text
+     */
+    public Token(final TokenType tokenType, final String text) {
+        this(tokenType, text.toCharArray(), 0, text.length());
+    }
+
+    /**
+     * Moves the token to another part of a buffer, so that the same instance
+     * can be emitted for each token
+     * @param tokenType
+     * Kind of token
+     * @param chars
+     * The buffer
+     * @param start
+     * Index of the first character of the token
+     * @param size
+     * Number of characters
+     * @return The token
+     */
+    public Token set(final TokenType tokenType, final char[] chars,
+            final int start, final int size) {
+        type = tokenType;
+        buffer = chars;
+        offset = start;
+        length = size;
+        return this;
+    }
+
+    /**
+     * Returns the kind of token
+     * @return The token type
+     */
+    public TokenType getType() {
+        return type;
+    }
+
+    /**
+     * Tells whether the token is of a given kind
+     * @param tokenType
+     * The kind to check
+     * @return true if the token has this type, false otherwise
+     */
+    public boolean is(final TokenType tokenType) {
+        return type == tokenType;
+    }
+
+    /**
+     * Tells whether the token text is a given string
+     * @param text
+     * The text to compare
+     * @return true if the texts are equal, false otherwise
+     */
+    public boolean textEquals(final String text) {
+        if (text.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer[offset + i] != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Tells whether the token text is a given string, ignoring the case (PHP
+     * keywords are not case sensitive)
+     * @param text
+     * The text to compare
+     * @return true if the texts are equal, false otherwise
+     */
+    public boolean textEqualsIgnoreCase(final String text) {
+        if (text.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (Character.toLowerCase(buffer[offset + i]) != Character
+                    .toLowerCase(text.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the first character of the token
+     * @return The first character
+     */
+    public char firstChar() {
+        return buffer[offset];
+    }
+
+    /**
+     * Returns the last character of the token
+     * @return The last character
+     */
+    public char lastChar() {
+        return buffer[offset + length - 1];
+    }
+
+    /**
+     * Counts the line feeds of the token
+     * @return The number of \n characters
+     */
+    public int countLines() {
+        int lines = 0;
+        for (int i = offset; i < offset + length; i++) {
+            if (buffer[i] == '\n') {
+                lines++;
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Appends the token text to a string builder
+     * @param builder
+     * The destination
+     */
+    public void appendTo(final StringBuilder builder) {
+        builder.append(buffer, offset, length);
+    }
+
+    /**
+     * Writes the token text
+     * @param writer
+     * The destination
+     * @throws IOException
+     */
+    public void writeTo(final Writer writer) throws IOException {
+        writer.write(buffer, offset, length);
+    }
+
+    @Override
+    public char charAt(final int index) {
+        return buffer[offset + index];
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public CharSequence subSequence(final int start, final int end) {
+        return new String(buffer, offset + start, end - start);
+    }
+
+    @Override
+    public String toString() {
+        return new String(buffer, offset, length);
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) 2009 Loïc Rouchon <horn@phpboost.com>, Benoit Sautel <ben.popeye@phpboost.com>
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.phpboost.poptimizer.lexer;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * This sink writes the text of the tokens it receives, either in a string
+ * builder or in a stream. It's the last element of an optimization chain.
+ * @author Benoit Sautel &lt;ben.popeye@phpboost.com&gt; Loic Rouchon
+ * &lt;horn@phpboost.com&gt;
+ */
+public class TokenPrinter implements TokenSink {
+    /**
+     * The printed text (null when printing in a stream)
+     */
+    private final StringBuilder output;
+    /**
+     * The stream in which the text is printed (null when printing in a
+     * builder)
+     */
+    private final Writer writer;
+    /**
+     * First error which occurred while writing in the stream
+     */
+    private IOException error = null;
+
+    /**
+     * Builds a printer
+     * @param destination
+     * The builder in which the tokens are written
+     */
+    public TokenPrinter(final StringBuilder destination) {
+        output = destination;
+        writer = null;
+    }
+
+    /**
+     * Builds a printer writing in a stream. The stream is not closed by the
+     * printer.
+     * @param destination
+     * The stream in which the tokens are written
+     */
+    public TokenPrinter(final Writer destination) {
+        output = null;
+        writer = destination;
+    }
+
+    @Override
+    public void token(final Token token) {
+        if (output != null) {
+            token.appendTo(output);
+        } else if (error == null) {
+            try {
+                token.writeTo(writer);
+            } catch (final IOException e) {
+                // The sink interface can't throw it, it's kept for the caller
+                error = e;
+            }
+        }
+    }
+
+    @Override
+    public void end() {
+        if (writer != null && error == null) {
+            try {
+                writer.flush();
+            } catch (final IOException e) {
+                error = e;
+            }
+        }
+    }
+
+    /**
+     * Throws the error which occurred while writing in the stream, if any
+     * @throws IOException
+     */
+    public void checkError() throws IOException {
+        if (error != null) {
+            throw error;
+        }
+    }
+}
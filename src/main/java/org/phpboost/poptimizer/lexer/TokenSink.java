@@ -15,29 +15,25 @@
  * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
  */
 
-package org.phpboost.poptimizer.optimizers;
+package org.phpboost.poptimizer.lexer;
 
 /**
- * This neutral optimizer doesn't optimize anything
+ * This interface is implemented by the elements which receive the tokens found
+ * by the lexer.
  * @author Benoit Sautel &lt;ben.popeye@phpboost.com&gt; Loic Rouchon
  * &lt;horn@phpboost.com&gt;
  */
-public class NeutralOptimizer extends AbstractOptimizer {
+public interface TokenSink {
     /**
-     * Builds an optimizer from an optimizer
-     * @param optimizer
-     * optimizer
+     * Receives the next token of the file. The token is only valid during this
+     * call.
+     * @param token
+     * The token
      */
-    public NeutralOptimizer(final AbstractOptimizer optimizer) {
-        super(optimizer);
-    }
+    void token(Token token);
 
     /**
-     * Builds an optimizer from a string
-     * @param file
-     * optimizer
+     * Tells that the end of the file has been reached
      */
-    public NeutralOptimizer(final String file) {
-        super(file);
-    }
+    void end();
 }
@@ -0,0 +1,79 @@
+/**
+ * Copyright (C) 2009 Loïc Rouchon <horn@phpboost.com>, Benoit Sautel <ben.popeye@phpboost.com>
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.phpboost.poptimizer.lexer;
+
+/**
+ * This enumeration contains the kinds of tokens the PHP lexer can find in a
+ * file.
+ * @author Benoit Sautel &lt;ben.popeye@phpboost.com&gt; Loic Rouchon
+ * &lt;horn@phpboost.com&gt;
+ */
+public enum TokenType {
+    /**
+     * Text outside the PHP tags
+     */
+    INLINE_HTML,
+    /**
+     * PHP opening tag (&lt;?php followed by a blank character, or &lt;?=)
+     */
+    OPEN_TAG,
+    /**
+     * PHP closing tag (?&gt;)
+     */
+    CLOSE_TAG,
+    /**
+     * Spaces, tabulations and line breaks
+     */
+    WHITESPACE,
+    /**
+     * Comment ending at the end of the line (// or #)
+     */
+    LINE_COMMENT,
+    /**
+     * Comment between /* and *&#47;
+     */
+    BLOCK_COMMENT,
+    /**
+     * String between single quotes
+     */
+    SINGLE_QUOTED_STRING,
+    /**
+     * String between double quotes or back quotes
+     */
+    DOUBLE_QUOTED_STRING,
+    /**
+     * Heredoc or nowdoc string, from &lt;&lt;&lt; to its closing label
+     */
+    HEREDOC,
+    /**
+     * Variable name, with its $
+     */
+    VARIABLE,
+    /**
+     * Keyword, function, class or constant name
+     */
+    IDENTIFIER,
+    /**
+     * Integer or floating number
+     */
+    NUMBER,
+    /**
+     * Any other character (operators, parenthesis, braces...)
+     */
+    OPERATOR
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright (C) 2009 Loïc Rouchon <horn@phpboost.com>, Benoit Sautel <ben.popeye@phpboost.com>
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.phpboost.poptimizer.loading;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.phpboost.poptimizer.GlobTrie;
+
+/**
+ * This class describes a bundle: a PHP file of the output folder gathering
+ * some optimized class files (see Bundler).
+ * @author Benoit Sautel &lt;ben.popeye@phpboost.com&gt; Loic Rouchon
+ * &lt;horn@phpboost.com&gt;
+ */
+public final class Bundle {
+    /**
+     * Path of the bundle
+     */
+    private final String name;
+    /**
+     * Patterns of the bundled files
+     */
+    private final List<String> patterns;
+    /**
+     * Compiled patterns
+     */
+    private final GlobTrie trie;
+
+    /**
+     * Builds a bundle description
+     * @param path
+     * Path of the bundle relative to the output folder, separated by slashes
+     * @param includes
+     * Glob patterns of the class files to bundle, relative to the output
+     * folder (see GlobTrie)
+     */
+    public Bundle(final String path, final Collection<String> includes) {
+        name = path.replace('\\', '/').replaceFirst("^/+", "");
+        patterns = Collections.unmodifiableList(new ArrayList<String>(includes));
+        trie = new GlobTrie(patterns);
+    }
+
+    /**
+     * Returns the path of the bundle
+     * @return The path relative to the output folder, separated by slashes
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the patterns of the bundled files
+     * @return The glob patterns
+     */
+    public List<String> getPatterns() {
+        return patterns;
+    }
+
+    /**
+     * Tells whether a file is selected by the patterns of the bundle
+     * @param relativePath
+     * Path of the file relative to the output folder
+     * @return true if a pattern matches it
+     */
+    public boolean matches(final String relativePath) {
+        return trie.matches(relativePath);
+    }
+
+    /**
+     * Describes the bundle, for the build manifest
+     */
+    @Override
+    public String toString() {
+        return name + "=" + patterns;
+    }
+}
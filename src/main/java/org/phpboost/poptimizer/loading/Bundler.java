@@ -0,0 +1,586 @@
+/**
+ * Copyright (C) 2009 Loïc Rouchon <horn@phpboost.com>, Benoit Sautel <ben.popeye@phpboost.com>
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.phpboost.poptimizer.loading;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.phpboost.poptimizer.FileCharset;
+import org.phpboost.poptimizer.TextFileIO;
+
+/**
+ * This class gathers some optimized class files in bundles, so that a request
+ * includes one file instead of many. It runs on the output folder after the
+ * optimization.
+ * <p>
+ * A file goes in the first bundle whose patterns match it if it's a class
+ * file (see PhpFile) which doesn't use its location, except to require the
+ * files of a bundle. The files of a bundle are ordered so that the classes
+ * are declared after their parents, interfaces and traits. Each file keeps its
+ * namespace blocks, written with braces; the consecutive blocks of a
+ * namespace are merged when none of them imports names, as the imports of a
+ * block would change the meaning of the names of the other one. The declare
+ * statements (strict_types) apply to the whole bundle: they begin it, and the
+ * files declaring other ones than its first file are left out.
+ * </p>
+ * <p>
+ * The require and include statements whose literal path designates a bundled
+ * file are rewritten to require the bundle once, or replaced by true in the
+ * bundle of the file. The path is resolved from the folder of the file
+ * (__DIR__ . '/a.php') or, when it's appended to another expression
+ * (PATH_TO_ROOT . '/a/b.php') or alone, as the end of the path of a single
+ * file of the tree. A file which a statement may load without being
+ * rewritten (include './a.php', an ambiguous path) isn't bundled, as its
+ * classes would be declared twice; the statements requiring a computed path
+ * are reported. The bundled files stay in the output folder.
+ * </p>
+ * @author Benoit Sautel &lt;ben.popeye@phpboost.com&gt; Loic Rouchon
+ * &lt;horn@phpboost.com&gt;
+ */
+public class Bundler {
+    /**
+     * The output folder
+     */
+    private final File root;
+    /**
+     * Charset of the output files
+     */
+    private final FileCharset charset;
+    /**
+     * Extensions of the PHP files, without dot
+     */
+    private final Collection<String> extensions;
+    /**
+     * The bundles, by priority
+     */
+    private final List<Bundle> bundles;
+    /**
+     * PHP files of the output folder by relative path, the bundles excepted
+     */
+    private Map<String, PhpFile> files = null;
+    /**
+     * Paths of the PHP files by file name
+     */
+    private final Map<String, List<String>> pathsByName = new HashMap<String, List<String>>();
+    /**
+     * Bundle of each bundled file, by relative path
+     */
+    private final Map<String, Bundle> members = new LinkedHashMap<String, Bundle>();
+
+    /**
+     * Builds a bundler
+     * @param outputFolder
+     * The folder containing the optimized files
+     * @param outputCharset
+     * Charset of the optimized files
+     * @param phpExtensions
+     * Extensions of the PHP files, without dot
+     * @param bundleList
+     * The bundles, a file matched by several ones goes in the first one
+     */
+    public Bundler(final File outputFolder, final FileCharset outputCharset,
+            final Collection<String> phpExtensions,
+            final Collection<Bundle> bundleList) {
+        root = outputFolder;
+        charset = outputCharset;
+        extensions = phpExtensions;
+        bundles = new ArrayList<Bundle>(bundleList);
+    }
+
+    /**
+     * Writes the bundles and rewrites the statements requiring the bundled
+     * files
+     * @throws IOException
+     */
+    public void bundle() throws IOException {
+        final List<String> bundleNames = new ArrayList<String>();
+        for (final Bundle bundle : bundles) {
+            bundleNames.add(bundle.getName());
+        }
+        files = new PhpTree(root, charset, extensions, bundleNames).getFiles();
+        pathsByName.clear();
+        for (final String path : files.keySet()) {
+            final String name = path.substring(path.lastIndexOf('/') + 1);
+            List<String> paths = pathsByName.get(name);
+            if (paths == null) {
+                paths = new ArrayList<String>();
+                pathsByName.put(name, paths);
+            }
+            paths.add(path);
+        }
+        members.clear();
+        selectMembers();
+
+        for (final PhpFile file : files.values()) {
+            if (!members.containsKey(file.getPath())) {
+                final String content = rewrite(file, null, 0, file.getContent()
+                        .length());
+                if (!content.equals(file.getContent())) {
+                    System.out.println("Rewriting " + file.getPath());
+                    TextFileIO.get().write(new File(root, file.getPath()),
+                            content, charset);
+                }
+            }
+        }
+        for (final Bundle bundle : bundles) {
+            final List<PhpFile> bundled = order(bundle);
+            System.out.println("Bundling " + bundled.size() + " files in "
+                    + bundle.getName());
+            final File destination = new File(root, bundle.getName());
+            if (!destination.getParentFile().isDirectory()
+                    && !destination.getParentFile().mkdirs()) {
+                throw new IOException("Impossible to create the folder of "
+                        + destination);
+            }
+            TextFileIO.get().write(destination, write(bundle, bundled), charset);
+        }
+    }
+
+    /**
+     * Returns the files gathered in the bundles by the last bundling
+     * @return Their paths relative to the output folder
+     */
+    public Set<String> getBundledFiles() {
+        return Collections.unmodifiableSet(members.keySet());
+    }
+
+    /**
+     * Chooses the bundled files
+     */
+    private void selectMembers() {
+        for (final Bundle bundle : bundles) {
+            for (final PhpFile file : files.values()) {
+                if (!members.containsKey(file.getPath())
+                        && bundle.matches(file.getPath()) && file.isClassFile()
+                        && !file.getDeclarations().isEmpty()
+                        && !file.isLocationDependent()) {
+                    members.put(file.getPath(), bundle);
+                }
+            }
+        }
+        // The declare statements of the first file apply to the whole bundle
+        final Map<Bundle, String> directives = new HashMap<Bundle, String>();
+        final Iterator<Map.Entry<String, Bundle>> entries = members.entrySet()
+                .iterator();
+        while (entries.hasNext()) {
+            final Map.Entry<String, Bundle> member = entries.next();
+            final String fileDirectives = files.get(member.getKey())
+                    .getDirectives();
+            final String bundleDirectives = directives.get(member.getValue());
+            if (bundleDirectives == null) {
+                directives.put(member.getValue(), fileDirectives);
+            } else if (!bundleDirectives.equalsIgnoreCase(fileDirectives)) {
+                System.out.println("Not bundling " + member.getKey()
+                        + ": its declare statements differ from "
+                        + bundleDirectives);
+                entries.remove();
+            }
+        }
+        for (final PhpFile file : files.values()) {
+            if (file.hasComputedRequires() && !members.isEmpty()) {
+                System.err.println("Warning: " + file.getPath()
+                        + " requires a computed path, it mustn't load a bundled file");
+            }
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            // A file loaded by a statement which can't require the bundle
+            // instead would be declared twice
+            for (final PhpFile file : files.values()) {
+                for (final PhpFile.Require require : file.getRequires()) {
+                    final String target = resolve(file, require);
+                    if (target == null) {
+                        for (final String candidate : getCandidates(require)) {
+                            changed |= unbundle(candidate, file, require);
+                        }
+                    } else if (members.containsKey(target)
+                            && members.get(target) != members.get(file.getPath())
+                            && getBundlePath(file, members.get(file.getPath()),
+                                    require, target, members.get(target)) == null) {
+                        changed |= unbundle(target, file, require);
+                    }
+                }
+            }
+            // A file requiring an unbundled file from its folder can't move
+            final Iterator<String> paths = members.keySet().iterator();
+            while (paths.hasNext()) {
+                final PhpFile file = files.get(paths.next());
+                for (final PhpFile.Require require : file.getRequires()) {
+                    if (require.getBase() == PhpFile.Base.DIRECTORY
+                            && !members.containsKey(resolve(file, require))) {
+                        System.out.println("Not bundling " + file.getPath()
+                                + ": it requires " + require.getPath()
+                                + " from its folder");
+                        paths.remove();
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Leaves a file out of the bundles
+     * @param path
+     * Path of the file
+     * @param file
+     * A file loading it
+     * @param require
+     * The statement loading it, which can't be rewritten
+     * @return true if the file was bundled
+     */
+    private boolean unbundle(final String path, final PhpFile file,
+            final PhpFile.Require require) {
+        if (members.remove(path) == null) {
+            return false;
+        }
+        System.out.println("Not bundling " + path + ": " + file.getPath()
+                + " may load it with " + require.getPath());
+        return true;
+    }
+
+    /**
+     * Lists the files which an unresolved statement may load: the files whose
+     * path ends with the segments following the last . or .. of its literal
+     * path
+     * @param require
+     * The statement
+     * @return Paths of the files
+     */
+    private List<String> getCandidates(final PhpFile.Require require) {
+        final String[] segments = require.getPath().split("[/\\\\:]");
+        final StringBuilder suffix = new StringBuilder();
+        for (final String segment : segments) {
+            if (segment.equals(".") || segment.equals("..")) {
+                suffix.setLength(0);
+            } else if (!segment.isEmpty()) {
+                if (suffix.length() > 0) {
+                    suffix.append('/');
+                }
+                suffix.append(segment);
+            }
+        }
+        final List<String> candidates = new ArrayList<String>();
+        final List<String> paths = suffix.length() > 0 ? pathsByName.get(suffix
+                .substring(suffix.lastIndexOf("/") + 1)) : null;
+        if (paths != null) {
+            for (final String path : paths) {
+                if (path.equals(suffix.toString())
+                        || path.endsWith("/" + suffix)) {
+                    candidates.add(path);
+                }
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Orders the files of a bundle: a file comes after the files declaring
+     * the classes, interfaces and traits its declarations depend on
+     * @param bundle
+     * The bundle
+     * @return Its files
+     */
+    private List<PhpFile> order(final Bundle bundle) {
+        final List<PhpFile> pending = new ArrayList<PhpFile>();
+        final Map<String, String> declaringPaths = new HashMap<String, String>();
+        for (final Map.Entry<String, Bundle> member : members.entrySet()) {
+            if (member.getValue() == bundle) {
+                final PhpFile file = files.get(member.getKey());
+                pending.add(file);
+                for (final PhpFile.Declaration declaration : file
+                        .getDeclarations()) {
+                    declaringPaths.put(declaration.getName().toLowerCase(
+                            Locale.ROOT), file.getPath());
+                }
+            }
+        }
+        final List<PhpFile> ordered = new ArrayList<PhpFile>();
+        final Set<String> placed = new HashSet<String>();
+        while (!pending.isEmpty()) {
+            PhpFile next = pending.get(0);
+            for (final PhpFile file : pending) {
+                if (isReady(file, declaringPaths, placed)) {
+                    next = file;
+                    break;
+                }
+            }
+            pending.remove(next);
+            ordered.add(next);
+            placed.add(next.getPath());
+        }
+        return ordered;
+    }
+
+    /**
+     * Tells whether the dependencies of a file are placed in its bundle
+     * @param file
+     * The file
+     * @param declaringPaths
+     * Paths of the bundled files by lower case declared name
+     * @param placed
+     * Paths of the files already placed
+     * @return true if the declarations it depends on are placed or out of the
+     * bundle
+     */
+    private static boolean isReady(final PhpFile file,
+            final Map<String, String> declaringPaths, final Set<String> placed) {
+        for (final PhpFile.Declaration declaration : file.getDeclarations()) {
+            for (final String dependency : declaration.getDependencies()) {
+                final String path = declaringPaths.get(dependency
+                        .toLowerCase(Locale.ROOT));
+                if (path != null && !path.equals(file.getPath())
+                        && !placed.contains(path)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the content of a bundle
+     * @param bundle
+     * The bundle
+     * @param bundled
+     * Its files, in order
+     * @return The content
+     */
+    private String write(final Bundle bundle, final List<PhpFile> bundled) {
+        boolean namespaced = false;
+        for (final PhpFile file : bundled) {
+            namespaced |= file.isNamespaced();
+        }
+        final StringBuilder content = new StringBuilder("<?php\n");
+        if (!bundled.isEmpty() && !bundled.get(0).getDirectives().isEmpty()) {
+            content.append(bundled.get(0).getDirectives()).append('\n');
+        }
+        String openNamespace = null;
+        boolean openImporting = false;
+        for (final PhpFile file : bundled) {
+            for (final PhpFile.NamespaceBlock block : file.getBlocks()) {
+                if (namespaced && (openNamespace == null
+                        || !openNamespace.equals(block.getName())
+                        || openImporting || block.isImporting())) {
+                    if (openNamespace != null) {
+                        content.append("}\n");
+                    }
+                    content.append("namespace ");
+                    if (!block.getName().isEmpty()) {
+                        content.append(block.getName()).append(' ');
+                    }
+                    content.append("{\n");
+                    openNamespace = block.getName();
+                    openImporting = block.isImporting();
+                }
+                content.append(rewrite(file, bundle, block.getStart(),
+                        block.getEnd()).trim());
+                content.append('\n');
+            }
+        }
+        if (openNamespace != null) {
+            content.append("}\n");
+        }
+        return content.toString();
+    }
+
+    /**
+     * Rewrites the statements of a part of a file requiring bundled files
+     * @param file
+     * The file
+     * @param destination
+     * The bundle receiving the file, null if it isn't bundled
+     * @param from
+     * Position of the part
+     * @param to
+     * Position following the part
+     * @return The rewritten part
+     */
+    private String rewrite(final PhpFile file, final Bundle destination,
+            final int from, final int to) {
+        final String content = file.getContent();
+        final StringBuilder result = new StringBuilder(to - from);
+        int position = from;
+        for (final PhpFile.Require require : file.getRequires()) {
+            if (require.getStart() < from || require.getEnd() > to) {
+                continue;
+            }
+            final String target = resolve(file, require);
+            final Bundle bundle = target != null ? members.get(target) : null;
+            if (bundle == null) {
+                continue;
+            }
+            result.append(content, position, require.getStart());
+            if (bundle == destination) {
+                // The file is already in the bundle
+                result.append("true");
+                position = require.getEnd();
+                continue;
+            }
+            final String path = getBundlePath(file, destination, require,
+                    target, bundle);
+            if (path == null) {
+                position = require.getStart();
+                continue;
+            }
+            result.append(require.getKeyword().endsWith("_once") ? require
+                    .getKeyword() : require.getKeyword() + "_once");
+            result.append(content, require.getKeywordEnd(), require
+                    .getPathStart());
+            result.append('\'').append(path).append('\'');
+            position = require.getPathEnd();
+        }
+        result.append(content, position, to);
+        return result.toString();
+    }
+
+    /**
+     * Computes the literal path requiring a bundle instead of a file
+     * @param file
+     * The file containing the statement
+     * @param destination
+     * The bundle receiving the file, null if it isn't bundled
+     * @param require
+     * The statement
+     * @param target
+     * Path of the required file
+     * @param bundle
+     * Bundle of the required file
+     * @return The new literal path, null if the bundle can't be reached the
+     * same way
+     */
+    private static String getBundlePath(final PhpFile file,
+            final Bundle destination, final PhpFile.Require require,
+            final String target, final Bundle bundle) {
+        if (require.getBase() == PhpFile.Base.DIRECTORY) {
+            // __DIR__ is the folder of the bundle once the file is moved
+            return "/" + getRelativePath(getFolder(destination != null
+                    ? destination.getName() : file.getPath()), bundle.getName());
+        }
+        final String suffix = PhpTree.normalize(require.getPath());
+        final String path = getRelativePath(getFolder(target.substring(0,
+                target.length() - suffix.length())
+                + "x"), bundle.getName());
+        if (require.getBase() == PhpFile.Base.PLAIN && path.startsWith("../")) {
+            // The relative paths beginning with .. don't use the include path
+            return null;
+        }
+        return require.getPath().startsWith("/") ? "/" + path : path;
+    }
+
+    /**
+     * Finds the file required by a statement
+     * @param file
+     * The file containing the statement
+     * @param require
+     * The statement
+     * @return The path of the required file, null if it's unknown
+     */
+    private String resolve(final PhpFile file, final PhpFile.Require require) {
+        final String literal = require.getPath();
+        if (literal.indexOf(':') >= 0) {
+            // Stream wrapper or Windows path
+            return null;
+        }
+        if (require.getBase() == PhpFile.Base.DIRECTORY) {
+            if (!literal.startsWith("/")) {
+                return null;
+            }
+            final String path = PhpTree.normalize(getFolder(file.getPath())
+                    + literal);
+            return path != null && files.containsKey(path) ? path : null;
+        }
+        if (require.getBase() == PhpFile.Base.PLAIN
+                && (literal.startsWith(".") || literal.startsWith("/"))) {
+            return null;
+        }
+        final String suffix = PhpTree.normalize(literal);
+        if (suffix == null || suffix.isEmpty()) {
+            return null;
+        }
+        final List<String> candidates = pathsByName.get(suffix.substring(suffix
+                .lastIndexOf('/') + 1));
+        String found = null;
+        if (candidates != null) {
+            for (final String candidate : candidates) {
+                if (candidate.equals(suffix) || candidate.endsWith("/" + suffix)) {
+                    if (found != null) {
+                        // Ambiguous
+                        return null;
+                    }
+                    found = candidate;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns the folder of a file
+     * @param relativePath
+     * The path of the file
+     * @return The path of its folder, empty for the output folder
+     */
+    private static String getFolder(final String relativePath) {
+        final int slash = relativePath.lastIndexOf('/');
+        return slash < 0 ? "" : relativePath.substring(0, slash);
+    }
+
+    /**
+     * Computes the path of a file relative to a folder
+     * @param folder
+     * Path of the folder, empty for the output folder
+     * @param target
+     * Path of the file
+     * @return The relative path, beginning with .. if the file isn't in the
+     * folder
+     */
+    static String getRelativePath(final String folder, final String target) {
+        final String[] from = folder.isEmpty() ? new String[0] : folder.split("/");
+        final String[] to = target.split("/");
+        int common = 0;
+        while (common < from.length && common < to.length - 1
+                && from[common].equals(to[common])) {
+            common++;
+        }
+        final StringBuilder path = new StringBuilder();
+        for (int i = common; i < from.length; i++) {
+            path.append("../");
+        }
+        for (int i = common; i < to.length; i++) {
+            path.append(to[i]);
+            if (i < to.length - 1) {
+                path.append('/');
+            }
+        }
+        return path.toString();
+    }
+}
@@ -0,0 +1,165 @@
+/**
+ * Copyright (C) 2009 Loïc Rouchon <horn@phpboost.com>, Benoit Sautel <ben.popeye@phpboost.com>
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.phpboost.poptimizer.loading;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.phpboost.poptimizer.FileCharset;
+import org.phpboost.poptimizer.TextFileIO;
+
+/**
+ * This class writes the class map of the output folder: a classmap.php file
+ * returning an array from the fully qualified name of each class, interface,
+ * trait and enum to the path of the file declaring it, relative to the output
+ * folder. An autoloader finds a class with one lookup instead of probing the
+ * folders:
+ * <pre>
+ * $map = require PATH_TO_ROOT . '/classmap.php';
+ * spl_autoload_register(function ($class) use ($map) {
+ *     if (isset($map[$class])) {
+ *         require_once PATH_TO_ROOT . '/' . $map[$class];
+ *     }
+ * });
+ * </pre>
+ * The classes declared at the top level of every PHP file are mapped, the
+ * ones of the pages too (see PhpFile). The classes of the files gathered in a
+ * bundle are mapped to the bundle. The names are the declared ones, with
+ * their case.
+ * @author Benoit Sautel &lt;ben.popeye@phpboost.com&gt; Loic Rouchon
+ * &lt;horn@phpboost.com&gt;
+ */
+public class ClassMapWriter {
+    /**
+     * Name of the class map, written in the output folder
+     */
+    public static final String FILE_NAME = "classmap.php";
+
+    /**
+     * The output folder
+     */
+    private final File root;
+    /**
+     * Charset of the output files
+     */
+    private final FileCharset charset;
+    /**
+     * Extensions of the PHP files, without dot
+     */
+    private final Collection<String> extensions;
+    /**
+     * Files which aren't mapped as they're in a bundle
+     */
+    private final Set<String> excludedFiles = new HashSet<String>();
+
+    /**
+     * Builds a class map writer
+     * @param outputFolder
+     * The folder containing the optimized files
+     * @param outputCharset
+     * Charset of the optimized files
+     * @param phpExtensions
+     * Extensions of the PHP files, without dot
+     */
+    public ClassMapWriter(final File outputFolder,
+            final FileCharset outputCharset,
+            final Collection<String> phpExtensions) {
+        root = outputFolder;
+        charset = outputCharset;
+        extensions = phpExtensions;
+    }
+
+    /**
+     * Excludes some files, which are gathered in a bundle (see Bundler)
+     * @param paths
+     * Paths of the files relative to the output folder
+     */
+    public void setExcludedFiles(final Collection<String> paths) {
+        excludedFiles.clear();
+        excludedFiles.addAll(paths);
+    }
+
+    /**
+     * Writes the class map
+     * @throws IOException
+     */
+    public void write() throws IOException {
+        final Map<String, PhpFile> files = new PhpTree(root, charset,
+                extensions, Collections.singleton(FILE_NAME)).getFiles();
+        final Map<String, String> classMap = new TreeMap<String, String>();
+        final Map<String, String> declaredNames = new HashMap<String, String>();
+        for (final PhpFile file : files.values()) {
+            if (excludedFiles.contains(file.getPath())) {
+                continue;
+            }
+            for (final PhpFile.Declaration declaration : file.getDeclarations()) {
+                final String name = declaration.getName();
+                final String previous = declaredNames.put(name
+                        .toLowerCase(Locale.ROOT), name);
+                if (previous != null) {
+                    System.out.println("Not mapping " + name + " to "
+                            + file.getPath() + ": it's declared by "
+                            + classMap.get(previous));
+                    declaredNames.put(name.toLowerCase(Locale.ROOT), previous);
+                    continue;
+                }
+                classMap.put(name, file.getPath());
+            }
+        }
+
+        System.out.println("Mapping " + classMap.size() + " classes in "
+                + FILE_NAME);
+        final StringBuilder content = new StringBuilder("<?php\nreturn array(\n");
+        for (final Map.Entry<String, String> entry : classMap.entrySet()) {
+            appendString(content, entry.getKey());
+            content.append("=>");
+            appendString(content, entry.getValue());
+            content.append(",\n");
+        }
+        content.append(");\n");
+        TextFileIO.get().write(new File(root, FILE_NAME), content, charset);
+    }
+
+    /**
+     * Appends a single quoted string
+     * @param content
+     * The content receiving it
+     * @param value
+     * Value of the string
+     */
+    private static void appendString(final StringBuilder content,
+            final String value) {
+        content.append('\'');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '\\' || c == '\'') {
+                content.append('\\');
+            }
+            content.append(c);
+        }
+        content.append('\'');
+    }
+}
@@ -0,0 +1,1207 @@
+/**
+ * Copyright (C) 2009 Loïc Rouchon <horn@phpboost.com>, Benoit Sautel <ben.popeye@phpboost.com>
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.phpboost.poptimizer.loading;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.phpboost.poptimizer.lexer.PhpLexer;
+import org.phpboost.poptimizer.lexer.Token;
+import org.phpboost.poptimizer.lexer.TokenSink;
+import org.phpboost.poptimizer.lexer.TokenType;
+
+/**
+ * This class describes what a PHP file declares and loads: its namespace
+ * blocks with their imports, the classes, interfaces, traits and enums it
+ * declares at the top level with the names they depend on, and its
+ * require/include statements whose path ends with a literal string.
+ * <p>
+ * A file is a class file if it contains a single PHP block (optionally
+ * followed by blank characters) made only of declarations, imports and
+ * require/include statements, after its declare statements: it can be moved
+ * in a bundle. The attributes of the declarations are skipped. The names are
+ * resolved as PHP does, with the namespace and the imports of their block.
+ * The declarations of the other files are read too, out of the PHP blocks
+ * they close.
+ * </p>
+ * @author Benoit Sautel &lt;ben.popeye@phpboost.com&gt; Loic Rouchon
+ * &lt;horn@phpboost.com&gt;
+ */
+final class PhpFile {
+    /**
+     * Kinds of the declarations
+     */
+    enum Kind {
+        /**
+         * class
+         */
+        CLASS,
+        /**
+         * interface
+         */
+        INTERFACE,
+        /**
+         * trait
+         */
+        TRAIT,
+        /**
+         * enum
+         */
+        ENUM
+    }
+
+    /**
+     * Ways of computing the path of a require statement
+     */
+    enum Base {
+        /**
+         * Literal path alone ('a/b.php'), relative to the include path
+         */
+        PLAIN,
+        /**
+         * Path relative to the folder of the file (__DIR__ . '/b.php' or
+         * dirname(__FILE__) . '/b.php')
+         */
+        DIRECTORY,
+        /**
+         * Path relative to an expression (PATH_TO_ROOT . '/a/b.php')
+         */
+        PREFIX
+    }
+
+    /**
+     * Namespace block: the content of a namespace { } block or the content
+     * following a namespace statement, the whole file if there is no
+     * namespace
+     */
+    static final class NamespaceBlock {
+        /**
+         * Name of the namespace, empty for the global namespace
+         */
+        private final String name;
+        /**
+         * Position of the first character of the block content
+         */
+        private int start;
+        /**
+         * Position following the last character of the block content
+         */
+        private int end;
+        /**
+         * Imported classes by lower case alias
+         */
+        private final Map<String, String> imports = new HashMap<String, String>();
+        /**
+         * Tells whether the block contains use statements
+         */
+        private boolean importing = false;
+
+        /**
+         * Builds a block
+         * @param namespace
+         * Name of the namespace
+         * @param contentStart
+         * Position of the first character of the content
+         */
+        private NamespaceBlock(final String namespace, final int contentStart) {
+            name = namespace;
+            start = contentStart;
+        }
+
+        /**
+         * Returns the name of the namespace
+         * @return The name, empty for the global namespace
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the position of the content
+         * @return The position of its first character
+         */
+        public int getStart() {
+            return start;
+        }
+
+        /**
+         * Returns the end of the content
+         * @return The position following its last character
+         */
+        public int getEnd() {
+            return end;
+        }
+
+        /**
+         * Tells whether the block imports some names: its content can't be
+         * merged with another block
+         * @return true if it contains use statements
+         */
+        public boolean isImporting() {
+            return importing;
+        }
+
+        /**
+         * Resolves a class name used in the block
+         * @param used
+         * The name as written
+         * @return The fully qualified name, without leading backslash
+         */
+        private String resolve(final String used) {
+            if (used.startsWith("\\")) {
+                return used.substring(1);
+            }
+            final int separator = used.indexOf('\\');
+            final String first = separator < 0 ? used : used.substring(0,
+                    separator);
+            final String rest = separator < 0 ? "" : used.substring(separator);
+            if (first.equalsIgnoreCase("namespace")) {
+                return qualify(rest.substring(1));
+            }
+            final String imported = imports.get(first.toLowerCase(Locale.ROOT));
+            return imported != null ? imported + rest : qualify(used);
+        }
+
+        /**
+         * Puts a name in the namespace of the block
+         * @param local
+         * The name
+         * @return The fully qualified name
+         */
+        private String qualify(final String local) {
+            return name.isEmpty() ? local : name + '\\' + local;
+        }
+    }
+
+    /**
+     * Top level declaration of a class, an interface, a trait or an enum
+     */
+    static final class Declaration {
+        /**
+         * Fully qualified name
+         */
+        private final String name;
+        /**
+         * Kind of the declaration
+         */
+        private final Kind kind;
+        /**
+         * Fully qualified names of the extended and implemented classes and of
+         * the used traits
+         */
+        private final List<String> dependencies = new ArrayList<String>();
+
+        /**
+         * Builds a declaration
+         * @param declaredName
+         * Fully qualified name
+         * @param declarationKind
+         * Kind of the declaration
+         */
+        private Declaration(final String declaredName, final Kind declarationKind) {
+            name = declaredName;
+            kind = declarationKind;
+        }
+
+        /**
+         * Returns the declared name
+         * @return The fully qualified name, without leading backslash
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the kind of the declaration
+         * @return The kind
+         */
+        public Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * Returns the names the declaration needs: extended and implemented
+         * classes, used traits
+         * @return The fully qualified names
+         */
+        public List<String> getDependencies() {
+            return dependencies;
+        }
+    }
+
+    /**
+     * require, require_once, include or include_once statement whose path
+     * ends with a literal string
+     */
+    static final class Require {
+        /**
+         * The keyword, in lower case
+         */
+        private final String keyword;
+        /**
+         * Position of the keyword
+         */
+        private final int start;
+        /**
+         * Position following the keyword
+         */
+        private final int keywordEnd;
+        /**
+         * Position of the literal string
+         */
+        private final int pathStart;
+        /**
+         * Position following the literal string
+         */
+        private final int pathEnd;
+        /**
+         * Position following the expression
+         */
+        private final int end;
+        /**
+         * Value of the literal string
+         */
+        private final String path;
+        /**
+         * What the literal string is appended to
+         */
+        private final Base base;
+
+        /**
+         * Builds a statement description
+         * @param keywordToken
+         * The keyword
+         * @param literal
+         * The literal string
+         * @param last
+         * The last element of the expression
+         * @param pathBase
+         * What the literal string is appended to
+         */
+        private Require(final Element keywordToken, final Element literal,
+                final Element last, final Base pathBase) {
+            keyword = keywordToken.text.toLowerCase(Locale.ROOT);
+            start = keywordToken.start;
+            keywordEnd = keywordToken.end;
+            pathStart = literal.start;
+            pathEnd = literal.end;
+            end = last.end;
+            path = literal.text.substring(1, literal.text.length() - 1);
+            base = pathBase;
+        }
+
+        /**
+         * Returns the keyword
+         * @return require, require_once, include or include_once
+         */
+        public String getKeyword() {
+            return keyword;
+        }
+
+        /**
+         * Returns the position of the statement
+         * @return The position of the keyword
+         */
+        public int getStart() {
+            return start;
+        }
+
+        /**
+         * Returns the end of the keyword
+         * @return The position following the keyword
+         */
+        public int getKeywordEnd() {
+            return keywordEnd;
+        }
+
+        /**
+         * Returns the position of the literal string
+         * @return The position of its opening quote
+         */
+        public int getPathStart() {
+            return pathStart;
+        }
+
+        /**
+         * Returns the end of the literal string
+         * @return The position following its closing quote
+         */
+        public int getPathEnd() {
+            return pathEnd;
+        }
+
+        /**
+         * Returns the end of the expression
+         * @return The position following its last character
+         */
+        public int getEnd() {
+            return end;
+        }
+
+        /**
+         * Returns the literal path
+         * @return The value of the literal string
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * Returns what the literal string is appended to
+         * @return The base of the path
+         */
+        public Base getBase() {
+            return base;
+        }
+    }
+
+    /**
+     * Significant token of the file
+     */
+    private static final class Element {
+        /**
+         * Type of the token
+         */
+        private final TokenType type;
+        /**
+         * Text of the token
+         */
+        private final String text;
+        /**
+         * Position of the token
+         */
+        private final int start;
+        /**
+         * Position following the token
+         */
+        private final int end;
+
+        /**
+         * Builds an element
+         * @param token
+         * The token
+         * @param position
+         * Its position
+         */
+        private Element(final Token token, final int position) {
+            type = token.getType();
+            text = token.toString();
+            start = position;
+            end = position + token.length();
+        }
+
+        /**
+         * Tells whether the element is an operator
+         * @param operator
+         * The operator character
+         * @return true if it's the operator
+         */
+        private boolean is(final char operator) {
+            return type == TokenType.OPERATOR && text.charAt(0) == operator;
+        }
+
+        /**
+         * Tells whether the element is a keyword or a name
+         * @param word
+         * The lower case word
+         * @return true if it's the word, whatever its case
+         */
+        private boolean is(final String word) {
+            return type == TokenType.IDENTIFIER && text.equalsIgnoreCase(word);
+        }
+    }
+
+    /**
+     * Path of the file, relative to the root of the tree and separated by
+     * slashes
+     */
+    private final String path;
+    /**
+     * Content of the file
+     */
+    private final String content;
+    /**
+     * Significant tokens of the file
+     */
+    private final List<Element> elements = new ArrayList<Element>();
+    /**
+     * Namespace blocks, in the order of the file
+     */
+    private final List<NamespaceBlock> blocks = new ArrayList<NamespaceBlock>();
+    /**
+     * Top level declarations, in the order of the file
+     */
+    private final List<Declaration> declarations = new ArrayList<Declaration>();
+    /**
+     * require and include statements whose path ends with a literal string
+     */
+    private final List<Require> requires = new ArrayList<Require>();
+    /**
+     * Tells whether the file is made of declarations only
+     */
+    private boolean classFile = true;
+    /**
+     * Tells whether the file uses __DIR__ or __FILE__ out of the paths of
+     * its require statements
+     */
+    private boolean locationDependent = false;
+    /**
+     * Tells whether the file declares a namespace
+     */
+    private boolean namespaced = false;
+    /**
+     * Tells whether the file requires a path which doesn't end with a literal
+     * string
+     */
+    private boolean computedRequires = false;
+    /**
+     * The declare statements beginning the file, without blank characters
+     */
+    private final StringBuilder directives = new StringBuilder();
+    /**
+     * Tells whether a statement other than declare was read
+     */
+    private boolean statementRead = false;
+
+    /**
+     * Reads a file
+     * @param relativePath
+     * Path of the file, relative to the root of the tree and separated by
+     * slashes
+     * @param text
+     * Content of the file
+     */
+    PhpFile(final String relativePath, final String text) {
+        path = relativePath;
+        content = text;
+        new PhpLexer(new TokenSink() {
+            private int position = 0;
+
+            @Override
+            public void token(final Token token) {
+                if (!token.is(TokenType.WHITESPACE)
+                        && !token.is(TokenType.LINE_COMMENT)
+                        && !token.is(TokenType.BLOCK_COMMENT)) {
+                    elements.add(new Element(token, position));
+                }
+                position += token.length();
+            }
+
+            @Override
+            public void end() {
+            }
+        }).tokenize(text);
+        findRequires();
+        findDeclarations();
+    }
+
+    /**
+     * Returns the path of the file
+     * @return The path relative to the root of the tree, separated by slashes
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Returns the content of the file
+     * @return The content
+     */
+    public String getContent() {
+        return content;
+    }
+
+    /**
+     * Returns the namespace blocks of the file
+     * @return The blocks, in the order of the file
+     */
+    public List<NamespaceBlock> getBlocks() {
+        return Collections.unmodifiableList(blocks);
+    }
+
+    /**
+     * Returns the top level declarations of the file
+     * @return The declarations, in the order of the file
+     */
+    public List<Declaration> getDeclarations() {
+        return Collections.unmodifiableList(declarations);
+    }
+
+    /**
+     * Returns the require and include statements whose path ends with a
+     * literal string
+     * @return The statements, in the order of the file
+     */
+    public List<Require> getRequires() {
+        return Collections.unmodifiableList(requires);
+    }
+
+    /**
+     * Tells whether the file only contains declarations and can be moved
+     * @return true if it's a single PHP block of declarations, imports and
+     * require statements
+     */
+    public boolean isClassFile() {
+        return classFile;
+    }
+
+    /**
+     * Tells whether the file uses its own location out of the paths of its
+     * require statements: it can't be moved
+     * @return true if it uses __DIR__ or __FILE__
+     */
+    public boolean isLocationDependent() {
+        return locationDependent;
+    }
+
+    /**
+     * Tells whether the file declares a namespace
+     * @return true if it contains a namespace statement or block
+     */
+    public boolean isNamespaced() {
+        return namespaced;
+    }
+
+    /**
+     * Tells whether the file requires a computed path, which can't be found
+     * before the execution
+     * @return true if the path of a require or include statement doesn't end
+     * with a literal string (require $file)
+     */
+    public boolean hasComputedRequires() {
+        return computedRequires;
+    }
+
+    /**
+     * Returns the declare statements beginning the file, which aren't part of
+     * its blocks: declare(strict_types=1); applies to the whole file
+     * @return The statements without blank characters, empty if there are
+     * none
+     */
+    public String getDirectives() {
+        return directives.toString();
+    }
+
+    /**
+     * Finds the require statements and the uses of the location of the file
+     */
+    private void findRequires() {
+        for (int i = 0; i < elements.size(); i++) {
+            final Element element = elements.get(i);
+            if (isMagicConstant(element)) {
+                locationDependent = true;
+            } else if (element.type == TokenType.IDENTIFIER
+                    && isRequireKeyword(element) && !isMemberName(i)) {
+                final int end = findExpressionEnd(i + 1);
+                final Require require = readRequire(element, i + 1, end);
+                if (require == null) {
+                    computedRequires = true;
+                } else {
+                    requires.add(require);
+                    if (require.base == Base.DIRECTORY) {
+                        // The location is only used to find the file
+                        i = end - 1;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the expression of a require statement
+     * @param keyword
+     * The keyword
+     * @param from
+     * Index of the first element of the expression
+     * @param to
+     * Index following its last element
+     * @return The statement, null if its path doesn't end with a literal
+     * string
+     */
+    private Require readRequire(final Element keyword, final int from,
+            final int to) {
+        if (to <= from) {
+            return null;
+        }
+        final Element last = elements.get(to - 1);
+        int first = from;
+        int end = to;
+        // require_once('a.php')
+        while (end - first >= 3 && elements.get(first).is('(')
+                && elements.get(end - 1).is(')')
+                && findExpressionEnd(first + 1) == end - 1) {
+            first++;
+            end--;
+        }
+        final Element literal = elements.get(end - 1);
+        if (!isLiteralPath(literal)) {
+            return null;
+        }
+        if (end - 1 == first) {
+            return new Require(keyword, literal, last, Base.PLAIN);
+        }
+        if (end - 2 <= first || !elements.get(end - 2).is('.')) {
+            return null;
+        }
+        final int prefixLength = end - 2 - first;
+        final boolean directory = prefixLength == 1
+                && elements.get(first).is("__dir__")
+                || prefixLength == 4 && elements.get(first).is("dirname")
+                && elements.get(first + 1).is('(')
+                && elements.get(first + 2).is("__file__")
+                && elements.get(first + 3).is(')');
+        return new Require(keyword, literal, last, directory ? Base.DIRECTORY
+                : Base.PREFIX);
+    }
+
+    /**
+     * Finds the end of an expression: a semicolon, a comma or a closing
+     * parenthesis or bracket out of its own ones, or a closing tag
+     * @param from
+     * Index of the first element of the expression
+     * @return Index following its last element
+     */
+    private int findExpressionEnd(final int from) {
+        int depth = 0;
+        for (int i = from; i < elements.size(); i++) {
+            final Element element = elements.get(i);
+            if (element.is('(') || element.is('[') || element.is('{')) {
+                depth++;
+            } else if (element.is(')') || element.is(']') || element.is('}')) {
+                if (--depth < 0) {
+                    return i;
+                }
+            } else if (depth == 0 && (element.is(';') || element.is(','))
+                    || element.type == TokenType.CLOSE_TAG) {
+                return i;
+            }
+        }
+        return elements.size();
+    }
+
+    /**
+     * Reads the structure of the file: namespaces, imports and declarations
+     */
+    private void findDeclarations() {
+        if (elements.isEmpty()
+                || elements.get(0).type != TokenType.OPEN_TAG
+                || elements.get(0).text.startsWith("<?=")) {
+            classFile = false;
+        }
+        // End of the PHP code: the final closing tag if only blank
+        // characters follow it, the end of the file otherwise
+        int codeEnd = elements.size();
+        if (codeEnd > 1 && elements.get(codeEnd - 1).type == TokenType.INLINE_HTML
+                && elements.get(codeEnd - 1).text.trim().isEmpty()) {
+            codeEnd--;
+        }
+        if (codeEnd > 0 && elements.get(codeEnd - 1).type == TokenType.CLOSE_TAG) {
+            codeEnd--;
+        } else {
+            codeEnd = elements.size();
+        }
+        for (int i = 1; i < codeEnd; i++) {
+            final TokenType type = elements.get(i).type;
+            if (type == TokenType.OPEN_TAG || type == TokenType.CLOSE_TAG
+                    || type == TokenType.INLINE_HTML) {
+                // The file prints something
+                classFile = false;
+            }
+        }
+        final int contentEnd = codeEnd < elements.size() ? elements
+                .get(codeEnd).start : content.length();
+        NamespaceBlock block = new NamespaceBlock("",
+                elements.isEmpty() ? 0 : elements.get(0).end);
+        blocks.add(block);
+        int i = elements.isEmpty() ? 0 : 1;
+        while (i < codeEnd) {
+            final Element element = elements.get(i);
+            if (element.type == TokenType.OPEN_TAG
+                    || element.type == TokenType.CLOSE_TAG
+                    || element.type == TokenType.INLINE_HTML) {
+                i++;
+            } else if (element.is("namespace") && i + 1 < codeEnd
+                    && !elements.get(i + 1).is('\\')) {
+                namespaced = true;
+                final StringBuilder name = new StringBuilder();
+                final int next = readName(i + 1, name);
+                if (next >= codeEnd) {
+                    break;
+                }
+                block.end = element.start;
+                if (block.start == block.end || isBlank(block)) {
+                    // Nothing before the first namespace
+                    blocks.remove(block);
+                }
+                block = new NamespaceBlock(name.toString(),
+                        elements.get(next).end);
+                blocks.add(block);
+                if (elements.get(next).is('{')) {
+                    final int close = findBlockEnd(next);
+                    block.end = close < codeEnd ? elements.get(close).start
+                            : contentEnd;
+                    int j = next + 1;
+                    while (j < close) {
+                        j = readStatement(j, close, block);
+                    }
+                    i = close + 1;
+                    // Only blank characters can follow a braced namespace
+                    block = new NamespaceBlock("", i < codeEnd ? elements
+                            .get(i - 1).end : contentEnd);
+                    blocks.add(block);
+                } else {
+                    i = next + 1;
+                }
+            } else {
+                i = readStatement(i, codeEnd, block);
+            }
+        }
+        block.end = contentEnd;
+        if (blocks.size() > 1 && (block.start >= block.end || isBlank(block))) {
+            blocks.remove(block);
+        }
+    }
+
+    /**
+     * Tells whether the content of a block contains no code
+     * @param block
+     * The block
+     * @return true if it only contains blank characters
+     */
+    private boolean isBlank(final NamespaceBlock block) {
+        for (final Element element : elements) {
+            if (element.start >= block.start && element.end <= block.end
+                    && element.type != TokenType.OPEN_TAG) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads a top level statement
+     * @param from
+     * Index of its first element
+     * @param to
+     * Index following the last element of the block
+     * @param block
+     * The namespace block containing the statement
+     * @return Index following the statement
+     */
+    private int readStatement(final int from, final int to,
+            final NamespaceBlock block) {
+        int i = from;
+        final Element element = elements.get(i);
+        if (element.is(';')) {
+            return i + 1;
+        }
+        if (element.is("declare")) {
+            return readDeclare(i, to, block);
+        }
+        statementRead = true;
+        if (element.is("use")) {
+            return readImports(i + 1, to, block);
+        }
+        // Attributes of the declaration: #[A], #[B(1)]
+        while (i + 1 < to && elements.get(i).is('#')
+                && elements.get(i + 1).is('[')) {
+            i = findBracketEnd(i + 1) + 1;
+        }
+        final int start = i;
+        if (i >= to) {
+            return to;
+        }
+        while (i < to && (elements.get(i).is("abstract")
+                || elements.get(i).is("final") || elements.get(i).is("readonly"))) {
+            i++;
+        }
+        if (i + 1 < to && elements.get(i + 1).type == TokenType.IDENTIFIER) {
+            final Element keyword = elements.get(i);
+            Kind kind = null;
+            if (keyword.is("class")) {
+                kind = Kind.CLASS;
+            } else if (keyword.is("interface")) {
+                kind = Kind.INTERFACE;
+            } else if (keyword.is("trait")) {
+                kind = Kind.TRAIT;
+            } else if (keyword.is("enum") && i == start) {
+                kind = Kind.ENUM;
+            }
+            if (kind != null) {
+                return readDeclaration(i + 1, to, kind, block);
+            }
+        }
+        final Element first = elements.get(start);
+        if (i == start && (first.is("function") || first.is("const")
+                || first.type == TokenType.IDENTIFIER && isRequireKeyword(first))) {
+            return skipStatement(i, to);
+        }
+        if (i + 1 < to && first.is("true") && elements.get(i + 1).is(';')) {
+            // Require replaced in a bundle (see Bundler)
+            return i + 2;
+        }
+        classFile = false;
+        return skipStatement(i, to);
+    }
+
+    /**
+     * Reads a declare statement. Only the statements beginning the file are
+     * accepted in a class file, they're removed from its first block.
+     * @param from
+     * Index of the declare keyword
+     * @param to
+     * Index following the last element of the block
+     * @param block
+     * The namespace block containing the statement
+     * @return Index following the statement
+     */
+    private int readDeclare(final int from, final int to,
+            final NamespaceBlock block) {
+        if (from + 1 < to && elements.get(from + 1).is('(')) {
+            final int close = findParenthesisEnd(from + 1);
+            if (close + 1 < to && elements.get(close + 1).is(';')
+                    && !statementRead && block == blocks.get(0)
+                    && block.getName().isEmpty()) {
+                for (int i = from; i <= close + 1; i++) {
+                    directives.append(elements.get(i).text);
+                }
+                block.start = elements.get(close + 1).end;
+                return close + 2;
+            }
+        }
+        // declare block or declare after other statements
+        classFile = false;
+        return skipStatement(from, to);
+    }
+
+    /**
+     * Finds the parenthesis closing an expression
+     * @param open
+     * Index of the opening parenthesis
+     * @return Index of the closing parenthesis, the number of elements if
+     * it's missing
+     */
+    private int findParenthesisEnd(final int open) {
+        return findEnd(open, '(', ')');
+    }
+
+    /**
+     * Finds the bracket closing an attribute or an array
+     * @param open
+     * Index of the opening bracket
+     * @return Index of the closing bracket, the number of elements if it's
+     * missing
+     */
+    private int findBracketEnd(final int open) {
+        return findEnd(open, '[', ']');
+    }
+
+    /**
+     * Reads the imports of a use statement
+     * @param from
+     * Index following the use keyword
+     * @param to
+     * Index following the last element of the block
+     * @param block
+     * The namespace block containing the statement
+     * @return Index following the statement
+     */
+    private int readImports(final int from, final int to,
+            final NamespaceBlock block) {
+        block.importing = true;
+        int i = from;
+        boolean classes = true;
+        if (i < to && (elements.get(i).is("function") || elements.get(i).is("const"))) {
+            classes = false;
+            i++;
+        }
+        while (i < to && !elements.get(i).is(';')) {
+            final StringBuilder name = new StringBuilder();
+            i = readName(i, name);
+            if (i < to && elements.get(i).is('{')) {
+                // Group use: A\{B, C as D}
+                i++;
+                while (i < to && !elements.get(i).is('}')) {
+                    boolean groupClass = classes;
+                    if (elements.get(i).is("function") || elements.get(i).is("const")) {
+                        groupClass = false;
+                        i++;
+                    }
+                    final StringBuilder member = new StringBuilder(name);
+                    i = readImport(i, to, member, groupClass, block);
+                }
+                i++;
+            } else {
+                i = readImport(i, to, name, classes, block);
+            }
+        }
+        return i + 1;
+    }
+
+    /**
+     * Reads an imported name and its alias
+     * @param from
+     * Index following the beginning of the name which is already read
+     * @param to
+     * Index following the last element of the block
+     * @param name
+     * The beginning of the name, completed with the rest of it
+     * @param classImport
+     * true if it imports a class, false for a function or a constant
+     * @param block
+     * The namespace block containing the statement
+     * @return Index following the import and its separator
+     */
+    private int readImport(final int from, final int to,
+            final StringBuilder name, final boolean classImport,
+            final NamespaceBlock block) {
+        int i = readName(from, name);
+        String alias = name.substring(name.lastIndexOf("\\") + 1);
+        if (i + 1 < to && elements.get(i).is("as")) {
+            alias = elements.get(i + 1).text;
+            i += 2;
+        }
+        if (classImport && !alias.isEmpty()) {
+            final String imported = name.charAt(0) == '\\' ? name.substring(1)
+                    : name.toString();
+            block.imports.put(alias.toLowerCase(Locale.ROOT), imported);
+        }
+        if (i < to && elements.get(i).is(',')) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Reads a class, interface, trait or enum declaration
+     * @param from
+     * Index of the declared name
+     * @param to
+     * Index following the last element of the block
+     * @param kind
+     * Kind of the declaration
+     * @param block
+     * The namespace block containing the declaration
+     * @return Index following the declaration
+     */
+    private int readDeclaration(final int from, final int to, final Kind kind,
+            final NamespaceBlock block) {
+        final Declaration declaration = new Declaration(block
+                .qualify(elements.get(from).text), kind);
+        int i = from + 1;
+        if (kind == Kind.ENUM && i < to && elements.get(i).is(':')) {
+            // The backed type of an enum isn't a dependency
+            i = readName(i + 1, new StringBuilder());
+        }
+        while (i < to && !elements.get(i).is('{')) {
+            final Element element = elements.get(i);
+            if (element.is('\\') || element.type == TokenType.IDENTIFIER
+                    && !element.is("extends") && !element.is("implements")) {
+                final StringBuilder name = new StringBuilder();
+                i = readName(i, name);
+                declaration.dependencies.add(block.resolve(name.toString()));
+            } else {
+                i++;
+            }
+        }
+        final int close = findBlockEnd(i);
+        // Used traits: use A, B; at the top of the body
+        boolean memberStart = true;
+        int depth = 0;
+        for (int j = i; j < close; j++) {
+            final Element element = elements.get(j);
+            if (element.is('{')) {
+                depth++;
+                memberStart = depth == 1;
+            } else if (element.is('}')) {
+                depth--;
+                memberStart = depth == 1;
+            } else if (depth == 1 && memberStart && element.is("use")) {
+                j++;
+                while (j < close && !elements.get(j).is(';')
+                        && !elements.get(j).is('{')) {
+                    if (elements.get(j).is(',')) {
+                        j++;
+                        continue;
+                    }
+                    final StringBuilder name = new StringBuilder();
+                    j = readName(j, name);
+                    if (name.length() == 0) {
+                        j++;
+                    } else {
+                        declaration.dependencies.add(block.resolve(name
+                                .toString()));
+                    }
+                }
+                j--;
+                memberStart = false;
+            } else {
+                memberStart = depth == 1 && element.is(';');
+            }
+        }
+        declarations.add(declaration);
+        return Math.min(close + 1, to);
+    }
+
+    /**
+     * Reads a name, made of identifiers and backslashes
+     * @param from
+     * Index of its first element
+     * @param name
+     * Builder receiving the name
+     * @return Index following the name
+     */
+    private int readName(final int from, final StringBuilder name) {
+        int i = from;
+        while (i < elements.size() && (elements.get(i).is('\\')
+                || elements.get(i).type == TokenType.IDENTIFIER
+                && (name.length() == 0 || name.charAt(name.length() - 1) == '\\'))) {
+            name.append(elements.get(i).text);
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Skips a statement: up to a semicolon or a block out of parentheses
+     * @param from
+     * Index of its first element
+     * @param to
+     * Index following the last element of the enclosing block
+     * @return Index following the statement
+     */
+    private int skipStatement(final int from, final int to) {
+        int depth = 0;
+        for (int i = from; i < to; i++) {
+            final Element element = elements.get(i);
+            if (element.is('(') || element.is('[')) {
+                depth++;
+            } else if (element.is(')') || element.is(']')) {
+                depth--;
+            } else if (depth == 0 && element.is(';')) {
+                return i + 1;
+            } else if (depth == 0 && i > from
+                    && (element.type == TokenType.CLOSE_TAG
+                            || element.type == TokenType.OPEN_TAG
+                            || element.type == TokenType.INLINE_HTML)) {
+                // The closing tag ends the statement
+                return i;
+            } else if (element.is('{')) {
+                final int close = findBlockEnd(i);
+                if (depth == 0) {
+                    // A closure assigned by the statement goes on
+                    if (close + 1 < to && elements.get(close + 1).is(';')) {
+                        return close + 2;
+                    }
+                    return close + 1;
+                }
+                i = close;
+            }
+        }
+        return to;
+    }
+
+    /**
+     * Finds the brace closing a block
+     * @param open
+     * Index of the opening brace
+     * @return Index of the closing brace, the number of elements if it's
+     * missing
+     */
+    private int findBlockEnd(final int open) {
+        return findEnd(open, '{', '}');
+    }
+
+    /**
+     * Finds the element closing a pair of delimiters
+     * @param open
+     * Index of the opening delimiter
+     * @param opening
+     * The opening delimiter
+     * @param closing
+     * The closing delimiter
+     * @return Index of the closing delimiter, the number of elements if it's
+     * missing
+     */
+    private int findEnd(final int open, final char opening, final char closing) {
+        int depth = 0;
+        for (int i = open; i < elements.size(); i++) {
+            if (elements.get(i).is(opening)) {
+                depth++;
+            } else if (elements.get(i).is(closing) && --depth == 0) {
+                return i;
+            }
+        }
+        return elements.size();
+    }
+
+    /**
+     * Tells whether the element at an index is the name of a member (a
+     * method named require) rather than a keyword
+     * @param index
+     * Index of the element
+     * @return true if it follows -&gt;, :: or function
+     */
+    private boolean isMemberName(final int index) {
+        if (index == 0) {
+            return false;
+        }
+        final Element previous = elements.get(index - 1);
+        return previous.is('>') || previous.is(':') || previous.is("function");
+    }
+
+    /**
+     * Tells whether an element is a require or include keyword
+     * @param element
+     * The identifier
+     * @return true if it's require, require_once, include or include_once
+     */
+    private static boolean isRequireKeyword(final Element element) {
+        return element.is("require") || element.is("require_once")
+                || element.is("include") || element.is("include_once");
+    }
+
+    /**
+     * Tells whether an element is a constant giving the location of the file
+     * @param element
+     * The element
+     * @return true if it's __DIR__ or __FILE__
+     */
+    private static boolean isMagicConstant(final Element element) {
+        return element.is("__dir__") || element.is("__file__");
+    }
+
+    /**
+     * Tells whether an element is a literal string usable as a path
+     * @param element
+     * The element
+     * @return true if it's a string without escape sequence nor variable
+     */
+    private static boolean isLiteralPath(final Element element) {
+        if (element.type == TokenType.SINGLE_QUOTED_STRING) {
+            return element.text.charAt(0) == '\'' && element.text.indexOf('\\') < 0;
+        }
+        return element.type == TokenType.DOUBLE_QUOTED_STRING
+                && element.text.charAt(0) == '"' && element.text.indexOf('\\') < 0
+                && element.text.indexOf('$') < 0;
+    }
+}
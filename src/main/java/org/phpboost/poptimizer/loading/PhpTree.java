@@ -0,0 +1,152 @@
+/**
+ * Copyright (C) 2009 Loïc Rouchon <horn@phpboost.com>, Benoit Sautel <ben.popeye@phpboost.com>
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.phpboost.poptimizer.loading;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.phpboost.poptimizer.FileCharset;
+import org.phpboost.poptimizer.TextFileIO;
+
+/**
+ * This class reads the PHP files of the output folder, for the stages
+ * running after the optimization (Bundler, Preloader, ClassMapWriter).
+ * @author Benoit Sautel &lt;ben.popeye@phpboost.com&gt; Loic Rouchon
+ * &lt;horn@phpboost.com&gt;
+ */
+final class PhpTree {
+    /**
+     * The PHP files by relative path, sorted
+     */
+    private final Map<String, PhpFile> files = new TreeMap<String, PhpFile>();
+    /**
+     * Charset of the files
+     */
+    private final FileCharset charset;
+    /**
+     * Extensions of the PHP files, without dot
+     */
+    private final Set<String> extensions;
+    /**
+     * Relative paths of the generated files, which aren't read
+     */
+    private final Set<String> skipped;
+
+    /**
+     * Reads the PHP files of a folder and of its subfolders
+     * @param root
+     * The folder
+     * @param fileCharset
+     * Charset of the files
+     * @param phpExtensions
+     * Extensions of the PHP files, without dot
+     * @param skippedPaths
+     * Relative paths of the files to ignore, separated by slashes
+     * @throws IOException
+     */
+    PhpTree(final File root, final FileCharset fileCharset,
+            final Collection<String> phpExtensions,
+            final Collection<String> skippedPaths) throws IOException {
+        charset = fileCharset;
+        extensions = new HashSet<String>(phpExtensions);
+        skipped = new HashSet<String>(skippedPaths);
+        load(root, "");
+    }
+
+    /**
+     * Returns the PHP files
+     * @return The files by path relative to the root, separated by slashes
+     */
+    Map<String, PhpFile> getFiles() {
+        return files;
+    }
+
+    /**
+     * Reads the PHP files of a folder
+     * @param folder
+     * The folder
+     * @param relativePath
+     * Its path relative to the root, empty or ending with a slash
+     * @throws IOException
+     */
+    private void load(final File folder, final String relativePath)
+            throws IOException {
+        final File[] children = folder.listFiles();
+        if (children == null) {
+            throw new IOException("Impossible to list " + folder);
+        }
+        Arrays.sort(children);
+        for (final File child : children) {
+            final String path = relativePath + child.getName();
+            if (child.isDirectory()) {
+                load(child, path + "/");
+            } else if (isPhpFile(child.getName()) && !skipped.contains(path)) {
+                final String content = TextFileIO.get().read(child, charset)
+                        .toString();
+                files.put(path, new PhpFile(path, content));
+            }
+        }
+    }
+
+    /**
+     * Tells whether a file is a PHP file
+     * @param name
+     * Name of the file
+     * @return true if its extension is a PHP one
+     */
+    private boolean isPhpFile(final String name) {
+        final int dot = name.lastIndexOf('.');
+        return dot > 0 && extensions.contains(name.substring(dot + 1));
+    }
+
+    /**
+     * Removes the . and .. segments and the empty ones of a path
+     * @param path
+     * The path
+     * @return The normalized path, null if it goes out of the root
+     */
+    static String normalize(final String path) {
+        final List<String> segments = new ArrayList<String>();
+        for (final String segment : path.split("/")) {
+            if (segment.equals("..")) {
+                if (segments.isEmpty()) {
+                    return null;
+                }
+                segments.remove(segments.size() - 1);
+            } else if (!segment.isEmpty() && !segment.equals(".")) {
+                segments.add(segment);
+            }
+        }
+        final StringBuilder normalized = new StringBuilder();
+        for (final String segment : segments) {
+            if (normalized.length() > 0) {
+                normalized.append('/');
+            }
+            normalized.append(segment);
+        }
+        return normalized.toString();
+    }
+}
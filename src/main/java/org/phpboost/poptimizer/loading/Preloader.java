@@ -0,0 +1,225 @@
+/**
+ * Copyright (C) 2009 Loïc Rouchon <horn@phpboost.com>, Benoit Sautel <ben.popeye@phpboost.com>
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.phpboost.poptimizer.loading;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.phpboost.poptimizer.FileCharset;
+import org.phpboost.poptimizer.TextFileIO;
+
+/**
+ * This class writes the preload script of the output folder, which the
+ * opcache.preload setting of PHP 7.4+ runs at the start of the server to
+ * compile the classes once.
+ * <p>
+ * The script requires the class files (see PhpFile) of the preloaded folders,
+ * each one after the files declaring the parent classes, interfaces and
+ * traits of its declarations, wherever they are in the tree. The files
+ * gathered in a bundle are replaced by the bundle, as a class can't be
+ * declared twice. The classes declared by no file (extensions, libraries
+ * loaded otherwise) are left to PHP.
+ * </p>
+ * @author Benoit Sautel &lt;ben.popeye@phpboost.com&gt; Loic Rouchon
+ * &lt;horn@phpboost.com&gt;
+ */
+public class Preloader {
+    /**
+     * Name of the preload script, written in the output folder
+     */
+    public static final String FILE_NAME = "preload.php";
+
+    /**
+     * The output folder
+     */
+    private final File root;
+    /**
+     * Charset of the output files
+     */
+    private final FileCharset charset;
+    /**
+     * Extensions of the PHP files, without dot
+     */
+    private final Collection<String> extensions;
+    /**
+     * Preloaded folders, relative to the output folder, empty for all
+     */
+    private final List<String> folders = new ArrayList<String>();
+    /**
+     * Files which aren't preloaded as they're in a bundle
+     */
+    private final Set<String> excludedFiles = new HashSet<String>();
+    /**
+     * Preloadable files by relative path
+     */
+    private Map<String, PhpFile> files = null;
+    /**
+     * Path of the preloadable file declaring each class, by lower case name
+     */
+    private final Map<String, String> declaringPaths = new HashMap<String, String>();
+
+    /**
+     * Builds a preloader
+     * @param outputFolder
+     * The folder containing the optimized files
+     * @param outputCharset
+     * Charset of the optimized files
+     * @param phpExtensions
+     * Extensions of the PHP files, without dot
+     * @param preloadedFolders
+     * Folders whose class files are preloaded, relative to the output folder
+     * and separated by slashes. The whole tree is preloaded if it's empty.
+     */
+    public Preloader(final File outputFolder, final FileCharset outputCharset,
+            final Collection<String> phpExtensions,
+            final Collection<String> preloadedFolders) {
+        root = outputFolder;
+        charset = outputCharset;
+        extensions = phpExtensions;
+        for (final String folder : preloadedFolders) {
+            folders.add(PhpTree.normalize(folder.replace('\\', '/')));
+        }
+    }
+
+    /**
+     * Excludes some files, which are gathered in a bundle (see Bundler)
+     * @param paths
+     * Paths of the files relative to the output folder
+     */
+    public void setExcludedFiles(final Collection<String> paths) {
+        excludedFiles.clear();
+        excludedFiles.addAll(paths);
+    }
+
+    /**
+     * Writes the preload script
+     * @throws IOException
+     */
+    public void preload() throws IOException {
+        files = new PhpTree(root, charset, extensions, Collections
+                .singleton(FILE_NAME)).getFiles();
+        declaringPaths.clear();
+        for (final PhpFile file : new ArrayList<PhpFile>(files.values())) {
+            if (!isPreloadable(file)) {
+                files.remove(file.getPath());
+            }
+        }
+
+        final List<String> ordered = new ArrayList<String>();
+        final Set<String> visited = new HashSet<String>();
+        for (final String path : files.keySet()) {
+            if (isInFolders(path)) {
+                visit(path, visited, ordered);
+            }
+        }
+
+        System.out.println("Preloading " + ordered.size() + " files in "
+                + FILE_NAME);
+        final StringBuilder script = new StringBuilder("<?php\n");
+        for (final String path : ordered) {
+            script.append("require_once __DIR__ . '/").append(path).append(
+                    "';\n");
+        }
+        TextFileIO.get().write(new File(root, FILE_NAME), script, charset);
+    }
+
+    /**
+     * Tells whether a file can be preloaded and records its declarations
+     * @param file
+     * The file
+     * @return true if it's a class file declaring new classes
+     */
+    private boolean isPreloadable(final PhpFile file) {
+        if (!file.isClassFile() || file.getDeclarations().isEmpty()
+                || excludedFiles.contains(file.getPath())
+                || file.getPath().indexOf('\'') >= 0
+                || file.getPath().indexOf('\\') >= 0) {
+            return false;
+        }
+        for (final PhpFile.Declaration declaration : file.getDeclarations()) {
+            final String path = declaringPaths.get(declaration.getName()
+                    .toLowerCase(Locale.ROOT));
+            if (path != null) {
+                System.out.println("Not preloading " + file.getPath() + ": "
+                        + declaration.getName() + " is declared by " + path);
+                return false;
+            }
+        }
+        for (final PhpFile.Declaration declaration : file.getDeclarations()) {
+            declaringPaths.put(declaration.getName().toLowerCase(Locale.ROOT),
+                    file.getPath());
+        }
+        return true;
+    }
+
+    /**
+     * Tells whether a file is in the preloaded folders
+     * @param path
+     * Path of the file relative to the output folder
+     * @return true if it's in one of them
+     */
+    private boolean isInFolders(final String path) {
+        if (folders.isEmpty()) {
+            return true;
+        }
+        for (final String folder : folders) {
+            if (folder != null && (folder.isEmpty()
+                    || path.startsWith(folder + "/"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds a file to the script after the files it depends on
+     * @param path
+     * Path of the file
+     * @param visited
+     * Paths of the files already visited
+     * @param ordered
+     * Paths of the files of the script, in order
+     */
+    private void visit(final String path, final Set<String> visited,
+            final List<String> ordered) {
+        if (!visited.add(path)) {
+            // Already added, or a dependency cycle which PHP will report
+            return;
+        }
+        for (final PhpFile.Declaration declaration : files.get(path)
+                .getDeclarations()) {
+            for (final String dependency : declaration.getDependencies()) {
+                final String dependencyPath = declaringPaths.get(dependency
+                        .toLowerCase(Locale.ROOT));
+                if (dependencyPath != null) {
+                    visit(dependencyPath, visited, ordered);
+                }
+            }
+        }
+        ordered.add(path);
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright (C) 2009 Loïc Rouchon <horn@phpboost.com>, Benoit Sautel <ben.popeye@phpboost.com>
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.phpboost.poptimizer.optimizers;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class contains the time spent by each stage of a chain on a file: the
+ * lexer, each module and the printer writing the result. The sizes are
+ * counted in characters. When a file is streamed, the lexer time includes the
+ * reading and the printer time includes the writing.
+ * @author Benoit Sautel &lt;ben.popeye@phpboost.com&gt; Loic Rouchon
+ * &lt;horn@phpboost.com&gt;
+ */
+public class ChainProfile {
+    /**
+     * Name of the lexer stage
+     */
+    public static final String LEXER_STAGE = "lexer";
+    /**
+     * Name of the printer stage
+     */
+    public static final String PRINTER_STAGE = "printer";
+
+    /**
+     * Names of the stages
+     */
+    private final List<String> names = new ArrayList<String>();
+    /**
+     * Time of the stages (nanoseconds)
+     */
+    private final List<Long> times = new ArrayList<Long>();
+    /**
+     * Number of characters received by the stages
+     */
+    private final List<Long> sizesIn = new ArrayList<Long>();
+    /**
+     * Number of characters given by the stages
+     */
+    private final List<Long> sizesOut = new ArrayList<Long>();
+
+    /**
+     * Forgets the stages of the previous file
+     */
+    void clear() {
+        names.clear();
+        times.clear();
+        sizesIn.clear();
+        sizesOut.clear();
+    }
+
+    /**
+     * Adds a stage
+     * @param name
+     * Name of the stage
+     * @param time
+     * Time in nanoseconds
+     * @param sizeIn
+     * Number of received characters
+     * @param sizeOut
+     * Number of given characters
+     */
+    void addStage(final String name, final long time, final long sizeIn,
+            final long sizeOut) {
+        names.add(name);
+        times.add(time);
+        sizesIn.add(sizeIn);
+        sizesOut.add(sizeOut);
+    }
+
+    /**
+     * Returns the number of stages
+     * @return The number of stages
+     */
+    public int getStageCount() {
+        return names.size();
+    }
+
+    /**
+     * Returns the name of a stage
+     * @param stage
+     * Index of the stage
+     * @return The name
+     */
+    public String getName(final int stage) {
+        return names.get(stage);
+    }
+
+    /**
+     * Returns the time spent by a stage
+     * @param stage
+     * Index of the stage
+     * @return The time in nanoseconds
+     */
+    public long getTime(final int stage) {
+        return times.get(stage);
+    }
+
+    /**
+     * Returns the size of the content received by a stage
+     * @param stage
+     * Index of the stage
+     * @return The number of characters
+     */
+    public long getSizeIn(final int stage) {
+        return sizesIn.get(stage);
+    }
+
+    /**
+     * Returns the size of the content given by a stage
+     * @param stage
+     * Index of the stage
+     * @return The number of characters
+     */
+    public long getSizeOut(final int stage) {
+        return sizesOut.get(stage);
+    }
+}
@@ -17,115 +17,49 @@
 
 package org.phpboost.poptimizer.optimizers;
 
+import java.util.Arrays;
+
+import org.phpboost.poptimizer.lexer.Token;
+import org.phpboost.poptimizer.lexer.TokenType;
+
 /**
- * This class is a comments optimizer. It removes all the PHP comments (// up to
- * the end of the file, /* *\/ or ## ## but doesn't modifies the line numbers.
+ * This class is a comments optimizer. It removes all the PHP comments (// or #
+ * up to the end of the line, /* *\/) but doesn't modifies the line numbers.
  * @author benoit
  */
-public class CommentsOptimizer extends AbstractOptimizer {
+public class CommentsOptimizer extends TokenFilter {
     /**
-     * States of the automaton
+     * Token replacing a comment which separated two tokens
      */
-    private enum ParserStatus {
-        OUTSIDE_PHP_CODE, PHP_CODE, MULTILINE_COMMENT, INLINE_COMMENT, SIMPLE_QUOTED_STRING, DOUBLE_QUOTED_STRING
-    };
-
+    private final Token space = new Token(TokenType.WHITESPACE, " ");
     /**
-     * Builds a comments optimizer
-     * @param in
-     * String input
+     * Token replacing a comment which contained line breaks
      */
-    public CommentsOptimizer(final String in) {
-        super(in);
-    }
-
+    private final Token lineBreaks = new Token(null, null, 0, 0);
     /**
-     * Optimizer input
-     * @param decorate
+     * Line feeds, as many as in the longest comment met
      */
-    public CommentsOptimizer(final AbstractOptimizer decorate) {
-        super(decorate);
-    }
+    private char[] lineFeeds = new char[0];
 
     /**
-     * Optimizes the content of the optimizer
+     * Removes the comment tokens
      */
     @Override
-    public String optimize() {
-        super.optimize();
-
-        ParserStatus state = ParserStatus.OUTSIDE_PHP_CODE;
-        final StringBuilder result = new StringBuilder();
-        char previousChar = '\0';
-        Boolean isEscaped = false;
-
-        for (Integer i = Integer.valueOf(0); i < input.length(); i++) {
-            final char currentChar = input.charAt(i);
-            switch (state) {
-                case MULTILINE_COMMENT:
-                    if (currentChar == '\n') {
-                        result.append(currentChar);
-                    } else if (currentChar == '/' && previousChar == '*') {
-                        state = ParserStatus.PHP_CODE;
-                    }
-                    break;
-                case INLINE_COMMENT:
-                    if (currentChar == '\n') {
-                        state = ParserStatus.PHP_CODE;
-                        result.append(currentChar);
-                    }
-                    break;
-                case SIMPLE_QUOTED_STRING:
-                    if (currentChar == '\'' && !isEscaped) {
-                        state = ParserStatus.PHP_CODE;
-                    } else if (currentChar == '\\' && !isEscaped) {
-                        isEscaped = true;
-                    } else {
-                        isEscaped = false;
-                    }
-                    result.append(currentChar);
-                    break;
-                case DOUBLE_QUOTED_STRING:
-                    if (currentChar == '"' && !isEscaped) {
-                        state = ParserStatus.PHP_CODE;
-                    } else if (currentChar == '\\' && !isEscaped) {
-                        isEscaped = true;
-                    } else {
-                        isEscaped = false;
-                    }
-                    result.append(currentChar);
-                    break;
-                case PHP_CODE:
-                    if (currentChar == '/' && previousChar == '/') {
-                        result.deleteCharAt(result.length() - 1);
-                        state = ParserStatus.INLINE_COMMENT;
-                    } else if (currentChar == '*' && previousChar == '/') {
-                        result.deleteCharAt(result.length() - 1);
-                        state = ParserStatus.MULTILINE_COMMENT;
-                    } else if (currentChar == '"') {
-                        state = ParserStatus.DOUBLE_QUOTED_STRING;
-                        result.append(currentChar);
-                    } else if (currentChar == '\'') {
-                        state = ParserStatus.SIMPLE_QUOTED_STRING;
-                        result.append(currentChar);
-                    } else if (currentChar == '>' && previousChar == '?') {
-                        state = ParserStatus.OUTSIDE_PHP_CODE;
-                        result.append(currentChar);
-                    } else {
-                        result.append(currentChar);
-                    }
-                    break;
-                case OUTSIDE_PHP_CODE:
-                default:
-                    if (currentChar == '?' && previousChar == '<'
-                            && input.substring(i + 1, i + 4).equals("php")) {
-                        state = ParserStatus.PHP_CODE;
-                    }
-                    result.append(currentChar);
+    public void token(final Token token) {
+        if (token.is(TokenType.BLOCK_COMMENT)) {
+            final int lines = token.countLines();
+            if (lines == 0) {
+                // The comment was separating two tokens
+                emit(space);
+            } else {
+                if (lines > lineFeeds.length) {
+                    lineFeeds = new char[Math.max(lines, 2 * lineFeeds.length)];
+                    Arrays.fill(lineFeeds, '\n');
+                }
+                emit(lineBreaks.set(TokenType.WHITESPACE, lineFeeds, 0, lines));
             }
-            previousChar = currentChar;
+        } else if (!token.is(TokenType.LINE_COMMENT)) {
+            emit(token);
         }
-
-        return result.toString();
     }
-}
\ No newline at end of file
+}
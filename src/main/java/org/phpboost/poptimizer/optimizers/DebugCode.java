@@ -0,0 +1,169 @@
+/**
+ * Copyright (C) 2009 Loïc Rouchon <horn@phpboost.com>, Benoit Sautel <ben.popeye@phpboost.com>
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.phpboost.poptimizer.optimizers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * This class describes the debug code removed by the strip-debug module: the
+ * calls whose statements are removed and the constants declared false, whose
+ * if blocks are removed. Calls are written as in PHP, without arguments: a
+ * function (assert), a static method (Debug::dump) or a method of a variable
+ * ($logger->debug).
+ * @author Benoit Sautel &lt;ben.popeye@phpboost.com&gt; Loic Rouchon
+ * &lt;horn@phpboost.com&gt;
+ */
+public final class DebugCode {
+    /**
+     * Calls removed when none is configured
+     */
+    public static final List<String> DEFAULT_CALLS = Collections
+            .unmodifiableList(Arrays.asList("assert"));
+    /**
+     * Debug code removed when nothing is configured
+     */
+    public static final DebugCode DEFAULT = new DebugCode(DEFAULT_CALLS,
+            Collections.<String> emptyList());
+
+    /**
+     * The calls, split in elements (see split())
+     */
+    private final List<String[]> calls = new ArrayList<String[]>();
+    /**
+     * The calls, as configured
+     */
+    private final List<String> callNames;
+    /**
+     * Names of the constants declared false
+     */
+    private final Set<String> falseConstants;
+
+    /**
+     * Builds a description of the debug code
+     * @param debugCalls
+     * The calls whose statements are removed
+     * @param constants
+     * Names of the constants declared false
+     */
+    public DebugCode(final Collection<String> debugCalls,
+            final Collection<String> constants) {
+        callNames = Collections.unmodifiableList(new ArrayList<String>(
+                debugCalls));
+        for (final String call : callNames) {
+            final String[] elements = split(call);
+            if (elements.length == 0) {
+                throw new IllegalArgumentException("Empty debug call");
+            }
+            calls.add(elements);
+        }
+        falseConstants = Collections.unmodifiableSet(new LinkedHashSet<String>(
+                constants));
+    }
+
+    /**
+     * Returns the calls whose statements are removed
+     * @return The calls, as configured
+     */
+    public List<String> getCalls() {
+        return callNames;
+    }
+
+    /**
+     * Returns the calls split in elements: names, variables and operator
+     * characters, as the lexer gives them
+     * @return The elements of each call
+     */
+    List<String[]> getCallElements() {
+        return calls;
+    }
+
+    /**
+     * Tells whether a constant is declared false
+     * @param name
+     * Name of the constant
+     * @return true if the if blocks testing it are removed
+     */
+    public boolean isFalse(final CharSequence name) {
+        return falseConstants.contains(name.toString());
+    }
+
+    /**
+     * Returns the names of the constants declared false
+     * @return The names
+     */
+    public Set<String> getFalseConstants() {
+        return falseConstants;
+    }
+
+    /**
+     * Splits a call in the tokens of its code
+     * @param call
+     * The call, for instance Debug::dump
+     * @return Its names, variables ($ included) and operator characters
+     */
+    private static String[] split(final String call) {
+        final List<String> elements = new ArrayList<String>();
+        int i = 0;
+        while (i < call.length()) {
+            final char c = call.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+                continue;
+            }
+            int end = i + 1;
+            if (c == '$' || isNamePart(c)) {
+                while (end < call.length() && isNamePart(call.charAt(end))) {
+                    end++;
+                }
+            }
+            elements.add(call.substring(i, end));
+            i = end;
+        }
+        // The filter accepts the fully qualified names
+        if (!elements.isEmpty() && elements.get(0).equals("\\")) {
+            elements.remove(0);
+        }
+        return elements.toArray(new String[elements.size()]);
+    }
+
+    /**
+     * Tells whether a character can be part of a PHP name
+     * @param c
+     * The character
+     * @return true if it's a letter, a digit, an underscore or a non ASCII
+     * character
+     */
+    private static boolean isNamePart(final char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0'
+                && c <= '9' || c == '_' || c >= 0x80;
+    }
+
+    /**
+     * Describes the debug code, for the build manifest
+     */
+    @Override
+    public String toString() {
+        return callNames + "/" + falseConstants;
+    }
+}
@@ -0,0 +1,555 @@
+/**
+ * Copyright (C) 2009 Loïc Rouchon <horn@phpboost.com>, Benoit Sautel <ben.popeye@phpboost.com>
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.phpboost.poptimizer.optimizers;
+
+import java.util.Arrays;
+
+import org.phpboost.poptimizer.lexer.Token;
+import org.phpboost.poptimizer.lexer.TokenType;
+
+/**
+ * This class is a constant folding optimizer. It replaces the concatenations
+ * of literal strings and integers ('a' . "b" . 1) by a single string and the
+ * additions, subtractions and multiplications of literal integers (60 * 60 *
+ * 24) by their result.
+ * <p>
+ * An expression is only folded if the operators around it don't bind tighter
+ * than its own ones, so that grouping its operands doesn't change what the
+ * code does: 'a' . 'b' is kept in $x + 'a' . 'b', in 'a' . 'b'[0] or after a
+ * cast. The double quoted strings are only folded if they contain no variable
+ * and no escape sequence giving a byte (octal, hexadecimal or unicode), the strings
+ * containing line breaks are never folded and the integer results are kept in
+ * the range of the 32 bits integers. The line numbers don't change: the line
+ * breaks of the folded expression follow its result.
+ * </p>
+ * @author Benoit Sautel &lt;ben.popeye@phpboost.com&gt; Loic Rouchon
+ * &lt;horn@phpboost.com&gt;
+ */
+public class FoldOptimizer extends TokenFilter {
+    /**
+     * Operators after which a concatenation can be folded
+     */
+    private static final String CONCATENATION_PRECEDERS = "(,;=.?:[{}<>&|^";
+    /**
+     * Operators before which a concatenation can be folded
+     */
+    private static final String CONCATENATION_FOLLOWERS = ".;,)]}?:=!<>&|^";
+    /**
+     * Operators after which an arithmetic expression can be folded
+     */
+    private static final String ARITHMETIC_PRECEDERS = "(,;=[{}?:<>&|^";
+    /**
+     * Operators before which an arithmetic expression can be folded
+     */
+    private static final String ARITHMETIC_FOLLOWERS = ";,)]}?:=!<>&|^";
+    /**
+     * Keywords binding tighter than the folded operators: 'a' . 'b' instanceof
+     * Foo is 'a' . ('b' instanceof Foo)
+     */
+    private static final String[] TIGHTER_KEYWORDS = { "instanceof", "clone",
+            "new" };
+
+    /**
+     * Characters following a backslash in the escape sequences of the single
+     * quoted strings, they're also the values of the sequences
+     */
+    private static final String SINGLE_QUOTED_ESCAPES = "\\'";
+    /**
+     * Characters following a backslash in the escape sequences of the double
+     * quoted strings which can be folded
+     */
+    private static final String DOUBLE_QUOTED_ESCAPES = "\\$\"ntrvef";
+    /**
+     * Values of the escape sequences of the double quoted strings
+     */
+    private static final String DOUBLE_QUOTED_VALUES = "\\$\"\n\t\r\u000B\u001B\f";
+
+    /**
+     * Kinds of the kept expressions
+     */
+    private enum Kind {
+        /**
+         * Single operand, the first operator isn't met yet
+         */
+        OPERAND,
+        /**
+         * Concatenation of strings and integers
+         */
+        CONCATENATION,
+        /**
+         * Additions, subtractions and multiplications of integers
+         */
+        ARITHMETIC
+    }
+
+    /**
+     * Tokens of the expression which is being read
+     */
+    private final TokenBuffer buffer = new TokenBuffer();
+    /**
+     * Token emitting the kept tokens
+     */
+    private final Token kept = new Token(null, null, 0, 0);
+    /**
+     * Token emitting the results
+     */
+    private final Token result = new Token(null, null, 0, 0);
+    /**
+     * Line feeds, as many as in the longest folded expression
+     */
+    private char[] lineFeeds = new char[0];
+    /**
+     * Kind of the kept expression, null if no token is kept
+     */
+    private Kind kind = null;
+    /**
+     * Tells whether the kept expression can be a folded concatenation
+     */
+    private boolean concatenationAllowed;
+    /**
+     * Tells whether the kept expression can be a folded arithmetic expression
+     */
+    private boolean arithmeticAllowed;
+    /**
+     * Tells whether the last kept significant token is an operator
+     */
+    private boolean operandExpected;
+    /**
+     * Number of operands of the kept expression
+     */
+    private int operands;
+    /**
+     * Number of kept tokens up to the last operand
+     */
+    private int foldEnd;
+    /**
+     * Type of the last significant token given to the next filter
+     */
+    private TokenType previousType = null;
+    /**
+     * Character of the last significant token given to the next filter if
+     * it's an operator, \0 otherwise
+     */
+    private char previousChar = '\0';
+    /**
+     * Tells whether the last significant token given to the next filter is a
+     * keyword binding tighter than the folded operators
+     */
+    private boolean previousTighter = false;
+
+    /**
+     * Keeps the literal expressions until their end and folds them
+     */
+    @Override
+    public void token(final Token token) {
+        if (kind == null) {
+            tokenOutside(token);
+        } else if (isBlank(token)) {
+            buffer.add(token, false);
+        } else if (operandExpected) {
+            if (kind == Kind.CONCATENATION && isStringOperand(token)
+                    || parseInteger(token) >= 0) {
+                buffer.add(token, false);
+                operands++;
+                foldEnd = buffer.size();
+                operandExpected = false;
+            } else {
+                endExpression(token);
+                tokenOutside(token);
+            }
+        } else {
+            final char operator = token.is(TokenType.OPERATOR) ? token
+                    .firstChar() : '\0';
+            if (operator == '.' && kind != Kind.ARITHMETIC
+                    && concatenationAllowed) {
+                kind = Kind.CONCATENATION;
+                buffer.add(token, false);
+                operandExpected = true;
+            } else if ((operator == '+' || operator == '-' || operator == '*')
+                    && kind != Kind.CONCATENATION && arithmeticAllowed) {
+                kind = Kind.ARITHMETIC;
+                buffer.add(token, false);
+                operandExpected = true;
+            } else {
+                endExpression(token);
+                tokenOutside(token);
+            }
+        }
+    }
+
+    /**
+     * Gives the kept expression before the end of the file
+     */
+    @Override
+    public void end() {
+        if (kind != null) {
+            endExpression(null);
+        }
+        super.end();
+    }
+
+    /**
+     * Handles a token which isn't part of a kept expression
+     * @param token
+     * The token
+     */
+    private void tokenOutside(final Token token) {
+        if (isStringOperand(token) || parseInteger(token) >= 0) {
+            concatenationAllowed = isPreceder(CONCATENATION_PRECEDERS);
+            arithmeticAllowed = parseInteger(token) >= 0
+                    && isPreceder(ARITHMETIC_PRECEDERS);
+            if (concatenationAllowed || arithmeticAllowed) {
+                kind = Kind.OPERAND;
+                buffer.add(token, false);
+                operands = 1;
+                foldEnd = 1;
+                operandExpected = false;
+                return;
+            }
+        }
+        emit(token);
+        if (!isBlank(token)) {
+            setPrevious(token);
+        }
+    }
+
+    /**
+     * Gives the kept expression, folded if possible
+     * @param next
+     * The token following the kept tokens, null at the end of the file
+     */
+    private void endExpression(final Token next) {
+        int from = 0;
+        if (operands > 1 && isFollower(next)) {
+            final String folded = kind == Kind.CONCATENATION ? foldConcatenation()
+                    : foldArithmetic();
+            if (folded != null) {
+                emitResult(folded);
+                from = foldEnd;
+            }
+        }
+        for (int i = from; i < buffer.size(); i++) {
+            emit(buffer.get(i, kept));
+        }
+        // The last significant kept token is the operator following the
+        // expression or one of its operands
+        for (int i = buffer.size() - 1; i >= 0; i--) {
+            if (!isBlank(buffer.get(i, kept))) {
+                setPrevious(kept);
+                break;
+            }
+        }
+        buffer.clear();
+        kind = null;
+    }
+
+    /**
+     * Tells whether the first significant token following the last operand
+     * can follow a folded expression
+     * @param next
+     * The token following the kept tokens, null at the end of the file
+     * @return true if the operator doesn't bind tighter than the expression
+     */
+    private boolean isFollower(final Token next) {
+        Token follower = next;
+        for (int i = foldEnd; i < buffer.size(); i++) {
+            if (!isBlank(buffer.get(i, kept))) {
+                follower = kept;
+                break;
+            }
+        }
+        if (follower == null || follower.is(TokenType.CLOSE_TAG)) {
+            return true;
+        }
+        if (follower.is(TokenType.IDENTIFIER)) {
+            return !isTighterKeyword(follower);
+        }
+        return follower.is(TokenType.OPERATOR)
+                && (kind == Kind.CONCATENATION ? CONCATENATION_FOLLOWERS
+                        : ARITHMETIC_FOLLOWERS).indexOf(follower.firstChar()) >= 0;
+    }
+
+    /**
+     * Tells whether the last significant token can precede a folded
+     * expression
+     * @param operators
+     * The operators after which the expression can be folded
+     * @return true if the token doesn't bind tighter than the expression
+     */
+    private boolean isPreceder(final String operators) {
+        return previousType == TokenType.OPEN_TAG
+                || previousType == TokenType.IDENTIFIER && !previousTighter
+                || previousType == TokenType.OPERATOR
+                && operators.indexOf(previousChar) >= 0;
+    }
+
+    /**
+     * Records the last significant token given to the next filter
+     * @param token
+     * The token
+     */
+    private void setPrevious(final Token token) {
+        previousType = token.getType();
+        previousChar = token.is(TokenType.OPERATOR) ? token.firstChar() : '\0';
+        previousTighter = token.is(TokenType.IDENTIFIER)
+                && isTighterKeyword(token);
+    }
+
+    /**
+     * Tells whether a name is a keyword binding tighter than the folded
+     * operators
+     * @param token
+     * The identifier
+     * @return true if it's instanceof, clone or new
+     */
+    private static boolean isTighterKeyword(final Token token) {
+        for (final String keyword : TIGHTER_KEYWORDS) {
+            if (token.textEqualsIgnoreCase(keyword)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Computes the value of the kept concatenation
+     * @return The string literal, null if it can't be folded
+     */
+    private String foldConcatenation() {
+        final StringBuilder value = new StringBuilder();
+        for (int i = 0; i < foldEnd; i++) {
+            buffer.get(i, kept);
+            if (kept.is(TokenType.NUMBER)) {
+                value.append(kept);
+            } else if (kept.is(TokenType.SINGLE_QUOTED_STRING)
+                    || kept.is(TokenType.DOUBLE_QUOTED_STRING)) {
+                decodeString(kept, value);
+            }
+        }
+        return encodeString(value);
+    }
+
+    /**
+     * Computes the value of the kept arithmetic expression
+     * @return The integer literal, null if the result isn't a 32 bits integer
+     */
+    private String foldArithmetic() {
+        long sum = 0;
+        long product = 0;
+        char pending = '+';
+        char operator = '\0';
+        for (int i = 0; i < foldEnd; i++) {
+            buffer.get(i, kept);
+            if (kept.is(TokenType.OPERATOR)) {
+                operator = kept.firstChar();
+            } else if (kept.is(TokenType.NUMBER)) {
+                final long operand = parseInteger(kept);
+                if (operator == '\0') {
+                    product = operand;
+                } else if (operator == '*') {
+                    product *= operand;
+                } else {
+                    sum = pending == '+' ? sum + product : sum - product;
+                    pending = operator;
+                    product = operand;
+                }
+                if (!isInteger(sum) || !isInteger(product)) {
+                    return null;
+                }
+            }
+        }
+        sum = pending == '+' ? sum + product : sum - product;
+        return isInteger(sum) ? Long.toString(sum) : null;
+    }
+
+    /**
+     * Gives a folded literal followed by the line breaks of the expression
+     * @param folded
+     * The literal
+     */
+    private void emitResult(final String folded) {
+        final char[] text = folded.toCharArray();
+        if (text[0] == '-') {
+            emit(result.set(TokenType.OPERATOR, text, 0, 1));
+            emit(result.set(TokenType.NUMBER, text, 1, text.length - 1));
+        } else {
+            emit(result.set(kind == Kind.ARITHMETIC ? TokenType.NUMBER
+                    : text[0] == '"' ? TokenType.DOUBLE_QUOTED_STRING
+                            : TokenType.SINGLE_QUOTED_STRING, text, 0,
+                    text.length));
+        }
+        int lines = 0;
+        for (int i = 0; i < foldEnd; i++) {
+            lines += buffer.get(i, kept).countLines();
+        }
+        if (lines > 0) {
+            if (lines > lineFeeds.length) {
+                lineFeeds = new char[Math.max(lines, 2 * lineFeeds.length)];
+                Arrays.fill(lineFeeds, '\n');
+            }
+            emit(result.set(TokenType.WHITESPACE, lineFeeds, 0, lines));
+        }
+    }
+
+    /**
+     * Tells whether a token doesn't change the code
+     * @param token
+     * The token
+     * @return true if it's a blank or a comment
+     */
+    private static boolean isBlank(final Token token) {
+        return token.is(TokenType.WHITESPACE)
+                || token.is(TokenType.LINE_COMMENT)
+                || token.is(TokenType.BLOCK_COMMENT);
+    }
+
+    /**
+     * Tells whether a value is in the range of the 32 bits integers
+     * @param value
+     * The value
+     * @return true if it's a 32 bits integer
+     */
+    private static boolean isInteger(final long value) {
+        return value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE;
+    }
+
+    /**
+     * Reads a decimal integer literal
+     * @param token
+     * The token
+     * @return The integer, -1 if the token isn't a decimal integer (octal,
+     * hexadecimal, float, with separators or too big)
+     */
+    private static long parseInteger(final Token token) {
+        if (!token.is(TokenType.NUMBER) || token.length() > 10
+                || token.firstChar() == '0' && token.length() > 1) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = 0; i < token.length(); i++) {
+            final char c = token.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = 10 * value + c - '0';
+        }
+        return isInteger(value) ? value : -1;
+    }
+
+    /**
+     * Tells whether a token is a string which can be folded
+     * @param token
+     * The token
+     * @return true if it's a single line single quoted string or a single line
+     * double quoted string without variable nor byte escape sequence
+     */
+    private static boolean isStringOperand(final Token token) {
+        final boolean doubleQuoted;
+        if (token.is(TokenType.SINGLE_QUOTED_STRING)) {
+            doubleQuoted = false;
+        } else if (token.is(TokenType.DOUBLE_QUOTED_STRING)) {
+            doubleQuoted = true;
+        } else {
+            return false;
+        }
+        // Binary strings (b'') and commands (``) aren't folded
+        if (token.firstChar() != (doubleQuoted ? '"' : '\'')
+                || token.countLines() > 0) {
+            return false;
+        }
+        for (int i = 1; doubleQuoted && i < token.length() - 1; i++) {
+            final char c = token.charAt(i);
+            if (c == '$') {
+                return false;
+            }
+            if (c == '\\') {
+                final char escaped = token.charAt(++i);
+                if (escaped >= '0' && escaped <= '7' || escaped == 'x'
+                        || escaped == 'u') {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Appends the value of a string which can be folded
+     * @param token
+     * The string token
+     * @param value
+     * Builder receiving the value
+     */
+    private static void decodeString(final Token token, final StringBuilder value) {
+        final boolean doubleQuoted = token.is(TokenType.DOUBLE_QUOTED_STRING);
+        for (int i = 1; i < token.length() - 1; i++) {
+            final char c = token.charAt(i);
+            if (c != '\\') {
+                value.append(c);
+                continue;
+            }
+            final char escaped = token.charAt(i + 1);
+            final int index = (doubleQuoted ? DOUBLE_QUOTED_ESCAPES
+                    : SINGLE_QUOTED_ESCAPES).indexOf(escaped);
+            if (index < 0) {
+                // The backslash isn't an escape character
+                value.append(c);
+            } else {
+                value.append((doubleQuoted ? DOUBLE_QUOTED_VALUES
+                        : SINGLE_QUOTED_ESCAPES).charAt(index));
+                i++;
+            }
+        }
+    }
+
+    /**
+     * Writes a string literal, single quoted unless the value contains a
+     * control character which would change the line numbers or the text of
+     * the file
+     * @param value
+     * The value of the string
+     * @return The literal
+     */
+    private static String encodeString(final CharSequence value) {
+        boolean doubleQuoted = false;
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) < ' ' && value.charAt(i) != '\t') {
+                doubleQuoted = true;
+            }
+        }
+        final StringBuilder literal = new StringBuilder(value.length() + 2);
+        literal.append(doubleQuoted ? '"' : '\'');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (doubleQuoted) {
+                final int index = "\\$\"\n\r\u000B\u001B\f".indexOf(c);
+                if (index >= 0) {
+                    literal.append('\\').append("\\$\"nrvef".charAt(index));
+                } else {
+                    literal.append(c);
+                }
+            } else if (c == '\'' || c == '\\' && (i == value.length() - 1
+                    || value.charAt(i + 1) == '\\' || value.charAt(i + 1) == '\'')) {
+                literal.append('\\').append(c);
+            } else {
+                literal.append(c);
+            }
+        }
+        return literal.append(doubleQuoted ? '"' : '\'').toString();
+    }
+}
@@ -0,0 +1,594 @@
+/**
+ * Copyright (C) 2009 Loïc Rouchon <horn@phpboost.com>, Benoit Sautel <ben.popeye@phpboost.com>
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.phpboost.poptimizer.optimizers;
+
+import java.util.Arrays;
+
+import org.phpboost.poptimizer.lexer.Token;
+import org.phpboost.poptimizer.lexer.TokenType;
+
+/**
+ * This class is an optimizer of the text outside the PHP tags (HTML templates
+ * and views). It collapses the blank characters and removes the HTML comments,
+ * the text inside the PHP tags is not modified. Like the other modules, it
+ * keeps the line breaks so that the line numbers don't change: a blank run
+ * becomes its line breaks, or a space if it had none.
+ * <p>
+ * The content of the &lt;pre&gt;, &lt;textarea&gt;, &lt;script&gt; and
+ * &lt;style&gt; elements and the quoted attribute values are kept as they
+ * are. Conditional comments (&lt;!--[if IE]&gt;), server side includes
+ * (&lt;!--#) and comments containing PHP code are kept too, as well as the
+ * line break following a closing tag, which PHP doesn't print. A comment
+ * containing line breaks is only removed if it touches a blank run, which
+ * receives its line breaks: otherwise the removal would add a blank between
+ * two words.
+ * </p>
+ * <p>
+ * The text of an element may be split into several tokens (by the PHP blocks
+ * or by the buffer of the lexer), so the state of the HTML scanning is kept
+ * from a token to the next one, and the end of a token which can't be
+ * decided yet (beginning of a tag or of a comment) is kept until the next
+ * token.
+ * </p>
+ * @author Benoit Sautel &lt;ben.popeye@phpboost.com&gt; Loic Rouchon
+ * &lt;horn@phpboost.com&gt;
+ */
+public class HtmlOptimizer extends TokenFilter {
+    /**
+     * Elements whose content is kept unchanged
+     */
+    private static final String[] RAW_ELEMENTS = { "pre", "textarea",
+            "script", "style" };
+
+    /**
+     * State of the HTML scanning
+     */
+    private static enum Mode {
+        /**
+         * Text between the tags
+         */
+        TEXT,
+        /**
+         * Inside a tag
+         */
+        TAG,
+        /**
+         * Content of a raw element
+         */
+        RAW,
+        /**
+         * Comment which is kept
+         */
+        KEPT_COMMENT
+    }
+
+    /**
+     * Current state
+     */
+    private Mode mode = Mode.TEXT;
+    /**
+     * Quote of the attribute value being read in a tag, 0 outside the values
+     */
+    private char quote = '\0';
+    /**
+     * Raw element opened by the tag being read, null if it isn't one
+     */
+    private String openingRawElement = null;
+    /**
+     * Raw element whose content is being read
+     */
+    private String rawElement = null;
+    /**
+     * Tells whether the last token was a closing tag
+     */
+    private boolean afterCloseTag = false;
+    /**
+     * HTML text to scan, beginning with the characters kept from the
+     * previous tokens
+     */
+    private char[] work = new char[256];
+    /**
+     * Number of characters to scan
+     */
+    private int workLength = 0;
+    /**
+     * Optimized text
+     */
+    private char[] output = new char[256];
+    /**
+     * Number of characters of the optimized text
+     */
+    private int outputLength = 0;
+    /**
+     * Tells whether some blank characters were found and not written yet
+     */
+    private boolean pendingBlank = false;
+    /**
+     * Line breaks of the pending blank characters
+     */
+    private char[] pendingLineBreaks = new char[16];
+    /**
+     * Number of pending line breaks
+     */
+    private int pendingLineBreakCount = 0;
+    /**
+     * Token of the optimized text
+     */
+    private final Token html = new Token(null, null, 0, 0);
+
+    /**
+     * Optimizes the inline HTML tokens
+     */
+    @Override
+    public void token(final Token token) {
+        if (token.is(TokenType.INLINE_HTML)) {
+            if (workLength + token.length() > work.length) {
+                work = Arrays.copyOf(work, Math.max(workLength
+                        + token.length(), 2 * work.length));
+            }
+            for (int i = 0; i < token.length(); i++) {
+                work[workLength + i] = token.charAt(i);
+            }
+            workLength += token.length();
+            scan(false);
+        } else {
+            // The PHP code ends the HTML text
+            scan(true);
+            flushBlank();
+            emitOutput();
+            afterCloseTag = token.is(TokenType.CLOSE_TAG);
+            emit(token);
+        }
+    }
+
+    @Override
+    public void end() {
+        scan(true);
+        flushBlank();
+        emitOutput();
+        super.end();
+    }
+
+    /**
+     * Optimizes the text to scan. The characters which can't be decided yet
+     * are kept at the beginning of the text to scan.
+     * @param last
+     * true if no HTML text follows, everything must be decided
+     */
+    private void scan(final boolean last) {
+        final int length = workLength;
+        if (length == 0) {
+            return;
+        }
+        ensureOutputCapacity(outputLength + length + pendingLineBreakCount + 1);
+        int i = 0;
+        if (afterCloseTag) {
+            // The line break following ?> isn't printed by PHP
+            if (work[0] == '\r' && length == 1 && !last) {
+                return;
+            }
+            afterCloseTag = false;
+            if (work[0] == '\n') {
+                i = 1;
+            } else if (work[0] == '\r') {
+                i = length > 1 && work[1] == '\n' ? 2 : 1;
+            }
+            copy(0, i);
+        }
+        while (i < length) {
+            final int next;
+            switch (mode) {
+                case TAG:
+                    next = scanTag(i);
+                    break;
+                case RAW:
+                    next = scanRaw(i, last);
+                    break;
+                case KEPT_COMMENT:
+                    next = scanKeptComment(i, last);
+                    break;
+                default:
+                    next = scanText(i, last);
+            }
+            if (next < 0) {
+                break;
+            }
+            i = next;
+        }
+        System.arraycopy(work, i, work, 0, length - i);
+        workLength = length - i;
+    }
+
+    /**
+     * Scans a character of the text between the tags
+     * @param i
+     * Position of the character
+     * @param last
+     * true if no HTML text follows
+     * @return The position of the next character to scan, or -1 if the
+     * following characters are needed
+     */
+    private int scanText(final int i, final boolean last) {
+        final char currentChar = work[i];
+        if (isBlank(currentChar)) {
+            addBlank(currentChar);
+            return i + 1;
+        }
+        if (currentChar == '<') {
+            if (i + 1 == workLength) {
+                if (!last) {
+                    return -1;
+                }
+            } else if (work[i + 1] == '!') {
+                if (i + 4 > workLength && !last) {
+                    // May be the beginning of a comment
+                    return -1;
+                }
+                if (startsWith(i, "<!--")) {
+                    return scanComment(i, last);
+                }
+            } else if (work[i + 1] == '/' || isLetter(work[i + 1])) {
+                return scanTagName(i, last);
+            }
+        }
+        flushBlank();
+        output[outputLength++] = currentChar;
+        return i + 1;
+    }
+
+    /**
+     * Scans the name of a tag
+     * @param i
+     * Position of the &lt;
+     * @param last
+     * true if no HTML text follows
+     * @return The position following the name, or -1 if the following
+     * characters are needed
+     */
+    private int scanTagName(final int i, final boolean last) {
+        final boolean closing = work[i + 1] == '/';
+        final int nameStart = closing ? i + 2 : i + 1;
+        int nameEnd = nameStart;
+        while (nameEnd < workLength && isNameChar(work[nameEnd])) {
+            nameEnd++;
+        }
+        if (nameEnd == workLength && !last) {
+            return -1;
+        }
+        flushBlank();
+        copy(i, nameEnd);
+        if (nameEnd == nameStart) {
+            // Not a tag
+            return nameEnd;
+        }
+        mode = Mode.TAG;
+        quote = '\0';
+        openingRawElement = closing ? null : findRawElement(nameStart,
+                nameEnd);
+        return nameEnd;
+    }
+
+    /**
+     * Scans a character inside a tag
+     * @param i
+     * Position of the character
+     * @return The position of the next character to scan
+     */
+    private int scanTag(final int i) {
+        final char currentChar = work[i];
+        if (quote != '\0') {
+            // Attribute values are kept
+            if (currentChar == quote) {
+                quote = '\0';
+            }
+        } else if (isBlank(currentChar)) {
+            addBlank(currentChar);
+            return i + 1;
+        } else if (currentChar == '>') {
+            if (pendingLineBreakCount == 0) {
+                // The blank characters before the end of the tag are useless
+                pendingBlank = false;
+            }
+            if (openingRawElement != null) {
+                mode = Mode.RAW;
+                rawElement = openingRawElement;
+                openingRawElement = null;
+            } else {
+                mode = Mode.TEXT;
+            }
+        } else if (currentChar == '"' || currentChar == '\'') {
+            quote = currentChar;
+        }
+        flushBlank();
+        output[outputLength++] = currentChar;
+        return i + 1;
+    }
+
+    /**
+     * Scans the content of a raw element up to its closing tag
+     * @param i
+     * Position of the first character to scan
+     * @param last
+     * true if no HTML text follows
+     * @return The position of the next character to scan, or -1 if the
+     * following characters are needed
+     */
+    private int scanRaw(final int i, final boolean last) {
+        int j = i;
+        while (j < workLength) {
+            if (work[j] == '<') {
+                final int nameEnd = j + 2 + rawElement.length();
+                if (nameEnd >= workLength) {
+                    if (!last) {
+                        copy(i, j);
+                        return j == i ? -1 : j;
+                    }
+                    j = workLength;
+                    break;
+                }
+                if (work[j + 1] == '/'
+                        && findRawElement(j + 2, nameEnd) == rawElement
+                        && !isNameChar(work[nameEnd])) {
+                    // The closing tag is scanned as a text tag
+                    mode = Mode.TEXT;
+                    rawElement = null;
+                    break;
+                }
+            }
+            j++;
+        }
+        copy(i, j);
+        return j;
+    }
+
+    /**
+     * Scans a comment, removes it if possible
+     * @param i
+     * Position of the &lt;!--
+     * @param last
+     * true if no HTML text follows
+     * @return The position following the comment, or -1 if the following
+     * characters are needed
+     */
+    private int scanComment(final int i, final boolean last) {
+        // <!--> and <!---> are empty comments
+        final int end = indexOfCommentEnd(i + 2);
+        if (end < 0 || end == workLength && !last) {
+            if (end < 0 && last) {
+                // The comment contains PHP code
+                flushBlank();
+                copy(i, workLength);
+                mode = Mode.KEPT_COMMENT;
+                return workLength;
+            }
+            return -1;
+        }
+        final char firstChar = end - 3 > i + 4 ? work[i + 4] : '\0';
+        int lineBreaks = 0;
+        for (int j = i + 4; j < end - 3; j++) {
+            if (work[j] == '\n' || work[j] == '\r') {
+                lineBreaks++;
+            }
+        }
+        final boolean touchesBlank = pendingBlank || end < workLength
+                && isBlank(work[end]);
+        if (firstChar == '[' || firstChar == '#'
+                || end - 3 >= i + 6 && startsWith(i + 4, "<!")
+                || lineBreaks > 0 && !touchesBlank) {
+            flushBlank();
+            copy(i, end);
+            return end;
+        }
+        for (int j = i + 4; j < end - 3; j++) {
+            if (work[j] == '\n' || work[j] == '\r') {
+                addBlank(work[j]);
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Scans a kept comment up to its end
+     * @param i
+     * Position of the first character to scan
+     * @param last
+     * true if no HTML text follows
+     * @return The position of the next character to scan, or -1 if the
+     * following characters are needed
+     */
+    private int scanKeptComment(final int i, final boolean last) {
+        int end = indexOfCommentEnd(i);
+        if (end < 0) {
+            // The end of the text may be the beginning of -->
+            end = last ? workLength : Math.max(i, workLength - 2);
+        } else {
+            mode = Mode.TEXT;
+        }
+        copy(i, end);
+        return end == i ? -1 : end;
+    }
+
+    /**
+     * Finds the end of a comment
+     * @param from
+     * Position of the first character of the comment content
+     * @return The position following the --&gt;, or -1 if it's not found
+     */
+    private int indexOfCommentEnd(final int from) {
+        for (int j = from; j + 2 < workLength; j++) {
+            if (work[j] == '-' && work[j + 1] == '-' && work[j + 2] == '>') {
+                return j + 3;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the raw element named by a part of the text
+     * @param start
+     * Position of the first character of the name
+     * @param end
+     * Position following the name
+     * @return The element, or null if the name isn't a raw element
+     */
+    private String findRawElement(final int start, final int end) {
+        for (final String element : RAW_ELEMENTS) {
+            if (element.length() == end - start) {
+                int j = 0;
+                while (j < element.length()
+                        && Character.toLowerCase(work[start + j]) == element
+                                .charAt(j)) {
+                    j++;
+                }
+                if (j == element.length()) {
+                    return element;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Tells whether the text contains a string at a given position
+     * @param position
+     * The position
+     * @param text
+     * The string
+     * @return true if the string is at this position
+     */
+    private boolean startsWith(final int position, final String text) {
+        if (position + text.length() > workLength) {
+            return false;
+        }
+        for (int j = 0; j < text.length(); j++) {
+            if (work[position + j] != text.charAt(j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds a blank character to the pending ones
+     * @param aChar
+     * The blank character
+     */
+    private void addBlank(final char aChar) {
+        pendingBlank = true;
+        if (aChar == '\n' || aChar == '\r') {
+            if (pendingLineBreakCount == pendingLineBreaks.length) {
+                pendingLineBreaks = Arrays.copyOf(pendingLineBreaks,
+                        2 * pendingLineBreakCount);
+            }
+            pendingLineBreaks[pendingLineBreakCount++] = aChar;
+        }
+    }
+
+    /**
+     * Writes the pending blank characters: their line breaks, or a space if
+     * they had none
+     */
+    private void flushBlank() {
+        if (!pendingBlank) {
+            return;
+        }
+        if (pendingLineBreakCount > 0) {
+            ensureOutputCapacity(outputLength + pendingLineBreakCount);
+            System.arraycopy(pendingLineBreaks, 0, output, outputLength,
+                    pendingLineBreakCount);
+            outputLength += pendingLineBreakCount;
+            pendingLineBreakCount = 0;
+        } else {
+            ensureOutputCapacity(outputLength + 1);
+            output[outputLength++] = ' ';
+        }
+        pendingBlank = false;
+    }
+
+    /**
+     * Copies a part of the text to scan without modifying it
+     * @param start
+     * Position of the first character
+     * @param end
+     * Position following the last character
+     */
+    private void copy(final int start, final int end) {
+        ensureOutputCapacity(outputLength + end - start);
+        System.arraycopy(work, start, output, outputLength, end - start);
+        outputLength += end - start;
+    }
+
+    /**
+     * Gives the optimized text to the next element of the chain
+     */
+    private void emitOutput() {
+        if (outputLength > 0) {
+            emit(html.set(TokenType.INLINE_HTML, output, 0, outputLength));
+            outputLength = 0;
+        }
+    }
+
+    /**
+     * Grows the optimized text buffer
+     * @param capacity
+     * Number of characters it must be able to hold
+     */
+    private void ensureOutputCapacity(final int capacity) {
+        if (capacity > output.length) {
+            output = Arrays.copyOf(output, Math.max(capacity,
+                    2 * output.length));
+        }
+    }
+
+    /**
+     * Tells whether a character is a blank character
+     * @param aChar
+     * @return true if the character is a blank character, false otherwise
+     */
+    private static boolean isBlank(final char aChar) {
+        switch (aChar) {
+            case ' ':
+            case '\t':
+            case '\n':
+            case '\r':
+            case '\f':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Tells whether a character is an ASCII letter
+     * @param aChar
+     * @return true if the character is a letter, false otherwise
+     */
+    private static boolean isLetter(final char aChar) {
+        return aChar >= 'a' && aChar <= 'z' || aChar >= 'A' && aChar <= 'Z';
+    }
+
+    /**
+     * Tells whether a character can be part of a tag name
+     * @param aChar
+     * @return true if the character can be in a tag name, false otherwise
+     */
+    private static boolean isNameChar(final char aChar) {
+        return isLetter(aChar) || aChar >= '0' && aChar <= '9' || aChar == '-'
+                || aChar == ':';
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright (C) 2009 Loïc Rouchon <horn@phpboost.com>, Benoit Sautel <ben.popeye@phpboost.com>
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.phpboost.poptimizer.optimizers;
+
+/**
+ * This class records where the lines of a source begin in its optimized
+ * version, when a module removes some line breaks (see the spaces-aggressive
+ * module). It's written next to the optimized file so that the line numbers
+ * of the error logs can be decoded.
+ * <p>
+ * The map has one line per line of the optimized file. Each line is a list of
+ * column:line pairs separated by spaces: from this column (in characters,
+ * beginning at 0) of the optimized line, the code comes from this line of the
+ * source (beginning at 1). For instance "0:1 17:2 30:5" means that the first
+ * line of the optimized file contains the lines 1, 2 and 5 of the source.
+ * </p>
+ * @author Benoit Sautel &lt;ben.popeye@phpboost.com&gt; Loic Rouchon
+ * &lt;horn@phpboost.com&gt;
+ */
+public class LineMap {
+    /**
+     * The map text
+     */
+    private final StringBuilder map = new StringBuilder();
+    /**
+     * Column of the next optimized character
+     */
+    private int column = 0;
+    /**
+     * Source line of the next optimized character
+     */
+    private int sourceLine = 1;
+    /**
+     * Tells whether a pair must be written before the next character
+     */
+    private boolean pairNeeded = true;
+    /**
+     * Tells whether some line breaks were removed
+     */
+    private boolean changed = false;
+
+    /**
+     * Records some text written without removing its line breaks
+     * @param text
+     * The text
+     */
+    public void copied(final CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (pairNeeded) {
+                if (column > 0) {
+                    map.append(' ');
+                }
+                map.append(column).append(':').append(sourceLine);
+                pairNeeded = false;
+            }
+            if (text.charAt(i) == '\n') {
+                map.append('\n');
+                column = 0;
+                sourceLine++;
+                pairNeeded = true;
+            } else {
+                column++;
+            }
+        }
+    }
+
+    /**
+     * Records a line break of the source which isn't written
+     */
+    public void removedLineBreak() {
+        sourceLine++;
+        pairNeeded = true;
+        changed = true;
+    }
+
+    /**
+     * Tells whether the line numbers of the optimized file are the ones of the
+     * source
+     * @return true if no line break was removed, false otherwise
+     */
+    public boolean isIdentity() {
+        return !changed;
+    }
+
+    /**
+     * Returns the map text
+     */
+    @Override
+    public String toString() {
+        return map.toString();
+    }
+}
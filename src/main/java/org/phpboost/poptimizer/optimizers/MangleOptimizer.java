@@ -0,0 +1,633 @@
+/**
+ * Copyright (C) 2009 Loïc Rouchon <horn@phpboost.com>, Benoit Sautel <ben.popeye@phpboost.com>
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.phpboost.poptimizer.optimizers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.phpboost.poptimizer.lexer.Token;
+import org.phpboost.poptimizer.lexer.TokenType;
+
+/**
+ * This class is an optimizer which gives short names to the local variables
+ * of the functions, the most used variables getting the shortest names. The
+ * tokens of a function (with the closures it contains) are kept until its end,
+ * then the function is emitted with the new names, or unchanged if renaming
+ * its variables isn't safe.
+ * <p>
+ * Are never renamed: $this, the superglobals, the static properties
+ * (Foo::$bar), the variables declared global, the variables used inside
+ * strings and heredocs, the parameters of the named functions and methods
+ * (since PHP 8 they are the names of the named arguments of their callers),
+ * the variables a closure outside a function imports with use, and the
+ * variables an arrow function outside a function captures. A function isn't
+ * renamed at all if it accesses its variables by name: variable variables
+ * ($$a, ${'a'}), compact, extract, get_defined_vars, parse_str, eval,
+ * include and require, or if it declares an anonymous class or a named
+ * function.
+ * </p>
+ * @author Benoit Sautel &lt;ben.popeye@phpboost.com&gt; Loic Rouchon
+ * &lt;horn@phpboost.com&gt;
+ */
+public class MangleOptimizer extends TokenFilter {
+    /**
+     * Variables which are never renamed, without $
+     */
+    private static final Set<String> RESERVED_VARIABLES = new HashSet<String>(
+            Arrays.asList("this", "GLOBALS", "_SERVER", "_GET", "_POST",
+                    "_FILES", "_COOKIE", "_SESSION", "_REQUEST", "_ENV",
+                    "http_response_header", "argc", "argv", "php_errormsg"));
+    /**
+     * Functions and keywords accessing the variables by their names (lower
+     * case)
+     */
+    private static final Set<String> UNSAFE_IDENTIFIERS = new HashSet<String>(
+            Arrays.asList("compact", "extract", "get_defined_vars",
+                    "parse_str", "mb_parse_str", "eval", "include",
+                    "include_once", "require", "require_once"));
+    /**
+     * First characters of the short names
+     */
+    private static final String NAME_STARTS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ";
+    /**
+     * Other characters of the short names
+     */
+    private static final String NAME_PARTS = NAME_STARTS + "0123456789_";
+
+    /**
+     * Kind of function being read
+     */
+    private static enum Kind {
+        /**
+         * Named function or method
+         */
+        NAMED,
+        /**
+         * Closure (function without name)
+         */
+        CLOSURE,
+        /**
+         * Arrow function (fn)
+         */
+        ARROW
+    }
+
+    /**
+     * Part of the function being read
+     */
+    private static enum Phase {
+        /**
+         * Between function and the parameters
+         */
+        HEADER,
+        /**
+         * Parameter list
+         */
+        PARAMETERS,
+        /**
+         * Between the parameters and the body (use, return type)
+         */
+        SIGNATURE,
+        /**
+         * Between use and its list
+         */
+        USE,
+        /**
+         * Variables imported with use
+         */
+        USE_LIST,
+        /**
+         * Body between braces
+         */
+        BODY,
+        /**
+         * Expression of an arrow function
+         */
+        ARROW_BODY
+    }
+
+    /**
+     * Last significant token outside the functions
+     */
+    private char previousChar = '\0';
+    /**
+     * Significant token preceding the last one outside the functions
+     */
+    private char secondPreviousChar = '\0';
+    /**
+     * Tells whether the last significant token outside the functions was the
+     * use keyword
+     */
+    private boolean previousUse = false;
+
+    /**
+     * Kind of the function being read, null outside the functions
+     */
+    private Kind kind = null;
+    /**
+     * Part of the function being read
+     */
+    private Phase phase = null;
+    /**
+     * Depth of the parenthesis, brackets or braces in the current part
+     */
+    private int depth = 0;
+    /**
+     * Tells whether the last significant token of the signature was =
+     */
+    private boolean afterEquals = false;
+    /**
+     * Last significant token of the function
+     */
+    private char regionPreviousChar = '\0';
+    /**
+     * Significant token preceding the last one in the function
+     */
+    private char regionSecondPreviousChar = '\0';
+    /**
+     * Last significant identifier of the function (lower case), null if the
+     * last significant token isn't an identifier
+     */
+    private String previousIdentifier = null;
+    /**
+     * Identifier preceding the last significant token if it's a &amp;, to find
+     * the functions returning a reference
+     */
+    private String functionBeforeReference = null;
+    /**
+     * Tells whether a global statement is being read
+     */
+    private boolean globalStatement = false;
+    /**
+     * Tells whether the variables of the function mustn't be renamed
+     */
+    private boolean unsafe = false;
+    /**
+     * Number of occurrences of each variable of the function, without $
+     */
+    private final Map<String, Integer> occurrences = new HashMap<String, Integer>();
+    /**
+     * Variables of the function which keep their names
+     */
+    private final Set<String> keptVariables = new HashSet<String>();
+    /**
+     * Parameters of the function
+     */
+    private final Set<String> parameters = new HashSet<String>();
+
+    /**
+     * Tokens of the function, the local variables are marked
+     */
+    private final TokenBuffer buffer = new TokenBuffer();
+    /**
+     * Token emitting the kept tokens
+     */
+    private final Token kept = new Token(null, null, 0, 0);
+
+    /**
+     * Keeps the tokens of the functions, gives the other ones
+     */
+    @Override
+    public void token(final Token token) {
+        if (kind == null) {
+            tokenOutside(token);
+        } else {
+            tokenInFunction(token);
+        }
+    }
+
+    @Override
+    public void end() {
+        if (kind != null) {
+            // Incomplete function
+            unsafe = true;
+            endFunction();
+        }
+        super.end();
+    }
+
+    /**
+     * Handles a token outside the functions
+     * @param token
+     * The token
+     */
+    private void tokenOutside(final Token token) {
+        if (isInsignificant(token)) {
+            emit(token);
+            return;
+        }
+        if (token.is(TokenType.IDENTIFIER) && !previousUse
+                && !(previousChar == '>' && secondPreviousChar == '-')
+                && !(previousChar == ':' && secondPreviousChar == ':')) {
+            if (token.textEqualsIgnoreCase("function")) {
+                beginFunction(token, Kind.CLOSURE);
+                return;
+            }
+            if (token.textEqualsIgnoreCase("fn")) {
+                beginFunction(token, Kind.ARROW);
+                return;
+            }
+        }
+        remember(token);
+        emit(token);
+    }
+
+    /**
+     * Records the last significant token outside the functions
+     * @param token
+     * The token
+     */
+    private void remember(final Token token) {
+        secondPreviousChar = previousChar;
+        previousChar = token.is(TokenType.OPERATOR) ? token.firstChar() : '\0';
+        previousUse = token.is(TokenType.IDENTIFIER)
+                && token.textEqualsIgnoreCase("use");
+    }
+
+    /**
+     * Begins to keep the tokens of a function
+     * @param token
+     * The function or fn keyword
+     * @param functionKind
+     * The kind of function, a closure until its name is found
+     */
+    private void beginFunction(final Token token, final Kind functionKind) {
+        kind = functionKind;
+        phase = Phase.HEADER;
+        depth = 0;
+        afterEquals = false;
+        regionPreviousChar = '\0';
+        regionSecondPreviousChar = '\0';
+        previousIdentifier = null;
+        functionBeforeReference = null;
+        globalStatement = false;
+        unsafe = false;
+        occurrences.clear();
+        keptVariables.clear();
+        parameters.clear();
+        buffer.clear();
+        keep(token, false);
+    }
+
+    /**
+     * Handles a token of a function
+     * @param token
+     * The token
+     */
+    private void tokenInFunction(final Token token) {
+        if (isInsignificant(token)) {
+            keep(token, false);
+            return;
+        }
+        final char operator = token.is(TokenType.OPERATOR) ? token.firstChar()
+                : '\0';
+        switch (phase) {
+            case HEADER:
+                if (operator == '(') {
+                    phase = Phase.PARAMETERS;
+                    depth = 1;
+                } else if (kind == Kind.CLOSURE
+                        && token.is(TokenType.IDENTIFIER)) {
+                    kind = Kind.NAMED;
+                } else if (operator != '&') {
+                    // Not a declaration (named argument, old function named fn)
+                    abortFunction(token);
+                    return;
+                }
+                break;
+            case PARAMETERS:
+                if (operator == '(') {
+                    depth++;
+                } else if (operator == ')' && --depth == 0) {
+                    phase = Phase.SIGNATURE;
+                } else if (token.is(TokenType.VARIABLE)) {
+                    parameters.add(variableName(token));
+                }
+                break;
+            case SIGNATURE:
+                if (operator == '{' && kind != Kind.ARROW) {
+                    phase = Phase.BODY;
+                    depth = 1;
+                } else if (operator == ';' && kind == Kind.NAMED) {
+                    // Abstract method
+                    keep(token, false);
+                    endFunction();
+                    return;
+                } else if (operator == '>' && afterEquals && kind == Kind.ARROW) {
+                    phase = Phase.ARROW_BODY;
+                    depth = 0;
+                } else if (kind == Kind.CLOSURE && token.is(TokenType.IDENTIFIER)
+                        && token.textEqualsIgnoreCase("use")) {
+                    phase = Phase.USE;
+                } else if (!isReturnType(token, operator)
+                        && !(operator == '=' && kind == Kind.ARROW)) {
+                    abortFunction(token);
+                    return;
+                }
+                afterEquals = operator == '=';
+                break;
+            case USE:
+                if (operator != '(') {
+                    abortFunction(token);
+                    return;
+                }
+                phase = Phase.USE_LIST;
+                break;
+            case USE_LIST:
+                if (operator == ')') {
+                    phase = Phase.SIGNATURE;
+                } else if (token.is(TokenType.VARIABLE)) {
+                    // Imported from the enclosing code
+                    keptVariables.add(variableName(token));
+                }
+                break;
+            case ARROW_BODY:
+                if (depth == 0
+                        && (token.is(TokenType.CLOSE_TAG) || operator == ','
+                                || operator == ';' || operator == ')'
+                                || operator == ']' || operator == '}')) {
+                    // The token follows the arrow function
+                    endFunction();
+                    tokenOutside(token);
+                    return;
+                }
+                if (operator == '(' || operator == '[' || operator == '{') {
+                    depth++;
+                } else if (operator == ')' || operator == ']' || operator == '}') {
+                    depth--;
+                }
+                break;
+            default:
+                if (operator == '{') {
+                    depth++;
+                } else if (operator == '}' && --depth == 0) {
+                    analyze(token, operator);
+                    keep(token, false);
+                    endFunction();
+                    return;
+                }
+        }
+        if (phase != Phase.HEADER) {
+            analyze(token, operator);
+        }
+        keep(token, token.is(TokenType.VARIABLE) && isLocalVariable());
+        if (token.is(TokenType.VARIABLE)) {
+            final String name = variableName(token);
+            if (isLocalVariable()) {
+                final Integer count = occurrences.get(name);
+                occurrences.put(name, Integer.valueOf(count == null ? 1 : count
+                        .intValue() + 1));
+                if (globalStatement) {
+                    keptVariables.add(name);
+                }
+            }
+        }
+        functionBeforeReference = operator == '&' ? previousIdentifier : null;
+        regionSecondPreviousChar = regionPreviousChar;
+        regionPreviousChar = operator;
+        previousIdentifier = token.is(TokenType.IDENTIFIER) ? token.toString()
+                .toLowerCase() : null;
+    }
+
+    /**
+     * Looks for what prevents renaming the variables of the function
+     * @param token
+     * A significant token of the function
+     * @param operator
+     * The operator character of the token, \0 if it's not an operator
+     */
+    private void analyze(final Token token, final char operator) {
+        if (operator == '$') {
+            // Variable variable
+            unsafe = true;
+        } else if (operator == ';') {
+            globalStatement = false;
+        } else if (token.is(TokenType.IDENTIFIER)) {
+            final String identifier = token.toString().toLowerCase();
+            if (regionPreviousChar == '>' && regionSecondPreviousChar == '-'
+                    || regionPreviousChar == ':' && regionSecondPreviousChar == ':') {
+                // Method, property or constant
+                return;
+            }
+            if (UNSAFE_IDENTIFIERS.contains(identifier)
+                    || identifier.equals("class") && "new".equals(previousIdentifier)
+                    || "function".equals(previousIdentifier)
+                    || "function".equals(functionBeforeReference)) {
+                unsafe = true;
+            } else if (identifier.equals("global")) {
+                globalStatement = true;
+            }
+        } else if (token.is(TokenType.DOUBLE_QUOTED_STRING)
+                || token.is(TokenType.HEREDOC)) {
+            keepInterpolatedVariables(token);
+        }
+    }
+
+    /**
+     * Tells whether a variable token following the last significant token is
+     * a local variable
+     * @return false if it's a static property
+     */
+    private boolean isLocalVariable() {
+        return !(regionPreviousChar == ':' && regionSecondPreviousChar == ':');
+    }
+
+    /**
+     * Tells whether a token can be part of a return type
+     * @param token
+     * The token
+     * @param operator
+     * The operator character of the token, \0 if it's not an operator
+     * @return true if it can be in a return type
+     */
+    private static boolean isReturnType(final Token token, final char operator) {
+        return token.is(TokenType.IDENTIFIER) || operator == ':'
+                || operator == '?' || operator == '|' || operator == '&'
+                || operator == '\\' || operator == '(' || operator == ')';
+    }
+
+    /**
+     * Keeps the names of the variables used in a string or in a heredoc
+     * @param token
+     * The string token
+     */
+    private void keepInterpolatedVariables(final Token token) {
+        for (int i = 0; i < token.length() - 1; i++) {
+            if (token.charAt(i) != '$') {
+                continue;
+            }
+            int start = i + 1;
+            if (token.charAt(start) == '{') {
+                // ${name}
+                start++;
+            }
+            int end = start;
+            while (end < token.length() && isNamePart(token.charAt(end))) {
+                end++;
+            }
+            if (end > start) {
+                keptVariables.add(token.subSequence(start, end).toString());
+            }
+        }
+    }
+
+    /**
+     * Gives the kept tokens unchanged and handles a token outside the
+     * functions: the function keyword didn't begin a declaration
+     * @param token
+     * The token following the kept tokens
+     */
+    private void abortFunction(final Token token) {
+        unsafe = true;
+        endFunction();
+        tokenOutside(token);
+    }
+
+    /**
+     * Renames the variables of the function and gives its tokens
+     */
+    private void endFunction() {
+        final Map<String, char[]> names = unsafe ? Collections
+                .<String, char[]> emptyMap() : computeNames();
+        for (int i = 0; i < buffer.size(); i++) {
+            final char[] newName = buffer.isMarked(i) ? names.get(buffer
+                    .getText(i, 1)) : null;
+            if (newName != null) {
+                emit(kept.set(TokenType.VARIABLE, newName, 0, newName.length));
+            } else {
+                emit(buffer.get(i, kept));
+            }
+        }
+        // The function is a significant token for the following code
+        final int last = buffer.size() - 1;
+        secondPreviousChar = '\0';
+        previousChar = buffer.getType(last) == TokenType.OPERATOR ? buffer
+                .get(last, kept).firstChar() : '\0';
+        previousUse = false;
+        kind = null;
+        phase = null;
+        buffer.clear();
+    }
+
+    /**
+     * Computes the new names of the variables of the function
+     * @return The new names (with $) by old name (without $)
+     */
+    private Map<String, char[]> computeNames() {
+        final List<String> renamed = new ArrayList<String>();
+        final Set<String> taken = new HashSet<String>(RESERVED_VARIABLES);
+        for (final String name : occurrences.keySet()) {
+            if (RESERVED_VARIABLES.contains(name) || keptVariables.contains(name)
+                    || kind == Kind.NAMED && parameters.contains(name)
+                    || kind == Kind.ARROW && !parameters.contains(name)
+                    || name.length() <= 2) {
+                // The names of one or two characters are already short
+                taken.add(name);
+            } else {
+                renamed.add(name);
+            }
+        }
+        // The most used variables get the shortest names
+        Collections.sort(renamed, new Comparator<String>() {
+            @Override
+            public int compare(final String first, final String second) {
+                final int order = occurrences.get(second).compareTo(
+                        occurrences.get(first));
+                return order != 0 ? order : first.compareTo(second);
+            }
+        });
+        final Map<String, char[]> names = new HashMap<String, char[]>();
+        int index = 0;
+        for (final String name : renamed) {
+            String shortName;
+            do {
+                shortName = shortName(index++);
+            } while (taken.contains(shortName));
+            names.put(name, ('$' + shortName).toCharArray());
+        }
+        return names;
+    }
+
+    /**
+     * Computes a short name from its index: a...Z, then aa, ab...
+     * @param index
+     * The index
+     * @return The name
+     */
+    private static String shortName(final int index) {
+        final StringBuilder name = new StringBuilder();
+        name.append(NAME_STARTS.charAt(index % NAME_STARTS.length()));
+        int rest = index / NAME_STARTS.length();
+        while (rest > 0) {
+            rest--;
+            name.append(NAME_PARTS.charAt(rest % NAME_PARTS.length()));
+            rest /= NAME_PARTS.length();
+        }
+        return name.toString();
+    }
+
+    /**
+     * Copies a token of the function
+     * @param token
+     * The token
+     * @param localVariable
+     * true if it's a local variable
+     */
+    private void keep(final Token token, final boolean localVariable) {
+        buffer.add(token, localVariable);
+    }
+
+    /**
+     * Returns the name of a variable
+     * @param token
+     * The variable token
+     * @return Its name, without $
+     */
+    private static String variableName(final Token token) {
+        return token.subSequence(1, token.length()).toString();
+    }
+
+    /**
+     * Tells whether a token has no effect on the syntax
+     * @param token
+     * The token
+     * @return true for the blank characters and the comments
+     */
+    private static boolean isInsignificant(final Token token) {
+        return token.is(TokenType.WHITESPACE) || token.is(TokenType.LINE_COMMENT)
+                || token.is(TokenType.BLOCK_COMMENT);
+    }
+
+    /**
+     * Tells whether a character can be part of a variable name
+     * @param aChar
+     * The character
+     * @return true if it can be in a name, false otherwise
+     */
+    private static boolean isNamePart(final char aChar) {
+        return aChar >= 'a' && aChar <= 'z' || aChar >= 'A' && aChar <= 'Z'
+                || aChar >= '0' && aChar <= '9' || aChar == '_' || aChar >= 0x80;
+    }
+}
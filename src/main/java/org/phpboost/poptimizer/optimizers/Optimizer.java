@@ -1,95 +1,204 @@
-/**
- * Copyright (C) 2009 Loïc Rouchon <horn@phpboost.com>, Benoit Sautel <ben.popeye@phpboost.com>
- * 
- * This program is free software; you can redistribute it and/or modify
- * it under the terms of the GNU General Public License as published by
- * the Free Software Foundation; either version 2 of the License, or
- * (at your option) any later version.
- *
- * This program is distributed in the hope that it will be useful,
- * but WITHOUT ANY WARRANTY; without even the implied warranty of
- * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
- * GNU General Public License for more details.
- * You should have received a copy of the GNU General Public License along
- * with this program; if not, write to the Free Software Foundation, Inc.,
- * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
- */
-
-package org.phpboost.poptimizer.optimizers;
-
-/**
- * This enumeration contains all the modules available to optimize the PHP code.
- * @author Benoit Sautel &lt;ben.popeye@phpboost.com&gt;
- */
-public enum Optimizer {
-    /**
-     * Comments optimizer (removes all the comments)
-     * @see CommentsOptimizer
-     */
-    COMMENTS_OPTIMIZER("comments") {
-        @Override
-        public AbstractOptimizer getOptimizer(
-                final AbstractOptimizer previousOptimizer) {
-            return new CommentsOptimizer(previousOptimizer);
-        }
-    },
-    /**
-     * Spaces optimizer (removes all the useless spaces)
-     * @see SpacesOptimizer
-     */
-    SPACES_OPTIMIZER("spaces") {
-        @Override
-        public AbstractOptimizer getOptimizer(
-                final AbstractOptimizer previousOptimizer) {
-            return new SpacesOptimizer(previousOptimizer);
-        }
-    };
-
-    /**
-     * Item name
-     */
-    private String name;
-
-    /**
-     * Finds an optimizer from it's name. This method is not case sensitive.
-     * @param itemName
-     * The optimizer's name.
-     * @return
-     */
-    public static Optimizer fromString(final String itemName) {
-        for (final Optimizer optimizer : values()) {
-            if (optimizer.name.equals(itemName)) {
-                return optimizer;
-            }
-        }
-        return null;
-    }
-
-    /**
-     * Builds an optimizer item from its name
-     * @param itemName
-     * Item name
-     * @param optimizerClass
-     * Optimizer class
-     */
-    private Optimizer(final String itemName) {
-        name = itemName;
-    }
-
-    /**
-     * Overrides the toString method and returns the item name.
-     */
-    @Override
-    public String toString() {
-        return name;
-    }
-
-    /**
-     * Returns an instance of the optimizer
-     * @param previousOptimizer
-     * previous optimizer
-     * @return the optimizer instance
-     */
-    public abstract AbstractOptimizer getOptimizer(
-            AbstractOptimizer previousOptimizer);
-}
+/**
+ * Copyright (C) 2009 Loïc Rouchon <horn@phpboost.com>, Benoit Sautel <ben.popeye@phpboost.com>
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.phpboost.poptimizer.optimizers;
+
+import java.util.EnumSet;
+
+/**
+ * This enumeration contains all the modules available to optimize the PHP code.
+ * @author Benoit Sautel &lt;ben.popeye@phpboost.com&gt;
+ */
+public enum Optimizer {
+    /**
+     * Comments optimizer (removes all the comments)
+     * @see CommentsOptimizer
+     */
+    COMMENTS_OPTIMIZER("comments") {
+        @Override
+        public TokenFilter createFilter() {
+            return new CommentsOptimizer();
+        }
+    },
+    /**
+     * Debug code optimizer (removes the debug calls and the if (false)
+     * blocks), it changes what the code does so it's only applied if it's
+     * selected by its name
+     * @see StripDebugOptimizer
+     */
+    STRIP_DEBUG_OPTIMIZER("strip-debug", true) {
+        @Override
+        public TokenFilter createFilter() {
+            return new StripDebugOptimizer();
+        }
+
+        @Override
+        public TokenFilter createFilter(final DebugCode debugCode) {
+            return new StripDebugOptimizer(debugCode);
+        }
+    },
+    /**
+     * Folding optimizer (replaces the concatenations of literal strings and
+     * the arithmetic of literal integers by their result), only applied if
+     * it's selected by its name
+     * @see FoldOptimizer
+     */
+    FOLD_OPTIMIZER("fold", true) {
+        @Override
+        public TokenFilter createFilter() {
+            return new FoldOptimizer();
+        }
+    },
+    /**
+     * Mangling optimizer (gives short names to the local variables of the
+     * functions), only applied if it's selected by its name
+     * @see MangleOptimizer
+     */
+    MANGLE_OPTIMIZER("mangle", true) {
+        @Override
+        public TokenFilter createFilter() {
+            return new MangleOptimizer();
+        }
+    },
+    /**
+     * Spaces optimizer (removes all the useless spaces)
+     * @see SpacesOptimizer
+     */
+    SPACES_OPTIMIZER("spaces") {
+        @Override
+        public TokenFilter createFilter() {
+            return new SpacesOptimizer();
+        }
+    },
+    /**
+     * HTML optimizer (collapses the blank characters and removes the comments
+     * outside the PHP tags), it changes the printed pages so it's only applied
+     * if it's selected by its name
+     * @see HtmlOptimizer
+     */
+    HTML_OPTIMIZER("html", true) {
+        @Override
+        public TokenFilter createFilter() {
+            return new HtmlOptimizer();
+        }
+    },
+    /**
+     * Aggressive spaces optimizer (removes the useless spaces and line breaks,
+     * the line numbers change), only applied if it's selected by its name
+     * @see SpacesOptimizer
+     */
+    SPACES_AGGRESSIVE_OPTIMIZER("spaces-aggressive", true) {
+        @Override
+        public TokenFilter createFilter() {
+            return new SpacesOptimizer(true);
+        }
+    };
+
+    /**
+     * Item name
+     */
+    private String name;
+    /**
+     * Tells whether the module is left out of the default selection
+     */
+    private boolean optIn;
+
+    /**
+     * Finds an optimizer from it's name. This method is not case sensitive.
+     * @param itemName
+     * The optimizer's name.
+     * @return
+     */
+    public static Optimizer fromString(final String itemName) {
+        for (final Optimizer optimizer : values()) {
+            if (optimizer.name.equals(itemName)) {
+                return optimizer;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the modules applied when the user doesn't choose them (or
+     * chooses all): the modules which don't change what the PHP code does
+     * @return The default modules
+     */
+    public static EnumSet<Optimizer> defaults() {
+        final EnumSet<Optimizer> modules = EnumSet.noneOf(Optimizer.class);
+        for (final Optimizer optimizer : values()) {
+            if (!optimizer.optIn) {
+                modules.add(optimizer);
+            }
+        }
+        return modules;
+    }
+
+    /**
+     * Builds an optimizer item from its name
+     * @param itemName
+     * Item name
+     */
+    private Optimizer(final String itemName) {
+        this(itemName, false);
+    }
+
+    /**
+     * Builds an optimizer item
+     * @param itemName
+     * Item name
+     * @param optInModule
+     * true if the module is only applied when it's selected by its name
+     */
+    private Optimizer(final String itemName, final boolean optInModule) {
+        name = itemName;
+        optIn = optInModule;
+    }
+
+    /**
+     * Tells whether the module is only applied when it's selected by its name
+     * @return true if it isn't a default module, false otherwise
+     */
+    public boolean isOptIn() {
+        return optIn;
+    }
+
+    /**
+     * Overrides the toString method and returns the item name.
+     */
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * Returns a new instance of the optimizer. Filters keep a state, so an
+     * instance must be used for only one file.
+     * @return the optimizer instance
+     */
+    public abstract TokenFilter createFilter();
+
+    /**
+     * Returns a new instance of the optimizer removing the given debug code.
+     * The modules which don't remove debug code ignore it.
+     * @param debugCode
+     * The debug code to remove (see StripDebugOptimizer)
+     * @return the optimizer instance
+     */
+    public TokenFilter createFilter(final DebugCode debugCode) {
+        return createFilter();
+    }
+}
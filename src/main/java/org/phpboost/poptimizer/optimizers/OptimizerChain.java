@@ -0,0 +1,292 @@
+/**
+ * Copyright (C) 2009 Loïc Rouchon <horn@phpboost.com>, Benoit Sautel <ben.popeye@phpboost.com>
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.phpboost.poptimizer.optimizers;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.phpboost.poptimizer.lexer.PhpLexer;
+import org.phpboost.poptimizer.lexer.TokenPrinter;
+import org.phpboost.poptimizer.lexer.TokenSink;
+
+/**
+ * This class applies a selection of optimizers to PHP contents. The file is
+ * scanned once by the lexer whatever the number of modules, the tokens go
+ * through the filters of the modules in the order of the Optimizer enumeration.
+ * @author Benoit Sautel &lt;ben.popeye@phpboost.com&gt; Loic Rouchon
+ * &lt;horn@phpboost.com&gt;
+ */
+public class OptimizerChain {
+    /**
+     * The modules to apply
+     */
+    private final List<Optimizer> modules;
+    /**
+     * The debug code removed by the strip-debug module
+     */
+    private final DebugCode debugCode;
+
+    /**
+     * Builds a chain
+     * @param optimizers
+     * The modules to apply
+     */
+    public OptimizerChain(final Collection<Optimizer> optimizers) {
+        this(optimizers, DebugCode.DEFAULT);
+    }
+
+    /**
+     * Builds a chain removing some debug code
+     * @param optimizers
+     * The modules to apply
+     * @param code
+     * The debug code removed by the strip-debug module
+     */
+    public OptimizerChain(final Collection<Optimizer> optimizers,
+            final DebugCode code) {
+        modules = new ArrayList<Optimizer>(optimizers);
+        debugCode = code;
+    }
+
+    /**
+     * Optimizes a content
+     * @param content
+     * The PHP content
+     * @return The optimized content
+     */
+    public String optimize(final String content) {
+        final StringBuilder result = new StringBuilder(content.length());
+        new PhpLexer(createFilters(new TokenPrinter(result))).tokenize(content);
+        return result.toString();
+    }
+
+    /**
+     * Optimizes the beginning of a buffer
+     * @param content
+     * The buffer containing the PHP content
+     * @param length
+     * Number of characters of the content
+     * @param result
+     * Builder receiving the optimized content
+     */
+    public void optimize(final char[] content, final int length,
+            final StringBuilder result) {
+        // The modules only shorten the content
+        result.ensureCapacity(result.length() + length);
+        new PhpLexer(createFilters(new TokenPrinter(result))).tokenize(content,
+                length);
+    }
+
+    /**
+     * Optimizes the beginning of a buffer and measures each stage of the chain
+     * @param content
+     * The buffer containing the PHP content
+     * @param length
+     * Number of characters of the content
+     * @param result
+     * Builder receiving the optimized content
+     * @param profile
+     * Profile receiving the time of the stages
+     */
+    public void optimize(final char[] content, final int length,
+            final StringBuilder result, final ChainProfile profile) {
+        optimize(content, length, result, profile, null);
+    }
+
+    /**
+     * Optimizes the beginning of a buffer, measures each stage of the chain
+     * and records the line breaks removed by the modules
+     * @param content
+     * The buffer containing the PHP content
+     * @param length
+     * Number of characters of the content
+     * @param result
+     * Builder receiving the optimized content
+     * @param profile
+     * Profile receiving the time of the stages, null not to profile the chain
+     * @param lineMap
+     * Map receiving the removed line breaks, null not to record them
+     */
+    public void optimize(final char[] content, final int length,
+            final StringBuilder result, final ChainProfile profile,
+            final LineMap lineMap) {
+        result.ensureCapacity(result.length() + length);
+        final List<StageProbe> probes = profile != null
+                ? new ArrayList<StageProbe>() : null;
+        final PhpLexer lexer = new PhpLexer(createFilters(new TokenPrinter(
+                result), probes, lineMap));
+        final long start = System.nanoTime();
+        lexer.tokenize(content, length);
+        if (profile != null) {
+            fillProfile(profile, System.nanoTime() - start, probes);
+        }
+    }
+
+    /**
+     * Optimizes a stream. Only a buffer of the given size is kept in memory,
+     * whatever the size of the content.
+     * @param reader
+     * The PHP content
+     * @param writer
+     * The stream receiving the optimized content, it's flushed but not closed
+     * @param bufferSize
+     * Number of characters read at once
+     * @throws IOException
+     */
+    public void optimize(final Reader reader, final Writer writer,
+            final int bufferSize) throws IOException {
+        final TokenPrinter printer = new TokenPrinter(writer);
+        new PhpLexer(createFilters(printer)).tokenize(reader, bufferSize);
+        printer.checkError();
+    }
+
+    /**
+     * Optimizes a stream and measures each stage of the chain
+     * @param reader
+     * The PHP content
+     * @param writer
+     * The stream receiving the optimized content, it's flushed but not closed
+     * @param bufferSize
+     * Number of characters read at once
+     * @param profile
+     * Profile receiving the time of the stages
+     * @throws IOException
+     */
+    public void optimize(final Reader reader, final Writer writer,
+            final int bufferSize, final ChainProfile profile) throws IOException {
+        optimize(reader, writer, bufferSize, profile, null);
+    }
+
+    /**
+     * Optimizes a stream, measures each stage of the chain and records the
+     * line breaks removed by the modules
+     * @param reader
+     * The PHP content
+     * @param writer
+     * The stream receiving the optimized content, it's flushed but not closed
+     * @param bufferSize
+     * Number of characters read at once
+     * @param profile
+     * Profile receiving the time of the stages, null not to profile the chain
+     * @param lineMap
+     * Map receiving the removed line breaks, null not to record them
+     * @throws IOException
+     */
+    public void optimize(final Reader reader, final Writer writer,
+            final int bufferSize, final ChainProfile profile,
+            final LineMap lineMap) throws IOException {
+        final List<StageProbe> probes = profile != null
+                ? new ArrayList<StageProbe>() : null;
+        final TokenPrinter printer = new TokenPrinter(writer);
+        final PhpLexer lexer = new PhpLexer(createFilters(printer, probes,
+                lineMap));
+        final long start = System.nanoTime();
+        lexer.tokenize(reader, bufferSize);
+        if (profile != null) {
+            fillProfile(profile, System.nanoTime() - start, probes);
+        }
+        printer.checkError();
+    }
+
+    /**
+     * Builds the filters of the selected modules
+     * @param output
+     * The sink receiving the optimized tokens
+     * @return The first element of the chain
+     */
+    private TokenSink createFilters(final TokenSink output) {
+        return createFilters(output, null, null);
+    }
+
+    /**
+     * Builds the filters of the selected modules, with a probe before each
+     * module and before the output if a list of probes is given
+     * @param output
+     * The sink receiving the optimized tokens
+     * @param probes
+     * List receiving the probes in the order of the chain, null not to profile
+     * the chain
+     * @param lineMap
+     * Map receiving the line breaks removed by the filters, null not to record
+     * them
+     * @return The first element of the chain
+     */
+    private TokenSink createFilters(final TokenSink output,
+            final List<StageProbe> probes, final LineMap lineMap) {
+        TokenSink chain = addProbe(output, probes);
+        for (int i = modules.size() - 1; i >= 0; i--) {
+            final TokenFilter filter = modules.get(i).createFilter(debugCode);
+            filter.setNext(chain);
+            if (lineMap != null) {
+                filter.setLineMap(lineMap);
+            }
+            chain = addProbe(filter, probes);
+        }
+        return chain;
+    }
+
+    /**
+     * Puts a probe before an element of the chain
+     * @param sink
+     * The element
+     * @param probes
+     * List receiving the probe, null not to profile the chain
+     * @return The probe, or the element if the chain is not profiled
+     */
+    private static TokenSink addProbe(final TokenSink sink,
+            final List<StageProbe> probes) {
+        if (probes == null) {
+            return sink;
+        }
+        final StageProbe probe = new StageProbe();
+        probe.setNext(sink);
+        probes.add(0, probe);
+        return probe;
+    }
+
+    /**
+     * Computes the time of each stage from the probes. The time of a stage is
+     * the time measured by its probe minus the time measured by the next one.
+     * @param profile
+     * The profile to fill
+     * @param totalTime
+     * Time of the whole chain (nanoseconds)
+     * @param probes
+     * The probes, in the order of the chain
+     */
+    private void fillProfile(final ChainProfile profile, final long totalTime,
+            final List<StageProbe> probes) {
+        profile.clear();
+        final StageProbe first = probes.get(0);
+        profile.addStage(ChainProfile.LEXER_STAGE, totalTime - first.getTime(),
+                first.getCharacters(), first.getCharacters());
+        for (int i = 0; i < modules.size(); i++) {
+            final StageProbe probe = probes.get(i);
+            final StageProbe next = probes.get(i + 1);
+            profile.addStage(modules.get(i).toString(), probe.getTime()
+                    - next.getTime(), probe.getCharacters(), next.getCharacters());
+        }
+        final StageProbe last = probes.get(modules.size());
+        profile.addStage(ChainProfile.PRINTER_STAGE, last.getTime(), last
+                .getCharacters(), last.getCharacters());
+    }
+}
@@ -1,5 +1,5 @@
 /**
- * Copyright (C) 2009 Loc Rouchon <horn@phpboost.com>, Benoit Sautel <ben.popeye@phpboost.com>, Rgis Viarre <regis.viarre@phpboost.com>
+ * Copyright (C) 2009 Loïc Rouchon <horn@phpboost.com>, Benoit Sautel <ben.popeye@phpboost.com>, Régis Viarre <regis.viarre@phpboost.com>
  * 
  * This program is free software; you can redistribute it and/or modify
  * it under the terms of the GNU General Public License as published by
@@ -17,174 +17,232 @@
 
 package org.phpboost.poptimizer.optimizers;
 
+import java.util.Arrays;
+
+import org.phpboost.poptimizer.lexer.Token;
+import org.phpboost.poptimizer.lexer.TokenType;
+
 /**
  * This class is an optimizer which removes all the useless spaces in the PHP
  * files. It removes all the indentation and all the spaces which are in the
- * file only to improve its readability.
+ * file only to improve its readability. The line breaks are kept so that the
+ * line numbers don't change, unless the optimizer is aggressive: it then only
+ * keeps the line breaks ending a line comment or following the closing label
+ * of a heredoc string, and can record the removed ones in a LineMap.
  * @author Benoit Sautel &lt;ben.popeye@phpboost.com&gt;, Loic Rouchon
- * &lt;horn@phpboost.com&gt;, Rgis Viarre &lt;regis.viarre@phpboost.com&gt;
+ * &lt;horn@phpboost.com&gt;, Régis Viarre &lt;regis.viarre@phpboost.com&gt;
  */
-public class SpacesOptimizer extends AbstractOptimizer {
-    private StringBuilder result;
-    private int pointer;
-
+public class SpacesOptimizer extends TokenFilter {
+    /**
+     * Tells whether the line breaks are removed too
+     */
+    private final boolean aggressive;
+    /**
+     * Map receiving the removed line breaks, null if they aren't recorded
+     */
+    private LineMap lineMap = null;
+    /**
+     * Tells whether some blank characters were found since the last emitted
+     * token
+     */
+    private boolean pendingBlank = false;
     /**
-     * States of the automaton
+     * Line breaks found since the last emitted token
      */
-    private static enum ParserStatus {
-        OUTSIDE_PHP_CODE, PHP_CODE, INLINE_COMMENT, MULTILINE_COMMENT, SIMPLE_QUOTED_STRING, DOUBLE_QUOTED_STRING, INSIDE_CONCATENATION
-    };
+    private char[] pendingLineBreaks = new char[16];
+    /**
+     * Number of pending line breaks
+     */
+    private int pendingLineBreakCount = 0;
+    /**
+     * Token replacing some blank characters which separated two tokens
+     */
+    private final Token space = new Token(TokenType.WHITESPACE, " ");
+    /**
+     * Token of the line breaks kept from some blank characters
+     */
+    private final Token lineBreaks = new Token(null, null, 0, 0);
+    /**
+     * Last emitted character
+     */
+    private char previousChar = '\0';
+    /**
+     * Type of the last emitted token
+     */
+    private TokenType previousType = null;
+    /**
+     * Tells whether the last emitted token ends the closing label of a heredoc
+     * string, with its optional semicolon
+     */
+    private boolean closingLabel = false;
 
     /**
-     * Builds an optimizer from a string
-     * @param in
-     * input content
+     * Builds an optimizer keeping the line breaks
      */
-    public SpacesOptimizer(final String in) {
-        super(in);
+    public SpacesOptimizer() {
+        this(false);
     }
 
     /**
-     * Builds an optimizer from another optimizer
-     * @param decorate
+     * Builds an optimizer
+     * @param removeLineBreaks
+     * true to remove the line breaks wherever PHP allows it
      */
-    public SpacesOptimizer(final AbstractOptimizer decorate) {
-        super(decorate);
+    public SpacesOptimizer(final boolean removeLineBreaks) {
+        aggressive = removeLineBreaks;
+    }
+
+    @Override
+    public void setLineMap(final LineMap map) {
+        if (aggressive) {
+            lineMap = map;
+        }
     }
 
     /**
-     * Optimizes the content
+     * Keeps the blank tokens until the next token is known
      */
     @Override
-    public String optimize() {
-        super.optimize();
-
-        ParserStatus state = ParserStatus.OUTSIDE_PHP_CODE;
+    public void token(final Token token) {
+        if (token.is(TokenType.WHITESPACE)) {
+            pendingBlank = true;
+            for (int i = 0; i < token.length(); i++) {
+                final char currentChar = token.charAt(i);
+                if (currentChar == '\n' || currentChar == '\r') {
+                    if (pendingLineBreakCount == pendingLineBreaks.length) {
+                        pendingLineBreaks = Arrays.copyOf(pendingLineBreaks,
+                                2 * pendingLineBreakCount);
+                    }
+                    pendingLineBreaks[pendingLineBreakCount++] = currentChar;
+                }
+            }
+            return;
+        }
 
-        result = new StringBuilder();
-        char previousChar = '\0';
-        Boolean isEscaped = false;
+        final boolean labelSemicolon = closingLabel && !pendingBlank
+                && token.is(TokenType.OPERATOR) && token.firstChar() == ';';
+        flushBlank(token);
+        emit(token);
+        previousChar = token.lastChar();
+        previousType = token.getType();
+        closingLabel = token.is(TokenType.HEREDOC) || labelSemicolon;
+    }
 
-        pointer = 0;
-        while (pointer < input.length()) {
-            char currentChar = input.charAt(pointer);
-            switch (state) {
-                case MULTILINE_COMMENT:
-                    result.append(currentChar);
-                    if (currentChar == '/' && previousChar == '*') {
-                        state = ParserStatus.PHP_CODE;
-                    }
-                    break;
-                case INLINE_COMMENT:
-                    result.append(currentChar);
-                    if (currentChar == '\n') {
-                        state = ParserStatus.PHP_CODE;
-                    }
-                    break;
-                case SIMPLE_QUOTED_STRING:
-                    if (currentChar == '\'' && !isEscaped) {
-                        state = ParserStatus.PHP_CODE;
-                    } else if (currentChar == '\\' && !isEscaped) {
-                        isEscaped = true;
-                    } else {
-                        isEscaped = false;
-                    }
-                    result.append(currentChar);
-                    break;
-                case DOUBLE_QUOTED_STRING:
-                    if (currentChar == '"' && !isEscaped) {
-                        state = ParserStatus.PHP_CODE;
-                    } else if (currentChar == '\\' && !isEscaped) {
-                        isEscaped = true;
-                    } else {
-                        isEscaped = false;
-                    }
-                    result.append(currentChar);
-                    break;
-                case PHP_CODE:
-                    if (currentChar == '"') {
-                        // Enter a PHP String
-                        result.append(currentChar);
-                        state = ParserStatus.DOUBLE_QUOTED_STRING;
-                    } else if (currentChar == '\'') {
-                        // Enter a PHP String
-                        state = ParserStatus.SIMPLE_QUOTED_STRING;
-                        result.append(currentChar);
-                    } else if (currentChar == '/' && previousChar == '/') {
-                        // Enter a PHP comment
-                        result.append(currentChar);
-                        state = ParserStatus.INLINE_COMMENT;
-                    } else if (currentChar == '*' && previousChar == '/') {
-                        // Enter a PHP comment
-                        result.append(currentChar);
-                        state = ParserStatus.MULTILINE_COMMENT;
-                    } else if (currentChar == '\n' && isTabOrSpace(previousChar)
-                            || isOperator(currentChar) && isTabOrSpace(previousChar)) {
-                        // Last character of the line is a blank character
-                        // Or
-                        // Current is an operator and previous one a Tab or a Space
-                        // we remove it
-                        result.deleteCharAt(result.length() - 1);
-                        result.append(currentChar);
+    @Override
+    public void end() {
+        flushBlank(null);
+        super.end();
+    }
 
-                        // Special handling for concatenation with integer
-                        if (currentChar == '.') {
-                            pointer++;
-                            consumeAllBlankCharacters();
-                            currentChar = input.charAt(pointer);
-                            if (isNumeric(currentChar) || currentChar == '.') {
-                                result.append(" ");
-                                while (!isBlank(currentChar)) {
-                                    result.append(currentChar);
-                                    pointer++;
-                                    currentChar = input.charAt(pointer);
-                                }
-                                result.append("  ");
-                            } else {
-                                pointer--; // It's not an integer, we rewind the pointer to read correctly the
-                                // character in the next iteration.
-                            }
-                        }
-                    } else if (currentChar == '>' && previousChar == '?') {
-                        state = ParserStatus.OUTSIDE_PHP_CODE;
-                        result.append(currentChar);
-                    } else if (!(isTabOrSpace(currentChar) && (isBlank(previousChar) || isOperator(previousChar)))) {
-                        // Previous and current characters were blank
-                        // we do not add the new one
-                        result.append(currentChar);
-                    } else {
-                        currentChar = previousChar;
-                    }
-                    break;
-                case OUTSIDE_PHP_CODE:
-                default:
-                    if (currentChar == '?' && previousChar == '<'
-                            && input.substring(pointer + 1, pointer + 4).equals("php")) {
-                        state = ParserStatus.PHP_CODE;
-                        result.append(currentChar);
-                        result.append(input.substring(pointer + 1, pointer + 5));
-                        pointer += 4;
-                    } else {
-                        result.append(currentChar);
-                    }
+    /**
+     * Emits what remains of the blank characters preceding a token
+     * @param next
+     * The token following the blank characters (null at the end of the file)
+     */
+    private void flushBlank(final Token next) {
+        if (!pendingBlank) {
+            return;
+        }
+        if (pendingLineBreakCount > 0 && !aggressive) {
+            // Line breaks are kept
+            emit(lineBreaks.set(TokenType.WHITESPACE, pendingLineBreaks, 0,
+                    pendingLineBreakCount));
+            previousChar = '\n';
+            previousType = TokenType.WHITESPACE;
+            pendingLineBreakCount = 0;
+        } else if (pendingLineBreakCount > 0 && isLineBreakNeeded()) {
+            // Only the first line break is kept
+            final int kept = pendingLineBreakCount > 1
+                    && pendingLineBreaks[0] == '\r'
+                    && pendingLineBreaks[1] == '\n' ? 2 : 1;
+            emit(lineBreaks.set(TokenType.WHITESPACE, pendingLineBreaks, 0,
+                    kept));
+            removeLineBreaks(kept);
+            previousChar = '\n';
+            previousType = TokenType.WHITESPACE;
+        } else if (pendingLineBreakCount > 0) {
+            removeLineBreaks(0);
+            if (next != null && isSpaceNeeded(next)) {
+                emit(space);
+                previousChar = ' ';
+                previousType = TokenType.WHITESPACE;
             }
-            previousChar = currentChar;
+        } else if (next != null && isSpaceNeeded(next)) {
+            emit(space);
+            previousChar = ' ';
+            previousType = TokenType.WHITESPACE;
+        }
+        pendingBlank = false;
+    }
 
-            pointer++;
+    /**
+     * Forgets the pending line breaks and records the removed ones in the line
+     * map
+     * @param kept
+     * Number of line breaks which are emitted, at the beginning of the
+     * pending ones
+     */
+    private void removeLineBreaks(final int kept) {
+        if (lineMap != null) {
+            for (int i = kept; i < pendingLineBreakCount; i++) {
+                if (pendingLineBreaks[i] == '\n') {
+                    lineMap.removedLineBreak();
+                }
+            }
         }
+        pendingLineBreakCount = 0;
+    }
 
-        return result.toString();
+    /**
+     * Tells whether a line break is needed after the last emitted token: a
+     * line comment ends at the end of the line, and the closing label of a
+     * heredoc string, or its semicolon (EOT;), had to be followed by a line
+     * break before PHP 7.3
+     * @return true if a line break must be kept, false otherwise
+     */
+    private boolean isLineBreakNeeded() {
+        return previousType == TokenType.LINE_COMMENT || closingLabel;
     }
 
     /**
-     * Consume all blank charaters
+     * Gives a token to the next element of the chain and records it in the
+     * line map
      */
-    private void consumeAllBlankCharacters() {
-        char currentChar = input.charAt(pointer);
-        while (isBlank(currentChar)) {
-            pointer++;
-            currentChar = input.charAt(pointer);
+    @Override
+    protected void emit(final Token token) {
+        if (lineMap != null) {
+            lineMap.copied(token);
         }
+        super.emit(token);
+    }
+
+    /**
+     * Tells whether a space is needed between the last emitted token and the
+     * next one
+     * @param next
+     * The next token
+     * @return true if the tokens must stay separated, false otherwise
+     */
+    private boolean isSpaceNeeded(final Token next) {
+        final char nextChar = next.firstChar();
+
+        // Concatenation with a number: 'a' . 1 . 'b' mustn't become 'a'.1.'b'
+        if (previousType == TokenType.NUMBER && nextChar == '.'
+                || previousChar == '.' && (isNumeric(nextChar) || nextChar == '.')) {
+            return true;
+        }
+        // Operators which would be merged ($a - -$b, $a / /* comment */)
+        if (previousChar == '+' && nextChar == '+' || previousChar == '-'
+                && nextChar == '-' || previousChar == '/'
+                && (nextChar == '/' || nextChar == '*')) {
+            return true;
+        }
+        // The closing label of a heredoc string must be followed by a
+        // separator
+        if (previousType == TokenType.HEREDOC) {
+            return true;
+        }
+        return !(isBlank(previousChar) || isOperator(previousChar) || isOperator(nextChar));
     }
 
     /**
@@ -192,7 +250,7 @@ public class SpacesOptimizer extends AbstractOptimizer {
      * @param aChar
      * @return true if the character is an operator, false otherwise
      */
-    private Boolean isOperator(final char aChar) {
+    private static boolean isOperator(final char aChar) {
         switch (aChar) {
             case '.':
             case '=':
@@ -210,6 +268,10 @@ public class SpacesOptimizer extends AbstractOptimizer {
             case '[':
             case ']':
             case '&':
+            case '|':
+            case '^':
+            case '~':
+            case '@':
             case '%':
             case '!':
             case ',':
@@ -226,26 +288,12 @@ public class SpacesOptimizer extends AbstractOptimizer {
      * @param aChar
      * @return true if the character is a blank character, false otherwise
      */
-    private Boolean isBlank(final char aChar) {
+    private static boolean isBlank(final char aChar) {
         switch (aChar) {
             case ' ':
             case '\t':
             case '\n':
-                return true;
-            default:
-                return false;
-        }
-    }
-
-    /**
-     * Tells whether a character is a tabulation or a space
-     * @param aChar
-     * @return true if the character is a space or a tabulation, false otherwise
-     */
-    private Boolean isTabOrSpace(final char aChar) {
-        switch (aChar) {
-            case ' ':
-            case '\t':
+            case '\r':
                 return true;
             default:
                 return false;
@@ -257,7 +305,7 @@ public class SpacesOptimizer extends AbstractOptimizer {
      * @param aChar
      * @return true if the character is a number, false otherwise
      */
-    private Boolean isNumeric(final char aChar) {
-        return aChar > '0' && aChar < '9';
+    private static boolean isNumeric(final char aChar) {
+        return aChar >= '0' && aChar <= '9';
     }
 }
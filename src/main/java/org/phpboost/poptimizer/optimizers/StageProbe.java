@@ -0,0 +1,70 @@
+/**
+ * Copyright (C) 2009 Loïc Rouchon <horn@phpboost.com>, Benoit Sautel <ben.popeye@phpboost.com>
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.phpboost.poptimizer.optimizers;
+
+import org.phpboost.poptimizer.lexer.Token;
+
+/**
+ * This filter measures the time spent by the rest of the chain to handle the
+ * tokens it lets through, and counts their characters. A probe is put before
+ * each element of a profiled chain, the time of an element is the difference
+ * between its probe and the next one.
+ * @author Benoit Sautel &lt;ben.popeye@phpboost.com&gt; Loic Rouchon
+ * &lt;horn@phpboost.com&gt;
+ */
+class StageProbe extends TokenFilter {
+    /**
+     * Time spent in the next elements (nanoseconds)
+     */
+    private long time = 0;
+    /**
+     * Number of characters of the tokens
+     */
+    private long characters = 0;
+
+    @Override
+    public void token(final Token token) {
+        final long start = System.nanoTime();
+        characters += token.length();
+        emit(token);
+        time += System.nanoTime() - start;
+    }
+
+    @Override
+    public void end() {
+        final long start = System.nanoTime();
+        super.end();
+        time += System.nanoTime() - start;
+    }
+
+    /**
+     * Returns the time spent in the next elements of the chain
+     * @return The time in nanoseconds
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Returns the size of the tokens which went through the probe
+     * @return The number of characters
+     */
+    public long getCharacters() {
+        return characters;
+    }
+}
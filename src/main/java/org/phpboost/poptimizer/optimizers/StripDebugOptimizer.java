@@ -0,0 +1,458 @@
+/**
+ * Copyright (C) 2009 Loïc Rouchon <horn@phpboost.com>, Benoit Sautel <ben.popeye@phpboost.com>
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.phpboost.poptimizer.optimizers;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.phpboost.poptimizer.lexer.Token;
+import org.phpboost.poptimizer.lexer.TokenType;
+
+/**
+ * This class is a debug code optimizer for the production builds. It removes
+ * the statements made of a single call to a debug function (see DebugCode),
+ * like assert($x); or $logger->debug('...');, and the if (false) {...} blocks,
+ * false being the literal or a constant declared false in the configuration.
+ * An else following a removed block is kept: if (false) {a} else {b} becomes
+ * {b} and an elseif becomes an if.
+ * <p>
+ * Only the complete statements are removed, at the beginning of a block or
+ * after another statement: a call used in an expression (assert($x) or die;),
+ * as the body of a control structure without braces or in a for header is
+ * kept, as an if without braces. The line numbers don't change: the line
+ * breaks of the removed code are kept.
+ * </p>
+ * @author Benoit Sautel &lt;ben.popeye@phpboost.com&gt; Loic Rouchon
+ * &lt;horn@phpboost.com&gt;
+ */
+public class StripDebugOptimizer extends TokenFilter {
+    /**
+     * Parts of the removed code which are being read
+     */
+    private enum Phase {
+        /**
+         * Name of the called function
+         */
+        CALL,
+        /**
+         * Arguments of the call
+         */
+        ARGUMENTS,
+        /**
+         * End of the call statement
+         */
+        CALL_END,
+        /**
+         * Parenthesis following if
+         */
+        IF_PARENTHESIS,
+        /**
+         * Condition of the if
+         */
+        CONDITION,
+        /**
+         * Parenthesis closing the condition
+         */
+        CONDITION_END,
+        /**
+         * Brace opening the block
+         */
+        BLOCK_START,
+        /**
+         * Content of the block
+         */
+        BLOCK,
+        /**
+         * Token following the block, which can be else or elseif
+         */
+        IF_END
+    }
+
+    /**
+     * Debug calls, split in elements
+     */
+    private final List<String[]> calls;
+    /**
+     * Debug code configuration
+     */
+    private final DebugCode debugCode;
+    /**
+     * Tells for each call whether it matches the kept tokens
+     */
+    private final boolean[] matching;
+    /**
+     * Tokens which may be removed
+     */
+    private final TokenBuffer buffer = new TokenBuffer();
+    /**
+     * Token emitting the kept tokens
+     */
+    private final Token kept = new Token(null, null, 0, 0);
+    /**
+     * Token replacing the removed code
+     */
+    private final Token replacement = new Token(null, null, 0, 0);
+    /**
+     * Line feeds, as many as in the longest removed code
+     */
+    private char[] lineFeeds = new char[0];
+    /**
+     * Part of the code being read, null if no token is kept
+     */
+    private Phase phase = null;
+    /**
+     * Number of elements of the call matched by the kept tokens
+     */
+    private int matched;
+    /**
+     * Number of open parentheses in the arguments or of open braces in the
+     * block
+     */
+    private int depth;
+    /**
+     * Tells whether the next significant token begins a statement
+     */
+    private boolean statementStart = false;
+    /**
+     * Number of open parentheses in the current braces
+     */
+    private int parentheses = 0;
+    /**
+     * Numbers of open parentheses of the enclosing braces
+     */
+    private int[] enclosingParentheses = new int[16];
+    /**
+     * Number of open braces
+     */
+    private int braces = 0;
+
+    /**
+     * Builds a filter removing the default debug code
+     */
+    public StripDebugOptimizer() {
+        this(DebugCode.DEFAULT);
+    }
+
+    /**
+     * Builds a filter
+     * @param code
+     * The debug code to remove
+     */
+    public StripDebugOptimizer(final DebugCode code) {
+        debugCode = code;
+        calls = code.getCallElements();
+        matching = new boolean[calls.size()];
+    }
+
+    /**
+     * Keeps the tokens which may be debug code until it's known
+     */
+    @Override
+    public void token(final Token token) {
+        if (phase == null) {
+            tokenOutside(token);
+        } else if (isBlank(token)) {
+            buffer.add(token, false);
+        } else {
+            switch (phase) {
+                case CALL:
+                    callToken(token);
+                    break;
+                case ARGUMENTS:
+                    buffer.add(token, false);
+                    if (isOperator(token, '(')) {
+                        depth++;
+                    } else if (isOperator(token, ')') && --depth == 0) {
+                        phase = Phase.CALL_END;
+                    }
+                    break;
+                case CALL_END:
+                    if (isOperator(token, ';')) {
+                        buffer.add(token, false);
+                        remove();
+                        statementStart = true;
+                    } else if (token.is(TokenType.CLOSE_TAG)) {
+                        remove();
+                        tokenOutside(token);
+                    } else {
+                        abort(token);
+                    }
+                    break;
+                case IF_PARENTHESIS:
+                    expect(token, isOperator(token, '('), Phase.CONDITION);
+                    break;
+                case CONDITION:
+                    expect(token, token.is(TokenType.IDENTIFIER)
+                            && (token.textEqualsIgnoreCase("false") || debugCode
+                                    .isFalse(token)), Phase.CONDITION_END);
+                    break;
+                case CONDITION_END:
+                    expect(token, isOperator(token, ')'), Phase.BLOCK_START);
+                    break;
+                case BLOCK_START:
+                    expect(token, isOperator(token, '{'), Phase.BLOCK);
+                    depth = 1;
+                    break;
+                case BLOCK:
+                    buffer.add(token, false);
+                    if (isOperator(token, '{')) {
+                        depth++;
+                    } else if (isOperator(token, '}') && --depth == 0) {
+                        phase = Phase.IF_END;
+                    }
+                    break;
+                case IF_END:
+                default:
+                    ifEndToken(token);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Gives the kept tokens before the end of the file: the code wasn't
+     * complete
+     */
+    @Override
+    public void end() {
+        if (phase != null) {
+            abort(null);
+        }
+        super.end();
+    }
+
+    /**
+     * Handles a token which isn't kept
+     * @param token
+     * The token
+     */
+    private void tokenOutside(final Token token) {
+        if (statementStart && !isBlank(token)) {
+            if (token.is(TokenType.IDENTIFIER) && token.textEqualsIgnoreCase("if")) {
+                buffer.add(token, false);
+                phase = Phase.IF_PARENTHESIS;
+                return;
+            }
+            // A fully qualified name begins with a backslash
+            final boolean qualified = isOperator(token, '\\');
+            boolean call = false;
+            for (int i = 0; i < matching.length; i++) {
+                matching[i] = qualified || matches(calls.get(i)[0], token);
+                call |= matching[i];
+            }
+            if (call) {
+                buffer.add(token, false);
+                matched = qualified ? 0 : 1;
+                phase = Phase.CALL;
+                return;
+            }
+        }
+        emit(token);
+        track(token);
+    }
+
+    /**
+     * Handles a token of the called function name
+     * @param token
+     * The significant token
+     */
+    private void callToken(final Token token) {
+        if (isOperator(token, '(')) {
+            for (int i = 0; i < matching.length; i++) {
+                if (matching[i] && calls.get(i).length == matched) {
+                    buffer.add(token, false);
+                    depth = 1;
+                    phase = Phase.ARGUMENTS;
+                    return;
+                }
+            }
+        }
+        boolean call = false;
+        for (int i = 0; i < matching.length; i++) {
+            final String[] elements = calls.get(i);
+            matching[i] = matching[i] && elements.length > matched
+                    && matches(elements[matched], token);
+            call |= matching[i];
+        }
+        if (call) {
+            buffer.add(token, false);
+            matched++;
+        } else {
+            abort(token);
+        }
+    }
+
+    /**
+     * Handles the token following a removed if block
+     * @param token
+     * The significant token
+     */
+    private void ifEndToken(final Token token) {
+        final boolean elseKeyword = token.is(TokenType.IDENTIFIER)
+                && token.textEqualsIgnoreCase("else");
+        final boolean elseifKeyword = token.is(TokenType.IDENTIFIER)
+                && token.textEqualsIgnoreCase("elseif");
+        if (elseKeyword || elseifKeyword) {
+            buffer.add(token, false);
+        }
+        remove();
+        // The else part becomes a statement
+        statementStart = true;
+        if (elseifKeyword) {
+            token(replacement.set(TokenType.IDENTIFIER, token.subSequence(4, 6)
+                    .toString().toCharArray(), 0, 2));
+        } else if (!elseKeyword) {
+            tokenOutside(token);
+        }
+    }
+
+    /**
+     * Keeps a token of the if statement if it's the expected one, or gives
+     * the kept tokens
+     * @param token
+     * The significant token
+     * @param expected
+     * true if it's the expected token
+     * @param next
+     * Next part of the statement
+     */
+    private void expect(final Token token, final boolean expected,
+            final Phase next) {
+        if (expected) {
+            buffer.add(token, false);
+            phase = next;
+        } else {
+            abort(token);
+        }
+    }
+
+    /**
+     * Removes the kept tokens, their line breaks are kept
+     */
+    private void remove() {
+        int lines = 0;
+        for (int i = 0; i < buffer.size(); i++) {
+            lines += buffer.get(i, kept).countLines();
+        }
+        if (lines > 0) {
+            if (lines > lineFeeds.length) {
+                lineFeeds = new char[Math.max(lines, 2 * lineFeeds.length)];
+                Arrays.fill(lineFeeds, '\n');
+            }
+            emit(replacement.set(TokenType.WHITESPACE, lineFeeds, 0, lines));
+        }
+        buffer.clear();
+        phase = null;
+    }
+
+    /**
+     * Gives the kept tokens unchanged: they aren't debug code
+     * @param token
+     * The token following them, null at the end of the file
+     */
+    private void abort(final Token token) {
+        for (int i = 0; i < buffer.size(); i++) {
+            emit(buffer.get(i, kept));
+            track(kept);
+        }
+        buffer.clear();
+        phase = null;
+        if (token != null) {
+            tokenOutside(token);
+        }
+    }
+
+    /**
+     * Follows the parentheses and the braces to know where the statements
+     * begin
+     * @param token
+     * A token given to the next filter
+     */
+    private void track(final Token token) {
+        if (isBlank(token)) {
+            return;
+        }
+        if (token.is(TokenType.OPEN_TAG)) {
+            // <?= is followed by an expression
+            statementStart = token.length() < 3 || token.charAt(2) != '=';
+            return;
+        }
+        final char operator = token.is(TokenType.OPERATOR) ? token.firstChar()
+                : '\0';
+        if (operator == '(') {
+            parentheses++;
+        } else if (operator == ')' && parentheses > 0) {
+            parentheses--;
+        } else if (operator == '{') {
+            if (braces == enclosingParentheses.length) {
+                enclosingParentheses = Arrays.copyOf(enclosingParentheses,
+                        2 * braces);
+            }
+            enclosingParentheses[braces++] = parentheses;
+            parentheses = 0;
+        } else if (operator == '}') {
+            parentheses = braces > 0 ? enclosingParentheses[--braces] : 0;
+        }
+        statementStart = parentheses == 0
+                && (operator == ';' || operator == '{' || operator == '}');
+    }
+
+    /**
+     * Tells whether a token is an element of a debug call
+     * @param element
+     * The element: a name, a variable or an operator character
+     * @param token
+     * The significant token
+     * @return true if it matches
+     */
+    private static boolean matches(final String element, final Token token) {
+        final char first = element.charAt(0);
+        if (first == '$') {
+            return token.is(TokenType.VARIABLE) && token.textEquals(element);
+        }
+        if (token.is(TokenType.IDENTIFIER)) {
+            // The names of the functions and classes aren't case sensitive
+            return token.textEqualsIgnoreCase(element);
+        }
+        return token.is(TokenType.OPERATOR) && token.textEquals(element);
+    }
+
+    /**
+     * Tells whether a token is a given operator
+     * @param token
+     * The token
+     * @param operator
+     * The operator character
+     * @return true if it's the operator
+     */
+    private static boolean isOperator(final Token token, final char operator) {
+        return token.is(TokenType.OPERATOR) && token.firstChar() == operator;
+    }
+
+    /**
+     * Tells whether a token doesn't change the code
+     * @param token
+     * The token
+     * @return true if it's a blank or a comment
+     */
+    private static boolean isBlank(final Token token) {
+        return token.is(TokenType.WHITESPACE)
+                || token.is(TokenType.LINE_COMMENT)
+                || token.is(TokenType.BLOCK_COMMENT);
+    }
+}
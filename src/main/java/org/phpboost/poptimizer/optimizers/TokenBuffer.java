@@ -0,0 +1,151 @@
+/**
+ * Copyright (C) 2009 Loïc Rouchon <horn@phpboost.com>, Benoit Sautel <ben.popeye@phpboost.com>
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.phpboost.poptimizer.optimizers;
+
+import java.util.Arrays;
+
+import org.phpboost.poptimizer.lexer.Token;
+import org.phpboost.poptimizer.lexer.TokenType;
+
+/**
+ * This class keeps some tokens in a filter until it can decide what to emit.
+ * The tokens given by the lexer mustn't be kept (see Token), so their text is
+ * copied in a buffer reused from a sequence of tokens to the next one. Each
+ * kept token can be marked by the filter.
+ * @author Benoit Sautel &lt;ben.popeye@phpboost.com&gt; Loic Rouchon
+ * &lt;horn@phpboost.com&gt;
+ */
+final class TokenBuffer {
+    /**
+     * Text of the kept tokens
+     */
+    private char[] text = new char[1024];
+    /**
+     * Number of characters of the kept tokens
+     */
+    private int textLength = 0;
+    /**
+     * Types of the kept tokens
+     */
+    private TokenType[] types = new TokenType[128];
+    /**
+     * Positions of the kept tokens in the text
+     */
+    private int[] starts = new int[128];
+    /**
+     * Lengths of the kept tokens
+     */
+    private int[] lengths = new int[128];
+    /**
+     * Marks of the kept tokens
+     */
+    private boolean[] marks = new boolean[128];
+    /**
+     * Number of kept tokens
+     */
+    private int size = 0;
+
+    /**
+     * Copies a token
+     * @param token
+     * The token
+     * @param marked
+     * The mark of the token
+     */
+    public void add(final Token token, final boolean marked) {
+        if (size == types.length) {
+            types = Arrays.copyOf(types, 2 * size);
+            starts = Arrays.copyOf(starts, 2 * size);
+            lengths = Arrays.copyOf(lengths, 2 * size);
+            marks = Arrays.copyOf(marks, 2 * size);
+        }
+        if (textLength + token.length() > text.length) {
+            text = Arrays.copyOf(text, Math.max(textLength + token.length(),
+                    2 * text.length));
+        }
+        for (int i = 0; i < token.length(); i++) {
+            text[textLength + i] = token.charAt(i);
+        }
+        types[size] = token.getType();
+        starts[size] = textLength;
+        lengths[size] = token.length();
+        marks[size] = marked;
+        size++;
+        textLength += token.length();
+    }
+
+    /**
+     * Returns the number of kept tokens
+     * @return The number of tokens
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the type of a kept token
+     * @param index
+     * Index of the token
+     * @return Its type
+     */
+    public TokenType getType(final int index) {
+        return types[index];
+    }
+
+    /**
+     * Returns the mark of a kept token
+     * @param index
+     * Index of the token
+     * @return true if the token is marked
+     */
+    public boolean isMarked(final int index) {
+        return marks[index];
+    }
+
+    /**
+     * Moves a token over a kept token
+     * @param index
+     * Index of the kept token
+     * @param token
+     * The token to move (see Token.set())
+     * @return The token
+     */
+    public Token get(final int index, final Token token) {
+        return token.set(types[index], text, starts[index], lengths[index]);
+    }
+
+    /**
+     * Returns the text of a part of a kept token
+     * @param index
+     * Index of the token
+     * @param from
+     * Index of the first character in the token
+     * @return The text
+     */
+    public String getText(final int index, final int from) {
+        return new String(text, starts[index] + from, lengths[index] - from);
+    }
+
+    /**
+     * Forgets all the kept tokens
+     */
+    public void clear() {
+        size = 0;
+        textLength = 0;
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright (C) 2009 Loïc Rouchon <horn@phpboost.com>, Benoit Sautel <ben.popeye@phpboost.com>
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.phpboost.poptimizer.optimizers;
+
+import org.phpboost.poptimizer.lexer.Token;
+import org.phpboost.poptimizer.lexer.TokenSink;
+
+/**
+ * This class represents an optimization module. It receives the tokens of the
+ * file from the lexer or from the previous filter and gives the tokens it keeps
+ * or builds to the next element of the chain. All the filters of a chain run
+ * in the same pass over the file.
+ * @author Benoit Sautel &lt;ben.popeye@phpboost.com&gt; Loic Rouchon
+ * &lt;horn@phpboost.com&gt;
+ */
+public abstract class TokenFilter implements TokenSink {
+    /**
+     * The next element of the chain
+     */
+    private TokenSink next = null;
+
+    /**
+     * Sets the element which receives the filtered tokens
+     * @param sink
+     * The next element of the chain
+     */
+    public void setNext(final TokenSink sink) {
+        next = sink;
+    }
+
+    /**
+     * Gives the map recording the line breaks the filter removes. The filters
+     * keeping the line numbers ignore it.
+     * @param map
+     * The line map of the file
+     */
+    public void setLineMap(final LineMap map) {
+    }
+
+    /**
+     * Gives a token to the next element of the chain
+     * @param token
+     * The token
+     */
+    protected void emit(final Token token) {
+        next.token(token);
+    }
+
+    /**
+     * Tells the end of the file to the next element of the chain. Filters
+     * keeping some tokens must give them before calling this method.
+     */
+    @Override
+    public void end() {
+        next.end();
+    }
+}
@@ -0,0 +1,54 @@
+/**
+ * Copyright (C) 2009 Loïc Rouchon <horn@phpboost.com>, Benoit Sautel <ben.popeye@phpboost.com>
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.phpboost.poptimizer.profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event of the optimization of a file, from its reading to its
+ * writing.
+ * @author Benoit Sautel &lt;ben.popeye@phpboost.com&gt; Loic Rouchon
+ * &lt;horn@phpboost.com&gt;
+ */
+@Name("org.phpboost.poptimizer.FileOptimization")
+@Label("File Optimization")
+@Category("POptimizer")
+@Description("Optimization of a PHP file")
+public class FileOptimizationEvent extends jdk.jfr.Event {
+    /**
+     * Path of the source file
+     */
+    @Label("Path")
+    public String path;
+    /**
+     * Size of the source file
+     */
+    @Label("Bytes In")
+    @DataAmount
+    public long bytesIn;
+    /**
+     * Size of the optimized file
+     */
+    @Label("Bytes Out")
+    @DataAmount
+    public long bytesOut;
+}
@@ -0,0 +1,246 @@
+/**
+ * Copyright (C) 2009 Loïc Rouchon <horn@phpboost.com>, Benoit Sautel <ben.popeye@phpboost.com>
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.phpboost.poptimizer.profiling;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.phpboost.poptimizer.optimizers.ChainProfile;
+
+/**
+ * This class records the time spent by each stage of the optimization. The
+ * stages are sent to Flight Recorder when it records the POptimizer events,
+ * and gathered to print their latency percentiles when the statistics are
+ * enabled. It can be used by several threads at once.
+ * @author Benoit Sautel &lt;ben.popeye@phpboost.com&gt; Loic Rouchon
+ * &lt;horn@phpboost.com&gt;
+ */
+public class Profiler {
+    /**
+     * Name of the stage browsing the folders
+     */
+    public static final String TRAVERSAL_STAGE = "traversal";
+    /**
+     * Name of the stage reading the files
+     */
+    public static final String READ_STAGE = "read";
+    /**
+     * Name of the stage writing the files
+     */
+    public static final String WRITE_STAGE = "write";
+    /**
+     * Name of the stage copying or linking the files which are not optimized
+     */
+    public static final String COPY_STAGE = "copy";
+    /**
+     * Name of the stage compressing the entries of the output archive
+     */
+    public static final String COMPRESS_STAGE = "compress";
+
+    /**
+     * Percentiles printed in the report
+     */
+    private static final int[] PERCENTILES = { 50, 90, 99 };
+
+    /**
+     * Tells whether the statistics are gathered
+     */
+    private volatile boolean statisticsEnabled = false;
+    /**
+     * Durations of each stage, in the order of their first occurrence
+     */
+    private final Map<String, Durations> stages = new LinkedHashMap<String, Durations>();
+
+    /**
+     * Enables or disables the statistics printed by printReport
+     * @param enabled
+     * true to gather the statistics, false otherwise
+     */
+    public void setStatisticsEnabled(final boolean enabled) {
+        statisticsEnabled = enabled;
+    }
+
+    /**
+     * Tells whether the stages have to be measured, either for the statistics
+     * or for Flight Recorder
+     * @return true if the stages are recorded, false otherwise
+     */
+    public boolean isEnabled() {
+        return statisticsEnabled || new StageEvent().isEnabled();
+    }
+
+    /**
+     * Records a stage
+     * @param path
+     * Path of the source file or folder
+     * @param stage
+     * Name of the stage
+     * @param duration
+     * Time spent in the stage (nanoseconds)
+     * @param sizeIn
+     * Size of the content received by the stage
+     * @param sizeOut
+     * Size of the content given by the stage
+     */
+    public void recordStage(final String path, final String stage,
+            final long duration, final long sizeIn, final long sizeOut) {
+        final StageEvent event = new StageEvent();
+        if (event.shouldCommit()) {
+            event.path = path;
+            event.stage = stage;
+            event.sizeIn = sizeIn;
+            event.sizeOut = sizeOut;
+            event.stageDuration = duration;
+            event.commit();
+        }
+        if (statisticsEnabled) {
+            getDurations(stage).add(duration);
+        }
+    }
+
+    /**
+     * Records the stages of an optimization chain
+     * @param path
+     * Path of the source file
+     * @param profile
+     * Time of the stages of the chain
+     */
+    public void recordStages(final String path, final ChainProfile profile) {
+        for (int i = 0; i < profile.getStageCount(); i++) {
+            recordStage(path, profile.getName(i), profile.getTime(i), profile
+                    .getSizeIn(i), profile.getSizeOut(i));
+        }
+    }
+
+    /**
+     * Prints the count, the total time and the latency percentiles of each
+     * stage
+     * @param output
+     * Stream on which the report is printed
+     */
+    public void printReport(final PrintStream output) {
+        final List<String> names;
+        synchronized (stages) {
+            names = new ArrayList<String>(stages.keySet());
+        }
+        output.print(String.format("%-12s %8s %12s", "Stage", "Count",
+                "Total (ms)"));
+        for (final int percentile : PERCENTILES) {
+            output.print(String.format(" %10s", "p" + percentile + " (ms)"));
+        }
+        output.println(String.format(" %10s", "Max (ms)"));
+
+        for (final String name : names) {
+            final long[] durations = getDurations(name).toSortedArray();
+            long total = 0;
+            for (final long duration : durations) {
+                total += duration;
+            }
+            output.print(String.format("%-12s %8d %12.3f", name,
+                    durations.length, toMillis(total)));
+            for (final int percentile : PERCENTILES) {
+                output.print(String.format(" %10.3f", toMillis(percentile(
+                        durations, percentile))));
+            }
+            output.println(String.format(" %10.3f",
+                    toMillis(durations[durations.length - 1])));
+        }
+    }
+
+    /**
+     * Returns the durations of a stage, creating them if needed
+     * @param stage
+     * Name of the stage
+     * @return The durations
+     */
+    private Durations getDurations(final String stage) {
+        synchronized (stages) {
+            Durations durations = stages.get(stage);
+            if (durations == null) {
+                durations = new Durations();
+                stages.put(stage, durations);
+            }
+            return durations;
+        }
+    }
+
+    /**
+     * Computes a percentile with the nearest-rank method
+     * @param sortedDurations
+     * The durations, sorted
+     * @param percentile
+     * The percentile, between 1 and 100
+     * @return The duration
+     */
+    private static long percentile(final long[] sortedDurations,
+            final int percentile) {
+        final int rank = (int) Math.ceil(percentile / 100.0
+                * sortedDurations.length);
+        return sortedDurations[Math.max(rank, 1) - 1];
+    }
+
+    /**
+     * Converts nanoseconds into milliseconds
+     * @param nanoseconds
+     * A duration
+     * @return The duration in milliseconds
+     */
+    private static double toMillis(final long nanoseconds) {
+        return nanoseconds / 1000000.0;
+    }
+
+    /**
+     * Durations of a stage
+     */
+    private static class Durations {
+        /**
+         * The durations, in nanoseconds
+         */
+        private long[] values = new long[64];
+        /**
+         * Number of durations
+         */
+        private int count = 0;
+
+        /**
+         * Adds a duration
+         * @param duration
+         * The duration in nanoseconds
+         */
+        public synchronized void add(final long duration) {
+            if (count == values.length) {
+                values = Arrays.copyOf(values, count * 2);
+            }
+            values[count++] = duration;
+        }
+
+        /**
+         * Returns the durations
+         * @return A sorted copy of the durations
+         */
+        public synchronized long[] toSortedArray() {
+            final long[] sorted = Arrays.copyOf(values, count);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+    }
+}
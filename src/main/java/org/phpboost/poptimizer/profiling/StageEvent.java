@@ -0,0 +1,68 @@
+/**
+ * Copyright (C) 2009 Loïc Rouchon <horn@phpboost.com>, Benoit Sautel <ben.popeye@phpboost.com>
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.phpboost.poptimizer.profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event of a stage of the processing of a file: the
+ * traversal of a folder, the reading, the lexer, a module, the printer, the
+ * compression, the writing or the copy. The stages of the chain run interleaved token by
+ * token, so the event is committed at the end of the file and its duration
+ * is given by a field.
+ * @author Benoit Sautel &lt;ben.popeye@phpboost.com&gt; Loic Rouchon
+ * &lt;horn@phpboost.com&gt;
+ */
+@Name("org.phpboost.poptimizer.Stage")
+@Label("Optimization Stage")
+@Category("POptimizer")
+@Description("Stage of the processing of a file")
+public class StageEvent extends jdk.jfr.Event {
+    /**
+     * Path of the source file or folder
+     */
+    @Label("Path")
+    public String path;
+    /**
+     * Name of the stage
+     */
+    @Label("Stage")
+    public String stage;
+    /**
+     * Size of the content received by the stage
+     */
+    @Label("Size In")
+    @Description("Bytes for the reading, the writing and the copy, characters for the other stages")
+    public long sizeIn;
+    /**
+     * Size of the content given by the stage
+     */
+    @Label("Size Out")
+    @Description("Bytes for the reading, the writing and the copy, characters for the other stages")
+    public long sizeOut;
+    /**
+     * Time spent in the stage
+     */
+    @Label("Stage Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    public long stageDuration;
+}
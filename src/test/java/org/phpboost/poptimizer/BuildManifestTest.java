@@ -0,0 +1,69 @@
+package org.phpboost.poptimizer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+
+import junit.framework.Assert;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BuildManifestTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void processedContentTest() throws Exception {
+        final File source = write("x.php", "<?php $a = 1;");
+        final File destination = write("out.php", "<?php $a=1;");
+        final File manifestFile = new File(folder.getRoot(), "manifest");
+        final byte[] content = Files.readAllBytes(source.toPath());
+        final long lastModified = source.lastModified();
+
+        // The file is saved again after being read
+        write("x.php", "<?php $a = 2;");
+        source.setLastModified(lastModified + 5000);
+        BuildManifest manifest = new BuildManifest(manifestFile, "c");
+        manifest.record("/x.php", BuildManifest.hash(content, content.length),
+                content.length, lastModified);
+        manifest.save();
+
+        manifest = new BuildManifest(manifestFile, "c");
+        Assert.assertFalse(manifest.isUpToDate("/x.php", source, destination));
+
+        // Only touched since it was read
+        write("x.php", "<?php $a = 1;");
+        source.setLastModified(lastModified + 10000);
+        Assert.assertTrue(manifest.isUpToDate("/x.php", source, destination));
+    }
+
+    @Test
+    public void unhashedFileTest() throws Exception {
+        final File source = write("a.txt", "a");
+        final File destination = write("out.txt", "a");
+        final File manifestFile = new File(folder.getRoot(), "manifest");
+        final long lastModified = source.lastModified();
+
+        BuildManifest manifest = new BuildManifest(manifestFile, "c");
+        manifest.record("/a.txt", null, 1, lastModified);
+        manifest.save();
+
+        manifest = new BuildManifest(manifestFile, "c");
+        Assert.assertTrue(manifest.isUpToDate("/a.txt", source, destination));
+        // Without hash, a new modification date is enough
+        source.setLastModified(lastModified + 5000);
+        Assert.assertFalse(manifest.isUpToDate("/a.txt", source, destination));
+    }
+
+    private File write(final String name, final String content)
+            throws IOException {
+        final File file = new File(folder.getRoot(), name);
+        Files.write(file.toPath(), content.getBytes(UTF8));
+        return file;
+    }
+}
@@ -0,0 +1,96 @@
+package org.phpboost.poptimizer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DirectoryWatcherTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void failedUpdateTest() throws Exception {
+        final File input = folder.newFolder("in");
+        final File output = new File(folder.getRoot(), "out");
+        final AtomicInteger updates = new AtomicInteger();
+        final POptimizer optimizer = new POptimizer(input, output,
+                new ArrayList<File>()) {
+            @Override
+            public void update(final Collection<File> changedFiles)
+                    throws IOException {
+                if (updates.incrementAndGet() == 1) {
+                    throw new IllegalStateException("first update");
+                }
+                super.update(changedFiles);
+            }
+        };
+        optimizer.selectAllModules();
+        optimizer.optimize();
+
+        final DirectoryWatcher watcher = new DirectoryWatcher(optimizer, input,
+                output, 50);
+        final Thread thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    watcher.watch();
+                } catch (final IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        thread.start();
+        try {
+            // A folder removed before being registered, then a failed update
+            final File temporary = new File(input, "tmp/a/b");
+            for (int i = 0; i < 20 && updates.get() == 0; i++) {
+                temporary.mkdirs();
+                deleteTree(new File(input, "tmp"));
+                Thread.sleep(100);
+            }
+            Assert.assertTrue(updates.get() > 0);
+
+            // The watch goes on
+            final File file = new File(output, "x.php");
+            for (int i = 0; i < 100 && !file.exists(); i++) {
+                write(new File(input, "x.php"), "<?php $a  =  " + i + ";");
+                Thread.sleep(100);
+            }
+            Assert.assertTrue(thread.isAlive());
+            Assert.assertTrue(read(file).startsWith("<?php $a="));
+        } finally {
+            thread.interrupt();
+            thread.join(5000);
+        }
+    }
+
+    private static void write(final File file, final String content)
+            throws IOException {
+        Files.write(file.toPath(), content.getBytes(UTF8));
+    }
+
+    private static String read(final File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), UTF8);
+    }
+
+    private static void deleteTree(final File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (final File child : children) {
+                deleteTree(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,110 @@
+package org.phpboost.poptimizer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import junit.framework.Assert;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileSelectorTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void literalPatternsTest() {
+        final GlobTrie trie = new GlobTrie(Arrays.asList("lib/vendor",
+                "/admin/", "lib/cache/index.php"));
+        Assert.assertTrue(trie.matches("/lib/vendor"));
+        Assert.assertTrue(trie.matches("/lib/vendor/a/b.php"));
+        Assert.assertTrue(trie.matches("admin/index.php"));
+        Assert.assertTrue(trie.matches("lib/cache/index.php"));
+        Assert.assertFalse(trie.matches("lib/vendors/a.php"));
+        Assert.assertFalse(trie.matches("lib/cache/other.php"));
+        Assert.assertFalse(trie.matches("lib"));
+        Assert.assertFalse(trie.matches("kernel/admin/index.php"));
+    }
+
+    @Test
+    public void relativePatternsTest() {
+        // -e ./lib excluded the lib folder before the patterns were compiled
+        final FileSelector selector = new FileSelector(Collections
+                .<String> emptyList(), Arrays.asList("./lib", "./cache/"),
+                FileSelector.DEFAULT_EXTENSIONS, false);
+        Assert.assertFalse(selector.locate("/lib/a.php").isSelected());
+        Assert.assertFalse(selector.locate("/cache/b/c.php").isSelected());
+        Assert.assertTrue(selector.locate("/kernel/lib/a.php").isSelected());
+        Assert.assertTrue(new GlobTrie(Arrays.asList("a/./b")).matches("a/b"));
+    }
+
+    @Test
+    public void wildcardPatternsTest() {
+        final GlobTrie trie = new GlobTrie(Arrays.asList("**/test",
+                "lib/*.inc", "kernel/**/*_test.php", "f?o/[abc]d/[!x]*",
+                "a\\*b"));
+        Assert.assertTrue(trie.matches("test/a.php"));
+        Assert.assertTrue(trie.matches("a/b/test/c/d.php"));
+        Assert.assertTrue(trie.matches("lib/a.inc"));
+        Assert.assertFalse(trie.matches("lib/sub/a.inc"));
+        Assert.assertTrue(trie.matches("kernel/a_test.php"));
+        Assert.assertTrue(trie.matches("kernel/a/b/c_test.php"));
+        Assert.assertFalse(trie.matches("kernel/a/b/c.php"));
+        Assert.assertTrue(trie.matches("foo/bd/y"));
+        Assert.assertFalse(trie.matches("foo/dd/y"));
+        Assert.assertFalse(trie.matches("foo/bd/x"));
+        Assert.assertTrue(trie.matches("a*b"));
+        Assert.assertFalse(trie.matches("aab"));
+    }
+
+    @Test
+    public void selectionTest() {
+        final FileSelector selector = new FileSelector(Arrays.asList("kernel",
+                "modules"), Arrays.asList("**/templates"), FileSelector.DEFAULT_EXTENSIONS,
+                false);
+        Assert.assertTrue(selector.locate("/kernel/a.php").isSelected());
+        Assert.assertTrue(selector.root().child("modules").child("news")
+                .child("news.php").isSelected());
+        Assert.assertFalse(selector.locate("/modules/news/templates/a.php")
+                .isSelected());
+        Assert.assertFalse(selector.locate("/lang/a.php").isSelected());
+
+        final FileSelector all = new FileSelector(Collections.<String> emptyList(),
+                Collections.<String> emptyList(), FileSelector.DEFAULT_EXTENSIONS,
+                false);
+        Assert.assertTrue(all.locate("/lang/a.php").isSelected());
+    }
+
+    @Test
+    public void phpFileTest() throws IOException {
+        final FileSelector selector = new FileSelector(Collections.<String> emptyList(),
+                Collections.<String> emptyList(), Arrays.asList("php", "inc",
+                        "phtml"), true);
+        Assert.assertTrue(selector.isPhpFile(write("a.php", "")));
+        Assert.assertTrue(selector.isPhpFile(write("a.inc", "")));
+        Assert.assertTrue(selector.isPhpFile(write("a.phtml", "")));
+        Assert.assertFalse(selector.isPhpFile(write("a.php.txt", "<?php")));
+        Assert.assertTrue(selector.isPhpFile(write("script", "<?php echo 1;")));
+        Assert.assertTrue(selector.isPhpFile(write("cron", "#!/usr/bin/env php\n<?php")));
+        Assert.assertTrue(selector.isPhpFile(write("cli", "#!/usr/bin/php7.4 -q\r\n")));
+        Assert.assertFalse(selector.isPhpFile(write("run", "#!/bin/sh\nphp a.php")));
+        Assert.assertFalse(selector.isPhpFile(write("README", "Hello")));
+
+        final FileSelector noSniffing = new FileSelector(Collections.<String> emptyList(),
+                Collections.<String> emptyList(), FileSelector.DEFAULT_EXTENSIONS,
+                false);
+        Assert.assertFalse(noSniffing.isPhpFile(new File(folder.getRoot(), "script")));
+        Assert.assertFalse(noSniffing.isPhpFile(new File(folder.getRoot(), "a.inc")));
+    }
+
+    private File write(final String name, final String content) throws IOException {
+        final File file = new File(folder.getRoot(), name);
+        Files.write(file.toPath(), content.getBytes(Charset.forName("UTF-8")));
+        return file;
+    }
+}
@@ -0,0 +1,328 @@
+package org.phpboost.poptimizer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import junit.framework.Assert;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.phpboost.poptimizer.loading.Bundle;
+import org.phpboost.poptimizer.optimizers.Optimizer;
+
+public class POptimizerTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void updateTest() throws Exception {
+        final File input = folder.newFolder("in");
+        final File output = new File(folder.getRoot(), "out");
+        write(new File(input, "a/x.php"), "<?php\n$a  =  1;");
+        write(new File(input, "a/b.txt"), "b  b");
+
+        final POptimizer optimizer = newOptimizer(input, output);
+        optimizer.optimize();
+        Assert.assertEquals("<?php\n$a=1;", read(new File(output, "a/x.php")));
+
+        write(new File(input, "a/x.php"), "<?php\n$a  =  2;");
+        write(new File(input, "c/d/y.php"), "<?php $y  =  3;");
+        new File(input, "a/b.txt").delete();
+        optimizer.update(Arrays.asList(new File(input, "a/x.php"), new File(
+                input, "c"), new File(input, "a/b.txt")));
+
+        Assert.assertEquals("<?php\n$a=2;", read(new File(output, "a/x.php")));
+        Assert.assertEquals("<?php $y=3;", read(new File(output, "c/d/y.php")));
+        Assert.assertFalse(new File(output, "a/b.txt").exists());
+
+        deleteTree(new File(input, "c"));
+        optimizer.update(Arrays.asList(new File(input, "c")));
+        Assert.assertFalse(new File(output, "c").exists());
+    }
+
+    @Test
+    public void incrementalUpdateTest() throws Exception {
+        final File input = folder.newFolder("in");
+        final File output = new File(folder.getRoot(), "out");
+        write(new File(input, "x.php"), "<?php $a  =  1;");
+
+        final POptimizer optimizer = newOptimizer(input, output);
+        optimizer.setIncremental(true);
+        optimizer.optimize();
+
+        // A file restored to its first content must be processed again
+        write(new File(input, "x.php"), "<?php $a  =  2;");
+        optimizer.update(Arrays.asList(new File(input, "x.php")));
+        write(new File(input, "x.php"), "<?php $a  =  1;");
+        optimizer.update(Arrays.asList(new File(input, "x.php")));
+        Assert.assertEquals("<?php $a=1;", read(new File(output, "x.php")));
+    }
+
+    @Test
+    public void archiveInputTest() throws Exception {
+        final File input = new File(folder.getRoot(), "in.zip");
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(
+                input))) {
+            zip.putNextEntry(new ZipEntry("a/x.php"));
+            zip.write("<?php\n$a  =  1;".getBytes(UTF8));
+            zip.putNextEntry(new ZipEntry("a/b.txt"));
+            zip.write("b  b".getBytes(UTF8));
+            zip.closeEntry();
+        }
+        final File output = new File(folder.getRoot(), "out");
+
+        newOptimizer(input, output).optimize();
+        Assert.assertEquals("<?php\n$a=1;", read(new File(output, "a/x.php")));
+        Assert.assertEquals("b  b", read(new File(output, "a/b.txt")));
+    }
+
+    @Test
+    public void lineMapTest() throws Exception {
+        final File input = folder.newFolder("in");
+        final File output = new File(folder.getRoot(), "out");
+        write(new File(input, "x.php"), "<?php\n$a = 1;\n\necho $a;\n");
+        write(new File(input, "y.php"), "<?php echo 1;");
+
+        final POptimizer optimizer = newOptimizer(input, output);
+        optimizer.selectModule(Optimizer.SPACES_AGGRESSIVE_OPTIMIZER);
+        optimizer.setLineMaps(true);
+        optimizer.optimize();
+        Assert.assertEquals("<?php\n$a=1;echo $a;", read(new File(output,
+                "x.php")));
+        Assert.assertEquals("0:1\n0:2 5:4", read(new File(output,
+                "x.php.linemap")));
+        // The line numbers of y.php didn't change
+        Assert.assertFalse(new File(output, "y.php.linemap").exists());
+    }
+
+    @Test
+    public void bundleTest() throws Exception {
+        final File input = folder.newFolder("in");
+        final File output = new File(folder.getRoot(), "out");
+        write(new File(input, "lib/b.php"), "<?php\ndeclare(strict_types=1);\n"
+                + "namespace N;\nrequire_once __DIR__ . '/a.php';\n"
+                + "class B extends A {}");
+        write(new File(input, "lib/a.php"), "<?php\ndeclare(strict_types=1);\n"
+                + "namespace N;\nclass A {}");
+        // Its declare statements differ
+        write(new File(input, "lib/c.php"), "<?php\nnamespace N;\nclass C {}");
+        write(new File(input, "lib/page.php"), "<?php\necho 1;");
+        // Loaded by statements which can't load the bundle instead
+        write(new File(input, "lib/d.php"), "<?php\nclass D {}");
+        write(new File(input, "lib/sub/e.php"), "<?php\nclass E {}");
+        write(new File(input, "index.php"), "<?php\n"
+                + "require_once './lib/page.php';\n"
+                + "require_once __DIR__ . '/lib/b.php';\n"
+                + "include './lib/d.php';\nrequire 'e.php';");
+
+        final POptimizer optimizer = newOptimizer(input, output);
+        optimizer.addBundle(new Bundle("lib/all.php", Arrays.asList("lib/**")));
+        optimizer.optimize();
+        // A is declared before B, page.php isn't a class file
+        Assert.assertEquals("<?php\ndeclare(strict_types=1);\n"
+                + "namespace N {\nclass A{}\ntrue;\n"
+                + "class B extends A{}\n}\n", read(
+                new File(output, "lib/all.php")));
+        Assert.assertEquals("<?php\nrequire_once './lib/page.php';\n"
+                + "require_once __DIR__.'/lib/all.php';\n"
+                + "include './lib/d.php';\nrequire 'e.php';", read(new File(
+                output, "index.php")));
+        // The bundled files stay
+        Assert.assertTrue(new File(output, "lib/a.php").exists());
+    }
+
+    @Test
+    public void preloadTest() throws Exception {
+        final File input = folder.newFolder("in");
+        final File output = new File(folder.getRoot(), "out");
+        write(new File(input, "app/a.php"), "<?php\nclass A extends Z {}");
+        write(new File(input, "app/b.php"), "<?php\n"
+                + "declare(strict_types=1);\n#[Attr(1)]\nfinal class B {}");
+        write(new File(input, "app/page.php"), "<?php\necho new A();");
+        write(new File(input, "lib/z.php"), "<?php\n"
+                + "abstract class Z implements \\Countable {}");
+
+        final POptimizer optimizer = newOptimizer(input, output);
+        optimizer.setPreload(Arrays.asList("app"));
+        optimizer.optimize();
+        // Z is preloaded before A though it's out of the folder
+        Assert.assertEquals("<?php\n"
+                + "require_once __DIR__ . '/lib/z.php';\n"
+                + "require_once __DIR__ . '/app/a.php';\n"
+                + "require_once __DIR__ . '/app/b.php';\n", read(new File(
+                output, "preload.php")));
+    }
+
+    @Test
+    public void classMapTest() throws Exception {
+        final File input = folder.newFolder("in");
+        final File output = new File(folder.getRoot(), "out");
+        write(new File(input, "a/x.php"), "<?php\nnamespace N\\M;\n"
+                + "interface I {}\nclass X implements I {}");
+        write(new File(input, "b/y.php"), "<?php\ndeclare(strict_types=1);\n"
+                + "#[Attr]\nclass Y {}");
+        write(new File(input, "b/page.php"), "<?php\nclass Z {}\necho 1;");
+
+        final POptimizer optimizer = newOptimizer(input, output);
+        optimizer.addBundle(new Bundle("b.php", Arrays.asList("b/*")));
+        optimizer.setClassMap(true);
+        optimizer.optimize();
+        // Y is mapped to its bundle, page.php isn't a class file but Z is
+        // declared there
+        Assert.assertEquals("<?php\nreturn array(\n"
+                + "'N\\\\M\\\\I'=>'a/x.php',\n"
+                + "'N\\\\M\\\\X'=>'a/x.php',\n"
+                + "'Y'=>'b.php',\n'Z'=>'b/page.php',\n);\n", read(new File(output,
+                "classmap.php")));
+    }
+
+    @Test
+    public void parallelTest() throws Exception {
+        final File input = folder.newFolder("in");
+        for (int i = 0; i < 40; i++) {
+            write(new File(input, "d" + i % 5 + "/f" + i + ".php"), "<?php\n"
+                    + "// file " + i + "\n$a  =  " + i + ";\necho   $a;\n");
+            write(new File(input, "d" + i % 5 + "/t" + i + ".txt"), "t  " + i);
+        }
+        final File sequential = new File(folder.getRoot(), "sequential");
+        newOptimizer(input, sequential).optimize();
+        final File parallel = new File(folder.getRoot(), "parallel");
+        final POptimizer optimizer = newOptimizer(input, parallel);
+        optimizer.setParallelism(4);
+        optimizer.optimize();
+
+        for (int i = 0; i < 40; i++) {
+            for (final String name : new String[] { "/f" + i + ".php",
+                    "/t" + i + ".txt" }) {
+                final String path = "d" + i % 5 + name;
+                Assert.assertEquals(read(new File(sequential, path)), read(
+                        new File(parallel, path)));
+            }
+        }
+        Assert.assertEquals(5, parallel.list().length);
+    }
+
+    @Test
+    public void parallelCompressionTest() throws Exception {
+        final File input = folder.newFolder("in");
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            text.append("line  ").append(i * 7919 % 1000).append('\n');
+        }
+        for (int i = 0; i < 100; i++) {
+            write(new File(input, "d" + i % 5 + "/f" + i + ".php"), "<?php\n"
+                    + "$a  =  " + i + ";\n?>" + text);
+            write(new File(input, "d" + i % 5 + "/t" + i + ".txt"), text
+                    .toString());
+        }
+        final File output = new File(folder.getRoot(), "out.zip");
+        final POptimizer optimizer = newOptimizer(input, output);
+        optimizer.setParallelism(4);
+
+        final Path recordingFile = new File(folder.getRoot(), "stages.jfr")
+                .toPath();
+        try (Recording recording = new Recording()) {
+            recording.enable("org.phpboost.poptimizer.Stage");
+            recording.start();
+            optimizer.optimize();
+            recording.stop();
+            recording.dump(recordingFile);
+        }
+
+        // The entries are compressed by the workers, not by the writer
+        final Set<String> threads = new HashSet<String>();
+        int compressed = 0;
+        for (final RecordedEvent event : RecordingFile
+                .readAllEvents(recordingFile)) {
+            if (event.getEventType().getName().equals(
+                    "org.phpboost.poptimizer.Stage")
+                    && "compress".equals(event.getString("stage"))) {
+                final String thread = event.getThread().getJavaName();
+                Assert.assertTrue(thread, thread.startsWith("poptimizer-worker-"));
+                threads.add(thread);
+                compressed++;
+            }
+        }
+        Assert.assertEquals(200, compressed);
+        Assert.assertTrue(threads.toString(), threads.size() > 1);
+
+        try (ZipFile zip = new ZipFile(output)) {
+            Assert.assertEquals(text.toString(), new String(zip
+                    .getInputStream(zip.getEntry("d3/t8.txt")).readAllBytes(),
+                    UTF8));
+            Assert.assertEquals("<?php\n$a=8;\n?>" + text, new String(zip
+                    .getInputStream(zip.getEntry("d3/f8.php")).readAllBytes(),
+                    UTF8));
+        }
+    }
+
+    @Test
+    public void streamingTest() throws Exception {
+        final File input = folder.newFolder("in");
+        final StringBuilder content = new StringBuilder("<?php\n$a = '");
+        // Multi-byte characters straddle the buffers of the readers
+        for (int i = 0; i < 70000; i++) {
+            content.append(i % 3 == 0 ? "\u20ac" : i % 3 == 1 ? "é" : "a");
+        }
+        content.append("';\necho  $a;\n");
+        write(new File(input, "x.php"), content.toString());
+
+        final File loaded = new File(folder.getRoot(), "loaded");
+        newOptimizer(input, loaded).optimize();
+        final File streamed = new File(folder.getRoot(), "streamed");
+        final POptimizer optimizer = newOptimizer(input, streamed);
+        optimizer.setStreamingThreshold(0);
+        optimizer.optimize();
+
+        final String expected = content.toString().replace("$a = ", "$a=")
+                .replace("echo  ", "echo ");
+        Assert.assertEquals(expected, read(new File(loaded, "x.php")));
+        Assert.assertEquals(expected, read(new File(streamed, "x.php")));
+    }
+
+    private POptimizer newOptimizer(final File input, final File output)
+            throws POptimizerConfigurationException, IOException {
+        final POptimizer optimizer = new POptimizer(input, output,
+                new ArrayList<File>());
+        optimizer.selectAllModules();
+        return optimizer;
+    }
+
+    private static void write(final File file, final String content)
+            throws IOException {
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(UTF8));
+    }
+
+    private static String read(final File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), UTF8);
+    }
+
+    private static void deleteTree(final File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (final File child : children) {
+                deleteTree(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,82 @@
+package org.phpboost.poptimizer;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class StagedPipelineTest {
+    @Test
+    public void budgetTest() throws IOException {
+        final AtomicLong written = new AtomicLong();
+        final AtomicLong maxInFlight = new AtomicLong();
+        final AtomicLong inFlight = new AtomicLong();
+        final StagedPipeline<Long> pipeline = new StagedPipeline<Long>(3, 2, 100) {
+            @Override
+            protected void transform(final Long item) {
+                final long current = inFlight.get();
+                if (current > maxInFlight.get()) {
+                    maxInFlight.set(current);
+                }
+            }
+
+            @Override
+            protected void write(final Long item) {
+                written.addAndGet(item.longValue());
+                inFlight.addAndGet(-item.longValue());
+                release(item.longValue());
+            }
+        };
+        long total = 0;
+        try {
+            for (long i = 1; i <= 30; i++) {
+                pipeline.acquire(i);
+                inFlight.addAndGet(i);
+                pipeline.submit(Long.valueOf(i));
+                total += i;
+            }
+            // Bigger than the budget: it waits until nothing is in flight
+            pipeline.acquire(500);
+            inFlight.addAndGet(500);
+            pipeline.submit(Long.valueOf(500));
+            total += 500;
+        } finally {
+            pipeline.close();
+        }
+        Assert.assertEquals(total, written.get());
+        Assert.assertTrue(maxInFlight.get() <= 500);
+    }
+
+    @Test
+    public void failureTest() {
+        final StagedPipeline<Integer> pipeline = new StagedPipeline<Integer>(2, 1,
+                10) {
+            @Override
+            protected void transform(final Integer item) throws IOException {
+                if (item.intValue() == 3) {
+                    throw new IOException("failed");
+                }
+            }
+
+            @Override
+            protected void write(final Integer item) {
+                release(5);
+            }
+        };
+        try {
+            try {
+                for (int i = 0; i < 1000; i++) {
+                    pipeline.acquire(5);
+                    pipeline.submit(Integer.valueOf(i));
+                }
+            } finally {
+                pipeline.close();
+            }
+            Assert.fail("The failure of a stage must be thrown");
+        } catch (final IOException e) {
+            Assert.assertEquals("failed", e.getMessage());
+        }
+    }
+}
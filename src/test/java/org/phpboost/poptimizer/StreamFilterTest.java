@@ -0,0 +1,89 @@
+package org.phpboost.poptimizer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.phpboost.poptimizer.optimizers.Optimizer;
+
+public class StreamFilterTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final StreamFilter filter = new StreamFilter(Optimizer
+            .defaults(), FileCharset.UTF8, FileCharset.UTF8);
+
+    @Test
+    public void filterTest() throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        filter.filter(new ByteArrayInputStream(
+                "<?php\n// é\n$a  =  'é';\n".getBytes(UTF8)), output);
+        Assert.assertEquals("<?php\n\n$a='é';\n", new String(output.toByteArray(),
+                UTF8));
+    }
+
+    @Test
+    public void framesTest() throws IOException {
+        final String[] files = { "<?php  $a = 1;", "", "<html>  </html>",
+                "<?php /* é */ echo  'ü';" };
+        final String[] expected = { "<?php $a=1;", "", "<html>  </html>",
+                "<?php echo 'ü';" };
+
+        final ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        final DataOutputStream frameWriter = new DataOutputStream(frames);
+        for (final String file : files) {
+            final byte[] content = file.getBytes(UTF8);
+            frameWriter.writeInt(content.length);
+            frameWriter.write(content);
+        }
+
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Assert.assertEquals(files.length, filter.filterFrames(
+                new ByteArrayInputStream(frames.toByteArray()), output));
+
+        final DataInputStream results = new DataInputStream(
+                new ByteArrayInputStream(output.toByteArray()));
+        for (final String result : expected) {
+            final byte[] content = new byte[results.readInt()];
+            results.readFully(content);
+            Assert.assertEquals(result, new String(content, UTF8));
+        }
+        Assert.assertEquals(-1, results.read());
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedFrameTest() throws IOException {
+        filter.filterFrames(new ByteArrayInputStream(new byte[] { 0, 0, 0, 9,
+                '<', '?' }), new ByteArrayOutputStream());
+    }
+
+    @Test
+    public void truncatedFrameMessageTest() {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try {
+            filter.filterFrames(new ByteArrayInputStream(new byte[] { 0, 0, 0,
+                    2, '<', '?', 0, 0, 0, 9, '<', '?' }), output);
+            Assert.fail("The truncated frame must be reported");
+        } catch (final IOException e) {
+            Assert.assertTrue(e instanceof EOFException);
+            Assert.assertEquals("Truncated frame: 9 bytes announced", e
+                    .getMessage());
+        }
+        // Only the complete frame was written
+        Assert.assertEquals(6, output.size());
+
+        try {
+            filter.filterFrames(new ByteArrayInputStream(new byte[] { 0, 0 }),
+                    new ByteArrayOutputStream());
+            Assert.fail("The truncated length must be reported");
+        } catch (final IOException e) {
+            Assert.assertEquals("Truncated frame length", e.getMessage());
+        }
+    }
+}
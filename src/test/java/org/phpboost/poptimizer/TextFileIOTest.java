@@ -0,0 +1,71 @@
+package org.phpboost.poptimizer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+
+import junit.framework.Assert;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TextFileIOTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    /**
+     * Size of the byte and character buffers of TextFileIO
+     */
+    private static final int BUFFER_SIZE = 65536;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void splitCharacterReadTest() throws IOException {
+        // A 3 bytes character and a 4 bytes one straddle the first reads
+        final String text = repeat('a', BUFFER_SIZE - 1) + "€"
+                + repeat('b', BUFFER_SIZE - 4) + "😀c";
+        Assert.assertEquals(text, read(text));
+    }
+
+    @Test
+    public void splitCharacterMappedTest() throws IOException {
+        final String text = repeat('a', BUFFER_SIZE - 1) + "€"
+                + repeat('b', (int) TextFileIO.MAPPING_THRESHOLD) + "😀";
+        Assert.assertEquals(text, read(text));
+    }
+
+    @Test
+    public void splitCharacterDecodeTest() {
+        final String text = repeat('a', BUFFER_SIZE - 1) + "é😀";
+        final byte[] content = text.getBytes(UTF8);
+        Assert.assertEquals(text, TextFileIO.get().decode(content,
+                content.length, FileCharset.UTF8).toString());
+    }
+
+    @Test
+    public void splitCharacterWriteTest() throws IOException {
+        // The surrogate pair straddles two parts of the encoded content
+        final String text = repeat('a', BUFFER_SIZE - 1) + "😀"
+                + repeat('b', BUFFER_SIZE) + "é";
+        final File file = folder.newFile("w.php");
+        TextFileIO.get().write(file, new StringBuilder(text), FileCharset.UTF8);
+        Assert.assertEquals(text, new String(Files.readAllBytes(file.toPath()),
+                UTF8));
+    }
+
+    private String read(final String text) throws IOException {
+        final File file = folder.newFile("r.php");
+        Files.write(file.toPath(), text.getBytes(UTF8));
+        return TextFileIO.get().read(file, FileCharset.UTF8).toString();
+    }
+
+    private static String repeat(final char c, final int count) {
+        final StringBuilder text = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            text.append(c);
+        }
+        return text.toString();
+    }
+}
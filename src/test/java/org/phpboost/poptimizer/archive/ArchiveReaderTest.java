@@ -0,0 +1,94 @@
+package org.phpboost.poptimizer.archive;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.Assert;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ArchiveReaderTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String LONG_NAME = "a/" + repeat('x', 120) + "/"
+            + repeat('y', 120) + ".php";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void zipTest() throws IOException {
+        roundTrip(new File(folder.getRoot(), "in.zip"));
+    }
+
+    @Test
+    public void tarGzTest() throws IOException {
+        roundTrip(new File(folder.getRoot(), "in.tar.gz"));
+    }
+
+    @Test
+    public void escapingEntryTest() throws IOException {
+        final File file = new File(folder.getRoot(), "evil.zip");
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(
+                file))) {
+            zip.putNextEntry(new ZipEntry("a/../../evil.php"));
+            zip.closeEntry();
+        }
+        try (ArchiveReader reader = ArchiveReader.open(file)) {
+            reader.next();
+            Assert.fail("An entry outside of the archive root must be rejected");
+        } catch (final IOException e) {
+            // Expected
+        }
+    }
+
+    private static void roundTrip(final File file) throws IOException {
+        try (ArchiveWriter archive = ArchiveWriter.open(file, System
+                .currentTimeMillis())) {
+            archive.addDirectory("/a");
+            try (OutputStream entry = archive.newEntry("/a/b.php")) {
+                entry.write("<?php echo 'é';".getBytes(UTF8));
+            }
+            archive.newEntry("/a/empty").close();
+            try (OutputStream entry = archive.newEntry("/" + LONG_NAME)) {
+                entry.write("<?php".getBytes(UTF8));
+            }
+        }
+
+        Assert.assertTrue(ArchiveReader.isArchive(file));
+        try (ArchiveReader reader = ArchiveReader.open(file)) {
+            ArchiveReader.Entry entry = reader.next();
+            Assert.assertEquals("a", entry.getName());
+            Assert.assertTrue(entry.isDirectory());
+
+            entry = reader.next();
+            Assert.assertEquals("a/b.php", entry.getName());
+            Assert.assertFalse(entry.isDirectory());
+            Assert.assertEquals("<?php echo 'é';", new String(entry
+                    .readContent(), UTF8));
+
+            // The content of an entry may be skipped
+            Assert.assertEquals("a/empty", reader.next().getName());
+
+            entry = reader.next();
+            Assert.assertEquals(LONG_NAME, entry.getName());
+            Assert.assertEquals("<?php", new String(entry.readContent(), UTF8));
+
+            Assert.assertNull(reader.next());
+        }
+    }
+
+    private static String repeat(final char character, final int count) {
+        final StringBuilder result = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            result.append(character);
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,99 @@
+package org.phpboost.poptimizer.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import junit.framework.Assert;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ArchiveWriterTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void zipTest() throws IOException {
+        final File file = new File(folder.getRoot(), "out.zip");
+        writeArchive(file);
+
+        try (ZipFile zip = new ZipFile(file)) {
+            Assert.assertTrue(zip.getEntry("a/").isDirectory());
+            Assert.assertEquals("<?php echo 'é';", read(zip, "a/b.php"));
+            Assert.assertEquals("", read(zip, "a/empty"));
+            Assert.assertEquals(repeated(), read(zip, "a/big.txt"));
+            Assert.assertEquals(ZipEntry.DEFLATED, zip.getEntry("a/big.txt")
+                    .getMethod());
+        }
+    }
+
+    @Test
+    public void tarGzTest() throws IOException {
+        final File file = new File(folder.getRoot(), "out.tar.gz");
+        writeArchive(file);
+
+        final byte[] tar;
+        try (InputStream stream = new GZIPInputStream(Files.newInputStream(file
+                .toPath()))) {
+            final ByteArrayOutputStream content = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = stream.read(buffer)) >= 0) {
+                content.write(buffer, 0, read);
+            }
+            tar = content.toByteArray();
+        }
+        Assert.assertEquals(0, tar.length % 512);
+        Assert.assertEquals("a/", new String(tar, 0, 2, UTF8));
+        Assert.assertEquals('5', tar[156]);
+        Assert.assertEquals("ustar", new String(tar, 257, 5, UTF8));
+        Assert.assertEquals("a/b.php", new String(tar, 512, 7, UTF8));
+        Assert.assertEquals("<?php", new String(tar, 1024, 5, UTF8));
+    }
+
+    private static void writeArchive(final File file) throws IOException {
+        try (ArchiveWriter archive = ArchiveWriter.open(file, System
+                .currentTimeMillis())) {
+            archive.addDirectory(File.separator + "a");
+            try (OutputStream entry = archive.newEntry("/a/b.php")) {
+                entry.write("<?php echo 'é';".getBytes(UTF8));
+            }
+            archive.newEntry("/a/empty").close();
+            try (OutputStream entry = archive.newEntry("/a/big.txt")) {
+                entry.write(repeated().getBytes(UTF8));
+            }
+        }
+    }
+
+    private static String repeated() {
+        final StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            content.append("line ").append(i % 10).append('\n');
+        }
+        return content.toString();
+    }
+
+    private static String read(final ZipFile zip, final String name)
+            throws IOException {
+        try (InputStream stream = zip.getInputStream(zip.getEntry(name))) {
+            final ByteArrayOutputStream content = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = stream.read(buffer)) >= 0) {
+                content.write(buffer, 0, read);
+            }
+            return new String(content.toByteArray(), UTF8);
+        }
+    }
+}
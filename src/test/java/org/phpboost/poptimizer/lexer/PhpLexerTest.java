@@ -0,0 +1,91 @@
+package org.phpboost.poptimizer.lexer;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class PhpLexerTest {
+    private static final String SAMPLE = "<html>\n<body><?php\n"
+            + "/**\n * A long documentation comment which doesn't fit in the buffer\n */\n"
+            + "function foo($bar = 1.5e-3, $baz = 0x1F) {\n"
+            + "\t// A line comment ?>\n<?php\n"
+            + "\t$text = 'a long \\'quoted\\' string \\\\ with escapes';\n"
+            + "\t$other = \"a {$bar['key']} and ${baz} and \\\" string\";\n"
+            + "\t$doc = <<<EOT\n  heredoc $text\n  with lines\n  EOT;\n"
+            + "\t$now = <<<'EOT'\nnowdoc\nEOT;\n"
+            + "\treturn $bar . .5 . $baz; # the end\n"
+            + "}\n?>\n</body>\n</html>";
+
+    @Test
+    public void tokensTest() {
+        final List<String> tokens = tokenize("<?php echo $a . 'b' /* c */;?>x");
+        Assert.assertEquals("[OPEN_TAG:<?php , IDENTIFIER:echo, WHITESPACE: , "
+                + "VARIABLE:$a, WHITESPACE: , OPERATOR:., WHITESPACE: , "
+                + "SINGLE_QUOTED_STRING:'b', WHITESPACE: , BLOCK_COMMENT:/* c */, "
+                + "OPERATOR:;, CLOSE_TAG:?>, INLINE_HTML:x]", tokens.toString());
+    }
+
+    @Test
+    public void heredocTest() {
+        final List<String> tokens = tokenize("<?php $a = <<<\"EOT\"\nfoo\nEOTX\nEOT;");
+        Assert.assertEquals("HEREDOC:<<<\"EOT\"\nfoo\nEOTX\nEOT", tokens.get(5));
+        Assert.assertEquals("OPERATOR:;", tokens.get(6));
+    }
+
+    @Test
+    public void streamTest() throws IOException {
+        final List<String> expected = tokenize(SAMPLE);
+        for (int bufferSize = 16; bufferSize < 80; bufferSize++) {
+            final List<String> tokens = new ArrayList<String>();
+            new PhpLexer(new MergingSink(tokens)).tokenize(new StringReader(
+                    SAMPLE), bufferSize);
+            Assert.assertEquals("Buffer of " + bufferSize + " characters",
+                    expected, tokens);
+        }
+    }
+
+    private List<String> tokenize(final String content) {
+        final List<String> tokens = new ArrayList<String>();
+        new PhpLexer(new MergingSink(tokens)).tokenize(content);
+        return tokens;
+    }
+
+    /**
+     * Collects the tokens, the parts of a split token are merged
+     */
+    private static class MergingSink implements TokenSink {
+        private final List<String> tokens;
+        private TokenType previousType = null;
+        private final StringBuilder text = new StringBuilder();
+
+        public MergingSink(final List<String> list) {
+            tokens = list;
+        }
+
+        @Override
+        public void token(final Token token) {
+            if (token.getType() != previousType || token.is(TokenType.OPERATOR)) {
+                flush();
+                previousType = token.getType();
+            }
+            token.appendTo(text);
+        }
+
+        @Override
+        public void end() {
+            flush();
+        }
+
+        private void flush() {
+            if (previousType != null) {
+                tokens.add(previousType + ":" + text);
+            }
+            text.setLength(0);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package org.phpboost.poptimizer.lexer;
+
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class SpanScannerTest {
+    private static final char[] SEARCHED = { '\\', '\'', '{', '$' };
+
+    @Test
+    public void sameAsLoopTest() {
+        final Random random = new Random(42);
+        for (int round = 0; round < 200; round++) {
+            final char[] buffer = new char[random.nextInt(100)];
+            for (int i = 0; i < buffer.length; i++) {
+                switch (random.nextInt(20)) {
+                    case 0:
+                        buffer[i] = SEARCHED[random.nextInt(SEARCHED.length)];
+                        break;
+                    case 1:
+                        // Non-ASCII characters sharing their low byte with a searched one
+                        buffer[i] = (char) (SEARCHED[random.nextInt(SEARCHED.length)] + 0x100 * (1 + random
+                                .nextInt(200)));
+                        break;
+                    default:
+                        buffer[i] = (char) ('a' + random.nextInt(26));
+                }
+            }
+            final int from = buffer.length == 0 ? 0 : random.nextInt(buffer.length);
+            Assert.assertEquals(find(buffer, from, 1), SpanScanner.indexOf(
+                    buffer, from, buffer.length, SEARCHED[0]));
+            Assert.assertEquals(find(buffer, from, 2), SpanScanner.indexOfAny(
+                    buffer, from, buffer.length, SEARCHED[0], SEARCHED[1]));
+            Assert.assertEquals(find(buffer, from, 3), SpanScanner.indexOfAny(
+                    buffer, from, buffer.length, SEARCHED[0], SEARCHED[1],
+                    SEARCHED[2]));
+            Assert.assertEquals(find(buffer, from, 4), SpanScanner.indexOfAny(
+                    buffer, from, buffer.length, SEARCHED[0], SEARCHED[1],
+                    SEARCHED[2], SEARCHED[3]));
+        }
+    }
+
+    private static int find(final char[] buffer, final int from, final int count) {
+        for (int i = from; i < buffer.length; i++) {
+            for (int j = 0; j < count; j++) {
+                if (buffer[i] == SEARCHED[j]) {
+                    return i;
+                }
+            }
+        }
+        return buffer.length;
+    }
+}
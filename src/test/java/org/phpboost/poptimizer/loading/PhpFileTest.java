@@ -0,0 +1,89 @@
+package org.phpboost.poptimizer.loading;
+
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class PhpFileTest {
+    @Test
+    public void classFileTest() {
+        Assert.assertTrue(new PhpFile("a.php", "<?php\nnamespace A\\B;\n"
+                + "use C\\D as E;\nfinal class F extends E implements G {\n"
+                + "use H;\n}\n?>\n").isClassFile());
+        Assert.assertTrue(new PhpFile("a.php", "<?php\ninterface I {}\n"
+                + "trait T {}\nenum U: string {}\nfunction f() {}\n")
+                .isClassFile());
+        // A bundle (see Bundler)
+        Assert.assertTrue(new PhpFile("a.php", "<?php\nnamespace A {\n"
+                + "true;\nclass B {}\n}\n").isClassFile());
+        Assert.assertFalse(new PhpFile("a.php", "<?php\nclass A {}\necho 1;")
+                .isClassFile());
+        Assert.assertFalse(new PhpFile("a.php", "<html><?php class A {}")
+                .isClassFile());
+        Assert.assertFalse(new PhpFile("a.php", "<?php class A {}\n?>text")
+                .isClassFile());
+    }
+
+    @Test
+    public void declareTest() {
+        final PhpFile file = new PhpFile("a.php", "<?php\n"
+                + "declare(strict_types=1);\nnamespace A;\n"
+                + "#[Attr(1), Other]\n#[\\Third([2])]\nabstract class B {}\n"
+                + "#[Attr]\nenum C {}\n");
+        Assert.assertTrue(file.isClassFile());
+        Assert.assertEquals("declare(strict_types=1);", file.getDirectives());
+        Assert.assertEquals(2, file.getDeclarations().size());
+        // Only the namespace block remains
+        Assert.assertEquals(1, file.getBlocks().size());
+        Assert.assertFalse(new PhpFile("a.php", "<?php\nclass A {}\n"
+                + "declare(ticks=1);").isClassFile());
+    }
+
+    @Test
+    public void pageDeclarationsTest() {
+        final PhpFile file = new PhpFile("a.php", "<html>\n<?php\n"
+                + "define('A', 1);\nclass A {}\n?>\n<p><?php echo 1 ?></p>\n"
+                + "<?php\nclass B extends A {}\n");
+        Assert.assertFalse(file.isClassFile());
+        Assert.assertEquals(2, file.getDeclarations().size());
+        Assert.assertEquals("B", file.getDeclarations().get(1).getName());
+    }
+
+    @Test
+    public void declarationsTest() {
+        final PhpFile file = new PhpFile("a.php", "<?php\nnamespace A\\B;\n"
+                + "use C\\D as E;\nclass F extends E implements G, \\H {\n"
+                + "use T;\n}\n");
+        Assert.assertEquals(1, file.getDeclarations().size());
+        final PhpFile.Declaration declaration = file.getDeclarations().get(0);
+        Assert.assertEquals("A\\B\\F", declaration.getName());
+        Assert.assertEquals(Arrays.asList("C\\D", "A\\B\\G", "H", "A\\B\\T"),
+                declaration.getDependencies());
+    }
+
+    @Test
+    public void requiresTest() {
+        final PhpFile file = new PhpFile("a.php", "<?php\n"
+                + "require_once __DIR__ . '/b.php';\n"
+                + "include(PATH_TO_ROOT . '/c.php');\n"
+                + "require 'd.php';\n"
+                + "require $path . '/e.php';\n"
+                + "require \"$f.php\";\n");
+        Assert.assertEquals(4, file.getRequires().size());
+        Assert.assertEquals(PhpFile.Base.DIRECTORY, file.getRequires().get(0)
+                .getBase());
+        Assert.assertEquals("/b.php", file.getRequires().get(0).getPath());
+        Assert.assertEquals("include", file.getRequires().get(1).getKeyword());
+        Assert.assertEquals(PhpFile.Base.PREFIX, file.getRequires().get(1)
+                .getBase());
+        Assert.assertEquals(PhpFile.Base.PLAIN, file.getRequires().get(2)
+                .getBase());
+        Assert.assertEquals(PhpFile.Base.PREFIX, file.getRequires().get(3)
+                .getBase());
+        Assert.assertFalse(file.isLocationDependent());
+        Assert.assertTrue(new PhpFile("a.php", "<?php\n$d = __DIR__;")
+                .isLocationDependent());
+    }
+}
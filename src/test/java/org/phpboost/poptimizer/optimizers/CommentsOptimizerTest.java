@@ -0,0 +1,61 @@
+package org.phpboost.poptimizer.optimizers;
+
+import java.util.EnumSet;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class CommentsOptimizerTest {
+    @Test
+    public void outsidePHPTest() {
+        final String input = "// foo /* bar */ <?php echo 1;?>";
+        runTest(input, input);
+    }
+
+    @Test
+    public void singleLineCommentTest() {
+        runTest("<?php\n// Hello world\necho 1; // end\n?>", "<?php\n\necho 1; \n?>");
+        runTest("<?php\n# Hello world\necho 1;\n?>", "<?php\n\necho 1;\n?>");
+        runTest("<?php echo 1; // end ?>foo", "<?php echo 1; ?>foo");
+    }
+
+    @Test
+    public void multiLineCommentTest() {
+        runTest("<?php\n/**\n * Doc\n */\nfunction foo() {}\n?>",
+                "<?php\n\n\n\nfunction foo() {}\n?>");
+        runTest("<?php echo/* */1;?>", "<?php echo 1;?>");
+    }
+
+    @Test
+    public void commentsInStringsTest() {
+        final String input = "<?php echo '// foo', \"/* bar */\", \"{$a['#']}\";?>";
+        runTest(input, input);
+    }
+
+    @Test
+    public void commentsInHeredocTest() {
+        final String input = "<?php echo <<<EOT\n// foo\n/* bar */\nEOT;\n?>";
+        runTest(input, input);
+    }
+
+    @Test
+    public void attributeTest() {
+        final String input = "<?php #[Attribute]\nclass Foo {}";
+        runTest(input, input);
+    }
+
+    @Test
+    public void chainedWithSpacesTest() {
+        final OptimizerChain optimizer = new OptimizerChain(EnumSet.of(
+                Optimizer.COMMENTS_OPTIMIZER, Optimizer.SPACES_OPTIMIZER));
+        Assert.assertEquals("<?php\n$a=1;\n\n\n\necho $a;\n?>", optimizer
+                .optimize("<?php\n\t$a = 1; // one\n\t/*\n\t * two\n\t */\n\techo /* three */ $a;\n?>"));
+    }
+
+    private void runTest(final String input, final String expected) {
+        final OptimizerChain optimizer = new OptimizerChain(EnumSet
+                .of(Optimizer.COMMENTS_OPTIMIZER));
+        Assert.assertEquals(expected, optimizer.optimize(input));
+    }
+}
@@ -0,0 +1,79 @@
+package org.phpboost.poptimizer.optimizers;
+
+import java.util.EnumSet;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class FoldOptimizerTest {
+    @Test
+    public void concatenationTest() {
+        runTest("<?php $a = 'foo' . 'bar' . 'baz';", "<?php $a = 'foobarbaz';");
+        runTest("<?php echo 'it\\'s' . \"a \\\"test\\\"\", $b . 'c' . 'd';",
+                "<?php echo 'it\\'sa \"test\"', $b . 'cd';");
+        runTest("<?php $a = 'a\\b' . 'c\\\\' . 1;", "<?php $a = 'a\\bc\\1';");
+        runTest("<?php $a = \"a\\n\" . 'b$c';", "<?php $a = \"a\\nb\\$c\";");
+        runTest("<?php $a = 'a' . $b . 'c' . 'd' . $e;", "<?php $a = 'a' . $b . 'cd' . $e;");
+    }
+
+    @Test
+    public void arithmeticTest() {
+        runTest("<?php $a = 60 * 60 * 24;", "<?php $a = 86400;");
+        runTest("<?php f(2 + 3 * 4, 2 - 5);", "<?php f(14, -3);");
+        runTest("<?php $a = [1 + 1 => 'a'];", "<?php $a = [2 => 'a'];");
+    }
+
+    @Test
+    public void keptTest() {
+        keptTest("<?php $a = $b + 'a' . 'b';");
+        keptTest("<?php $a = 'a' . 'b' * 2;");
+        keptTest("<?php $a = 'a' . 'b'[0];");
+        keptTest("<?php $a = (int) '1' . '2';");
+        keptTest("<?php $a = \"$b\" . 'c' . \"\\x41\" . \"\\101\";");
+        keptTest("<?php $a = `ls` . 'a';");
+        keptTest("<?php $a = 'a\nb' . 'c';");
+        keptTest("<?php $a = $b * 2 * 3;");
+        keptTest("<?php $a = 2 * 3 ** 2;");
+        keptTest("<?php $a = 'a' . 2 + 3;");
+        keptTest("<?php $a = 0x10 + 010 + 1.5 + 2;");
+        keptTest("<?php $a = 65536 * 65536;");
+        // instanceof, clone and new bind tighter than . and the arithmetic
+        keptTest("<?php $a = 'a' . 'b' instanceof Foo;");
+        keptTest("<?php $a = 1 + 2 INSTANCEOF Foo;");
+        keptTest("<?php $a = 'a' . 'b' . 'c' instanceof Foo;");
+        keptTest("<?php $a = clone 'a' . 'b';");
+        keptTest("<?php $a = new 'a' . 'b';");
+    }
+
+    @Test
+    public void tighterKeywordsTest() {
+        runTest("<?php $a = $b instanceof Foo . 'a' . 'b';",
+                "<?php $a = $b instanceof Foo . 'ab';");
+    }
+
+    @Test
+    public void lineNumbersTest() {
+        runTest("<?php $a = 'a' . // a\n'b' .\n\t'c';\necho $a;",
+                "<?php $a = 'abc'\n\n;\necho $a;");
+    }
+
+    @Test
+    public void chainedTest() {
+        final OptimizerChain optimizer = new OptimizerChain(EnumSet.of(
+                Optimizer.COMMENTS_OPTIMIZER, Optimizer.FOLD_OPTIMIZER,
+                Optimizer.SPACES_OPTIMIZER));
+        Assert.assertEquals("<?php\nreturn 'ab';\n?>x",
+                optimizer.optimize("<?php\nreturn 'a' /* a */ . 'b';\n?>x"));
+    }
+
+    private static void keptTest(final String input) {
+        runTest(input, input);
+    }
+
+    private static void runTest(final String input, final String expected) {
+        final OptimizerChain optimizer = new OptimizerChain(EnumSet
+                .of(Optimizer.FOLD_OPTIMIZER));
+        Assert.assertEquals(expected, optimizer.optimize(input));
+    }
+}
@@ -0,0 +1,86 @@
+package org.phpboost.poptimizer.optimizers;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.EnumSet;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class HtmlOptimizerTest {
+    @Test
+    public void blanksTest() {
+        runTest("<div>\n\t\t<p>Hello   world</p>\n\n    </div> ",
+                "<div>\n<p>Hello world</p>\n\n</div> ");
+        runTest("<a  href=\"a  b\"\n   title='c  d' >x</a>",
+                "<a href=\"a  b\"\ntitle='c  d'>x</a>");
+    }
+
+    @Test
+    public void commentsTest() {
+        runTest("<p>a<!-- one -->b</p>", "<p>ab</p>");
+        runTest("<p>\n  <!--\n two\n -->\n</p>", "<p>\n\n\n\n</p>");
+        runTest("a<!--\n-->b", "a<!--\n-->b");
+        runTest("<!--[if IE]><p>IE</p><![endif]--> <!--# include -->",
+                "<!--[if IE]><p>IE</p><![endif]--> <!--# include -->");
+        runTest("a<!-->b<!--->c", "abc");
+    }
+
+    @Test
+    public void rawElementsTest() {
+        final String input = "<pre>  a\n\n  b <!-- c --></pre><TEXTAREA name=\"t\">  x  </textarea>"
+                + "<script>if (a  <  b) { x = '</pre>'; }</script><style>p  { }</style>";
+        runTest(input, input);
+        runTest("<pre> a </pre>  <b>  c </b>", "<pre> a </pre> <b> c </b>");
+        runTest("<preface>  a</preface>", "<preface> a</preface>");
+    }
+
+    @Test
+    public void phpCodeTest() {
+        runTest("<p>  <?php  echo  '  a  '; ?>  </p>",
+                "<p> <?php  echo  '  a  '; ?> </p>");
+        runTest("<pre>  <?php echo $a; ?>  </pre>  ",
+                "<pre>  <?php echo $a; ?>  </pre> ");
+        runTest("<a href=\"  <?php echo $a; ?>  \"  >", "<a href=\"  <?php echo $a; ?>  \">");
+        runTest("<!-- <?php echo $a; ?> -->  x", "<!-- <?php echo $a; ?> --> x");
+    }
+
+    @Test
+    public void closeTagLineBreakTest() {
+        runTest("<?php echo $a ?>\n\n  <b>", "<?php echo $a ?>\n\n<b>");
+        runTest("<?php echo $a ?>\r\n  <b>", "<?php echo $a ?>\r\n <b>");
+        runTest("<?php echo $a ?> \n <b>", "<?php echo $a ?>\n<b>");
+    }
+
+    @Test
+    public void streamTest() throws IOException {
+        final String input = "<div>   <!-- comment -->\n  <pre>  a  </pre>  <textarea> b </textarea>"
+                + "<p  class=\"x  y\">  z</p><?php echo 1; ?>\n  <!-- end -->  ";
+        final String expected = optimize(input);
+        for (int bufferSize = 1; bufferSize < 20; bufferSize++) {
+            final StringWriter writer = new StringWriter();
+            new OptimizerChain(EnumSet.of(Optimizer.HTML_OPTIMIZER)).optimize(
+                    new StringReader(input), writer, bufferSize);
+            Assert.assertEquals(expected, writer.toString());
+        }
+    }
+
+    @Test
+    public void defaultsTest() {
+        Assert.assertFalse(Optimizer.defaults().contains(
+                Optimizer.HTML_OPTIMIZER));
+        Assert.assertTrue(Optimizer.defaults().contains(
+                Optimizer.SPACES_OPTIMIZER));
+    }
+
+    private static String optimize(final String input) {
+        return new OptimizerChain(EnumSet.of(Optimizer.HTML_OPTIMIZER))
+                .optimize(input);
+    }
+
+    private void runTest(final String input, final String expected) {
+        Assert.assertEquals(expected, optimize(input));
+    }
+}
@@ -0,0 +1,62 @@
+package org.phpboost.poptimizer.optimizers;
+
+import java.util.EnumSet;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class MangleOptimizerTest {
+    @Test
+    public void localVariablesTest() {
+        runTest("<?php function foo($param) { $count = $param; $total = 0; $total += $count; return $total; }",
+                "<?php function foo($param) { $b = $param; $a = 0; $a += $b; return $a; }");
+        runTest("<?php class A { private $value; public function get($key) { $result = $this->value[$key]; return $result . self::$cache; } }",
+                "<?php class A { private $value; public function get($key) { $a = $this->value[$key]; return $a . self::$cache; } }");
+    }
+
+    @Test
+    public void closuresTest() {
+        runTest("<?php $list = array_map(function ($item) use ($factor) { $result = $item * $factor; return $result; }, $list);",
+                "<?php $list = array_map(function ($a) use ($factor) { $b = $a * $factor; return $b; }, $list);");
+        runTest("<?php $list = array_map(fn($item) => $item * $factor, $list);",
+                "<?php $list = array_map(fn($a) => $a * $factor, $list);");
+        runTest("<?php function foo() { $factor = 2; return fn($item) => $item * $factor; }",
+                "<?php function foo() { $a = 2; return fn($b) => $b * $a; }");
+    }
+
+    @Test
+    public void keptVariablesTest() {
+        runTest("<?php function foo() { global $config; $value = $config; echo \"$value\", $_GET['a']; }",
+                "<?php function foo() { global $config; $value = $config; echo \"$value\", $_GET['a']; }");
+        runTest("<?php function foo() { $name = 'a'; $value = 1; return compact('name', 'value'); }",
+                "<?php function foo() { $name = 'a'; $value = 1; return compact('name', 'value'); }");
+        runTest("<?php function foo($name) { $value = 1; return $$name; }",
+                "<?php function foo($name) { $value = 1; return $$name; }");
+        runTest("<?php function foo() { $value = 1; include 'a.php'; }",
+                "<?php function foo() { $value = 1; include 'a.php'; }");
+        runTest("<?php function foo() { $value = 1; return new class { public $value; }; }",
+                "<?php function foo() { $value = 1; return new class { public $value; }; }");
+    }
+
+    @Test
+    public void notDeclarationsTest() {
+        final String input = "<?php use function Foo\\bar; $a->function($value); foo(function: $value); interface I { function foo($value); }";
+        runTest(input, input);
+    }
+
+    @Test
+    public void chainedTest() {
+        final OptimizerChain optimizer = new OptimizerChain(EnumSet.of(
+                Optimizer.COMMENTS_OPTIMIZER, Optimizer.MANGLE_OPTIMIZER,
+                Optimizer.SPACES_OPTIMIZER));
+        Assert.assertEquals("<?php\nfunction foo($values){\n\nforeach($values as $a=>$b){\necho $a,$b;\n}\n}",
+                optimizer.optimize("<?php\nfunction foo($values) {\n\t// Prints\n\tforeach ($values as $key => $value) {\n\t\techo $key, $value;\n\t}\n}"));
+    }
+
+    private void runTest(final String input, final String expected) {
+        final OptimizerChain optimizer = new OptimizerChain(EnumSet
+                .of(Optimizer.MANGLE_OPTIMIZER));
+        Assert.assertEquals(expected, optimizer.optimize(input));
+    }
+}
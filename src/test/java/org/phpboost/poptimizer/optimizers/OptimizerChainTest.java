@@ -0,0 +1,33 @@
+package org.phpboost.poptimizer.optimizers;
+
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class OptimizerChainTest {
+    @Test
+    public void profiledOptimizationTest() {
+        final OptimizerChain chain = new OptimizerChain(Optimizer
+                .defaults());
+        final String input = "<?php\n// Comment\n$a  =  1;\n?>";
+        final char[] content = input.toCharArray();
+        final StringBuilder result = new StringBuilder();
+        final ChainProfile profile = new ChainProfile();
+        chain.optimize(content, content.length, result, profile);
+
+        Assert.assertEquals(chain.optimize(input), result.toString());
+        Assert.assertEquals(4, profile.getStageCount());
+        Assert.assertEquals(ChainProfile.LEXER_STAGE, profile.getName(0));
+        Assert.assertEquals("comments", profile.getName(1));
+        Assert.assertEquals("spaces", profile.getName(2));
+        Assert.assertEquals(ChainProfile.PRINTER_STAGE, profile.getName(3));
+        Assert.assertEquals(input.length(), profile.getSizeIn(0));
+        Assert.assertEquals(profile.getSizeOut(0), profile.getSizeIn(1));
+        Assert.assertTrue(profile.getSizeOut(1) < profile.getSizeIn(1));
+        Assert.assertEquals(result.length(), profile.getSizeIn(3));
+        for (int i = 0; i < profile.getStageCount(); i++) {
+            Assert.assertTrue(profile.getTime(i) >= 0);
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package org.phpboost.poptimizer.optimizers;
 
+import java.util.EnumSet;
+
 import junit.framework.Assert;
 
 import org.junit.Test;
@@ -82,9 +84,47 @@ public class SpacesOptimizerTest {
         runTest(input, expected);
     }
 
+    @Test
+    public void aggressiveTest() {
+        runAggressiveTest("<?php\n\tif ($a) {\n\t\techo $a;\n\t}\n\treturn\n\t\t$b;\n?>\n<p>",
+                "<?php\nif($a){echo $a;}return $b;?>\n<p>");
+        // Line comments and heredoc labels must be followed by a line break
+        runAggressiveTest("<?php\n$a = 1; // one\n\n\n$b = 2;",
+                "<?php\n$a=1;// one\n$b=2;");
+        runAggressiveTest("<?php\r\n$a = 1; # one\r\n\r\n$b = 2;",
+                "<?php\r\n$a=1;# one\r\n$b=2;");
+        runAggressiveTest("<?php\n$a = <<<EOT\n  x\nEOT\n\n;\n$b = 1;",
+                "<?php\n$a=<<<EOT\n  x\nEOT\n;$b=1;");
+        runAggressiveTest("<?php\n$a = <<<EOT\n  x\nEOT;\n\n$b = <<<'N'\ny\nN;\n"
+                + "echo $a;", "<?php\n$a=<<<EOT\n  x\nEOT;\n$b=<<<'N'\ny\nN;\n"
+                + "echo $a;");
+        runAggressiveTest("<?php\nf(<<<EOT\nx\nEOT\n, 1);",
+                "<?php\nf(<<<EOT\nx\nEOT\n,1);");
+    }
+
+    @Test
+    public void lineMapTest() {
+        final LineMap lineMap = new LineMap();
+        final StringBuilder result = new StringBuilder();
+        final String input = "<?php\n$a = 1; // one\n\n$b =\n  2;\nfoo();";
+        new OptimizerChain(EnumSet.of(Optimizer.SPACES_AGGRESSIVE_OPTIMIZER))
+                .optimize(input.toCharArray(), input.length(), result, null,
+                        lineMap);
+        Assert.assertEquals("<?php\n$a=1;// one\n$b=2;foo();", result
+                .toString());
+        Assert.assertFalse(lineMap.isIdentity());
+        Assert.assertEquals("0:1\n0:2\n0:4 3:5 5:6", lineMap.toString());
+    }
+
+    private void runAggressiveTest(final String input, final String expected) {
+        final OptimizerChain optimizer = new OptimizerChain(EnumSet
+                .of(Optimizer.SPACES_AGGRESSIVE_OPTIMIZER));
+        Assert.assertEquals(expected, optimizer.optimize(input));
+    }
+
     private void runTest(final String input, final String expected) {
-        final SpacesOptimizer optimizer = new SpacesOptimizer(new NeutralOptimizer(
-                input));
-        Assert.assertEquals(expected, optimizer.optimize());
+        final OptimizerChain optimizer = new OptimizerChain(EnumSet
+                .of(Optimizer.SPACES_OPTIMIZER));
+        Assert.assertEquals(expected, optimizer.optimize(input));
     }
 }
@@ -0,0 +1,71 @@
+package org.phpboost.poptimizer.optimizers;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class StripDebugOptimizerTest {
+    private static final DebugCode DEBUG_CODE = new DebugCode(Arrays.asList(
+            "assert", "Debug::dump", "$logger->debug"), Arrays.asList("DEBUG"));
+
+    @Test
+    public void callsTest() {
+        runTest("<?php assert($a > 0); echo $a;", "<?php  echo $a;");
+        runTest("<?php function f($a) {\n\tDebug::dump($a,\n\t\tarray(1));\n\t$logger->debug('f(' . $a . ')');\n\treturn $a;\n}",
+                "<?php function f($a) {\n\t\n\n\t\n\treturn $a;\n}");
+        runTest("<?php \\assert(true) ?>x<?php \\Debug::DUMP($b);",
+                "<?php ?>x<?php ");
+    }
+
+    @Test
+    public void keptCallsTest() {
+        keptTest("<?php assert($a) or die;");
+        keptTest("<?php if ($a) assert($a); else assert($b);");
+        keptTest("<?php for ($i = 0; assert($i); $i++) {}");
+        keptTest("<?php $this->assert($a); $b->debug($a); $logger->debug->x();");
+        keptTest("<?php $a = $b ? $c : assert($d);");
+        keptTest("<?= assert($a) ?>");
+    }
+
+    @Test
+    public void falseBlocksTest() {
+        runTest("<?php if (false) { echo 'a'; }\necho 'b';", "<?php \necho 'b';");
+        runTest("<?php if (DEBUG) {\n\tif ($a) { echo $a; }\n} else { echo 'b'; }",
+                "<?php \n\n { echo 'b'; }");
+        runTest("<?php if (false) { a(); } elseif (DEBUG) { b(); } elseif ($c) { c(); }",
+                "<?php if ($c) { c(); }");
+        runTest("<?php while ($a) { if (FALSE) { a(); } assert($a); }",
+                "<?php while ($a) {  }");
+    }
+
+    @Test
+    public void keptBlocksTest() {
+        keptTest("<?php if (true) { a(); }");
+        keptTest("<?php if (false || $a) { a(); }");
+        keptTest("<?php if (RELEASE) { a(); }");
+        keptTest("<?php if (false) a();");
+        keptTest("<?php if (false): a(); endif;");
+        keptTest("<?php if ($a) {} else if (false) { a(); }");
+    }
+
+    @Test
+    public void defaultTest() {
+        final OptimizerChain optimizer = new OptimizerChain(EnumSet
+                .of(Optimizer.STRIP_DEBUG_OPTIMIZER));
+        Assert.assertEquals("<?php  Debug::dump($a); if (DEBUG) { a(); }",
+                optimizer.optimize("<?php assert($a); Debug::dump($a); if (DEBUG) { a(); }"));
+    }
+
+    private static void keptTest(final String input) {
+        runTest(input, input);
+    }
+
+    private static void runTest(final String input, final String expected) {
+        final OptimizerChain optimizer = new OptimizerChain(EnumSet
+                .of(Optimizer.STRIP_DEBUG_OPTIMIZER), DEBUG_CODE);
+        Assert.assertEquals(expected, optimizer.optimize(input));
+    }
+}